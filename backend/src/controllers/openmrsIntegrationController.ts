@@ -5,12 +5,63 @@ import mongoose from 'mongoose';
 import openmrsIntegrationService from '@/services/openmrsIntegrationService';
 import Patient from '@/models/Patient';
 import AuditLog from '@/models/AuditLog';
+import ObservationReceipt from '@/models/ObservationReceipt';
 
 /**
  * OpenMRS Integration Controller
  * Handles API endpoints for OpenMRS to communicate with Patient Passport
  */
 
+type StoreOnceOutcome = {
+  // The key was already stored (or is being stored) by an earlier request
+  duplicate: boolean;
+  inProgress?: boolean;
+  result?: any;
+  medicalRecordId?: any;
+};
+
+/**
+ * Store an observation at most once per idempotency key. OpenMRS resends an observation
+ * whose response it did not get (e.g. after a timeout), so a resend must not store it again.
+ * Observations without a key are always stored.
+ */
+const storeOnce = async (idempotencyKey: string | undefined, store: () => Promise<any>): Promise<StoreOnceOutcome> => {
+  if (!idempotencyKey) {
+    const result = await store();
+    return { duplicate: false, result, medicalRecordId: result?.medicalRecord?._id };
+  }
+
+  const receipt = await ObservationReceipt.claim(idempotencyKey);
+  if (receipt) {
+    return { duplicate: true, inProgress: receipt.status !== 'stored', medicalRecordId: receipt.medicalRecordId };
+  }
+
+  let result;
+  try {
+    result = await store();
+  } catch (error) {
+    await ObservationReceipt.release(idempotencyKey);
+    throw error;
+  }
+  await ObservationReceipt.complete(idempotencyKey, result?.medicalRecord?._id);
+  return { duplicate: false, result, medicalRecordId: result?.medicalRecord?._id };
+};
+
+/**
+ * Per-item result of a batch or encounter for a storeOnce outcome
+ */
+const itemResult = (index: number, outcome: StoreOnceOutcome) => {
+  if (outcome.inProgress) {
+    return { index, success: false, message: 'Still being stored by an earlier request' };
+  }
+  return {
+    index,
+    success: true,
+    message: outcome.duplicate ? 'Already stored' : 'Stored',
+    medicalRecordId: outcome.medicalRecordId
+  };
+};
+
 // @desc    Get patient observations (diagnosis & medications) for OpenMRS
 // @route   GET /api/openmrs/patient/:patientName/observations
 // @access  Public (OpenMRS API key required)
@@ -205,13 +256,30 @@ export const storeObservationFromOpenMRS = asyncHandler(async (req: Request, res
     throw new CustomError('Observation type must be either "diagnosis" or "medication"', 400);
   }
 
-  const result = await openmrsIntegrationService.storeOpenMRSObservation(
+  const idempotencyKey = req.get('Idempotency-Key') || observationData.idempotencyKey;
+  const outcome = await storeOnce(idempotencyKey, () => openmrsIntegrationService.storeOpenMRSObservation(
     patientName,
     observationType,
     observationData,
     doctorLicenseNumber,
     hospitalName
-  );
+  ));
+
+  if (outcome.inProgress) {
+    throw new CustomError('This observation is still being stored by an earlier request', 409);
+  }
+
+  if (outcome.duplicate) {
+    console.log(`↩️ Observation ${idempotencyKey} already stored - not storing it again`);
+    res.json({
+      success: true,
+      message: 'Observation already stored in passport',
+      data: { duplicate: true, medicalRecordId: outcome.medicalRecordId }
+    });
+    return;
+  }
+
+  const result = outcome.result;
 
   // Extract MedicalRecord from the result (legacy models no longer created)
   const medicalRecord = result.medicalRecord;
@@ -251,6 +319,195 @@ export const storeObservationFromOpenMRS = asyncHandler(async (req: Request, res
   res.json(response);
 });
 
+// @desc    Store a batch of observations from OpenMRS to passport
+// @route   POST /api/openmrs/observation/store/batch
+// @access  Public (OpenMRS API key required)
+// Items are stored in order; the response reports success or failure per item
+export const storeObservationBatchFromOpenMRS = asyncHandler(async (req: Request, res: Response, next: NextFunction) => {
+  const { observations } = req.body;
+
+  if (!Array.isArray(observations) || observations.length === 0) {
+    throw new CustomError('observations must be a non-empty array', 400);
+  }
+
+  if (observations.length > 500) {
+    throw new CustomError('A batch may contain at most 500 observations', 400);
+  }
+
+  console.log(`💾 Storing batch of ${observations.length} observations from OpenMRS`);
+
+  const results: Array<{ index: number; success: boolean; message: string; medicalRecordId?: any }> = [];
+
+  for (let index = 0; index < observations.length; index++) {
+    const {
+      patientName,
+      observationType,
+      observationData,
+      doctorLicenseNumber,
+      hospitalName
+    } = observations[index] || {};
+
+    if (!patientName || !observationType || !observationData || !doctorLicenseNumber || !hospitalName) {
+      results.push({ index, success: false, message: 'All fields are required: patientName, observationType, observationData, doctorLicenseNumber, hospitalName' });
+      continue;
+    }
+
+    if (!['diagnosis', 'medication'].includes(observationType)) {
+      results.push({ index, success: false, message: 'Observation type must be either "diagnosis" or "medication"' });
+      continue;
+    }
+
+    try {
+      const outcome = await storeOnce(observationData.idempotencyKey, () => openmrsIntegrationService.storeOpenMRSObservation(
+        patientName,
+        observationType,
+        observationData,
+        doctorLicenseNumber,
+        hospitalName
+      ));
+      results.push(itemResult(index, outcome));
+    } catch (error: any) {
+      results.push({ index, success: false, message: error?.message || 'Failed to store observation' });
+    }
+  }
+
+  const stored = results.filter(r => r.success).length;
+  console.log(`✅ Batch stored: ${stored}/${observations.length} observations`);
+
+  // Log the sync once per batch
+  try {
+    await AuditLog.create({
+      action: 'openmrs_data_sync',
+      performedBy: 'OpenMRS System',
+      targetModel: 'MedicalRecord',
+      changes: {
+        batchSize: observations.length,
+        stored,
+        failed: observations.length - stored,
+        medicalRecordIds: results.filter(r => r.success).map(r => r.medicalRecordId)
+      },
+      ipAddress: req.ip,
+      userAgent: req.get('user-agent')
+    });
+  } catch (logError) {
+    console.error('Error creating audit log:', logError);
+  }
+
+  const response: ApiResponse = {
+    success: true,
+    message: `${stored} of ${observations.length} observations stored in passport`,
+    data: {
+      total: observations.length,
+      stored,
+      failed: observations.length - stored,
+      results
+    }
+  };
+
+  res.json(response);
+});
+
+// @desc    Store all observations of an OpenMRS encounter in passport
+// @route   POST /api/openmrs/encounter/store
+// @access  Public (OpenMRS API key required)
+// Patient, hospital and doctor are sent once; vitals are stored as diagnosis records
+export const storeEncounterFromOpenMRS = asyncHandler(async (req: Request, res: Response, next: NextFunction) => {
+  const {
+    patientName,
+    doctorLicenseNumber,
+    hospitalName,
+    encounterUuid,
+    encounterType,
+    diagnoses = [],
+    medications = [],
+    vitals = []
+  } = req.body;
+
+  if (!patientName || !doctorLicenseNumber || !hospitalName) {
+    throw new CustomError('All fields are required: patientName, doctorLicenseNumber, hospitalName', 400);
+  }
+
+  if (!Array.isArray(diagnoses) || !Array.isArray(medications) || !Array.isArray(vitals)) {
+    throw new CustomError('diagnoses, medications and vitals must be arrays', 400);
+  }
+
+  const items: Array<{ section: string; observationType: 'diagnosis' | 'medication'; observationData: any }> = [
+    ...diagnoses.map((observationData: any) => ({ section: 'diagnoses', observationType: 'diagnosis' as const, observationData })),
+    ...medications.map((observationData: any) => ({ section: 'medications', observationType: 'medication' as const, observationData })),
+    ...vitals.map((observationData: any) => ({ section: 'vitals', observationType: 'diagnosis' as const, observationData }))
+  ];
+
+  if (items.length > 500) {
+    throw new CustomError('An encounter may contain at most 500 observations', 400);
+  }
+
+  console.log(`💾 Storing encounter ${encounterUuid || ''} (${encounterType || 'unknown type'}) with ${items.length} observations from OpenMRS`);
+
+  const results: Array<{ section: string; index: number; success: boolean; message: string; medicalRecordId?: any }> = [];
+
+  for (let index = 0; index < items.length; index++) {
+    const { section, observationType, observationData } = items[index];
+
+    if (!observationData) {
+      results.push({ section, index, success: false, message: 'observationData is required' });
+      continue;
+    }
+
+    try {
+      const outcome = await storeOnce(observationData.idempotencyKey, () => openmrsIntegrationService.storeOpenMRSObservation(
+        patientName,
+        observationType,
+        observationData,
+        doctorLicenseNumber,
+        hospitalName
+      ));
+      results.push({ section, ...itemResult(index, outcome) });
+    } catch (error: any) {
+      results.push({ section, index, success: false, message: error?.message || 'Failed to store observation' });
+    }
+  }
+
+  const stored = results.filter(r => r.success).length;
+  console.log(`✅ Encounter stored: ${stored}/${items.length} observations`);
+
+  // Log the sync once per encounter
+  try {
+    await AuditLog.create({
+      action: 'openmrs_data_sync',
+      performedBy: 'OpenMRS System',
+      targetModel: 'MedicalRecord',
+      changes: {
+        patientName,
+        encounterUuid,
+        encounterType,
+        doctorLicenseNumber,
+        hospitalName,
+        stored,
+        failed: items.length - stored,
+        medicalRecordIds: results.filter(r => r.success).map(r => r.medicalRecordId)
+      },
+      ipAddress: req.ip,
+      userAgent: req.get('user-agent')
+    });
+  } catch (logError) {
+    console.error('Error creating audit log:', logError);
+  }
+
+  const response: ApiResponse = {
+    success: true,
+    message: `${stored} of ${items.length} encounter observations stored in passport`,
+    data: {
+      encounterUuid,
+      total: items.length,
+      stored,
+      failed: items.length - stored,
+      results
+    }
+  };
+
+  res.json(response);
+});
+
 // @desc    Get full patient passport data for OpenMRS
 // @route   GET /api/openmrs/patient/:patientName/passport
 // @access  Public (OpenMRS API key required)
@@ -357,6 +614,8 @@ export default {
   getPatientByOpenmrsUuid,
   syncDoctorMapping,
   storeObservationFromOpenMRS,
+  storeObservationBatchFromOpenMRS,
+  storeEncounterFromOpenMRS,
   getPatientPassportForOpenMRS,
   openmrsHealthCheck
 };
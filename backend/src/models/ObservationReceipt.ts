@@ -0,0 +1,84 @@
+import mongoose, { Schema } from 'mongoose';
+
+/**
+ * Idempotency keys of observations received from OpenMRS.
+ * The OpenMRS module sends each observation with a key (Idempotency-Key header and
+ * observationData.idempotencyKey) and resends it after a timeout or failure; the receipt
+ * lets a resend of an observation that was already stored be answered without storing it again.
+ */
+export interface IObservationReceipt {
+  _id: string;
+  idempotencyKey: string;
+  status: 'pending' | 'stored';
+  medicalRecordId?: mongoose.Types.ObjectId;
+  createdAt: Date;
+  updatedAt: Date;
+}
+
+// A pending receipt older than this was left by a request that died while storing; a resend takes it over
+const PENDING_TIMEOUT_MS = 2 * 60 * 1000;
+
+const observationReceiptSchema = new Schema<IObservationReceipt>({
+  idempotencyKey: {
+    type: String,
+    required: [true, 'Idempotency key is required'],
+    unique: true,
+    trim: true
+  },
+  status: {
+    type: String,
+    enum: ['pending', 'stored'],
+    default: 'pending'
+  },
+  medicalRecordId: {
+    type: Schema.Types.ObjectId,
+    ref: 'MedicalRecord'
+  }
+}, {
+  timestamps: true
+});
+
+// Receipts are kept for 90 days; the module stops resending an observation once it is acknowledged
+observationReceiptSchema.index({ createdAt: 1 }, { expireAfterSeconds: 90 * 24 * 60 * 60 });
+
+// Static method to claim a key before storing its observation.
+// Returns null when the caller may store it, or the receipt of the request that stored or is storing it
+observationReceiptSchema.statics.claim = async function(idempotencyKey: string) {
+  try {
+    await this.create({ idempotencyKey });
+    return null;
+  } catch (error: any) {
+    if (error?.code !== 11000) {
+      throw error;
+    }
+  }
+
+  const taken = await this.findOneAndUpdate(
+    { idempotencyKey, status: 'pending', updatedAt: { $lt: new Date(Date.now() - PENDING_TIMEOUT_MS) } },
+    { $set: { status: 'pending' } },
+    { new: true }
+  );
+  if (taken) {
+    return null;
+  }
+  return this.findOne({ idempotencyKey });
+};
+
+// Static method to record the stored observation against a claimed key
+observationReceiptSchema.statics.complete = function(idempotencyKey: string, medicalRecordId?: any) {
+  return this.updateOne({ idempotencyKey }, { $set: { status: 'stored', medicalRecordId } });
+};
+
+// Static method to give a claimed key up after storing failed, so a resend can store it
+observationReceiptSchema.statics.release = function(idempotencyKey: string) {
+  return this.deleteOne({ idempotencyKey, status: 'pending' });
+};
+
+// Define the interface for static methods
+interface IObservationReceiptModel extends mongoose.Model<IObservationReceipt> {
+  claim(idempotencyKey: string): Promise<IObservationReceipt | null>;
+  complete(idempotencyKey: string, medicalRecordId?: any): Promise<any>;
+  release(idempotencyKey: string): Promise<any>;
+}
+
+export default mongoose.model<IObservationReceipt, IObservationReceiptModel>('ObservationReceipt', observationReceiptSchema);
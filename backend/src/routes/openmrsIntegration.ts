@@ -29,5 +29,7 @@ router.post('/doctor/sync', openmrsIntegrationController.syncDoctorMapping);
 
 // Store observation from OpenMRS to passport (NEW: Doctors add data in OpenMRS → flows to Passport)
 router.post('/observation/store', openmrsIntegrationController.storeObservationFromOpenMRS);
+router.post('/observation/store/batch', openmrsIntegrationController.storeObservationBatchFromOpenMRS);
+router.post('/encounter/store', openmrsIntegrationController.storeEncounterFromOpenMRS);
 
 export default router;
@@ -4,6 +4,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 
+import java.util.List;
+
 /**
  * Configuration utility for Patient Passport module
  * Manages settings from OpenMRS global properties
@@ -16,10 +18,90 @@ public class PatientPassportConfig {
     private static final String API_BASE_URL_PROPERTY = "patientpassport.api.baseUrl";
     private static final String FRONTEND_URL_PROPERTY = "patientpassport.frontend.url";
     private static final String SYNC_ENABLED_PROPERTY = "patientpassport.sync.enabled";
+    private static final String OUTBOX_POLL_INTERVAL_PROPERTY = "patientpassport.sync.outbox.pollIntervalMs";
+    private static final String OUTBOX_BATCH_SIZE_PROPERTY = "patientpassport.sync.outbox.batchSize";
+    private static final String OUTBOX_MAX_ATTEMPTS_PROPERTY = "patientpassport.sync.outbox.maxAttempts";
+    private static final String SYNC_WORKERS_PROPERTY = "patientpassport.sync.executor.workers";
+    private static final String SYNC_QUEUE_CAPACITY_PROPERTY = "patientpassport.sync.executor.queueCapacity";
+    private static final String SYNC_OVERFLOW_POLICY_PROPERTY = "patientpassport.sync.executor.overflowPolicy";
+    private static final String SYNC_BATCH_ENABLED_PROPERTY = "patientpassport.sync.batch.enabled";
+    private static final String SYNC_BATCH_MAX_SIZE_PROPERTY = "patientpassport.sync.batch.maxSize";
+    private static final String SYNC_BATCH_WINDOW_PROPERTY = "patientpassport.sync.batch.windowMs";
+    private static final String SYNC_DEDUP_ENABLED_PROPERTY = "patientpassport.sync.dedup.enabled";
+    private static final String SYNC_DEDUP_CACHE_SIZE_PROPERTY = "patientpassport.sync.dedup.cacheSize";
+    private static final String SYNC_DEDUP_EXPECTED_KEYS_PROPERTY = "patientpassport.sync.dedup.expectedKeys";
+    private static final String SYNC_DEDUP_RETENTION_DAYS_PROPERTY = "patientpassport.sync.dedup.retentionDays";
+    private static final String SYNC_ADAPTIVE_ENABLED_PROPERTY = "patientpassport.sync.adaptive.enabled";
+    private static final String SYNC_ADAPTIVE_MIN_PROPERTY = "patientpassport.sync.adaptive.minConcurrency";
+    private static final String SYNC_ADAPTIVE_MAX_PROPERTY = "patientpassport.sync.adaptive.maxConcurrency";
+    private static final String SYNC_PRIORITY_MAX_WAIT_PROPERTY = "patientpassport.sync.priority.maxWaitMs";
+    private static final String SYNC_CAPTURE_MODE_PROPERTY = "patientpassport.sync.captureMode";
+    private static final String SYNC_TRANSPORT_MODE_PROPERTY = "patientpassport.sync.transportMode";
+    private static final String SYNC_ASYNC_IO_THREADS_PROPERTY = "patientpassport.sync.async.ioThreads";
+    private static final String SYNC_ASYNC_MAX_IN_FLIGHT_PROPERTY = "patientpassport.sync.async.maxInFlight";
+    private static final String CDC_POLL_INTERVAL_PROPERTY = "patientpassport.sync.cdc.pollIntervalMs";
+    private static final String CDC_PAGE_SIZE_PROPERTY = "patientpassport.sync.cdc.pageSize";
+    private static final String CDC_SETTLE_PROPERTY = "patientpassport.sync.cdc.settleMs";
+    private static final String BACKFILL_THREADS_PROPERTY = "patientpassport.backfill.threads";
+    private static final String BACKFILL_PAGE_SIZE_PROPERTY = "patientpassport.backfill.pageSize";
+    private static final String BACKFILL_MAX_PENDING_PROPERTY = "patientpassport.backfill.maxPendingRows";
+    private static final String CLASSIFIER_RULES_PROPERTY = "patientpassport.classifier.rules";
+    private static final String LOG_SAMPLING_PROPERTY = "patientpassport.log.sampling";
+    private static final String LOG_VERBOSE_PROPERTY = "patientpassport.log.verbose";
+    private static final String API_MAX_RETRY_ATTEMPTS_PROPERTY = "patientpassport.api.maxRetryAttempts";
+    private static final String API_RETRY_BASE_DELAY_PROPERTY = "patientpassport.api.retry.baseDelayMs";
+    private static final String API_RETRY_MAX_DELAY_PROPERTY = "patientpassport.api.retry.maxDelayMs";
+    private static final String API_RETRY_BUDGET_PROPERTY = "patientpassport.api.retry.budgetPercent";
+    private static final String API_BREAKER_THRESHOLD_PROPERTY = "patientpassport.api.breaker.failureThreshold";
+    private static final String API_BREAKER_OPEN_PROPERTY = "patientpassport.api.breaker.openMs";
+    private static final String API_TIMEOUT_PROPERTY = "patientpassport.api.timeout";
+    private static final String API_POOL_MAX_TOTAL_PROPERTY = "patientpassport.api.pool.maxTotal";
+    private static final String API_POOL_MAX_PER_ROUTE_PROPERTY = "patientpassport.api.pool.maxPerRoute";
+    private static final String API_POOL_KEEP_ALIVE_PROPERTY = "patientpassport.api.pool.keepAliveMs";
+    
+    private static final String SQL_LEVEL_ACCESS_PRIVILEGE = "SQL Level Access";
+    
+    // Row seeded in patientpassport_config by insertDefaultConfig
+    private static final String MAX_RETRY_ATTEMPTS_CONFIG_KEY = "max_retry_attempts";
     
     // Default values
     private static final String DEFAULT_API_URL = "http://localhost:5000/api";
     private static final String DEFAULT_FRONTEND_URL = "https://patient-passpo.netlify.app/";
+    private static final int DEFAULT_OUTBOX_POLL_INTERVAL_MS = 2000;
+    private static final int DEFAULT_OUTBOX_BATCH_SIZE = 200;
+    private static final int DEFAULT_OUTBOX_MAX_ATTEMPTS = 10;
+    private static final int DEFAULT_SYNC_WORKERS = 4;
+    private static final int DEFAULT_SYNC_QUEUE_CAPACITY = 1000;
+    private static final String DEFAULT_SYNC_OVERFLOW_POLICY = "SPILL";
+    private static final int DEFAULT_SYNC_BATCH_MAX_SIZE = 50;
+    private static final int DEFAULT_SYNC_BATCH_WINDOW_MS = 200;
+    private static final int DEFAULT_SYNC_DEDUP_CACHE_SIZE = 10000;
+    private static final int DEFAULT_SYNC_DEDUP_EXPECTED_KEYS = 1000000;
+    private static final int DEFAULT_SYNC_DEDUP_RETENTION_DAYS = 180;
+    private static final int DEFAULT_SYNC_ADAPTIVE_MIN = 1;
+    private static final int DEFAULT_SYNC_ADAPTIVE_MAX = 32;
+    private static final int DEFAULT_SYNC_PRIORITY_MAX_WAIT_MS = 10000;
+    private static final String DEFAULT_SYNC_CAPTURE_MODE = "INTERCEPT";
+    private static final String DEFAULT_SYNC_TRANSPORT_MODE = "BLOCKING";
+    private static final int DEFAULT_SYNC_ASYNC_IO_THREADS = 2;
+    private static final int DEFAULT_SYNC_ASYNC_MAX_IN_FLIGHT = 256;
+    private static final int DEFAULT_CDC_POLL_INTERVAL_MS = 5000;
+    private static final int DEFAULT_CDC_PAGE_SIZE = 1000;
+    private static final int DEFAULT_CDC_SETTLE_MS = 10000;
+    private static final int DEFAULT_BACKFILL_THREADS = 4;
+    private static final int DEFAULT_BACKFILL_PAGE_SIZE = 500;
+    private static final int DEFAULT_BACKFILL_MAX_PENDING = 5000;
+    private static final String DEFAULT_LOG_SAMPLING = "save=0.01,send=0.01,payload=0.01,*=1";
+    private static final int DEFAULT_API_MAX_RETRY_ATTEMPTS = 3;
+    private static final int DEFAULT_API_RETRY_BASE_DELAY_MS = 200;
+    private static final int DEFAULT_API_RETRY_MAX_DELAY_MS = 5000;
+    private static final int DEFAULT_API_RETRY_BUDGET_PERCENT = 20;
+    private static final int DEFAULT_API_BREAKER_THRESHOLD = 5;
+    private static final int DEFAULT_API_BREAKER_OPEN_MS = 30000;
+    private static final int DEFAULT_API_TIMEOUT_MS = 30000;
+    private static final int DEFAULT_API_POOL_MAX_TOTAL = 64;
+    private static final int DEFAULT_API_POOL_MAX_PER_ROUTE = 32;
+    private static final int DEFAULT_API_POOL_KEEP_ALIVE_MS = 30000;
     
     /**
      * Gets the Patient Passport API base URL
@@ -37,7 +119,7 @@ public class PatientPassportConfig {
                 url = url.substring(0, url.length() - 1);
             }
             
-            log.info("Using Patient Passport API URL: " + url);
+            log.debug("Using Patient Passport API URL: " + url);
             return url;
             
         } catch (Exception e) {
@@ -88,6 +170,355 @@ public class PatientPassportConfig {
         }
     }
     
+    /**
+     * Gets the delay between sync outbox polls in milliseconds
+     */
+    public int getOutboxPollIntervalMs() {
+        return getPositiveIntProperty(OUTBOX_POLL_INTERVAL_PROPERTY, DEFAULT_OUTBOX_POLL_INTERVAL_MS);
+    }
+    
+    /**
+     * Gets the maximum number of outbox rows claimed per poll
+     */
+    public int getOutboxBatchSize() {
+        return getPositiveIntProperty(OUTBOX_BATCH_SIZE_PROPERTY, DEFAULT_OUTBOX_BATCH_SIZE);
+    }
+    
+    /**
+     * Gets the number of delivery attempts before an outbox row is marked FAILED
+     */
+    public int getOutboxMaxAttempts() {
+        return getPositiveIntProperty(OUTBOX_MAX_ATTEMPTS_PROPERTY, DEFAULT_OUTBOX_MAX_ATTEMPTS);
+    }
+    
+    /**
+     * Gets the number of sync worker threads
+     */
+    public int getSyncWorkers() {
+        return getPositiveIntProperty(SYNC_WORKERS_PROPERTY, DEFAULT_SYNC_WORKERS);
+    }
+    
+    /**
+     * Gets the capacity of the sync executor queue
+     */
+    public int getSyncQueueCapacity() {
+        return getPositiveIntProperty(SYNC_QUEUE_CAPACITY_PROPERTY, DEFAULT_SYNC_QUEUE_CAPACITY);
+    }
+    
+    /**
+     * Gets the sync executor overflow policy (SPILL, CALLER_RUNS or DROP_LOW_PRIORITY)
+     */
+    public String getSyncOverflowPolicy() {
+        try {
+            String policy = Context.getAdministrationService().getGlobalProperty(SYNC_OVERFLOW_POLICY_PROPERTY);
+            return policy == null || policy.trim().isEmpty() ? DEFAULT_SYNC_OVERFLOW_POLICY : policy.trim();
+        } catch (Exception e) {
+            log.warn("Error reading sync overflow policy, using default: " + e.getMessage());
+            return DEFAULT_SYNC_OVERFLOW_POLICY;
+        }
+    }
+    
+    /**
+     * Checks if observations are sent to Patient Passport in batches
+     */
+    public boolean isSyncBatchEnabled() {
+        try {
+            String enabled = Context.getAdministrationService().getGlobalProperty(SYNC_BATCH_ENABLED_PROPERTY);
+            return enabled == null || enabled.trim().isEmpty() || "true".equalsIgnoreCase(enabled.trim());
+        } catch (Exception e) {
+            log.warn("Error reading sync batch setting, defaulting to enabled: " + e.getMessage());
+            return true;
+        }
+    }
+    
+    /**
+     * Gets the maximum number of observations sent in one batch request
+     */
+    public int getSyncBatchMaxSize() {
+        return getPositiveIntProperty(SYNC_BATCH_MAX_SIZE_PROPERTY, DEFAULT_SYNC_BATCH_MAX_SIZE);
+    }
+    
+    /**
+     * Gets how long a partial batch may wait for more observations, in milliseconds
+     */
+    public int getSyncBatchWindowMs() {
+        return getPositiveIntProperty(SYNC_BATCH_WINDOW_PROPERTY, DEFAULT_SYNC_BATCH_WINDOW_MS);
+    }
+    
+    /**
+     * Checks if sends already acknowledged by Patient Passport are skipped
+     */
+    public boolean isSyncDedupEnabled() {
+        try {
+            String enabled = Context.getAdministrationService().getGlobalProperty(SYNC_DEDUP_ENABLED_PROPERTY);
+            return enabled == null || enabled.trim().isEmpty() || "true".equalsIgnoreCase(enabled.trim());
+        } catch (Exception e) {
+            log.warn("Error reading sync dedup setting, defaulting to enabled: " + e.getMessage());
+            return true;
+        }
+    }
+    
+    /**
+     * Gets the number of acknowledged idempotency keys kept in the in-memory LRU cache
+     */
+    public int getSyncDedupCacheSize() {
+        return getPositiveIntProperty(SYNC_DEDUP_CACHE_SIZE_PROPERTY, DEFAULT_SYNC_DEDUP_CACHE_SIZE);
+    }
+    
+    /**
+     * Gets the least number of acknowledged keys the bloom filter is sized for
+     */
+    public int getSyncDedupExpectedKeys() {
+        return getPositiveIntProperty(SYNC_DEDUP_EXPECTED_KEYS_PROPERTY, DEFAULT_SYNC_DEDUP_EXPECTED_KEYS);
+    }
+    
+    /**
+     * Gets how many days acknowledged idempotency keys are kept before they are purged
+     */
+    public int getSyncDedupRetentionDays() {
+        return getPositiveIntProperty(SYNC_DEDUP_RETENTION_DAYS_PROPERTY, DEFAULT_SYNC_DEDUP_RETENTION_DAYS);
+    }
+    
+    /**
+     * Checks if the number of concurrent Patient Passport calls adapts to the API's latency
+     */
+    public boolean isSyncAdaptiveConcurrencyEnabled() {
+        try {
+            String enabled = Context.getAdministrationService().getGlobalProperty(SYNC_ADAPTIVE_ENABLED_PROPERTY);
+            return enabled == null || enabled.trim().isEmpty() || "true".equalsIgnoreCase(enabled.trim());
+        } catch (Exception e) {
+            log.warn("Error reading adaptive concurrency setting, defaulting to enabled: " + e.getMessage());
+            return true;
+        }
+    }
+    
+    /**
+     * Gets the lowest concurrency limit the adaptive limiter may back off to
+     */
+    public int getSyncAdaptiveMinConcurrency() {
+        return getPositiveIntProperty(SYNC_ADAPTIVE_MIN_PROPERTY, DEFAULT_SYNC_ADAPTIVE_MIN);
+    }
+    
+    /**
+     * Gets the highest concurrency limit the adaptive limiter may grow to
+     */
+    public int getSyncAdaptiveMaxConcurrency() {
+        return getPositiveIntProperty(SYNC_ADAPTIVE_MAX_PROPERTY, DEFAULT_SYNC_ADAPTIVE_MAX);
+    }
+    
+    /**
+     * Gets how long lower-priority work may wait before it is served ahead of higher-priority work
+     */
+    public int getSyncPriorityMaxWaitMs() {
+        return getPositiveIntProperty(SYNC_PRIORITY_MAX_WAIT_PROPERTY, DEFAULT_SYNC_PRIORITY_MAX_WAIT_MS);
+    }
+    
+    /**
+     * Gets how new observations are captured for sync (INTERCEPT or CDC)
+     */
+    public String getSyncCaptureMode() {
+        try {
+            String mode = Context.getAdministrationService().getGlobalProperty(SYNC_CAPTURE_MODE_PROPERTY);
+            return mode == null || mode.trim().isEmpty() ? DEFAULT_SYNC_CAPTURE_MODE : mode.trim();
+        } catch (Exception e) {
+            log.warn("Error reading sync capture mode, using default: " + e.getMessage());
+            return DEFAULT_SYNC_CAPTURE_MODE;
+        }
+    }
+    
+    /**
+     * Gets how the sync pipeline sends observations (BLOCKING or ASYNC)
+     */
+    public String getSyncTransportMode() {
+        try {
+            String mode = Context.getAdministrationService().getGlobalProperty(SYNC_TRANSPORT_MODE_PROPERTY);
+            return mode == null || mode.trim().isEmpty() ? DEFAULT_SYNC_TRANSPORT_MODE : mode.trim();
+        } catch (Exception e) {
+            log.warn("Error reading sync transport mode, using default: " + e.getMessage());
+            return DEFAULT_SYNC_TRANSPORT_MODE;
+        }
+    }
+    
+    /**
+     * Gets the number of I/O threads of the asynchronous HTTP client
+     */
+    public int getSyncAsyncIoThreads() {
+        return getPositiveIntProperty(SYNC_ASYNC_IO_THREADS_PROPERTY, DEFAULT_SYNC_ASYNC_IO_THREADS);
+    }
+    
+    /**
+     * Gets the maximum number of sends in flight at once in ASYNC transport mode
+     */
+    public int getSyncAsyncMaxInFlight() {
+        return getPositiveIntProperty(SYNC_ASYNC_MAX_IN_FLIGHT_PROPERTY, DEFAULT_SYNC_ASYNC_MAX_IN_FLIGHT);
+    }
+    
+    /**
+     * Gets the interval between scans of the obs table in CDC mode
+     */
+    public int getCdcPollIntervalMs() {
+        return getPositiveIntProperty(CDC_POLL_INTERVAL_PROPERTY, DEFAULT_CDC_POLL_INTERVAL_MS);
+    }
+    
+    /**
+     * Gets the number of obs rows read per page in CDC mode
+     */
+    public int getCdcPageSize() {
+        return getPositiveIntProperty(CDC_PAGE_SIZE_PROPERTY, DEFAULT_CDC_PAGE_SIZE);
+    }
+    
+    /**
+     * Gets how old an obs row must be before the CDC scanner moves its watermark past it
+     */
+    public int getCdcSettleMs() {
+        return getPositiveIntProperty(CDC_SETTLE_PROPERTY, DEFAULT_CDC_SETTLE_MS);
+    }
+    
+    /**
+     * Gets the number of threads (and obs_id partitions) used by the observation backfill
+     */
+    public int getBackfillThreads() {
+        return getPositiveIntProperty(BACKFILL_THREADS_PROPERTY, DEFAULT_BACKFILL_THREADS);
+    }
+    
+    /**
+     * Gets the number of observations the backfill queues per page
+     */
+    public int getBackfillPageSize() {
+        return getPositiveIntProperty(BACKFILL_PAGE_SIZE_PROPERTY, DEFAULT_BACKFILL_PAGE_SIZE);
+    }
+    
+    /**
+     * Gets the number of PENDING outbox rows above which the backfill waits for the dispatcher
+     */
+    public int getBackfillMaxPendingRows() {
+        return getPositiveIntProperty(BACKFILL_MAX_PENDING_PROPERTY, DEFAULT_BACKFILL_MAX_PENDING);
+    }
+    
+    /**
+     * Gets the observation classification rule table; empty means the built-in rules,
+     * null means the property could not be read
+     */
+    public String getClassifierRules() {
+        try {
+            String rules = Context.getAdministrationService().getGlobalProperty(CLASSIFIER_RULES_PROPERTY);
+            return rules == null ? "" : rules.trim();
+        } catch (Exception e) {
+            log.warn("Error reading classifier rules: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Gets the per-category sample rates of sync log events, e.g. save=0.01,send=0.05,*=1
+     */
+    public String getLogSampling() {
+        try {
+            String sampling = Context.getAdministrationService().getGlobalProperty(LOG_SAMPLING_PROPERTY);
+            return sampling == null || sampling.trim().isEmpty() ? DEFAULT_LOG_SAMPLING : sampling.trim();
+        } catch (Exception e) {
+            log.warn("Error reading log sampling, using default: " + e.getMessage());
+            return DEFAULT_LOG_SAMPLING;
+        }
+    }
+    
+    /**
+     * Checks whether every sync log event, including verbose detail, is written
+     */
+    public boolean isLogVerbose() {
+        try {
+            String verbose = Context.getAdministrationService().getGlobalProperty(LOG_VERBOSE_PROPERTY);
+            return verbose != null && "true".equalsIgnoreCase(verbose.trim());
+        } catch (Exception e) {
+            log.warn("Error reading log verbose setting, defaulting to disabled: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the number of retries after a failed Patient Passport API call.
+     * The global property wins; otherwise the max_retry_attempts row in patientpassport_config is used.
+     */
+    public int getApiMaxRetryAttempts() {
+        try {
+            String value = Context.getAdministrationService().getGlobalProperty(API_MAX_RETRY_ATTEMPTS_PROPERTY);
+            if (value == null || value.trim().isEmpty()) {
+                value = getModuleConfigValue(MAX_RETRY_ATTEMPTS_CONFIG_KEY);
+            }
+            if (value == null || value.trim().isEmpty()) {
+                return DEFAULT_API_MAX_RETRY_ATTEMPTS;
+            }
+            int parsed = Integer.parseInt(value.trim());
+            return parsed >= 0 ? parsed : DEFAULT_API_MAX_RETRY_ATTEMPTS;
+        } catch (Exception e) {
+            log.warn("Invalid max retry attempts, using default " + DEFAULT_API_MAX_RETRY_ATTEMPTS + ": " + e.getMessage());
+            return DEFAULT_API_MAX_RETRY_ATTEMPTS;
+        }
+    }
+    
+    /**
+     * Gets the backoff before the first retry in milliseconds; later retries double it
+     */
+    public int getApiRetryBaseDelayMs() {
+        return getPositiveIntProperty(API_RETRY_BASE_DELAY_PROPERTY, DEFAULT_API_RETRY_BASE_DELAY_MS);
+    }
+    
+    /**
+     * Gets the upper bound for the retry backoff in milliseconds
+     */
+    public int getApiRetryMaxDelayMs() {
+        return getPositiveIntProperty(API_RETRY_MAX_DELAY_PROPERTY, DEFAULT_API_RETRY_MAX_DELAY_MS);
+    }
+    
+    /**
+     * Gets the retry budget: retries allowed as a percentage of first attempts
+     */
+    public int getApiRetryBudgetPercent() {
+        return getPositiveIntProperty(API_RETRY_BUDGET_PROPERTY, DEFAULT_API_RETRY_BUDGET_PERCENT);
+    }
+    
+    /**
+     * Gets the number of consecutive failures that opens the circuit breaker
+     */
+    public int getApiBreakerFailureThreshold() {
+        return getPositiveIntProperty(API_BREAKER_THRESHOLD_PROPERTY, DEFAULT_API_BREAKER_THRESHOLD);
+    }
+    
+    /**
+     * Gets how long an open circuit breaker fails calls fast before letting a probe through
+     */
+    public int getApiBreakerOpenMs() {
+        return getPositiveIntProperty(API_BREAKER_OPEN_PROPERTY, DEFAULT_API_BREAKER_OPEN_MS);
+    }
+    
+    /**
+     * Gets the connect, socket and pool-wait timeout for Patient Passport API calls in milliseconds
+     */
+    public int getApiTimeoutMs() {
+        return getPositiveIntProperty(API_TIMEOUT_PROPERTY, DEFAULT_API_TIMEOUT_MS);
+    }
+    
+    /**
+     * Gets the maximum number of pooled connections to the Patient Passport API
+     */
+    public int getApiPoolMaxTotal() {
+        return getPositiveIntProperty(API_POOL_MAX_TOTAL_PROPERTY, DEFAULT_API_POOL_MAX_TOTAL);
+    }
+    
+    /**
+     * Gets the maximum number of pooled connections per host
+     */
+    public int getApiPoolMaxPerRoute() {
+        return getPositiveIntProperty(API_POOL_MAX_PER_ROUTE_PROPERTY, DEFAULT_API_POOL_MAX_PER_ROUTE);
+    }
+    
+    /**
+     * Gets how long an idle connection is kept open when the server does not say
+     */
+    public int getApiPoolKeepAliveMs() {
+        return getPositiveIntProperty(API_POOL_KEEP_ALIVE_PROPERTY, DEFAULT_API_POOL_KEEP_ALIVE_MS);
+    }
+    
     /**
      * Validates the current configuration
      */
@@ -126,4 +557,43 @@ public class PatientPassportConfig {
         log.info("   Sync Enabled: " + isSyncEnabled());
         log.info("   Configuration Valid: " + validateConfiguration());
     }
+    
+    /**
+     * Reads a value from the patientpassport_config table, or null if it is missing or unreadable
+     */
+    private String getModuleConfigValue(String configKey) {
+        try {
+            Context.addProxyPrivilege(SQL_LEVEL_ACCESS_PRIVILEGE);
+            List<List<Object>> rows = Context.getAdministrationService().executeSQL(
+                "SELECT config_value FROM patientpassport_config WHERE config_key = '" + configKey + "'", true);
+            if (rows == null || rows.isEmpty() || rows.get(0).isEmpty() || rows.get(0).get(0) == null) {
+                return null;
+            }
+            return rows.get(0).get(0).toString();
+        } catch (Exception e) {
+            log.debug("Could not read " + configKey + " from patientpassport_config: " + e.getMessage());
+            return null;
+        } finally {
+            Context.removeProxyPrivilege(SQL_LEVEL_ACCESS_PRIVILEGE);
+        }
+    }
+    
+    /**
+     * Reads a positive integer global property, falling back to the default when unset or invalid
+     */
+    private int getPositiveIntProperty(String property, int defaultValue) {
+        try {
+            String value = Context.getAdministrationService().getGlobalProperty(property);
+            if (value == null || value.trim().isEmpty()) {
+                return defaultValue;
+            }
+            
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+            
+        } catch (Exception e) {
+            log.warn("Invalid value for " + property + ", using default " + defaultValue + ": " + e.getMessage());
+            return defaultValue;
+        }
+    }
 }
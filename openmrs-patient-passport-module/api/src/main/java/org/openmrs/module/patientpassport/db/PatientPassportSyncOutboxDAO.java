@@ -0,0 +1,290 @@
+package org.openmrs.module.patientpassport.db;
+
+import org.openmrs.Obs;
+import org.openmrs.module.patientpassport.dto.DeadLetterFilterDTO;
+import org.openmrs.module.patientpassport.model.PatientPassportBackfillPartition;
+import org.openmrs.module.patientpassport.model.PatientPassportDeadLetter;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncStatus;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Database access for the patientpassport_sync_outbox table
+ */
+public interface PatientPassportSyncOutboxDAO {
+
+    /**
+     * Insert a new outbox row using the current session (joins the caller's transaction)
+     * @param entry Outbox row to insert
+     */
+    void insert(PatientPassportSyncOutbox entry);
+
+    /**
+     * Get PENDING rows that are due: rows created before agedBefore in queue order, then the
+     * rest highest priority first, then oldest first.
+     * A row is held back while an earlier row for the same patient and priority is IN_FLIGHT
+     * or waiting for a retry, so each patient's observations are delivered in order within
+     * a priority, while allergies and medications may overtake the same patient's vitals.
+     * @param now Current time, rows with next_attempt_at after it are skipped
+     * @param agedBefore Rows created before this are read first so they are not starved
+     * @param limit Maximum number of rows
+     * @return Aged rows by date_created, then the rest by priority and outbox_id
+     */
+    List<PatientPassportSyncOutbox> getDueEntries(Date now, Date agedBefore, int limit);
+
+    /**
+     * Get the PENDING rows of the given obs and encounters that are due, held back like
+     * {@link #getDueEntries(Date, Date, int)} when an earlier row of the same patient and
+     * priority is still IN_FLIGHT or waiting for a retry
+     * @param obsIds Obs whose OBS rows to read
+     * @param encounterIds Encounters whose ENCOUNTER rows to read
+     * @param now Current time, rows with next_attempt_at after it are skipped
+     * @return Due rows ordered by priority and outbox_id
+     */
+    List<PatientPassportSyncOutbox> getDueEntries(Collection<Integer> obsIds, Collection<Integer> encounterIds, Date now);
+
+    /**
+     * Move the given rows from PENDING to IN_FLIGHT. Each row is updated on its own and only
+     * while it is still PENDING, so a row that another dispatcher claimed in the meantime is
+     * left to that dispatcher.
+     * @param outboxIds Row ids, as read by getDueEntries
+     * @return Ids of the rows this call moved to IN_FLIGHT
+     */
+    Set<Long> claim(Collection<Long> outboxIds);
+
+    /**
+     * Set the status of the given rows
+     * @param outboxIds Row ids
+     * @param status New status
+     * @return Number of rows updated
+     */
+    int updateStatus(Collection<Long> outboxIds, String status);
+
+    /**
+     * Record a failed delivery attempt
+     * @param outboxId Row id
+     * @param status New status (PENDING to retry, FAILED to give up)
+     * @param attempts Total attempts so far
+     * @param error Error message
+     * @param nextAttemptAt Earliest time of the next attempt
+     */
+    void recordFailure(Long outboxId, String status, int attempts, String error, Date nextAttemptAt);
+
+    /**
+     * Delete delivered rows
+     * @param outboxIds Row ids
+     * @return Number of rows deleted
+     */
+    int delete(Collection<Long> outboxIds);
+
+    /**
+     * Move every row from one status to another (e.g. IN_FLIGHT back to PENDING after a restart)
+     * @param fromStatus Current status
+     * @param toStatus New status
+     * @return Number of rows updated
+     */
+    int resetStatus(String fromStatus, String toStatus);
+
+    /**
+     * Count rows in the given status
+     * @param status Status
+     * @return Row count
+     */
+    long countByStatus(String status);
+
+    /**
+     * Move outbox rows to patientpassport_sync_dead_letter, keeping their attempts and last error
+     * @param outboxIds Row ids
+     * @param errorClass Error class recorded with every moved row
+     * @return Number of rows moved
+     */
+    int moveToDeadLetter(Collection<Long> outboxIds, String errorClass);
+
+    /**
+     * Get dead-letter rows matching a filter, most recently failed first
+     * @param filter Filter; unset fields match every row
+     * @param offset Rows to skip
+     * @param limit Maximum number of rows
+     * @return Matching rows
+     */
+    List<PatientPassportDeadLetter> getDeadLetters(DeadLetterFilterDTO filter, int offset, int limit);
+
+    /**
+     * Count dead-letter rows matching a filter
+     * @param filter Filter; unset fields match every row
+     * @return Row count
+     */
+    long countDeadLetters(DeadLetterFilterDTO filter);
+
+    /**
+     * Count dead-letter rows per error class
+     * @return Error class to row count, largest first
+     */
+    Map<String, Long> countDeadLettersByErrorClass();
+
+    /**
+     * Next page of dead-letter row ids matching a filter, by keyset on dead_letter_id
+     * @param filter Filter; unset fields match every row
+     * @param afterId Ids greater than this
+     * @param limit Maximum number of ids
+     * @return Ids in ascending order
+     */
+    List<Long> getDeadLetterIds(DeadLetterFilterDTO filter, long afterId, int limit);
+
+    /**
+     * Put dead-letter rows back in the outbox as new PENDING rows with no attempts, and remove them here
+     * @param deadLetterIds Row ids
+     * @return Number of rows requeued
+     */
+    int requeueDeadLetters(Collection<Long> deadLetterIds);
+
+    /**
+     * Find which idempotency keys are recorded in patientpassport_sync_ack
+     * @param keys Keys to look up
+     * @return The subset of keys that have been acknowledged
+     */
+    Set<String> getAcknowledgedKeys(Collection<String> keys);
+
+    /**
+     * Record acknowledged sends; keys that are already recorded are ignored
+     * @param keysToObsUuid Idempotency key to obs uuid
+     */
+    void insertAcknowledgements(Map<String, String> keysToObsUuid);
+
+    /**
+     * Stream every acknowledged key, used to warm the in-memory dedup filter
+     * @param consumer Receives each key
+     */
+    void forEachAcknowledgedKey(Consumer<String> consumer);
+
+    /**
+     * Count the rows of patientpassport_sync_ack, used to size the in-memory dedup filter
+     */
+    long countAcknowledgements();
+
+    /**
+     * Delete up to limit acknowledgements recorded before the cutoff
+     * @param cutoff Rows acknowledged before this are deleted
+     * @param limit Maximum rows deleted
+     * @return Number of rows deleted
+     */
+    int deleteAcknowledgementsBefore(Date cutoff, int limit);
+
+    /**
+     * Lowest and highest obs_id of non-voided patient observations
+     * @return {min, max}, or null if there are none
+     */
+    int[] getPatientObsIdRange();
+
+    /**
+     * Count non-voided patient observations with afterObsId &lt; obs_id &lt;= toObsId
+     */
+    long countPatientObs(int afterObsId, int toObsId);
+
+    /**
+     * Next page of non-voided patient observation ids, by keyset on obs_id
+     * @param afterObsId Ids greater than this
+     * @param toObsId Ids up to and including this
+     * @param limit Page size
+     * @return Ids in ascending order
+     */
+    List<Integer> getPatientObsIds(int afterObsId, int toObsId, int limit);
+
+    /**
+     * Load observations with their concepts in one query
+     * @param obsIds Observation ids
+     * @return Observations in obs_id order
+     */
+    List<Obs> getObs(Collection<Integer> obsIds);
+
+    /**
+     * @return Highest obs_id, or null if the obs table is empty
+     */
+    Integer getMaxObsId();
+
+    /**
+     * Concepts used by obs rows after an obs_id, voided ones included
+     * @param afterObsId Ids greater than this
+     * @return Distinct concept ids
+     */
+    List<Integer> getObsConceptIds(int afterObsId);
+
+    /**
+     * Find which encounters already have an encounter row waiting in the outbox
+     * @param encounterIds Encounters to check
+     * @return The subset with a PENDING or IN_FLIGHT ENCOUNTER row
+     */
+    Set<Integer> getQueuedEncounterIds(Collection<Integer> encounterIds);
+
+    /**
+     * Next page of obs rows after an obs_id, voided ones included, with person and concept loaded
+     * @param afterObsId Ids greater than this
+     * @param limit Page size
+     * @return Observations in obs_id order
+     */
+    List<Obs> getObsAfter(int afterObsId, int limit);
+
+    /**
+     * Get a change-capture watermark
+     * @param name Watermark name
+     * @return Last obs_id processed, or null if the watermark has never been set
+     */
+    Integer getWatermark(String name);
+
+    /**
+     * Insert or move a change-capture watermark
+     * @param name Watermark name
+     * @param lastObsId Last obs_id processed
+     */
+    void saveWatermark(String name, int lastObsId);
+
+    /**
+     * Get the latest sync status row of a patient
+     * @param patientId Patient id
+     * @return The status, with its patient unset, or null if the patient was never synced
+     */
+    PatientPassportSyncStatus getSyncStatus(int patientId);
+
+    /**
+     * Insert a sync status, or update it when it already has a sync id
+     * @param status Status to save
+     */
+    void saveSyncStatus(PatientPassportSyncStatus status);
+
+    /**
+     * Get every backfill partition
+     * @return Partitions ordered by partition_id
+     */
+    List<PatientPassportBackfillPartition> getBackfillPartitions();
+
+    /**
+     * Get one backfill partition
+     * @param partitionId Partition id
+     * @return The partition, or null
+     */
+    PatientPassportBackfillPartition getBackfillPartition(int partitionId);
+
+    /**
+     * Insert or update a backfill partition checkpoint
+     * @param partition Partition to save
+     */
+    void saveBackfillPartition(PatientPassportBackfillPartition partition);
+
+    /**
+     * Set the status of every partition that is not DONE
+     * @param status New status
+     * @return Number of rows updated
+     */
+    int updateUnfinishedBackfillStatus(String status);
+
+    /**
+     * Delete every backfill partition
+     */
+    void deleteBackfillPartitions();
+}
@@ -0,0 +1,791 @@
+package org.openmrs.module.patientpassport.db.hibernate;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.type.StandardBasicTypes;
+import org.openmrs.Obs;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.patientpassport.db.PatientPassportSyncOutboxDAO;
+import org.openmrs.module.patientpassport.dto.DeadLetterFilterDTO;
+import org.openmrs.module.patientpassport.model.PatientPassportBackfillPartition;
+import org.openmrs.module.patientpassport.model.PatientPassportDeadLetter;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncStatus;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Hibernate implementation of the sync outbox DAO.
+ * Uses native SQL on the current session so inserts join the transaction of the
+ * service call that triggered them (e.g. ObsService.saveObs). The statements stick to
+ * SQL that MySQL and PostgreSQL both accept: upserts are an update followed by an
+ * insert when no row matched, not INSERT IGNORE or ON DUPLICATE KEY UPDATE.
+ */
+public class HibernatePatientPassportSyncOutboxDAO implements PatientPassportSyncOutboxDAO {
+
+    private static final String SELECT_COLUMNS =
+        "SELECT outbox_id, obs_id, obs_uuid, patient_id, obs_type, status, attempts, last_error, " +
+        "next_attempt_at, date_created, encounter_id, priority FROM patientpassport_sync_outbox ";
+
+    private static final String DEAD_LETTER_COLUMNS =
+        "SELECT dead_letter_id, outbox_id, obs_id, encounter_id, obs_uuid, patient_id, obs_type, priority, attempts, " +
+        "error_class, last_error, date_queued, date_failed FROM patientpassport_sync_dead_letter ";
+
+    // What identifies the work of a row, copied as is between the outbox and the dead-letter table
+    private static final String ROW_COLUMNS = "obs_id, encounter_id, obs_uuid, patient_id, obs_type, priority";
+
+    private static final String BACKFILL_COLUMNS =
+        "SELECT partition_id, start_obs_id, end_obs_id, last_obs_id, total_rows, processed_rows, queued_rows, " +
+        "status, date_created, date_changed FROM patientpassport_sync_backfill ";
+
+    private static final String SYNC_STATUS_COLUMNS =
+        "SELECT sync_id, last_sync_timestamp, sync_status, sync_error, passport_version, content_fingerprint " +
+        "FROM patientpassport_sync_status ";
+
+    // Due PENDING rows. Keeps per-patient order within a priority: a row queued behind an earlier row
+    // of the same patient and priority that is still being sent or waiting out a retry backoff is skipped
+    private static final String DUE_CONDITION =
+        "o.status = :pending AND o.next_attempt_at <= :now " +
+        "AND NOT EXISTS (SELECT 1 FROM patientpassport_sync_outbox e " +
+        "WHERE e.patient_id = o.patient_id AND e.outbox_id < o.outbox_id AND e.priority = o.priority " +
+        "AND (e.status = :inFlight OR (e.status = :pending AND e.next_attempt_at > :now))) ";
+
+    // Non-voided obs of people who are patients; :voided is bound to false, since voided is
+    // a boolean column on PostgreSQL and "= 0" only works on MySQL
+    private static final String PATIENT_OBS =
+        "FROM obs o JOIN patient p ON p.patient_id = o.person_id AND p.voided = :voided WHERE o.voided = :voided ";
+
+    private DbSessionFactory sessionFactory;
+
+    public void setSessionFactory(DbSessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    public void insert(PatientPassportSyncOutbox entry) {
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "INSERT INTO patientpassport_sync_outbox " +
+                "(obs_id, encounter_id, obs_uuid, patient_id, obs_type, priority, status, attempts, next_attempt_at, date_created) " +
+                "VALUES (:obsId, :encounterId, :obsUuid, :patientId, :obsType, :priority, :status, 0, :now, :now)")
+            .setParameter("obsId", entry.getObsId(), StandardBasicTypes.INTEGER)
+            .setParameter("encounterId", entry.getEncounterId(), StandardBasicTypes.INTEGER)
+            .setParameter("obsUuid", entry.getObsUuid())
+            .setParameter("patientId", entry.getPatientId())
+            .setParameter("obsType", entry.getObsType())
+            .setParameter("priority", entry.getSyncPriority().getValue())
+            .setParameter("status", entry.getStatus())
+            .setParameter("now", new Date())
+            .executeUpdate();
+    }
+
+    @Override
+    public List<PatientPassportSyncOutbox> getDueEntries(Date now, Date agedBefore, int limit) {
+        // One query for the aged rows and one per priority, each walking an index in order and stopping
+        // at its limit; a single query sorted on a computed key would sort every pending row per poll
+        List<PatientPassportSyncOutbox> due = toEntries(getDueRows(
+            "AND o.date_created < :agedBefore ORDER BY o.date_created, o.outbox_id", null, now, agedBefore, limit));
+        for (SyncPriority priority : SyncPriority.values()) {
+            if (due.size() >= limit) {
+                break;
+            }
+            due.addAll(toEntries(getDueRows("AND o.priority = :priority AND o.date_created >= :agedBefore ORDER BY o.outbox_id",
+                priority, now, agedBefore, limit - due.size())));
+        }
+        return due;
+    }
+
+    /**
+     * Due rows matching the condition, which ends in its ORDER BY
+     * @param priority Bound to :priority, if the condition has it
+     */
+    private List<Object[]> getDueRows(String conditionAndOrder, SyncPriority priority, Date now, Date agedBefore, int limit) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+                SELECT_COLUMNS + "o WHERE " + DUE_CONDITION + conditionAndOrder);
+        query.setParameter("pending", PatientPassportSyncOutbox.STATUS_PENDING)
+            .setParameter("inFlight", PatientPassportSyncOutbox.STATUS_IN_FLIGHT)
+            .setParameter("now", now)
+            .setParameter("agedBefore", agedBefore)
+            .setMaxResults(limit);
+        if (priority != null) {
+            query.setParameter("priority", priority.getValue());
+        }
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.list();
+        return rows;
+    }
+
+    @Override
+    public List<PatientPassportSyncOutbox> getDueEntries(Collection<Integer> obsIds, Collection<Integer> encounterIds, Date now) {
+        if (obsIds.isEmpty() && encounterIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // IN (:ids) needs at least one value; -1 matches no row
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                SELECT_COLUMNS + "o WHERE " + DUE_CONDITION +
+                "AND (o.obs_id IN (:obsIds) OR (o.obs_type = :encounter AND o.encounter_id IN (:encounterIds))) " +
+                "ORDER BY o.priority, o.outbox_id")
+            .setParameter("pending", PatientPassportSyncOutbox.STATUS_PENDING)
+            .setParameter("inFlight", PatientPassportSyncOutbox.STATUS_IN_FLIGHT)
+            .setParameter("now", now)
+            .setParameter("encounter", PatientPassportSyncOutbox.TYPE_ENCOUNTER)
+            .setParameterList("obsIds", obsIds.isEmpty() ? Collections.singletonList(-1) : obsIds)
+            .setParameterList("encounterIds", encounterIds.isEmpty() ? Collections.singletonList(-1) : encounterIds)
+            .list();
+
+        return toEntries(rows);
+    }
+
+    @Override
+    public Set<Long> claim(Collection<Long> outboxIds) {
+        Set<Long> claimed = new HashSet<>();
+        for (Long outboxId : outboxIds) {
+            int updated = sessionFactory.getCurrentSession().createSQLQuery(
+                    "UPDATE patientpassport_sync_outbox SET status = :inFlight WHERE outbox_id = :id AND status = :pending")
+                .setParameter("inFlight", PatientPassportSyncOutbox.STATUS_IN_FLIGHT)
+                .setParameter("pending", PatientPassportSyncOutbox.STATUS_PENDING)
+                .setParameter("id", outboxId)
+                .executeUpdate();
+            if (updated > 0) {
+                claimed.add(outboxId);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public int updateStatus(Collection<Long> outboxIds, String status) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+        return sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_outbox SET status = :status WHERE outbox_id IN (:ids)")
+            .setParameter("status", status)
+            .setParameterList("ids", outboxIds)
+            .executeUpdate();
+    }
+
+    @Override
+    public void recordFailure(Long outboxId, String status, int attempts, String error, Date nextAttemptAt) {
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_outbox SET status = :status, attempts = :attempts, " +
+                "last_error = :error, next_attempt_at = :next WHERE outbox_id = :id")
+            .setParameter("status", status)
+            .setParameter("attempts", attempts)
+            .setParameter("error", error)
+            .setParameter("next", nextAttemptAt)
+            .setParameter("id", outboxId)
+            .executeUpdate();
+    }
+
+    @Override
+    public int delete(Collection<Long> outboxIds) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+        return sessionFactory.getCurrentSession().createSQLQuery(
+                "DELETE FROM patientpassport_sync_outbox WHERE outbox_id IN (:ids)")
+            .setParameterList("ids", outboxIds)
+            .executeUpdate();
+    }
+
+    @Override
+    public int resetStatus(String fromStatus, String toStatus) {
+        return sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_outbox SET status = :toStatus WHERE status = :fromStatus")
+            .setParameter("toStatus", toStatus)
+            .setParameter("fromStatus", fromStatus)
+            .executeUpdate();
+    }
+
+    @Override
+    public long countByStatus(String status) {
+        Object count = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT COUNT(*) FROM patientpassport_sync_outbox WHERE status = :status")
+            .setParameter("status", status)
+            .uniqueResult();
+        return count != null ? ((Number) count).longValue() : 0L;
+    }
+
+    @Override
+    public int moveToDeadLetter(Collection<Long> outboxIds, String errorClass) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+        int moved = sessionFactory.getCurrentSession().createSQLQuery(
+                "INSERT INTO patientpassport_sync_dead_letter (outbox_id, " + ROW_COLUMNS + ", attempts, error_class, " +
+                "last_error, date_queued, date_failed) " +
+                "SELECT outbox_id, " + ROW_COLUMNS + ", attempts, :errorClass, last_error, date_created, :now " +
+                "FROM patientpassport_sync_outbox WHERE outbox_id IN (:ids)")
+            .setParameter("errorClass", errorClass)
+            .setParameter("now", new Date())
+            .setParameterList("ids", outboxIds)
+            .executeUpdate();
+        delete(outboxIds);
+        return moved;
+    }
+
+    @Override
+    public List<PatientPassportDeadLetter> getDeadLetters(DeadLetterFilterDTO filter, int offset, int limit) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+            DEAD_LETTER_COLUMNS + deadLetterCondition(filter) + "ORDER BY date_failed DESC, dead_letter_id DESC");
+        bindDeadLetterFilter(query, filter);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.setFirstResult(offset).setMaxResults(limit).list();
+
+        List<PatientPassportDeadLetter> deadLetters = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            deadLetters.add(toDeadLetter(row));
+        }
+        return deadLetters;
+    }
+
+    @Override
+    public long countDeadLetters(DeadLetterFilterDTO filter) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+            "SELECT COUNT(*) FROM patientpassport_sync_dead_letter " + deadLetterCondition(filter));
+        bindDeadLetterFilter(query, filter);
+        Object count = query.uniqueResult();
+        return count != null ? ((Number) count).longValue() : 0L;
+    }
+
+    @Override
+    public Map<String, Long> countDeadLettersByErrorClass() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT error_class, COUNT(*) FROM patientpassport_sync_dead_letter " +
+                "GROUP BY error_class ORDER BY COUNT(*) DESC")
+            .list();
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : rows) {
+            counts.put((String) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    @Override
+    public List<Long> getDeadLetterIds(DeadLetterFilterDTO filter, long afterId, int limit) {
+        SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+            "SELECT dead_letter_id FROM patientpassport_sync_dead_letter " + deadLetterCondition(filter) +
+            "AND dead_letter_id > :afterId ORDER BY dead_letter_id");
+        bindDeadLetterFilter(query, filter);
+        query.setParameter("afterId", afterId);
+        @SuppressWarnings("unchecked")
+        List<Object> rows = query.setMaxResults(limit).list();
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            ids.add(((Number) row).longValue());
+        }
+        return ids;
+    }
+
+    @Override
+    public int requeueDeadLetters(Collection<Long> deadLetterIds) {
+        if (deadLetterIds.isEmpty()) {
+            return 0;
+        }
+        // Rows whose obs or encounter was purged since cannot go back (the outbox has foreign keys); they stay here
+        @SuppressWarnings("unchecked")
+        List<Object> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT d.dead_letter_id FROM patientpassport_sync_dead_letter d " +
+                "WHERE d.dead_letter_id IN (:ids) " +
+                "AND (d.obs_id IS NULL OR EXISTS (SELECT 1 FROM obs o WHERE o.obs_id = d.obs_id)) " +
+                "AND (d.encounter_id IS NULL OR EXISTS (SELECT 1 FROM encounter e WHERE e.encounter_id = d.encounter_id))")
+            .setParameterList("ids", deadLetterIds)
+            .list();
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        List<Long> requeueable = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            requeueable.add(((Number) row).longValue());
+        }
+
+        Date now = new Date();
+        int requeued = sessionFactory.getCurrentSession().createSQLQuery(
+                "INSERT INTO patientpassport_sync_outbox (" + ROW_COLUMNS + ", status, attempts, next_attempt_at, date_created) " +
+                "SELECT " + ROW_COLUMNS + ", :pending, 0, :now, :now FROM patientpassport_sync_dead_letter " +
+                "WHERE dead_letter_id IN (:ids) ORDER BY dead_letter_id")
+            .setParameter("pending", PatientPassportSyncOutbox.STATUS_PENDING)
+            .setParameter("now", now)
+            .setParameterList("ids", requeueable)
+            .executeUpdate();
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "DELETE FROM patientpassport_sync_dead_letter WHERE dead_letter_id IN (:ids)")
+            .setParameterList("ids", requeueable)
+            .executeUpdate();
+        return requeued;
+    }
+
+    @Override
+    public Set<String> getAcknowledgedKeys(Collection<String> keys) {
+        Set<String> acknowledged = new HashSet<>();
+        if (keys.isEmpty()) {
+            return acknowledged;
+        }
+        @SuppressWarnings("unchecked")
+        List<Object> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT idempotency_key FROM patientpassport_sync_ack WHERE idempotency_key IN (:keys)")
+            .setParameterList("keys", keys)
+            .list();
+        for (Object row : rows) {
+            acknowledged.add((String) row);
+        }
+        return acknowledged;
+    }
+
+    @Override
+    public void insertAcknowledgements(Map<String, String> keysToObsUuid) {
+        if (keysToObsUuid.isEmpty()) {
+            return;
+        }
+        // Select then insert rather than INSERT IGNORE, which only MySQL has
+        Set<String> existing = getAcknowledgedKeys(keysToObsUuid.keySet());
+        Date now = new Date();
+        for (Map.Entry<String, String> ack : keysToObsUuid.entrySet()) {
+            if (existing.contains(ack.getKey())) {
+                continue;
+            }
+            sessionFactory.getCurrentSession().createSQLQuery(
+                    "INSERT INTO patientpassport_sync_ack (idempotency_key, obs_uuid, acknowledged_at) " +
+                    "VALUES (:key, :obsUuid, :now)")
+                .setParameter("key", ack.getKey())
+                .setParameter("obsUuid", ack.getValue(), StandardBasicTypes.STRING)
+                .setParameter("now", now)
+                .executeUpdate();
+        }
+    }
+
+    @Override
+    public void forEachAcknowledgedKey(Consumer<String> consumer) {
+        ScrollableResults results = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT idempotency_key FROM patientpassport_sync_ack")
+            .setReadOnly(true)
+            .setFetchSize(1000)
+            .scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                consumer.accept((String) results.get(0));
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    @Override
+    public long countAcknowledgements() {
+        Object count = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT COUNT(*) FROM patientpassport_sync_ack")
+            .uniqueResult();
+        return count != null ? ((Number) count).longValue() : 0L;
+    }
+
+    @Override
+    public int deleteAcknowledgementsBefore(Date cutoff, int limit) {
+        // Select then delete: MySQL does not allow LIMIT in a DELETE's IN subquery
+        @SuppressWarnings("unchecked")
+        List<Object> keys = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT idempotency_key FROM patientpassport_sync_ack WHERE acknowledged_at < :cutoff " +
+                "ORDER BY acknowledged_at")
+            .setParameter("cutoff", cutoff)
+            .setMaxResults(limit)
+            .list();
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        return sessionFactory.getCurrentSession().createSQLQuery(
+                "DELETE FROM patientpassport_sync_ack WHERE idempotency_key IN (:keys)")
+            .setParameterList("keys", keys)
+            .executeUpdate();
+    }
+
+    @Override
+    public int[] getPatientObsIdRange() {
+        Object[] row = (Object[]) sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT MIN(o.obs_id), MAX(o.obs_id) " + PATIENT_OBS)
+            .setParameter("voided", false)
+            .uniqueResult();
+        if (row == null || row[0] == null) {
+            return null;
+        }
+        return new int[] { ((Number) row[0]).intValue(), ((Number) row[1]).intValue() };
+    }
+
+    @Override
+    public long countPatientObs(int afterObsId, int toObsId) {
+        Object count = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT COUNT(*) " + PATIENT_OBS + "AND o.obs_id > :after AND o.obs_id <= :to")
+            .setParameter("voided", false)
+            .setParameter("after", afterObsId)
+            .setParameter("to", toObsId)
+            .uniqueResult();
+        return count != null ? ((Number) count).longValue() : 0L;
+    }
+
+    @Override
+    public List<Integer> getPatientObsIds(int afterObsId, int toObsId, int limit) {
+        // Keyset paging: the primary key index makes every page as cheap as the first
+        @SuppressWarnings("unchecked")
+        List<Object> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT o.obs_id " + PATIENT_OBS + "AND o.obs_id > :after AND o.obs_id <= :to ORDER BY o.obs_id")
+            .setParameter("voided", false)
+            .setParameter("after", afterObsId)
+            .setParameter("to", toObsId)
+            .setMaxResults(limit)
+            .list();
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            ids.add(((Number) row).intValue());
+        }
+        return ids;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Obs> getObs(Collection<Integer> obsIds) {
+        if (obsIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return (List<Obs>) sessionFactory.getCurrentSession().createQuery(
+                "select o from Obs o left join fetch o.concept where o.obsId in (:ids) order by o.obsId")
+            .setParameterList("ids", obsIds)
+            .list();
+    }
+
+    @Override
+    public Integer getMaxObsId() {
+        Object max = sessionFactory.getCurrentSession().createSQLQuery("SELECT MAX(obs_id) FROM obs")
+            .uniqueResult();
+        return max != null ? ((Number) max).intValue() : null;
+    }
+
+    @Override
+    public List<Integer> getObsConceptIds(int afterObsId) {
+        // Range scan on the primary key, so the cost follows the window rather than the table
+        @SuppressWarnings("unchecked")
+        List<Object> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT DISTINCT concept_id FROM obs WHERE obs_id > :after")
+            .setParameter("after", afterObsId)
+            .list();
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            ids.add(((Number) row).intValue());
+        }
+        return ids;
+    }
+
+    @Override
+    public Set<Integer> getQueuedEncounterIds(Collection<Integer> encounterIds) {
+        Set<Integer> queued = new HashSet<>();
+        if (encounterIds.isEmpty()) {
+            return queued;
+        }
+        @SuppressWarnings("unchecked")
+        List<Object> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT DISTINCT encounter_id FROM patientpassport_sync_outbox " +
+                "WHERE obs_type = :encounter AND status IN (:statuses) AND encounter_id IN (:encounterIds)")
+            .setParameter("encounter", PatientPassportSyncOutbox.TYPE_ENCOUNTER)
+            .setParameterList("statuses", Arrays.asList(
+                PatientPassportSyncOutbox.STATUS_PENDING, PatientPassportSyncOutbox.STATUS_IN_FLIGHT))
+            .setParameterList("encounterIds", encounterIds)
+            .list();
+        for (Object row : rows) {
+            queued.add(((Number) row).intValue());
+        }
+        return queued;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Obs> getObsAfter(int afterObsId, int limit) {
+        return (List<Obs>) sessionFactory.getCurrentSession().createQuery(
+                "select o from Obs o join fetch o.person left join fetch o.concept " +
+                "where o.obsId > :after order by o.obsId")
+            .setParameter("after", afterObsId)
+            .setMaxResults(limit)
+            .list();
+    }
+
+    @Override
+    public Integer getWatermark(String name) {
+        Object last = sessionFactory.getCurrentSession().createSQLQuery(
+                "SELECT last_obs_id FROM patientpassport_sync_watermark WHERE watermark_name = :name")
+            .setParameter("name", name)
+            .uniqueResult();
+        return last != null ? ((Number) last).intValue() : null;
+    }
+
+    @Override
+    public void saveWatermark(String name, int lastObsId) {
+        Date now = new Date();
+        // Update, then insert if there was no row, instead of MySQL's ON DUPLICATE KEY UPDATE
+        int updated = sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_watermark SET last_obs_id = :last, date_changed = :now " +
+                "WHERE watermark_name = :name")
+            .setParameter("name", name)
+            .setParameter("last", lastObsId)
+            .setParameter("now", now)
+            .executeUpdate();
+        if (updated > 0) {
+            return;
+        }
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "INSERT INTO patientpassport_sync_watermark (watermark_name, last_obs_id, date_changed) " +
+                "VALUES (:name, :last, :now)")
+            .setParameter("name", name)
+            .setParameter("last", lastObsId)
+            .setParameter("now", now)
+            .executeUpdate();
+    }
+
+    @Override
+    public PatientPassportSyncStatus getSyncStatus(int patientId) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                SYNC_STATUS_COLUMNS + "WHERE patient_id = :patientId ORDER BY sync_id DESC")
+            .setParameter("patientId", patientId)
+            .setMaxResults(1)
+            .list();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        PatientPassportSyncStatus status = new PatientPassportSyncStatus();
+        status.setSyncId(((Number) row[0]).intValue());
+        status.setLastSyncTimestamp((Date) row[1]);
+        status.setSyncStatus((String) row[2]);
+        status.setSyncError((String) row[3]);
+        status.setPassportVersion(row[4] != null ? ((Number) row[4]).intValue() : 1);
+        status.setContentFingerprint((String) row[5]);
+        return status;
+    }
+
+    @Override
+    public void saveSyncStatus(PatientPassportSyncStatus status) {
+        if (status.getSyncId() == null) {
+            // Plain JDBC for the generated key; LAST_INSERT_ID() would tie this to MySQL
+            sessionFactory.getCurrentSession().doWork(connection -> {
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO patientpassport_sync_status (patient_id, last_sync_timestamp, sync_status, " +
+                        "sync_error, passport_version, content_fingerprint) VALUES (?, ?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    insert.setInt(1, status.getPatient().getPatientId());
+                    insert.setTimestamp(2, status.getLastSyncTimestamp() != null
+                        ? new Timestamp(status.getLastSyncTimestamp().getTime()) : null);
+                    insert.setString(3, status.getSyncStatus());
+                    insert.setString(4, status.getSyncError());
+                    insert.setObject(5, status.getPassportVersion(), Types.INTEGER);
+                    insert.setString(6, status.getContentFingerprint());
+                    insert.executeUpdate();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            status.setSyncId(keys.getInt(1));
+                        }
+                    }
+                }
+            });
+            return;
+        }
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_status SET last_sync_timestamp = :timestamp, sync_status = :status, " +
+                "sync_error = :error, passport_version = :version, content_fingerprint = :fingerprint " +
+                "WHERE sync_id = :id")
+            .setParameter("timestamp", status.getLastSyncTimestamp())
+            .setParameter("status", status.getSyncStatus())
+            .setParameter("error", status.getSyncError())
+            .setParameter("version", status.getPassportVersion())
+            .setParameter("fingerprint", status.getContentFingerprint())
+            .setParameter("id", status.getSyncId())
+            .executeUpdate();
+    }
+
+    @Override
+    public List<PatientPassportBackfillPartition> getBackfillPartitions() {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = sessionFactory.getCurrentSession().createSQLQuery(
+                BACKFILL_COLUMNS + "ORDER BY partition_id")
+            .list();
+        List<PatientPassportBackfillPartition> partitions = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            partitions.add(toPartition(row));
+        }
+        return partitions;
+    }
+
+    @Override
+    public PatientPassportBackfillPartition getBackfillPartition(int partitionId) {
+        Object[] row = (Object[]) sessionFactory.getCurrentSession().createSQLQuery(
+                BACKFILL_COLUMNS + "WHERE partition_id = :id")
+            .setParameter("id", partitionId)
+            .uniqueResult();
+        return row != null ? toPartition(row) : null;
+    }
+
+    @Override
+    public void saveBackfillPartition(PatientPassportBackfillPartition partition) {
+        Date now = new Date();
+        partition.setDateChanged(now);
+        if (partition.getDateCreated() == null) {
+            partition.setDateCreated(now);
+        }
+        int updated = sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_backfill SET last_obs_id = :last, total_rows = :total, " +
+                "processed_rows = :processed, queued_rows = :queued, status = :status, date_changed = :changed " +
+                "WHERE partition_id = :id")
+            .setParameter("id", partition.getPartitionId())
+            .setParameter("last", partition.getLastObsId())
+            .setParameter("total", partition.getTotalRows())
+            .setParameter("processed", partition.getProcessedRows())
+            .setParameter("queued", partition.getQueuedRows())
+            .setParameter("status", partition.getStatus())
+            .setParameter("changed", now)
+            .executeUpdate();
+        if (updated > 0) {
+            return;
+        }
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "INSERT INTO patientpassport_sync_backfill (partition_id, start_obs_id, end_obs_id, last_obs_id, " +
+                "total_rows, processed_rows, queued_rows, status, date_created, date_changed) " +
+                "VALUES (:id, :start, :end, :last, :total, :processed, :queued, :status, :created, :changed)")
+            .setParameter("id", partition.getPartitionId())
+            .setParameter("start", partition.getStartObsId())
+            .setParameter("end", partition.getEndObsId())
+            .setParameter("last", partition.getLastObsId())
+            .setParameter("total", partition.getTotalRows())
+            .setParameter("processed", partition.getProcessedRows())
+            .setParameter("queued", partition.getQueuedRows())
+            .setParameter("status", partition.getStatus())
+            .setParameter("created", partition.getDateCreated())
+            .setParameter("changed", now)
+            .executeUpdate();
+    }
+
+    @Override
+    public int updateUnfinishedBackfillStatus(String status) {
+        return sessionFactory.getCurrentSession().createSQLQuery(
+                "UPDATE patientpassport_sync_backfill SET status = :status, date_changed = :now WHERE status <> :done")
+            .setParameter("status", status)
+            .setParameter("now", new Date())
+            .setParameter("done", PatientPassportBackfillPartition.STATUS_DONE)
+            .executeUpdate();
+    }
+
+    @Override
+    public void deleteBackfillPartitions() {
+        sessionFactory.getCurrentSession().createSQLQuery("DELETE FROM patientpassport_sync_backfill")
+            .executeUpdate();
+    }
+
+    private PatientPassportBackfillPartition toPartition(Object[] row) {
+        PatientPassportBackfillPartition partition = new PatientPassportBackfillPartition();
+        partition.setPartitionId(((Number) row[0]).intValue());
+        partition.setStartObsId(((Number) row[1]).intValue());
+        partition.setEndObsId(((Number) row[2]).intValue());
+        partition.setLastObsId(((Number) row[3]).intValue());
+        partition.setTotalRows(row[4] != null ? ((Number) row[4]).longValue() : 0L);
+        partition.setProcessedRows(row[5] != null ? ((Number) row[5]).longValue() : 0L);
+        partition.setQueuedRows(row[6] != null ? ((Number) row[6]).longValue() : 0L);
+        partition.setStatus((String) row[7]);
+        partition.setDateCreated((Date) row[8]);
+        partition.setDateChanged((Date) row[9]);
+        return partition;
+    }
+
+    private static String deadLetterCondition(DeadLetterFilterDTO filter) {
+        StringBuilder condition = new StringBuilder("WHERE 1 = 1 ");
+        if (filter.getErrorClass() != null) {
+            condition.append("AND error_class = :errorClass ");
+        }
+        if (filter.getObsType() != null) {
+            condition.append("AND obs_type = :obsType ");
+        }
+        if (filter.getPatientId() != null) {
+            condition.append("AND patient_id = :patientId ");
+        }
+        if (filter.getFailedAfter() != null) {
+            condition.append("AND date_failed >= :failedAfter ");
+        }
+        if (filter.getFailedBefore() != null) {
+            condition.append("AND date_failed < :failedBefore ");
+        }
+        return condition.toString();
+    }
+
+    private static void bindDeadLetterFilter(SQLQuery query, DeadLetterFilterDTO filter) {
+        if (filter.getErrorClass() != null) {
+            query.setParameter("errorClass", filter.getErrorClass());
+        }
+        if (filter.getObsType() != null) {
+            query.setParameter("obsType", filter.getObsType());
+        }
+        if (filter.getPatientId() != null) {
+            query.setParameter("patientId", filter.getPatientId());
+        }
+        if (filter.getFailedAfter() != null) {
+            query.setParameter("failedAfter", filter.getFailedAfter());
+        }
+        if (filter.getFailedBefore() != null) {
+            query.setParameter("failedBefore", filter.getFailedBefore());
+        }
+    }
+
+    private PatientPassportDeadLetter toDeadLetter(Object[] row) {
+        PatientPassportDeadLetter deadLetter = new PatientPassportDeadLetter();
+        deadLetter.setDeadLetterId(((Number) row[0]).longValue());
+        deadLetter.setOutboxId(row[1] != null ? ((Number) row[1]).longValue() : null);
+        deadLetter.setObsId(row[2] != null ? ((Number) row[2]).intValue() : null);
+        deadLetter.setEncounterId(row[3] != null ? ((Number) row[3]).intValue() : null);
+        deadLetter.setObsUuid((String) row[4]);
+        deadLetter.setPatientId(((Number) row[5]).intValue());
+        deadLetter.setObsType((String) row[6]);
+        deadLetter.setPriority(row[7] != null ? ((Number) row[7]).intValue() : SyncPriority.NORMAL.getValue());
+        deadLetter.setAttempts(row[8] != null ? ((Number) row[8]).intValue() : 0);
+        deadLetter.setErrorClass((String) row[9]);
+        deadLetter.setLastError((String) row[10]);
+        deadLetter.setDateQueued((Date) row[11]);
+        deadLetter.setDateFailed((Date) row[12]);
+        return deadLetter;
+    }
+
+    private List<PatientPassportSyncOutbox> toEntries(List<Object[]> rows) {
+        List<PatientPassportSyncOutbox> entries = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            entries.add(toEntry(row));
+        }
+        return entries;
+    }
+
+    private PatientPassportSyncOutbox toEntry(Object[] row) {
+        PatientPassportSyncOutbox entry = new PatientPassportSyncOutbox();
+        entry.setOutboxId(((Number) row[0]).longValue());
+        entry.setObsId(row[1] != null ? ((Number) row[1]).intValue() : null);
+        entry.setObsUuid((String) row[2]);
+        entry.setPatientId(((Number) row[3]).intValue());
+        entry.setObsType((String) row[4]);
+        entry.setStatus((String) row[5]);
+        entry.setAttempts(row[6] != null ? ((Number) row[6]).intValue() : 0);
+        entry.setLastError((String) row[7]);
+        entry.setNextAttemptAt((Date) row[8]);
+        entry.setDateCreated((Date) row[9]);
+        entry.setEncounterId(row[10] != null ? ((Number) row[10]).intValue() : null);
+        entry.setPriority(row[11] != null ? ((Number) row[11]).intValue() : SyncPriority.NORMAL.getValue());
+        return entry;
+    }
+}
@@ -0,0 +1,73 @@
+package org.openmrs.module.patientpassport.dto;
+
+import java.util.Date;
+
+/**
+ * DTO for selecting dead-letter rows to list or replay; unset fields match every row
+ */
+public class DeadLetterFilterDTO {
+
+    private String errorClass;
+    private String obsType;
+    private Integer patientId;
+    private Date failedAfter;
+    private Date failedBefore;
+
+    // Constructors
+    public DeadLetterFilterDTO() {}
+
+    public DeadLetterFilterDTO(String errorClass, String obsType, Integer patientId, Date failedAfter, Date failedBefore) {
+        this.errorClass = errorClass;
+        this.obsType = obsType;
+        this.patientId = patientId;
+        this.failedAfter = failedAfter;
+        this.failedBefore = failedBefore;
+    }
+
+    // Getters and Setters
+    public String getErrorClass() {
+        return errorClass;
+    }
+
+    public void setErrorClass(String errorClass) {
+        this.errorClass = errorClass;
+    }
+
+    public String getObsType() {
+        return obsType;
+    }
+
+    public void setObsType(String obsType) {
+        this.obsType = obsType;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    /**
+     * @return Rows that failed at or after this time
+     */
+    public Date getFailedAfter() {
+        return failedAfter;
+    }
+
+    public void setFailedAfter(Date failedAfter) {
+        this.failedAfter = failedAfter;
+    }
+
+    /**
+     * @return Rows that failed before this time
+     */
+    public Date getFailedBefore() {
+        return failedBefore;
+    }
+
+    public void setFailedBefore(Date failedBefore) {
+        this.failedBefore = failedBefore;
+    }
+}
@@ -0,0 +1,94 @@
+package org.openmrs.module.patientpassport.dto;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Request body of /openmrs/encounter/store: the observations of one encounter, grouped
+ */
+public class EncounterPayloadDTO {
+    
+    private String patientName;
+    private String hospitalName;
+    private String doctorLicenseNumber;
+    private String encounterUuid;
+    private String encounterType;
+    private Date encounterDate;
+    private List<ObservationDataDTO> diagnoses = new ArrayList<>();
+    private List<ObservationDataDTO> medications = new ArrayList<>();
+    private List<ObservationDataDTO> vitals = new ArrayList<>();
+    
+    // Getters and Setters
+    public String getPatientName() {
+        return patientName;
+    }
+    
+    public void setPatientName(String patientName) {
+        this.patientName = patientName;
+    }
+    
+    public String getHospitalName() {
+        return hospitalName;
+    }
+    
+    public void setHospitalName(String hospitalName) {
+        this.hospitalName = hospitalName;
+    }
+    
+    public String getDoctorLicenseNumber() {
+        return doctorLicenseNumber;
+    }
+    
+    public void setDoctorLicenseNumber(String doctorLicenseNumber) {
+        this.doctorLicenseNumber = doctorLicenseNumber;
+    }
+    
+    public String getEncounterUuid() {
+        return encounterUuid;
+    }
+    
+    public void setEncounterUuid(String encounterUuid) {
+        this.encounterUuid = encounterUuid;
+    }
+    
+    public String getEncounterType() {
+        return encounterType;
+    }
+    
+    public void setEncounterType(String encounterType) {
+        this.encounterType = encounterType;
+    }
+    
+    public Date getEncounterDate() {
+        return encounterDate;
+    }
+    
+    public void setEncounterDate(Date encounterDate) {
+        this.encounterDate = encounterDate;
+    }
+    
+    public List<ObservationDataDTO> getDiagnoses() {
+        return diagnoses;
+    }
+    
+    public void setDiagnoses(List<ObservationDataDTO> diagnoses) {
+        this.diagnoses = diagnoses;
+    }
+    
+    public List<ObservationDataDTO> getMedications() {
+        return medications;
+    }
+    
+    public void setMedications(List<ObservationDataDTO> medications) {
+        this.medications = medications;
+    }
+    
+    public List<ObservationDataDTO> getVitals() {
+        return vitals;
+    }
+    
+    public void setVitals(List<ObservationDataDTO> vitals) {
+        this.vitals = vitals;
+    }
+}
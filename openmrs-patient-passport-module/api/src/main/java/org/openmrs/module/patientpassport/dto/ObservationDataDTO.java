@@ -0,0 +1,146 @@
+package org.openmrs.module.patientpassport.dto;
+
+import java.util.Date;
+
+/**
+ * observationData of a Patient Passport observation payload.
+ * Which fields are set depends on the observation type: diagnosis, medication or any other
+ * type; unset fields are left out of the JSON.
+ */
+public class ObservationDataDTO {
+    
+    // Diagnosis
+    private String diagnosis;
+    
+    // Medication
+    private String medicationName;
+    private String dosage;
+    private String frequency;
+    private Date startDate;
+    
+    // Other observation types
+    private String observationType;
+    private String value;
+    private String conceptName;
+    
+    // Common
+    private String details;
+    private String status;
+    private Date date;
+    private Integer obsId;
+    private String idempotencyKey;
+    private String observationClass;
+    
+    // Getters and Setters
+    public String getDiagnosis() {
+        return diagnosis;
+    }
+    
+    public void setDiagnosis(String diagnosis) {
+        this.diagnosis = diagnosis;
+    }
+    
+    public String getMedicationName() {
+        return medicationName;
+    }
+    
+    public void setMedicationName(String medicationName) {
+        this.medicationName = medicationName;
+    }
+    
+    public String getDosage() {
+        return dosage;
+    }
+    
+    public void setDosage(String dosage) {
+        this.dosage = dosage;
+    }
+    
+    public String getFrequency() {
+        return frequency;
+    }
+    
+    public void setFrequency(String frequency) {
+        this.frequency = frequency;
+    }
+    
+    public Date getStartDate() {
+        return startDate;
+    }
+    
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+    
+    public String getObservationType() {
+        return observationType;
+    }
+    
+    public void setObservationType(String observationType) {
+        this.observationType = observationType;
+    }
+    
+    public String getValue() {
+        return value;
+    }
+    
+    public void setValue(String value) {
+        this.value = value;
+    }
+    
+    public String getConceptName() {
+        return conceptName;
+    }
+    
+    public void setConceptName(String conceptName) {
+        this.conceptName = conceptName;
+    }
+    
+    public String getDetails() {
+        return details;
+    }
+    
+    public void setDetails(String details) {
+        this.details = details;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public Date getDate() {
+        return date;
+    }
+    
+    public void setDate(Date date) {
+        this.date = date;
+    }
+    
+    public Integer getObsId() {
+        return obsId;
+    }
+    
+    public void setObsId(Integer obsId) {
+        this.obsId = obsId;
+    }
+    
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+    
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+    
+    public String getObservationClass() {
+        return observationClass;
+    }
+    
+    public void setObservationClass(String observationClass) {
+        this.observationClass = observationClass;
+    }
+}
@@ -0,0 +1,66 @@
+package org.openmrs.module.patientpassport.dto;
+
+/**
+ * Request body of /openmrs/observation/store, and one item of /openmrs/observation/store/batch
+ */
+public class ObservationPayloadDTO {
+    
+    private String patientName;
+    private String observationType;
+    private String doctorLicenseNumber;
+    private String hospitalName;
+    private ObservationDataDTO observationData;
+    
+    // Constructors
+    public ObservationPayloadDTO() {}
+    
+    public ObservationPayloadDTO(String patientName, String observationType, String doctorLicenseNumber,
+            String hospitalName, ObservationDataDTO observationData) {
+        this.patientName = patientName;
+        this.observationType = observationType;
+        this.doctorLicenseNumber = doctorLicenseNumber;
+        this.hospitalName = hospitalName;
+        this.observationData = observationData;
+    }
+    
+    // Getters and Setters
+    public String getPatientName() {
+        return patientName;
+    }
+    
+    public void setPatientName(String patientName) {
+        this.patientName = patientName;
+    }
+    
+    public String getObservationType() {
+        return observationType;
+    }
+    
+    public void setObservationType(String observationType) {
+        this.observationType = observationType;
+    }
+    
+    public String getDoctorLicenseNumber() {
+        return doctorLicenseNumber;
+    }
+    
+    public void setDoctorLicenseNumber(String doctorLicenseNumber) {
+        this.doctorLicenseNumber = doctorLicenseNumber;
+    }
+    
+    public String getHospitalName() {
+        return hospitalName;
+    }
+    
+    public void setHospitalName(String hospitalName) {
+        this.hospitalName = hospitalName;
+    }
+    
+    public ObservationDataDTO getObservationData() {
+        return observationData;
+    }
+    
+    public void setObservationData(ObservationDataDTO observationData) {
+        this.observationData = observationData;
+    }
+}
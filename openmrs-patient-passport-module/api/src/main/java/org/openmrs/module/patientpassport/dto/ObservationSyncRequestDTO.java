@@ -0,0 +1,48 @@
+package org.openmrs.module.patientpassport.dto;
+
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+
+/**
+ * DTO for one observation in a batched send to Patient Passport
+ */
+public class ObservationSyncRequestDTO {
+    
+    private Patient patient;
+    private Obs obs;
+    private String observationType;
+    
+    // Constructors
+    public ObservationSyncRequestDTO() {}
+    
+    public ObservationSyncRequestDTO(Patient patient, Obs obs, String observationType) {
+        this.patient = patient;
+        this.obs = obs;
+        this.observationType = observationType;
+    }
+    
+    // Getters and Setters
+    public Patient getPatient() {
+        return patient;
+    }
+    
+    public void setPatient(Patient patient) {
+        this.patient = patient;
+    }
+    
+    public Obs getObs() {
+        return obs;
+    }
+    
+    public void setObs(Obs obs) {
+        this.obs = obs;
+    }
+    
+    public String getObservationType() {
+        return observationType;
+    }
+    
+    public void setObservationType(String observationType) {
+        this.observationType = observationType;
+    }
+}
@@ -0,0 +1,43 @@
+package org.openmrs.module.patientpassport.dto;
+
+/**
+ * DTO for the outcome of one observation in a batched send to Patient Passport
+ */
+public class ObservationSyncResultDTO {
+    
+    private Boolean success;
+    private String message;
+    
+    // Constructors
+    public ObservationSyncResultDTO() {}
+    
+    public ObservationSyncResultDTO(Boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+    
+    public static ObservationSyncResultDTO success() {
+        return new ObservationSyncResultDTO(true, "Stored");
+    }
+    
+    public static ObservationSyncResultDTO failure(String message) {
+        return new ObservationSyncResultDTO(false, message);
+    }
+    
+    // Getters and Setters
+    public Boolean getSuccess() {
+        return success;
+    }
+    
+    public void setSuccess(Boolean success) {
+        this.success = success;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,135 @@
+package org.openmrs.module.patientpassport.model;
+
+import java.util.Date;
+
+/**
+ * Checkpoint for one partition of the historical observation backfill.
+ * A partition covers the obs_id range (startObsId, endObsId]; lastObsId is the highest
+ * obs_id already queued, so a restarted backfill carries on after it.
+ */
+public class PatientPassportBackfillPartition {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_PAUSED = "PAUSED";
+    public static final String STATUS_DONE = "DONE";
+
+    private Integer partitionId;
+    private Integer startObsId;
+    private Integer endObsId;
+    private Integer lastObsId;
+    private Long totalRows;
+    private Long processedRows;
+    private Long queuedRows;
+    private String status;
+    private Date dateCreated;
+    private Date dateChanged;
+
+    // Constructors
+    public PatientPassportBackfillPartition() {}
+
+    public PatientPassportBackfillPartition(Integer partitionId, Integer startObsId, Integer endObsId, Long totalRows) {
+        this.partitionId = partitionId;
+        this.startObsId = startObsId;
+        this.endObsId = endObsId;
+        this.lastObsId = startObsId;
+        this.totalRows = totalRows;
+        this.processedRows = 0L;
+        this.queuedRows = 0L;
+        this.status = STATUS_PENDING;
+    }
+
+    public boolean isDone() {
+        return STATUS_DONE.equals(status);
+    }
+
+    /**
+     * @return Rows in the partition not yet processed, never negative
+     */
+    public long getRemainingRows() {
+        long total = totalRows != null ? totalRows : 0L;
+        long processed = processedRows != null ? processedRows : 0L;
+        return isDone() ? 0L : Math.max(0L, total - processed);
+    }
+
+    // Getters and Setters
+    public Integer getPartitionId() {
+        return partitionId;
+    }
+
+    public void setPartitionId(Integer partitionId) {
+        this.partitionId = partitionId;
+    }
+
+    public Integer getStartObsId() {
+        return startObsId;
+    }
+
+    public void setStartObsId(Integer startObsId) {
+        this.startObsId = startObsId;
+    }
+
+    public Integer getEndObsId() {
+        return endObsId;
+    }
+
+    public void setEndObsId(Integer endObsId) {
+        this.endObsId = endObsId;
+    }
+
+    public Integer getLastObsId() {
+        return lastObsId;
+    }
+
+    public void setLastObsId(Integer lastObsId) {
+        this.lastObsId = lastObsId;
+    }
+
+    public Long getTotalRows() {
+        return totalRows;
+    }
+
+    public void setTotalRows(Long totalRows) {
+        this.totalRows = totalRows;
+    }
+
+    public Long getProcessedRows() {
+        return processedRows;
+    }
+
+    public void setProcessedRows(Long processedRows) {
+        this.processedRows = processedRows;
+    }
+
+    public Long getQueuedRows() {
+        return queuedRows;
+    }
+
+    public void setQueuedRows(Long queuedRows) {
+        this.queuedRows = queuedRows;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+
+    public Date getDateChanged() {
+        return dateChanged;
+    }
+
+    public void setDateChanged(Date dateChanged) {
+        this.dateChanged = dateChanged;
+    }
+}
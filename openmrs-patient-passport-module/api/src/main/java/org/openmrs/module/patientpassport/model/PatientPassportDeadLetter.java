@@ -0,0 +1,181 @@
+package org.openmrs.module.patientpassport.model;
+
+import java.util.Date;
+
+/**
+ * Model for a Patient Passport dead-letter row.
+ * An outbox row is moved here when it has used up its delivery attempts or was shed
+ * under load. It stays here until it is replayed, which puts it back in the outbox as a
+ * new PENDING row.
+ */
+public class PatientPassportDeadLetter {
+
+    // Error classes other than exception names
+    public static final String ERROR_REJECTED = "Rejected";
+    public static final String ERROR_MISSING = "Missing";
+    public static final String ERROR_UNAVAILABLE = "Unavailable";
+    public static final String ERROR_QUEUE_FULL = "QueueFull";
+
+    private Long deadLetterId;
+    private Long outboxId;
+    private Integer obsId;
+    private Integer encounterId;
+    private String obsUuid;
+    private Integer patientId;
+    private String obsType;
+    private Integer priority;
+    private Integer attempts;
+    private String errorClass;
+    private String lastError;
+    private Date dateQueued;
+    private Date dateFailed;
+
+    // Constructors
+    public PatientPassportDeadLetter() {}
+
+    /**
+     * Error class of a delivery failure reason: the exception name for
+     * "SocketTimeoutException: Read timed out", otherwise one of the ERROR_ constants
+     * @param error Failure reason as recorded in the outbox
+     */
+    public static String errorClassOf(String error) {
+        if (error == null || error.isEmpty()) {
+            return ERROR_REJECTED;
+        }
+        int colon = error.indexOf(':');
+        if (colon > 0) {
+            String name = error.substring(0, colon);
+            if ((name.endsWith("Exception") || name.endsWith("Error")) && isIdentifier(name)) {
+                return name;
+            }
+        }
+        if (error.contains("no longer exists") || error.contains("is not a patient")) {
+            return ERROR_MISSING;
+        }
+        if (error.contains("not available")) {
+            return ERROR_UNAVAILABLE;
+        }
+        return ERROR_REJECTED;
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (!Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEncounter() {
+        return encounterId != null;
+    }
+
+    // Getters and Setters
+    public Long getDeadLetterId() {
+        return deadLetterId;
+    }
+
+    public void setDeadLetterId(Long deadLetterId) {
+        this.deadLetterId = deadLetterId;
+    }
+
+    public Long getOutboxId() {
+        return outboxId;
+    }
+
+    public void setOutboxId(Long outboxId) {
+        this.outboxId = outboxId;
+    }
+
+    public Integer getObsId() {
+        return obsId;
+    }
+
+    public void setObsId(Integer obsId) {
+        this.obsId = obsId;
+    }
+
+    public Integer getEncounterId() {
+        return encounterId;
+    }
+
+    public void setEncounterId(Integer encounterId) {
+        this.encounterId = encounterId;
+    }
+
+    public String getObsUuid() {
+        return obsUuid;
+    }
+
+    public void setObsUuid(String obsUuid) {
+        this.obsUuid = obsUuid;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getObsType() {
+        return obsType;
+    }
+
+    public void setObsType(String obsType) {
+        this.obsType = obsType;
+    }
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getErrorClass() {
+        return errorClass;
+    }
+
+    public void setErrorClass(String errorClass) {
+        this.errorClass = errorClass;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getDateQueued() {
+        return dateQueued;
+    }
+
+    public void setDateQueued(Date dateQueued) {
+        this.dateQueued = dateQueued;
+    }
+
+    public Date getDateFailed() {
+        return dateFailed;
+    }
+
+    public void setDateFailed(Date dateFailed) {
+        this.dateFailed = dateFailed;
+    }
+}
@@ -0,0 +1,151 @@
+package org.openmrs.module.patientpassport.model;
+
+import java.util.Date;
+
+/**
+ * Model for a Patient Passport sync outbox row.
+ * One row is written per saved observation, or per saved encounter for the obs an
+ * encounter save cascades to, in the same transaction as the save, and removed once
+ * it has been delivered to the Passport API. A row that fails for good is moved to
+ * patientpassport_sync_dead_letter (see PatientPassportDeadLetter).
+ */
+public class PatientPassportSyncOutbox {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_IN_FLIGHT = "IN_FLIGHT";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_DROPPED = "DROPPED";
+
+    public static final String TYPE_ENCOUNTER = "ENCOUNTER";
+
+    private Long outboxId;
+    private Integer obsId;
+    private Integer encounterId;
+    private String obsUuid;
+    private Integer patientId;
+    private String obsType;
+    private Integer priority;
+    private String status;
+    private Integer attempts;
+    private String lastError;
+    private Date nextAttemptAt;
+    private Date dateCreated;
+
+    // Constructors
+    public PatientPassportSyncOutbox() {}
+
+    public PatientPassportSyncOutbox(Integer obsId, String obsUuid, Integer patientId, String obsType) {
+        this.obsId = obsId;
+        this.obsUuid = obsUuid;
+        this.patientId = patientId;
+        this.obsType = obsType;
+        this.priority = SyncPriority.forObsType(obsType).getValue();
+        this.status = STATUS_PENDING;
+        this.attempts = 0;
+    }
+
+    // Getters and Setters
+    public Long getOutboxId() {
+        return outboxId;
+    }
+
+    public void setOutboxId(Long outboxId) {
+        this.outboxId = outboxId;
+    }
+
+    public Integer getObsId() {
+        return obsId;
+    }
+
+    public void setObsId(Integer obsId) {
+        this.obsId = obsId;
+    }
+
+    public Integer getEncounterId() {
+        return encounterId;
+    }
+
+    public void setEncounterId(Integer encounterId) {
+        this.encounterId = encounterId;
+    }
+
+    public boolean isEncounter() {
+        return encounterId != null;
+    }
+
+    public String getObsUuid() {
+        return obsUuid;
+    }
+
+    public void setObsUuid(String obsUuid) {
+        this.obsUuid = obsUuid;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getObsType() {
+        return obsType;
+    }
+
+    public void setObsType(String obsType) {
+        this.obsType = obsType;
+    }
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public SyncPriority getSyncPriority() {
+        return SyncPriority.fromValue(priority);
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Date nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+}
@@ -16,6 +16,7 @@ public class PatientPassportSyncStatus extends BaseOpenmrsData {
     private String syncStatus;
     private String syncError;
     private Integer passportVersion;
+    private String contentFingerprint;
     
     // Constructors
     public PatientPassportSyncStatus() {}
@@ -84,4 +85,15 @@ public class PatientPassportSyncStatus extends BaseOpenmrsData {
     public void setPassportVersion(Integer passportVersion) {
         this.passportVersion = passportVersion;
     }
+    
+    /**
+     * Hash of the patient data last accepted by Patient Passport
+     */
+    public String getContentFingerprint() {
+        return contentFingerprint;
+    }
+    
+    public void setContentFingerprint(String contentFingerprint) {
+        this.contentFingerprint = contentFingerprint;
+    }
 }
@@ -0,0 +1,54 @@
+package org.openmrs.module.patientpassport.model;
+
+/**
+ * Delivery priority of an outbox row, stored in patientpassport_sync_outbox.priority.
+ * Clinically critical data (allergies, medications) is sent ahead of high-volume
+ * vitals and lab results; everything else sits in between.
+ */
+public enum SyncPriority {
+
+    HIGH(0), NORMAL(1), LOW(2);
+
+    private final int value;
+
+    SyncPriority(int value) {
+        this.value = value;
+    }
+
+    /**
+     * @return Column value; lower is delivered first
+     */
+    public int getValue() {
+        return value;
+    }
+
+    public static SyncPriority fromValue(Integer value) {
+        if (value != null) {
+            for (SyncPriority priority : values()) {
+                if (priority.value == value) {
+                    return priority;
+                }
+            }
+        }
+        return NORMAL;
+    }
+
+    /**
+     * Priority of an observation sync type (DIAGNOSIS, MEDICATION, ALLERGY, VITAL_SIGN, ...)
+     */
+    public static SyncPriority forObsType(String obsType) {
+        if (obsType == null) {
+            return NORMAL;
+        }
+        switch (obsType.toUpperCase()) {
+            case "ALLERGY":
+            case "MEDICATION":
+                return HIGH;
+            case "VITAL_SIGN":
+            case "LAB_RESULT":
+                return LOW;
+            default:
+                return NORMAL;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.openmrs.module.patientpassport.service;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.patientpassport.dto.DeadLetterFilterDTO;
+import org.openmrs.module.patientpassport.model.PatientPassportBackfillPartition;
+import org.openmrs.module.patientpassport.model.PatientPassportDeadLetter;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncStatus;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Service for the durable observation sync outbox.
+ * Observations are recorded here in the same transaction that saves them and are
+ * drained to Patient Passport in bulk by a background dispatcher.
+ */
+@Transactional
+public interface PatientPassportSyncOutboxService extends OpenmrsService {
+
+    /**
+     * Record an observation for delivery to Patient Passport.
+     * Joins the caller's transaction, so the row only exists if the save commits.
+     * @param obs Saved observation
+     * @param obsType Observation type (DIAGNOSIS, MEDICATION, ...)
+     * @return The outbox row
+     */
+    PatientPassportSyncOutbox enqueue(Obs obs, String obsType);
+
+    /**
+     * Record a saved encounter for delivery as one aggregated payload covering its obs.
+     * Joins the caller's transaction like {@link #enqueue(Obs, String)}.
+     * @param encounter Saved encounter
+     * @return The outbox row
+     */
+    PatientPassportSyncOutbox enqueueEncounter(Encounter encounter);
+
+    /**
+     * Claim due rows for delivery by moving them to IN_FLIGHT
+     * @param limit Maximum number of rows
+     * @param maxWaitMs Rows older than this are claimed as if they were high priority
+     * @return Claimed rows ordered by priority and outbox_id
+     */
+    List<PatientPassportSyncOutbox> claimDueEntries(int limit, long maxWaitMs);
+
+    /**
+     * Claim the rows queued for the given obs and encounters, as far as they are due and not
+     * held behind an earlier row of the same patient; the others are left to claimDueEntries
+     * @param obsIds Obs queued one by one
+     * @param encounterIds Encounters queued as one ENCOUNTER row each
+     * @return Claimed rows ordered by priority and outbox_id
+     */
+    List<PatientPassportSyncOutbox> claimEntries(Collection<Integer> obsIds, Collection<Integer> encounterIds);
+
+    /**
+     * Remove delivered rows
+     * @param outboxIds Row ids
+     */
+    void markDelivered(Collection<Long> outboxIds);
+
+    /**
+     * Record a failed attempt; the row is retried with backoff until maxAttempts is reached,
+     * then moved to the dead-letter table with the class of the error
+     * @param entry Row that failed
+     * @param error Error message
+     * @param maxAttempts Attempts after which the row is dead-lettered
+     */
+    void markFailed(PatientPassportSyncOutbox entry, String error, int maxAttempts);
+
+    /**
+     * Return claimed rows to PENDING without counting an attempt
+     * @param outboxIds Row ids
+     */
+    void release(Collection<Long> outboxIds);
+
+    /**
+     * Move rows the sync executor shed under load to the dead-letter table.
+     * They are not retried automatically, only when replayed.
+     * @param outboxIds Row ids
+     */
+    void markDropped(Collection<Long> outboxIds);
+
+    /**
+     * Return rows left IN_FLIGHT by a previous run to PENDING
+     * @return Number of rows recovered
+     */
+    int recoverInFlight();
+
+    /**
+     * Count rows in the given status
+     * @param status Status
+     * @return Row count
+     */
+    @Transactional(readOnly = true)
+    long countByStatus(String status);
+
+    /**
+     * Dead-letter rows matching a filter, most recently failed first
+     * @param filter Filter; unset fields match every row
+     * @param offset Rows to skip
+     * @param limit Maximum number of rows
+     * @return Matching rows
+     */
+    @Transactional(readOnly = true)
+    List<PatientPassportDeadLetter> getDeadLetters(DeadLetterFilterDTO filter, int offset, int limit);
+
+    /**
+     * @param filter Filter; unset fields match every row
+     * @return Number of dead-letter rows matching the filter
+     */
+    @Transactional(readOnly = true)
+    long countDeadLetters(DeadLetterFilterDTO filter);
+
+    /**
+     * @return Dead-letter row count per error class, largest first
+     */
+    @Transactional(readOnly = true)
+    Map<String, Long> countDeadLettersByErrorClass();
+
+    /**
+     * Put dead-letter rows matching a filter back in the outbox, oldest first, as new PENDING
+     * rows with no attempts. The dispatcher then sends them in batches like any other row.
+     * Rows whose obs or encounter no longer exists are left in place.
+     * @param filter Filter; unset fields match every row
+     * @param limit Maximum number of rows to replay
+     * @return Number of rows put back in the outbox
+     */
+    int replayDeadLetters(DeadLetterFilterDTO filter, int limit);
+
+    /**
+     * Find which idempotency keys Patient Passport has already acknowledged
+     * @param keys Keys to look up
+     * @return The acknowledged subset
+     */
+    @Transactional(readOnly = true)
+    Set<String> getAcknowledgedKeys(Collection<String> keys);
+
+    /**
+     * Record sends acknowledged by Patient Passport so they are not repeated
+     * @param keysToObsUuid Idempotency key to obs uuid
+     */
+    void acknowledge(Map<String, String> keysToObsUuid);
+
+    /**
+     * Stream every acknowledged key
+     * @param consumer Receives each key
+     */
+    @Transactional(readOnly = true)
+    void forEachAcknowledgedKey(Consumer<String> consumer);
+
+    /**
+     * Count the acknowledged keys
+     */
+    @Transactional(readOnly = true)
+    long countAcknowledgements();
+
+    /**
+     * Delete one chunk of acknowledgements older than the cutoff; callers repeat until fewer than limit are deleted
+     * @param cutoff Keys acknowledged before this are deleted
+     * @param limit Maximum keys deleted
+     * @return Number of keys deleted
+     */
+    int purgeAcknowledgements(Date cutoff, int limit);
+
+    /**
+     * Queue the obs rows created since the change-capture watermark and move the watermark past them.
+     * Rows created after settledBefore are left for a later scan, since transactions that
+     * allocated lower obs_ids may still be committing. Obs in an encounter are queued as one
+     * ENCOUNTER row per encounter, unless the encounter already has one waiting, as it does when
+     * its obs span two scans. The first call only sets the watermark to the latest obs.
+     * @param settledBefore Only rows created before this are read
+     * @param limit Maximum rows read
+     * @return Number of rows the watermark moved past
+     */
+    int captureObsChanges(Date settledBefore, int limit);
+
+    /**
+     * Move the change-capture watermark to the latest obs, so switching to CDC mode does not
+     * re-read what interception has already queued
+     */
+    void advanceObsWatermarkToLatest();
+
+    /**
+     * @return Last obs_id read by change capture, or null if it has never run
+     */
+    @Transactional(readOnly = true)
+    Integer getObsWatermark();
+
+    /**
+     * Concepts of the most recent observations, used to warm the observation classifier
+     * @param obsWindow Number of latest obs_ids to look at
+     * @return Distinct concept ids
+     */
+    @Transactional(readOnly = true)
+    List<Integer> getRecentObsConceptIds(int obsWindow);
+
+    /**
+     * @param patient Patient
+     * @return Latest sync status of the patient, or null if it was never synced
+     */
+    @Transactional(readOnly = true)
+    PatientPassportSyncStatus getSyncStatus(Patient patient);
+
+    /**
+     * Insert or update a patient sync status
+     * @param status Status to save
+     */
+    void saveSyncStatus(PatientPassportSyncStatus status);
+
+    /**
+     * Split the existing patient observations into obs_id ranges for the backfill.
+     * Does nothing if a backfill is already planned, so a restarted backfill keeps its checkpoints.
+     * @param partitions Number of ranges
+     * @return Every partition, planned now or before
+     */
+    List<PatientPassportBackfillPartition> planBackfill(int partitions);
+
+    /**
+     * @return Every backfill partition ordered by partition id
+     */
+    @Transactional(readOnly = true)
+    List<PatientPassportBackfillPartition> getBackfillPartitions();
+
+    /**
+     * Queue the next page of a partition's observations in the outbox and advance its checkpoint.
+     * The rows and the checkpoint are committed together, so a page is never queued twice.
+     * @param partitionId Partition id
+     * @param pageSize Maximum observations to queue
+     * @return The updated partition, DONE once its range is exhausted
+     */
+    PatientPassportBackfillPartition backfillNextPage(int partitionId, int pageSize);
+
+    /**
+     * Set the status of every partition that is not DONE (e.g. PAUSED, PENDING)
+     * @param status New status
+     * @return Number of partitions updated
+     */
+    int setBackfillStatus(String status);
+
+    /**
+     * Forget all backfill checkpoints so the next backfill starts from the beginning
+     */
+    void resetBackfill();
+}
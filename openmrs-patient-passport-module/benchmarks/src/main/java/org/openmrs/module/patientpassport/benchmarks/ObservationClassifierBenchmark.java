@@ -0,0 +1,81 @@
+package org.openmrs.module.patientpassport.benchmarks;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.module.patientpassport.sync.ClassificationRules;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observation type detection, which runs on every intercepted save.
+ * classifyCached is the steady state (concept id cache hit); matchRules is a cache miss,
+ * i.e. the rule table matched against the concept's names, class and datatype.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObservationClassifierBenchmark {
+
+    private final ClassificationRules rules = ClassificationRules.compile(null);
+
+    private Concept[] concepts;
+
+    private Obs[] observations;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyncFixtures.openSession();
+        Patient patient = SyncFixtures.patient(7);
+        concepts = SyncFixtures.concepts();
+        observations = new Obs[concepts.length];
+        for (int i = 0; i < concepts.length; i++) {
+            observations[i] = SyncFixtures.obs(1000 + i, patient, concepts[i], "value " + i);
+            ObservationClassifier.classify(observations[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyncFixtures.closeSession();
+    }
+
+    @Benchmark
+    public String classifyCached() {
+        return ObservationClassifier.classify(observations[nextIndex()]);
+    }
+
+    @Benchmark
+    public String matchRules() {
+        return rules.classify(concepts[nextIndex()]);
+    }
+
+    @Benchmark
+    public String toApiObservationType() {
+        return ObservationClassifier.toApiObservationType(ObservationClassifier.classify(observations[nextIndex()]));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == concepts.length ? 0 : index + 1;
+        return index;
+    }
+}
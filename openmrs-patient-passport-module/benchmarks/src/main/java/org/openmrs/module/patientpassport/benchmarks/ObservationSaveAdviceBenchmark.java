@@ -0,0 +1,154 @@
+package org.openmrs.module.patientpassport.benchmarks;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.Obs;
+import org.openmrs.Person;
+import org.openmrs.api.ObsService;
+import org.openmrs.api.context.ServiceContext;
+import org.openmrs.module.patientpassport.advice.ObservationSaveAdvice;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost ObservationSaveAdvice adds to saveObs. The intercepted save returns
+ * immediately and the outbox service is a no-op, so what is left is the advice itself:
+ * session check, classification, sync log, metrics and the commit hook. Compare with
+ * saveWithoutAdvice.
+ *
+ * skipped: the obs belongs to a person who is not a patient.
+ * queued: the obs is written to the outbox inside a transaction, which then rolls back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObservationSaveAdviceBenchmark {
+
+    @Param({ "queued", "skipped" })
+    public String outcome;
+
+    private final ObservationSaveAdvice advice = new ObservationSaveAdvice();
+
+    private MethodInvocation saveObs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchMethodException {
+        SyncFixtures.openSession();
+        ServiceContext.getInstance().setService(PatientPassportSyncOutboxService.class, noOpOutboxService());
+
+        Person person = "queued".equals(outcome) ? SyncFixtures.patient(7) : SyncFixtures.person(8);
+        Obs obs = SyncFixtures.obs(4242, person, SyncFixtures.concepts()[0], null);
+        obs.setValueNumeric(128.0);
+        saveObs = new SavedObsInvocation(ObsService.class.getMethod("saveObs", Obs.class, String.class), obs);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyncFixtures.closeSession();
+    }
+
+    @Benchmark
+    public Object saveWithAdvice() throws Throwable {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            return advice.invoke(saveObs);
+        } finally {
+            rollBack();
+        }
+    }
+
+    @Benchmark
+    public Object saveWithoutAdvice() throws Throwable {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            return saveObs.proceed();
+        } finally {
+            rollBack();
+        }
+    }
+
+    /**
+     * End the simulated transaction the way a rollback does, so nothing is dispatched
+     */
+    private static void rollBack() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    /**
+     * ServiceContext only accepts Spring AOP proxies
+     */
+    private static PatientPassportSyncOutboxService noOpOutboxService() {
+        ProxyFactory factory = new ProxyFactory();
+        factory.addInterface(PatientPassportSyncOutboxService.class);
+        factory.addAdvice((MethodInterceptor) invocation -> null);
+        return (PatientPassportSyncOutboxService) factory.getProxy();
+    }
+
+    /**
+     * ObsService.saveObs returning an already saved obs
+     */
+    private static final class SavedObsInvocation implements MethodInvocation {
+
+        private final Method method;
+
+        private final Obs obs;
+
+        private final Object[] arguments;
+
+        SavedObsInvocation(Method method, Obs obs) {
+            this.method = method;
+            this.obs = obs;
+            this.arguments = new Object[] { obs, null };
+        }
+
+        @Override
+        public Method getMethod() {
+            return method;
+        }
+
+        @Override
+        public Object[] getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public Object proceed() {
+            return obs;
+        }
+
+        @Override
+        public Object getThis() {
+            return null;
+        }
+
+        @Override
+        public AccessibleObject getStaticPart() {
+            return method;
+        }
+    }
+}
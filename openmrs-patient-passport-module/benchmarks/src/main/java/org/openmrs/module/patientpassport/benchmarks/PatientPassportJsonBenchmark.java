@@ -0,0 +1,145 @@
+package org.openmrs.module.patientpassport.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openmrs.module.patientpassport.dto.PatientPassportDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON serialization of a full PatientPassportDTO, as the controllers return it.
+ * freshMapper shows what creating an ObjectMapper per call would cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatientPassportJsonBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ObjectWriter writer = objectMapper.writerFor(PatientPassportDTO.class);
+
+    private final PatientPassportDTO passport = passport();
+
+    @Benchmark
+    public byte[] sharedMapper() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(passport);
+    }
+
+    @Benchmark
+    public byte[] typedWriter() throws JsonProcessingException {
+        return writer.writeValueAsBytes(passport);
+    }
+
+    @Benchmark
+    public String sharedMapperToString() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(passport);
+    }
+
+    @Benchmark
+    public byte[] freshMapper() throws JsonProcessingException {
+        return new ObjectMapper().writeValueAsBytes(passport);
+    }
+
+    private static PatientPassportDTO passport() {
+        Date date = new Date(1700000000000L);
+        PatientPassportDTO passport = new PatientPassportDTO("PP-000123", "7");
+        passport.setNationalId("1199880012345678");
+        passport.setUniversalId("UPID-7F3A-91C2");
+        passport.setLastUpdated(date);
+        passport.setLastUpdatedBy("dr.mukamana");
+        passport.setVersion(12);
+        passport.setIsActive(true);
+
+        PatientPassportDTO.PersonalInfoDTO personal = new PatientPassportDTO.PersonalInfoDTO();
+        personal.setFullName("Amina Keza Uwimana");
+        personal.setNationalId("1199880012345678");
+        personal.setDateOfBirth(date);
+        personal.setGender("F");
+        personal.setBloodType("O+");
+        personal.setContactNumber("+250788000000");
+        personal.setEmail("amina@example.org");
+        personal.setAddress("KG 11 Ave, Kigali");
+        PatientPassportDTO.EmergencyContactDTO contact = new PatientPassportDTO.EmergencyContactDTO();
+        contact.setName("Eric Uwimana");
+        contact.setRelationship("Brother");
+        contact.setPhone("+250788111111");
+        personal.setEmergencyContact(contact);
+        passport.setPersonalInfo(personal);
+
+        PatientPassportDTO.MedicalInfoDTO medical = new PatientPassportDTO.MedicalInfoDTO();
+        medical.setAllergies(Arrays.asList("Penicillin", "Peanuts"));
+        List<PatientPassportDTO.MedicationDTO> medications = new ArrayList<>();
+        List<PatientPassportDTO.MedicalConditionDTO> conditions = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PatientPassportDTO.MedicationDTO medication = new PatientPassportDTO.MedicationDTO();
+            medication.setName("Medication " + i);
+            medication.setDosage("500mg");
+            medication.setFrequency("Twice daily");
+            medication.setPrescribedBy("dr.mukamana");
+            medication.setStartDate(date);
+            medications.add(medication);
+
+            PatientPassportDTO.MedicalConditionDTO condition = new PatientPassportDTO.MedicalConditionDTO();
+            condition.setCondition("Condition " + i);
+            condition.setDiagnosedDate(date);
+            condition.setDiagnosedBy("dr.mukamana");
+            condition.setStatus("active");
+            condition.setNotes("Auto-synced from OpenMRS");
+            conditions.add(condition);
+        }
+        medical.setCurrentMedications(medications);
+        medical.setMedicalConditions(conditions);
+        PatientPassportDTO.ImmunizationDTO immunization = new PatientPassportDTO.ImmunizationDTO();
+        immunization.setVaccine("Hepatitis B");
+        immunization.setDate(date);
+        immunization.setAdministeredBy("nurse.iradukunda");
+        immunization.setBatchNumber("HB-2023-118");
+        medical.setImmunizations(Arrays.asList(immunization));
+        passport.setMedicalInfo(medical);
+
+        List<PatientPassportDTO.TestResultDTO> tests = new ArrayList<>();
+        List<PatientPassportDTO.HospitalVisitDTO> visits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            PatientPassportDTO.TestResultDTO test = new PatientPassportDTO.TestResultDTO();
+            test.setTestType("Full blood count");
+            test.setTestDate(date);
+            test.setResults("Haemoglobin 12." + i + " g/dL");
+            test.setNormalRange("12.0-15.5");
+            test.setStatus("final");
+            test.setLabTechnician("lab.tech");
+            tests.add(test);
+
+            PatientPassportDTO.HospitalVisitDTO visit = new PatientPassportDTO.HospitalVisitDTO();
+            visit.setVisitDate(date);
+            visit.setHospital("Kigali University Teaching Hospital");
+            visit.setDoctor("dr.mukamana");
+            visit.setReason("Follow-up");
+            visit.setDiagnosis("Essential hypertension");
+            visit.setTreatment("Continue medication");
+            visit.setFollowUpRequired(true);
+            visit.setFollowUpDate(date);
+            visits.add(visit);
+        }
+        passport.setTestResults(tests);
+        passport.setHospitalVisits(visits);
+        return passport;
+    }
+}
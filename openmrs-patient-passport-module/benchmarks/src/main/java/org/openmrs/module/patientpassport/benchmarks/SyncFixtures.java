@@ -0,0 +1,107 @@
+package org.openmrs.module.patientpassport.benchmarks;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.api.context.UsernamePasswordAuthenticationScheme;
+
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Detached OpenMRS objects for the benchmarks, built without a database or Spring context.
+ * Everything a sync path reads is set up front, so no lazy loading happens while measuring.
+ */
+public final class SyncFixtures {
+
+    private SyncFixtures() {
+    }
+
+    /**
+     * Open an OpenMRS session on the calling thread with a fixed locale, so concept names
+     * resolve without looking up the default locale global property
+     */
+    public static void openSession() {
+        UserContext userContext = new UserContext(new UsernamePasswordAuthenticationScheme());
+        userContext.setLocale(Locale.ENGLISH);
+        Context.setUserContext(userContext);
+    }
+
+    public static void closeSession() {
+        Context.clearUserContext();
+    }
+
+    public static Patient patient(int patientId) {
+        Patient patient = new Patient(patientId);
+        patient.addName(new PersonName("Amina", "Keza", "Uwimana"));
+        patient.setGender("F");
+        return patient;
+    }
+
+    /**
+     * A person who is not a patient; the save advice skips their obs
+     */
+    public static Person person(int personId) {
+        Person person = new Person(personId);
+        person.addName(new PersonName("Jean", null, "Habimana"));
+        return person;
+    }
+
+    public static Concept concept(int conceptId, String name, String conceptClass, String datatype) {
+        Concept concept = new Concept(conceptId);
+        concept.addName(new ConceptName(name, Locale.ENGLISH));
+        ConceptClass cls = new ConceptClass();
+        cls.setName(conceptClass);
+        concept.setConceptClass(cls);
+        ConceptDatatype type = new ConceptDatatype();
+        type.setName(datatype);
+        concept.setDatatype(type);
+        return concept;
+    }
+
+    /**
+     * Concepts of the common sync types, in the proportions a clinic records them: mostly vitals and labs
+     */
+    public static Concept[] concepts() {
+        return new Concept[] {
+            concept(5085, "Systolic blood pressure", "Finding", "Numeric"),
+            concept(5087, "Pulse", "Finding", "Numeric"),
+            concept(5089, "Weight (kg)", "Finding", "Numeric"),
+            concept(5088, "Temperature (c)", "Finding", "Numeric"),
+            concept(21, "Haemoglobin lab test", "Test", "Numeric"),
+            concept(856, "HIV viral load", "Test", "Numeric"),
+            concept(1284, "Problem list diagnosis", "Diagnosis", "Coded"),
+            concept(1282, "Medication orders", "Drug", "Text"),
+            concept(160643, "Allergen", "Misc", "Coded"),
+            concept(1000, "Clinical notes", "Misc", "Text")
+        };
+    }
+
+    public static Obs obs(int obsId, Person person, Concept concept, String valueText) {
+        Obs obs = new Obs();
+        obs.setObsId(obsId);
+        obs.setPerson(person);
+        obs.setConcept(concept);
+        obs.setValueText(valueText);
+        obs.setObsDatetime(new Date(1700000000000L));
+        obs.setComment("Recorded during consultation");
+
+        Location location = new Location(1);
+        location.setName("Kigali University Teaching Hospital");
+        obs.setLocation(location);
+
+        User creator = new User(1);
+        creator.setUsername("dr.mukamana");
+        obs.setCreator(creator);
+        return obs;
+    }
+}
@@ -0,0 +1,77 @@
+package org.openmrs.module.patientpassport.service.impl;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.module.patientpassport.benchmarks.SyncFixtures;
+import org.openmrs.module.patientpassport.dto.ObservationPayloadDTO;
+import org.openmrs.module.patientpassport.http.PassportPayloadWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request body building in sendObservationToPassport: the payload DTO from a detached obs,
+ * then the JSON bytes. Lives in the service package to reach the package-private builders.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObservationPayloadBenchmark {
+
+    @Param({ "diagnosis", "medication" })
+    public String observationType;
+
+    private PatientPassportDataServiceImpl service;
+
+    private Patient patient;
+
+    private Obs obs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyncFixtures.openSession();
+        service = new PatientPassportDataServiceImpl();
+        patient = SyncFixtures.patient(7);
+        Concept concept = "medication".equals(observationType)
+            ? SyncFixtures.concept(1282, "Medication orders", "Drug", "Text")
+            : SyncFixtures.concept(1284, "Problem list diagnosis", "Diagnosis", "Coded");
+        obs = SyncFixtures.obs(4242, patient, concept,
+            "medication".equals(observationType) ? "Amoxicillin 500mg" : "Essential hypertension");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyncFixtures.closeSession();
+    }
+
+    @Benchmark
+    public ObservationPayloadDTO buildPayload() {
+        return service.buildObservationPayload(patient, obs, observationType);
+    }
+
+    @Benchmark
+    public byte[] buildAndWritePayload() {
+        return PassportPayloadWriter.observation(service.buildObservationPayload(patient, obs, observationType));
+    }
+
+    @Benchmark
+    public String patientFullName() {
+        return service.getPatientFullName(patient);
+    }
+}
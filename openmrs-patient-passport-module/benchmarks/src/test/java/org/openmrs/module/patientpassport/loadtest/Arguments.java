@@ -0,0 +1,72 @@
+package org.openmrs.module.patientpassport.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line of the load test tools: --name=value, or --name alone for true
+ */
+final class Arguments {
+
+    private final Map<String, String> values;
+
+    private Arguments(Map<String, String> values) {
+        this.values = values;
+    }
+
+    static Arguments parse(String[] args) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.length() == 2) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return new Arguments(values);
+    }
+
+    String get(String name, String defaultValue) {
+        String value = values.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " must be a whole number, got " + value);
+        }
+    }
+
+    double getDouble(String name, double defaultValue) {
+        String value = values.get(name);
+        try {
+            return value != null ? Double.parseDouble(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " must be a number, got " + value);
+        }
+    }
+
+    boolean getBoolean(String name) {
+        return "true".equalsIgnoreCase(values.get(name));
+    }
+
+    /**
+     * Arguments whose name starts with the prefix, e.g. global properties passed as --patientpassport.x=y
+     */
+    Map<String, String> withPrefix(String prefix) {
+        Map<String, String> matching = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                matching.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return matching;
+    }
+}
@@ -0,0 +1,94 @@
+package org.openmrs.module.patientpassport.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Response time distribution of the stub server:
+ * <ul>
+ * <li>none</li>
+ * <li>fixed:MS</li>
+ * <li>uniform:MIN_MS:MAX_MS</li>
+ * <li>exponential:MEAN_MS</li>
+ * <li>lognormal:MEDIAN_MS:P99_MS (a long tail like a real API's)</li>
+ * </ul>
+ */
+final class LatencyModel {
+
+    // z-score of the 99th percentile of a standard normal distribution
+    private static final double Z_99 = 2.3263;
+
+    private enum Kind { NONE, FIXED, UNIFORM, EXPONENTIAL, LOGNORMAL }
+
+    private final Kind kind;
+
+    private final double first;
+
+    private final double second;
+
+    private final String spec;
+
+    private LatencyModel(Kind kind, double first, double second, String spec) {
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+        this.spec = spec;
+    }
+
+    static LatencyModel parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        try {
+            switch (parts[0].toLowerCase()) {
+                case "none":
+                    return new LatencyModel(Kind.NONE, 0, 0, spec);
+                case "fixed":
+                    return new LatencyModel(Kind.FIXED, Double.parseDouble(parts[1]), 0, spec);
+                case "uniform":
+                    return new LatencyModel(Kind.UNIFORM, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), spec);
+                case "exponential":
+                    return new LatencyModel(Kind.EXPONENTIAL, Double.parseDouble(parts[1]), 0, spec);
+                case "lognormal":
+                    double median = Double.parseDouble(parts[1]);
+                    double p99 = Double.parseDouble(parts[2]);
+                    if (median <= 0 || p99 < median) {
+                        throw new IllegalArgumentException("lognormal needs 0 < median <= p99: " + spec);
+                    }
+                    // mu and sigma of the underlying normal distribution
+                    return new LatencyModel(Kind.LOGNORMAL, Math.log(median), Math.log(p99 / median) / Z_99, spec);
+                default:
+                    throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+        }
+    }
+
+    /**
+     * @return Milliseconds to wait before answering a request
+     */
+    long sampleMillis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double millis;
+        switch (kind) {
+            case FIXED:
+                millis = first;
+                break;
+            case UNIFORM:
+                millis = first + random.nextDouble() * (second - first);
+                break;
+            case EXPONENTIAL:
+                millis = -first * Math.log(1.0 - random.nextDouble());
+                break;
+            case LOGNORMAL:
+                millis = Math.exp(first + second * random.nextGaussian());
+                break;
+            default:
+                millis = 0;
+        }
+        return Math.max(0L, Math.round(millis));
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
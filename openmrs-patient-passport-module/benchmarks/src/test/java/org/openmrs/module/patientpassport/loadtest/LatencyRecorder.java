@@ -0,0 +1,54 @@
+package org.openmrs.module.patientpassport.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps every latency sample of a run, up to a fixed capacity, for exact percentiles
+ */
+final class LatencyRecorder {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final long[] samples;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    LatencyRecorder(int capacity) {
+        samples = new long[capacity];
+    }
+
+    void record(long nanos) {
+        int index = count.getAndIncrement();
+        if (index < samples.length) {
+            samples[index] = nanos;
+        }
+    }
+
+    int getCount() {
+        return Math.min(count.get(), samples.length);
+    }
+
+    /**
+     * "p50=1.2ms p90=... max=..."; call once recording has stopped
+     */
+    String summary() {
+        int size = getCount();
+        if (size == 0) {
+            return "no samples";
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        StringBuilder summary = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            int index = (int) Math.min(size - 1, Math.ceil(percentile / 100.0 * size) - 1);
+            summary.append('p').append(percentile == Math.rint(percentile) ? Long.toString((long) percentile)
+                : Double.toString(percentile)).append('=').append(millis(sorted[Math.max(0, index)])).append(' ');
+        }
+        return summary.append("max=").append(millis(sorted[size - 1])).toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,266 @@
+package org.openmrs.module.patientpassport.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Patient Passport API, for measuring the sync pipeline without
+ * calling the real one. Point patientpassport.api.baseUrl at {@link #getBaseUrl()}.
+ *
+ * Answers the endpoints the module calls with minimal valid bodies, after a delay drawn
+ * from a latency distribution. A share of requests fails with 500 (--errorRate), a share
+ * is throttled with 429 (--throttleRate), and requests above --rateLimit per second are
+ * throttled as well. --noBatchEndpoint answers the batch endpoint with 404, as an API
+ * version without it does.
+ *
+ * Usage: java -cp benchmarks.jar:patientpassport-benchmarks-1.0.0-tests.jar org.openmrs.module.patientpassport.loadtest.PassportApiStubServer
+ *   [--port=8089] [--latency=lognormal:20:250] [--errorRate=0.01] [--throttleRate=0] [--rateLimit=0] [--threads=200]
+ *   [--noBatchEndpoint]
+ */
+public final class PassportApiStubServer {
+
+    private static final String API_PREFIX = "/api";
+
+    private static final Pattern PASSPORT = Pattern.compile("/patients/passport/([^/]+)");
+
+    private static final Pattern PATIENT_SYNC = Pattern.compile("/patients/sync/([^/]+)");
+
+    private static final long STATS_INTERVAL_SECONDS = 10L;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpServer server;
+
+    private final ExecutorService handlers;
+
+    private final LatencyModel latency;
+
+    private final double errorRate;
+
+    private final double throttleRate;
+
+    private final int rateLimit;
+
+    private final boolean batchEndpoint;
+
+    private final Map<String, LongAdder> responses = new ConcurrentHashMap<>();
+
+    private final AtomicInteger passportVersions = new AtomicInteger();
+
+    // Token bucket for --rateLimit, refilled continuously
+    private double tokens;
+
+    private long refilledAt = System.nanoTime();
+
+    private PassportApiStubServer(HttpServer server, ExecutorService handlers, LatencyModel latency, double errorRate,
+                                  double throttleRate, int rateLimit, boolean batchEndpoint) {
+        this.server = server;
+        this.handlers = handlers;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        this.rateLimit = rateLimit;
+        this.batchEndpoint = batchEndpoint;
+        this.tokens = rateLimit;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PassportApiStubServer stub = start(Arguments.parse(args));
+        System.out.println("Patient Passport API stub listening on " + stub.getBaseUrl() + " - " + stub.describe());
+        while (true) {
+            TimeUnit.SECONDS.sleep(STATS_INTERVAL_SECONDS);
+            System.out.println(stub.getResponseCounts());
+        }
+    }
+
+    /**
+     * Start a stub configured from the command line; --port=0 picks a free port
+     */
+    static PassportApiStubServer start(Arguments args) throws IOException {
+        int threads = args.getInt("threads", 200);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", args.getInt("port", 8089)), 1024);
+        AtomicInteger counter = new AtomicInteger();
+        // Responses are delayed by sleeping, so each concurrent request takes a thread
+        ExecutorService handlers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "passport-stub-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        PassportApiStubServer stub = new PassportApiStubServer(server, handlers,
+            LatencyModel.parse(args.get("latency", "lognormal:20:250")),
+            args.getDouble("errorRate", 0.0), args.getDouble("throttleRate", 0.0), args.getInt("rateLimit", 0),
+            !args.getBoolean("noBatchEndpoint"));
+        server.createContext("/", stub::handle);
+        server.setExecutor(handlers);
+        server.start();
+        return stub;
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PREFIX;
+    }
+
+    String describe() {
+        return "latency " + latency + ", error rate " + errorRate + ", throttle rate " + throttleRate +
+            (rateLimit > 0 ? ", rate limit " + rateLimit + "/s" : "") + (batchEndpoint ? "" : ", no batch endpoint");
+    }
+
+    /**
+     * Requests answered so far by "METHOD path status", ids in paths shown as {id}
+     */
+    Map<String, Long> getResponseCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : responses.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        path = path.startsWith(API_PREFIX) ? path.substring(API_PREFIX.length()) : path;
+        try {
+            byte[] requestBody = readBody(exchange.getRequestBody());
+
+            long delay = latency.sampleMillis();
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (!acquireRateToken() || random.nextDouble() < throttleRate) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, method, path, 429, error("Too many requests"));
+            } else if (random.nextDouble() < errorRate) {
+                respond(exchange, method, path, 500, error("Injected failure"));
+            } else {
+                route(exchange, method, path, requestBody);
+            }
+        } catch (JsonProcessingException e) {
+            respond(exchange, method, path, 400, error("Invalid JSON: " + e.getOriginalMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String path, byte[] requestBody) throws IOException {
+        Matcher passport = PASSPORT.matcher(path);
+        Matcher patientSync = PATIENT_SYNC.matcher(path);
+        if ("POST".equals(method) && "/openmrs/observation/store".equals(path)) {
+            respond(exchange, method, path, 201, "{\"success\":true,\"message\":\"Observation stored\"}");
+        } else if (batchEndpoint && "POST".equals(method) && "/openmrs/observation/store/batch".equals(path)) {
+            respond(exchange, method, path, 200, batchResults(requestBody));
+        } else if ("POST".equals(method) && "/openmrs/encounter/store".equals(path)) {
+            respond(exchange, method, path, 200, "{\"success\":true,\"data\":{\"failed\":0}}");
+        } else if ("POST".equals(method) && "/openmrs/patient/sync".equals(path)) {
+            respond(exchange, method, path, 200, "{\"success\":true,\"message\":\"Patient synced\"}");
+        } else if ("POST".equals(method) && patientSync.matches()) {
+            String id = patientSync.group(1);
+            respond(exchange, method, path, 200, "{\"success\":true,\"data\":{\"passportVersion\":" +
+                passportVersions.incrementAndGet() + ",\"passportId\":\"PP-" + id + "\",\"nationalId\":\"NID-" + id +
+                "\",\"universalId\":\"UPID-" + id + "\"}}");
+        } else if ("GET".equals(method) && passport.matches()) {
+            respond(exchange, method, path, 200, passportBody(passport.group(1)));
+        } else if ("POST".equals(method) && "/passport-access/request-otp".equals(path)) {
+            respond(exchange, method, path, 200,
+                "{\"success\":true,\"data\":{\"otpSent\":\"email\",\"otpExpiry\":\"2099-01-01T00:00:00.000Z\"}}");
+        } else if ("POST".equals(method) && "/passport-access/verify-otp".equals(path)) {
+            String patientId = objectMapper.readTree(requestBody).path("patientId").asText("0");
+            respond(exchange, method, path, 200, passportBody(patientId));
+        } else {
+            respond(exchange, method, path, 404, error("No stub for " + method + " " + path));
+        }
+    }
+
+    /**
+     * data.results[] with one successful {index, success, message} per submitted observation
+     */
+    private String batchResults(byte[] requestBody) throws IOException {
+        JsonNode observations = objectMapper.readTree(requestBody).path("observations");
+        StringBuilder body = new StringBuilder(64 + observations.size() * 48);
+        body.append("{\"success\":true,\"data\":{\"results\":[");
+        for (int i = 0; i < observations.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"index\":").append(i).append(",\"success\":true,\"message\":\"Observation stored\"}");
+        }
+        return body.append("]}}").toString();
+    }
+
+    private static String passportBody(String id) {
+        return "{\"success\":true,\"data\":{\"passportId\":\"PP-" + id + "\",\"patientId\":\"" + id + "\"," +
+            "\"nationalId\":\"NID-" + id + "\",\"personalInfo\":{\"fullName\":\"Stub Patient " + id + "\"}," +
+            "\"medicalInfo\":{\"allergies\":[],\"currentMedications\":[],\"medicalConditions\":[]}," +
+            "\"testResults\":[],\"hospitalVisits\":[],\"version\":1,\"isActive\":true}}";
+    }
+
+    private static String error(String message) {
+        return "{\"success\":false,\"message\":\"" + message.replace("\"", "'") + "\"}";
+    }
+
+    private void respond(HttpExchange exchange, String method, String path, int status, String body) throws IOException {
+        String endpoint = SyncMetrics.endpointOf(path);
+        responses.computeIfAbsent(method + " " + endpoint + " " + status, key -> new LongAdder()).increment();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private synchronized boolean acquireRateToken() {
+        if (rateLimit <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(rateLimit, tokens + (now - refilledAt) / 1e9 * rateLimit);
+        refilledAt = now;
+        if (tokens < 1.0) {
+            return false;
+        }
+        tokens -= 1.0;
+        return true;
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,74 @@
+package org.openmrs.module.patientpassport.loadtest;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.openmrs.Obs;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.ServiceContext;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * In-memory stand-ins for the OpenMRS services the sync path looks up through Context,
+ * so it runs outside OpenMRS. Global properties come from a map; the outbox hands each
+ * enqueued obs to a callback and otherwise behaves as empty.
+ */
+final class StandaloneServices {
+
+    private StandaloneServices() {
+    }
+
+    static void install(Map<String, String> globalProperties, BiConsumer<Obs, String> enqueue) {
+        ServiceContext services = ServiceContext.getInstance();
+        services.setService(AdministrationService.class, proxy(AdministrationService.class, invocation -> {
+            Object[] arguments = invocation.getArguments();
+            if ("getGlobalProperty".equals(invocation.getMethod().getName()) && arguments.length > 0) {
+                String value = globalProperties.get((String) arguments[0]);
+                return value != null || arguments.length == 1 ? value : arguments[1];
+            }
+            return emptyValue(invocation.getMethod().getReturnType());
+        }));
+        services.setService(PatientPassportSyncOutboxService.class, proxy(PatientPassportSyncOutboxService.class, invocation -> {
+            if ("enqueue".equals(invocation.getMethod().getName())) {
+                enqueue.accept((Obs) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+                return null;
+            }
+            return emptyValue(invocation.getMethod().getReturnType());
+        }));
+    }
+
+    /**
+     * ServiceContext only accepts Spring AOP proxies
+     */
+    private static <T> T proxy(Class<T> service, MethodInterceptor behaviour) {
+        ProxyFactory factory = new ProxyFactory();
+        factory.addInterface(service);
+        factory.addAdvice(behaviour);
+        return service.cast(factory.getProxy());
+    }
+
+    private static Object emptyValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (Set.class.isAssignableFrom(type)) {
+            return Collections.emptySet();
+        } else if (Map.class.isAssignableFrom(type)) {
+            return Collections.emptyMap();
+        } else if (List.class.isAssignableFrom(type) || Collection.class.equals(type)) {
+            return Collections.emptyList();
+        }
+        return null;
+    }
+}
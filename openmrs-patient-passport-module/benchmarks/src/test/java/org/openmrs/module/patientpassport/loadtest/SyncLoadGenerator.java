@@ -0,0 +1,332 @@
+package org.openmrs.module.patientpassport.loadtest;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.ObsService;
+import org.openmrs.module.patientpassport.advice.ObservationSaveAdvice;
+import org.openmrs.module.patientpassport.benchmarks.SyncFixtures;
+import org.openmrs.module.patientpassport.http.AdaptiveConcurrencyLimiter;
+import org.openmrs.module.patientpassport.http.PassportApiGuard;
+import org.openmrs.module.patientpassport.http.PassportHttpTransport;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.service.impl.PatientPassportDataServiceImpl;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.openmrs.module.patientpassport.sync.SyncDeduplicator;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives synthetic obs saves through ObservationSaveAdvice at a fixed rate and delivers
+ * what it queues to the Patient Passport API through PatientPassportDataServiceImpl, as
+ * the outbox dispatcher does after commit. Runs without OpenMRS: the outbox is an
+ * in-memory queue and global properties come from the command line.
+ *
+ * Saves follow an open-loop schedule, and latencies are measured from the time a save was
+ * due rather than when it started, so a stalled run shows up in the percentiles instead
+ * of just lowering the request rate.
+ *
+ * Usage: java -cp benchmarks.jar:patientpassport-benchmarks-1.0.0-tests.jar org.openmrs.module.patientpassport.loadtest.SyncLoadGenerator
+ *   [--rate=200] [--duration=60] [--warmup=10] [--threads=16] [--workers=8] [--patients=500] [--drain=30]
+ *   [--baseUrl=http://host/api] [--printMetrics] [--patientpassport.some.property=value]
+ *
+ * Without --baseUrl an embedded PassportApiStubServer is started, configured by the same
+ * arguments (--port, --latency, --errorRate, --throttleRate, --rateLimit).
+ */
+public final class SyncLoadGenerator {
+
+    private static final Log log = LogFactory.getLog(SyncLoadGenerator.class);
+
+    private static final String BASE_URL_PROPERTY = "patientpassport.api.baseUrl";
+
+    private final ObservationSaveAdvice advice = new ObservationSaveAdvice();
+
+    private final PatientPassportDataServiceImpl dataService = new PatientPassportDataServiceImpl();
+
+    private final PassportHttpTransport transport = new PassportHttpTransport();
+
+    private final Method saveObs;
+
+    private final Patient[] patients;
+
+    private final Concept[] concepts = SyncFixtures.concepts();
+
+    private final int rate;
+
+    private final int saveThreads;
+
+    private final ExecutorService delivery;
+
+    // Due time of every obs queued and not yet delivered
+    private final Map<Integer, Long> dueAt = new ConcurrentHashMap<>();
+
+    private final LatencyRecorder saveLatency;
+
+    private final LatencyRecorder endToEndLatency;
+
+    private final LongAdder saves = new LongAdder();
+
+    private final LongAdder delivered = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final AtomicLong lastSaveAt = new AtomicLong();
+
+    private final AtomicLong lastDeliveryAt = new AtomicLong();
+
+    private volatile long measureFrom;
+
+    private SyncLoadGenerator(int rate, int durationSeconds, int saveThreads, int workers, int patientCount)
+        throws NoSuchMethodException {
+        this.saveObs = ObsService.class.getMethod("saveObs", Obs.class, String.class);
+        this.rate = rate;
+        this.saveThreads = saveThreads;
+
+        patients = new Patient[patientCount];
+        for (int i = 0; i < patientCount; i++) {
+            patients[i] = SyncFixtures.patient(i + 1);
+        }
+
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8L, (long) rate * durationSeconds + 1024L);
+        saveLatency = new LatencyRecorder(capacity);
+        endToEndLatency = new LatencyRecorder(capacity);
+
+        AtomicInteger counter = new AtomicInteger();
+        delivery = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(() -> {
+                SyncFixtures.openSession();
+                runnable.run();
+            }, "passport-load-delivery-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        dataService.setTransport(transport);
+        dataService.setApiGuard(new PassportApiGuard());
+        dataService.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(4, 1, 32));
+        dataService.setDeduplicator(new SyncDeduplicator());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = Arguments.parse(args);
+        int rate = arguments.getInt("rate", 200);
+        int durationSeconds = arguments.getInt("duration", 60);
+        int warmupSeconds = arguments.getInt("warmup", 10);
+        int drainSeconds = arguments.getInt("drain", 30);
+        if (rate <= 0 || durationSeconds <= 0 || warmupSeconds < 0) {
+            throw new IllegalArgumentException("--rate and --duration must be positive, --warmup not negative");
+        }
+
+        PassportApiStubServer stub = null;
+        String baseUrl = arguments.get("baseUrl", null);
+        if (baseUrl == null) {
+            stub = PassportApiStubServer.start(arguments);
+            baseUrl = stub.getBaseUrl();
+            log.info("Embedded Patient Passport API stub on " + baseUrl + " - " + stub.describe());
+        }
+
+        Map<String, String> globalProperties = new HashMap<>(arguments.withPrefix("patientpassport."));
+        globalProperties.put(BASE_URL_PROPERTY, baseUrl);
+
+        SyncLoadGenerator generator = new SyncLoadGenerator(rate, durationSeconds, arguments.getInt("threads", 16),
+            arguments.getInt("workers", 8), arguments.getInt("patients", 500));
+        StandaloneServices.install(globalProperties, generator::queued);
+        try {
+            log.info("Saving " + rate + " obs/s for " + warmupSeconds + "s warmup + " + durationSeconds + "s");
+            generator.run(warmupSeconds, durationSeconds);
+            generator.drain(drainSeconds);
+            generator.report(durationSeconds);
+            if (stub != null) {
+                log.info("Stub responses: " + stub.getResponseCounts());
+            }
+            if (arguments.getBoolean("printMetrics")) {
+                log.info(SyncMetrics.scrape(Collections.<String, Object> emptyMap()));
+            }
+        } finally {
+            generator.transport.shutdown();
+            if (stub != null) {
+                stub.stop();
+            }
+        }
+    }
+
+    /**
+     * Save at the target rate until the warmup and the measured period have passed
+     */
+    private void run(int warmupSeconds, int durationSeconds) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = start + TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+        measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+
+        List<Thread> threads = new ArrayList<>(saveThreads);
+        for (int t = 0; t < saveThreads; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> save(first, start, end, intervalNanos), "passport-load-save-" + (t + 1));
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Make every saveThreads-th save of the schedule, starting with the given one
+     */
+    private void save(int first, long start, long end, long intervalNanos) {
+        SyncFixtures.openSession();
+        try {
+            for (long i = first; ; i += saveThreads) {
+                long due = start + i * intervalNanos;
+                if (due >= end) {
+                    return;
+                }
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                Obs obs = newObs((int) i + 1);
+                dueAt.put(obs.getObsId(), due);
+                try {
+                    advice.invoke(new SaveObsInvocation(saveObs, obs));
+                } catch (Throwable e) {
+                    dueAt.remove(obs.getObsId());
+                    log.warn("Save " + obs.getObsId() + " failed: " + e);
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                if (due >= measureFrom) {
+                    saveLatency.record(now - due);
+                    saves.increment();
+                    lastSaveAt.accumulateAndGet(now, Math::max);
+                }
+            }
+        } finally {
+            SyncFixtures.closeSession();
+        }
+    }
+
+    private Obs newObs(int obsId) {
+        Concept concept = concepts[obsId % concepts.length];
+        Obs obs = SyncFixtures.obs(obsId, patients[obsId % patients.length], concept, null);
+        if ("Numeric".equals(concept.getDatatype().getName())) {
+            obs.setValueNumeric(60.0 + obsId % 90);
+        } else {
+            obs.setValueText("Load test value " + obsId);
+        }
+        return obs;
+    }
+
+    /**
+     * Outbox enqueue: deliver on the worker pool, as the dispatcher does after commit
+     */
+    private void queued(Obs obs, String obsType) {
+        delivery.execute(() -> deliver(obs, obsType));
+    }
+
+    private void deliver(Obs obs, String obsType) {
+        boolean sent = dataService.sendObservationToPassport((Patient) obs.getPerson(), obs,
+            ObservationClassifier.toApiObservationType(obsType));
+        Long due = dueAt.remove(obs.getObsId());
+        if (due == null || due < measureFrom) {
+            return;
+        }
+        if (sent) {
+            long now = System.nanoTime();
+            endToEndLatency.record(now - due);
+            delivered.increment();
+            lastDeliveryAt.accumulateAndGet(now, Math::max);
+        } else {
+            failed.increment();
+        }
+    }
+
+    /**
+     * Wait for the queued deliveries to finish, at most the given time
+     */
+    private void drain(int drainSeconds) throws InterruptedException {
+        delivery.shutdown();
+        if (!delivery.awaitTermination(drainSeconds, TimeUnit.SECONDS)) {
+            log.info("Deliveries still running after " + drainSeconds + "s, stopping them");
+            delivery.shutdownNow();
+        }
+    }
+
+    private void report(int durationSeconds) {
+        long savesDone = saves.sum();
+        long deliveredDone = delivered.sum();
+        log.info("Saves:      " + savesDone + " in " + durationSeconds + "s, target " + rate + "/s, achieved " +
+            perSecond(savesDone, lastSaveAt.get()) + "/s");
+        log.info("Save:       " + saveLatency.summary());
+        log.info("Deliveries: " + deliveredDone + " delivered, " + failed.sum() + " failed, " + dueAt.size() +
+            " pending, " + perSecond(deliveredDone, lastDeliveryAt.get()) + "/s");
+        log.info("End to end: " + endToEndLatency.summary());
+    }
+
+    private String perSecond(long count, long lastAt) {
+        double seconds = (lastAt - measureFrom) / 1e9;
+        return seconds > 0 ? String.format("%.1f", count / seconds) : "-";
+    }
+
+    /**
+     * ObsService.saveObs returning the obs as saved
+     */
+    private static final class SaveObsInvocation implements MethodInvocation {
+
+        private final Method method;
+
+        private final Obs obs;
+
+        private final Object[] arguments;
+
+        SaveObsInvocation(Method method, Obs obs) {
+            this.method = method;
+            this.obs = obs;
+            this.arguments = new Object[] { obs, null };
+        }
+
+        @Override
+        public Method getMethod() {
+            return method;
+        }
+
+        @Override
+        public Object[] getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public Object proceed() {
+            return obs;
+        }
+
+        @Override
+        public Object getThis() {
+            return null;
+        }
+
+        @Override
+        public AccessibleObject getStaticPart() {
+            return method;
+        }
+    }
+}
@@ -3,14 +3,28 @@ package org.openmrs.module.patientpassport;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
+import org.openmrs.module.patientpassport.log.SyncLog;
+import org.openmrs.module.patientpassport.sync.DaemonSession;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
  */
-public class PatientPassportModuleActivator extends BaseModuleActivator {
+public class PatientPassportModuleActivator extends BaseModuleActivator implements DaemonTokenAware {
     
     private static final Log log = LogFactory.getLog(PatientPassportModuleActivator.class);
 
+    /**
+     * Background sync work runs as the daemon user through this token
+     * @see org.openmrs.module.DaemonTokenAware#setDaemonToken(DaemonToken)
+     */
+    @Override
+    public void setDaemonToken(DaemonToken token) {
+        DaemonSession.setDaemonToken(token);
+    }
+
     /**
      * @see org.openmrs.module.ModuleActivator#willStart()
      */
@@ -25,6 +39,25 @@ public class PatientPassportModuleActivator extends BaseModuleActivator {
         log.info("✅ Patient Passport Module started");
         log.info(" Data Flow: OpenMRS → Patient Passport");
         log.info("📡 Use REST API endpoints to send observations to Patient Passport");
+        warmUpClassifier();
+    }
+
+    /**
+     * Classify the concepts of recent observations in the background, so startup does not wait on it
+     */
+    private void warmUpClassifier() {
+        Thread warmUp = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                int added = DaemonSession.call(ObservationClassifier::warmUp);
+                log.info("🔥 Observation classifier warmed with " + added + " concepts in " +
+                    (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                log.warn("⚠️ Could not warm the observation classifier: " + e.getMessage());
+            }
+        }, "patientpassport-classifier-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
     }
 
     /**
@@ -38,6 +71,9 @@ public class PatientPassportModuleActivator extends BaseModuleActivator {
      * @see org.openmrs.module.ModuleActivator#stopped()
      */
     public void stopped() {
+        // Flush buffered sync events before the module's classes are unloaded
+        SyncLog.shutdown();
+        DaemonSession.setDaemonToken(null);
         log.info("⏹️ Patient Passport Module stopped");
     }
 }
\ No newline at end of file
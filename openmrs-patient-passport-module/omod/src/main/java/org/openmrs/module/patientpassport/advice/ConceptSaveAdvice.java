@@ -0,0 +1,56 @@
+package org.openmrs.module.patientpassport.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.Concept;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops a concept's cached observation type when the concept is saved, retired,
+ * unretired or purged, so a renamed concept is classified again on its next obs.
+ *
+ * The entry is dropped when the call returns and again once the transaction commits:
+ * an obs classified in between still reads the old, committed concept and would
+ * otherwise cache its old type until the next change.
+ */
+public class ConceptSaveAdvice implements MethodInterceptor {
+
+    private static final Set<String> CHANGE_METHODS = new HashSet<>(
+        Arrays.asList("saveConcept", "retireConcept", "unretireConcept", "purgeConcept"));
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (!CHANGE_METHODS.contains(invocation.getMethod().getName())
+                || invocation.getArguments().length == 0
+                || !(invocation.getArguments()[0] instanceof Concept)) {
+            return invocation.proceed();
+        }
+
+        Concept concept = (Concept) invocation.getArguments()[0];
+        try {
+            return invocation.proceed();
+        } finally {
+            // Also on failure: the concept object may have been changed before the save threw
+            ObservationClassifier.invalidate(concept.getConceptId());
+            invalidateAfterCommit(concept.getConceptId());
+        }
+    }
+
+    private static void invalidateAfterCommit(final Integer conceptId) {
+        if (conceptId == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                ObservationClassifier.invalidate(conceptId);
+            }
+        });
+    }
+}
@@ -0,0 +1,49 @@
+package org.openmrs.module.patientpassport.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.Encounter;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.log.SyncLog;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.openmrs.module.patientpassport.sync.CommittedSyncUnit;
+import org.openmrs.module.patientpassport.sync.SyncCaptureMode;
+
+/**
+ * Aggregates the obs that EncounterService.saveEncounter cascades to.
+ * While the encounter is being saved, ObservationSaveAdvice skips the per-obs outbox
+ * rows for its obs; once the save returns, a single ENCOUNTER row is written in the
+ * same transaction and delivered as one payload (diagnoses, medications, vitals).
+ */
+public class EncounterSaveAdvice implements MethodInterceptor {
+
+    private static final String SAVE_METHOD = "saveEncounter";
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (!SAVE_METHOD.equals(invocation.getMethod().getName())
+                || invocation.getArguments().length == 0
+                || !(invocation.getArguments()[0] instanceof Encounter)
+                || !SyncCaptureMode.isInterceptionEnabled()) {
+            return invocation.proceed();
+        }
+
+        EncounterSyncScope scope = EncounterSyncScope.open((Encounter) invocation.getArguments()[0]);
+        try {
+            Object result = invocation.proceed();
+
+            if (result instanceof Encounter && scope.getCoveredObs() > 0) {
+                Encounter encounter = (Encounter) result;
+                if (encounter.getPatient() != null) {
+                    Context.getService(PatientPassportSyncOutboxService.class).enqueueEncounter(encounter);
+                    CommittedSyncUnit.encounterQueued(encounter.getEncounterId());
+                    SyncLog.info(SyncLog.SAVE, "encounter.queued", "encounterId", encounter.getEncounterId(),
+                        "obsCount", scope.getCoveredObs());
+                }
+            }
+            return result;
+        } finally {
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.openmrs.module.patientpassport.advice;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Tracks the encounter being saved on the current thread while EncounterSaveAdvice
+ * is active. ObservationSaveAdvice uses it to recognise the obs that saveEncounter
+ * cascades to, which are then sent as part of one encounter payload instead of one
+ * outbox row each.
+ */
+final class EncounterSyncScope {
+
+    private static final ThreadLocal<Deque<EncounterSyncScope>> SCOPES = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final Encounter encounter;
+
+    private int coveredObs;
+
+    private EncounterSyncScope(Encounter encounter) {
+        this.encounter = encounter;
+    }
+
+    static EncounterSyncScope open(Encounter encounter) {
+        EncounterSyncScope scope = new EncounterSyncScope(encounter);
+        SCOPES.get().push(scope);
+        return scope;
+    }
+
+    void close() {
+        Deque<EncounterSyncScope> scopes = SCOPES.get();
+        scopes.remove(this);
+        if (scopes.isEmpty()) {
+            SCOPES.remove();
+        }
+    }
+
+    /**
+     * Record the obs as covered if it belongs to the encounter being saved on this thread
+     * @return true if the per-obs sync should be skipped
+     */
+    static boolean cover(Obs obs) {
+        Deque<EncounterSyncScope> scopes = SCOPES.get();
+        if (scopes.isEmpty()) {
+            SCOPES.remove();
+            return false;
+        }
+
+        EncounterSyncScope scope = scopes.peek();
+        if (!scope.contains(obs)) {
+            return false;
+        }
+        scope.coveredObs++;
+        return true;
+    }
+
+    int getCoveredObs() {
+        return coveredObs;
+    }
+
+    private boolean contains(Obs obs) {
+        Encounter obsEncounter = obs.getEncounter();
+        if (obsEncounter == null || encounter == null) {
+            return false;
+        }
+        return obsEncounter == encounter ||
+            (encounter.getUuid() != null && encounter.getUuid().equals(obsEncounter.getUuid()));
+    }
+}
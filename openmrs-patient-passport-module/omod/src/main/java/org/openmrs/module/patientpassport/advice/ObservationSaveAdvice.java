@@ -5,222 +5,92 @@ import org.aopalliance.intercept.MethodInvocation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Obs;
-import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.patientpassport.service.PatientPassportDataService;
-
-import java.util.concurrent.CompletableFuture;
+import org.openmrs.module.patientpassport.log.SyncLog;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.openmrs.module.patientpassport.sync.CommittedSyncUnit;
+import org.openmrs.module.patientpassport.sync.DaemonSession;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.openmrs.module.patientpassport.sync.SyncCaptureMode;
 
 public class ObservationSaveAdvice implements MethodInterceptor {
     
     private static final Log log = LogFactory.getLog(ObservationSaveAdvice.class);
     
-    private PatientPassportDataService dataService;
-    
-    public ObservationSaveAdvice() {
-        log.info("========================================");
-        log.info("🚀 ObservationSaveAdvice CONSTRUCTOR CALLED - AOP Interceptor Bean Created!");
-        log.info("========================================");
-    }
-    
-    /**
-     * Spring setter injection for the data service
-     */
-    public void setDataService(PatientPassportDataService dataService) {
-        this.dataService = dataService;
-        log.info("✅ PatientPassportDataService injected into ObservationSaveAdvice");
-    }
+    private static final String SAVE_METHOD = "saveObs";
     
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable {
-        log.info("========================================");
-        log.info("🎯 AOP INTERCEPTING! Method: " + invocation.getMethod().getName());
-        log.info("========================================");
-        
-        boolean sessionOpened = false;
-        boolean wasAuthenticated = false;
+        if (!SyncCaptureMode.isInterceptionEnabled()) {
+            // CDC mode: ObsChangeScanner picks the obs up, nothing to do on the save path
+            return invocation.proceed();
+        }
         
+        long start = System.nanoTime();
+        long[] saveNanos = new long[1];
         try {
-            //  CRITICAL FIX: Ensure OpenMRS Context session is available BEFORE method execution
-            if (!Context.isSessionOpen()) {
-                log.info("📂 No session open - opening new session for method execution");
-                Context.openSession();
-                sessionOpened = true;
-                
-                // If we opened the session, we need to authenticate
-                try {
-                    if (!Context.isAuthenticated()) {
-                        log.info("🔐 Not authenticated - using daemon authentication");
-                        Context.becomeUser("daemon");
-                        wasAuthenticated = true;
-                    }
-                } catch (Exception e) {
-                    log.warn("⚠️ Could not authenticate as daemon: " + e.getMessage());
-                }
-            } else {
-                log.info("✅ Session already open");
-            }
-            
-            // Execute the actual method (saveObs, etc.)
-            log.info("⚙️ Executing method: " + invocation.getMethod().getName());
-            Object result = invocation.proceed();
-            
-            // Sync observation to Patient Passport AFTER successful execution
-            if (result instanceof Obs) {
-                Obs obs = (Obs) result;
-                log.info("✅ Observation saved successfully!");
-                log.info("   - ID: " + obs.getObsId());
-                log.info("   - UUID: " + obs.getUuid());
-                log.info("   - Concept: " + (obs.getConcept() != null ? obs.getConcept().getName() : "null"));
-                log.info("   - Person: " + (obs.getPerson() != null ? obs.getPerson().getUuid() : "null"));
-                
-                String obsType = determineObservationType(obs);
-                log.info("   - Type: " + obsType);
-                
-                // 🚀 SYNC TO PATIENT PASSPORT ASYNCHRONOUSLY
-                syncObservationToPassport(obs, obsType);
-            }
-            
-            log.info("✅ Method execution completed successfully");
-            return result;
+            // Without an OpenMRS session, save and queue in a daemon session; a module worker
+            // thread reuses the one it holds, any other thread gets one for this call only
+            return Context.isSessionOpen()
+                ? saveAndQueue(invocation, saveNanos)
+                : DaemonSession.execute(() -> saveAndQueue(invocation, saveNanos));
             
         } catch (Exception e) {
-            log.error("❌ Error during method execution: " + e.getMessage(), e);
+            SyncMetrics.OBS_INTERCEPTED.increment("failed");
+            log.error("❌ Error during " + invocation.getMethod().getName() + ": " + e.getMessage(), e);
             throw e;
         } finally {
-            //  CRITICAL: Clean up authentication and session if we created them
-            if (wasAuthenticated) {
-                try {
-                    Context.logout();
-                    log.info("🔓 Logged out daemon user");
-                } catch (Exception e) {
-                    log.error("❌ Error logging out: " + e.getMessage(), e);
-                }
-            }
-            
-            if (sessionOpened && Context.isSessionOpen()) {
-                try {
-                    Context.closeSession();
-                    log.info("📁 Session closed successfully");
-                } catch (Exception e) {
-                    log.error("❌ Error closing session: " + e.getMessage(), e);
-                }
-            }
-            
-            log.info("========================================");
-            log.info("✅ AOP Processing Complete");
-            log.info("========================================");
+            SyncMetrics.ADVICE_OVERHEAD.recordNanos(System.nanoTime() - start - saveNanos[0]);
         }
     }
     
     /**
-     * Sync observation to Patient Passport asynchronously to avoid blocking OpenMRS
+     * @param saveNanos Receives the time spent in the intercepted save itself
      */
-    private void syncObservationToPassport(Obs obs, String obsType) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                log.info("🔄 Starting async sync to Patient Passport...");
-                
-                // Get patient from observation
-                Patient patient = null;
-                if (obs.getPerson() != null) {
-                    // Check if person is a patient
-                    try {
-                        patient = Context.getPatientService().getPatient(obs.getPerson().getPersonId());
-                    } catch (Exception e) {
-                        log.warn("⚠️ Person is not a patient: " + e.getMessage());
-                    }
-                }
-                
-                if (patient == null) {
-                    log.warn("⚠️ Cannot sync - observation not associated with a patient");
-                    return;
-                }
-                
-                // Check if data service is available
-                if (dataService == null) {
-                    log.error("❌ PatientPassportDataService is null - cannot sync!");
-                    log.error("   This likely means Spring dependency injection failed");
-                    return;
-                }
-                
-                // Convert obsType to format expected by API ("diagnosis" or "medication")
-                String apiObsType = convertToApiObservationType(obsType);
-                
-                log.info("📤 Syncing to Patient Passport:");
-                log.info("   - Patient: " + patient.getPatientId());
-                log.info("   - Observation: " + obs.getObsId());
-                log.info("   - Type: " + apiObsType);
-                
-                // Call the sync service
-                boolean success = dataService.sendObservationToPassport(patient, obs, apiObsType);
-                
-                if (success) {
-                    log.info("✅ Successfully synced observation to Patient Passport!");
-                } else {
-                    log.error("❌ Failed to sync observation to Patient Passport");
-                }
-                
-            } catch (Exception e) {
-                log.error("❌ Error during async sync: " + e.getMessage(), e);
-            }
-        });
+    private Object saveAndQueue(MethodInvocation invocation, long[] saveNanos) throws Throwable {
+        long saveStart = System.nanoTime();
+        Object result;
+        try {
+            result = invocation.proceed();
+        } finally {
+            saveNanos[0] = System.nanoTime() - saveStart;
+        }
+        
+        // Sync observation to Patient Passport AFTER successful execution
+        if (result instanceof Obs && SAVE_METHOD.equals(invocation.getMethod().getName())) {
+            Obs obs = (Obs) result;
+            String obsType = ObservationClassifier.classify(obs);
+            SyncLog.info(SyncLog.SAVE, "obs.saved", "obsId", obs.getObsId(), "uuid", obs.getUuid(), "type", obsType);
+            
+            // 🚀 QUEUE FOR PATIENT PASSPORT SYNC (same transaction as the save)
+            enqueueForSync(obs, obsType);
+        }
+        return result;
     }
     
     /**
-     * Convert internal observation type to API format
+     * Record the observation in the sync outbox. This runs inside the saveObs transaction,
+     * so the outbox row is committed or rolled back together with the observation, and
+     * SyncOutboxDispatcher delivers it once the transaction commits.
+     * Obs cascaded from saveEncounter are left to EncounterSaveAdvice.
      */
-    private String convertToApiObservationType(String obsType) {
-        if (obsType == null) {
-            return "diagnosis"; // Default
+    private void enqueueForSync(Obs obs, String obsType) {
+        if (obs.getPerson() == null || !Boolean.TRUE.equals(obs.getPerson().getIsPatient())) {
+            SyncMetrics.OBS_INTERCEPTED.increment("skipped");
+            SyncLog.info(SyncLog.SAVE, "obs.skipped", "obsId", obs.getObsId(), "reason", "not_a_patient");
+            return;
         }
         
-        switch (obsType.toUpperCase()) {
-            case "DIAGNOSIS":
-            case "LAB_RESULT":
-            case "VITAL_SIGN":
-            case "PROCEDURE":
-            case "IMMUNIZATION":
-            case "OTHER":
-                return "diagnosis";
-            case "MEDICATION":
-            case "ALLERGY":
-                return "medication";
-            default:
-                return "diagnosis";
-        }
-    }
-    
-    private String determineObservationType(Obs obs) {
-        try {
-            if (obs.getConcept() == null) {
-                return "UNKNOWN";
-            }
-            
-            String conceptName = obs.getConcept().getName().getName().toUpperCase();
-            
-            if (conceptName.contains("DIAGNOSIS") || conceptName.contains("CONDITION")) {
-                return "DIAGNOSIS";
-            } else if (conceptName.contains("MEDICATION") || conceptName.contains("DRUG")) {
-                return "MEDICATION";
-            } else if (conceptName.contains("ALLERG")) {
-                return "ALLERGY";
-            } else if (conceptName.contains("LAB") || conceptName.contains("TEST")) {
-                return "LAB_RESULT";
-            } else if (conceptName.contains("VITAL") || conceptName.contains("WEIGHT") || 
-                       conceptName.contains("HEIGHT") || conceptName.contains("TEMPERATURE") ||
-                       conceptName.contains("PRESSURE") || conceptName.contains("PULSE")) {
-                return "VITAL_SIGN";
-            } else if (conceptName.contains("PROCEDURE") || conceptName.contains("SURGERY")) {
-                return "PROCEDURE";
-            } else if (conceptName.contains("IMMUN") || conceptName.contains("VACCIN")) {
-                return "IMMUNIZATION";
-            } else {
-                return "OTHER";
-            }
-        } catch (Exception e) {
-            log.error("Error determining observation type: " + e.getMessage(), e);
-            return "UNKNOWN";
+        if (EncounterSyncScope.cover(obs)) {
+            SyncMetrics.OBS_INTERCEPTED.increment("deferred");
+            SyncLog.info(SyncLog.SAVE, "obs.deferred", "obsId", obs.getObsId(), "encounterId", obs.getEncounter().getEncounterId());
+            return;
         }
+        
+        Context.getService(PatientPassportSyncOutboxService.class).enqueue(obs, obsType);
+        CommittedSyncUnit.obsQueued(obs.getObsId());
+        SyncMetrics.OBS_INTERCEPTED.increment("queued");
+        SyncLog.info(SyncLog.SAVE, "obs.queued", "obsId", obs.getObsId(), "type", obsType);
     }
-}
+}
\ No newline at end of file
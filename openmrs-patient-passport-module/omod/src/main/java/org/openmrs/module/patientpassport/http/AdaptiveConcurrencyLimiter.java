@@ -0,0 +1,283 @@
+package org.openmrs.module.patientpassport.http;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AIMD concurrency limit for outbound Patient Passport calls.
+ *
+ * The limit grows by one per limit's worth of successful calls (about one per round trip)
+ * while the recent latency stays within tolerance of the baseline and the limit is actually
+ * in use. It is cut multiplicatively when a call is dropped (timeout, 429 or 503) or when the
+ * recent latency rises past the tolerance, i.e. once the API is past its latency knee.
+ *
+ * Latency is tracked per operation (e.g. "POST /openmrs/observation/store/batch"), since
+ * a 50-observation batch or an encounter is always slower than a single observation and
+ * would otherwise read as congestion against the single-observation minimum. An operation's
+ * baseline is its minimum latency over the current and previous windows of its samples, so
+ * it follows the API when Azure scales it up or down. The class has no OpenMRS dependencies
+ * and takes latencies as arguments, so it can be driven directly against a local stub.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    // Samples per baseline window
+    private static final int WINDOW = 1000;
+
+    // Weight of a new sample in the recent latency average
+    private static final double RECENT_ALPHA = 0.1;
+
+    private static final double DEFAULT_BACKOFF_RATIO = 0.7;
+
+    private static final double DEFAULT_LATENCY_TOLERANCE = 1.5;
+
+    // Operations tracked separately; any further ones share one entry
+    private static final int MAX_OPERATIONS = 64;
+
+    private static final String OTHER_OPERATIONS = "other";
+
+    private final Object lock = new Object();
+
+    private volatile boolean enabled = true;
+
+    // Told when a permit may have become free, for callers that cannot block in acquire()
+    private volatile Runnable releaseListener;
+
+    private volatile int minLimit;
+    private volatile int maxLimit;
+    private volatile double backoffRatio;
+    private volatile double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+
+    private final Map<String, Latency> latencies = new HashMap<>();
+
+    private long samples;
+    private long drops;
+    private long increases;
+    private long decreases;
+    private long waits;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        configure(minLimit, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_TOLERANCE);
+        this.limit = clamp(initialLimit);
+    }
+
+    public void configure(int minLimit, int maxLimit) {
+        configure(minLimit, maxLimit, backoffRatio, latencyTolerance);
+    }
+
+    /**
+     * @param backoffRatio Factor applied to the limit on a drop (0.5 - 0.9)
+     * @param latencyTolerance Recent latency over baseline that counts as congestion
+     */
+    public void configure(int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        synchronized (lock) {
+            this.minLimit = Math.max(1, minLimit);
+            this.maxLimit = Math.max(this.minLimit, maxLimit);
+            this.backoffRatio = Math.min(0.95, Math.max(0.1, backoffRatio));
+            this.latencyTolerance = Math.max(1.0, latencyTolerance);
+            this.limit = clamp(limit);
+            lock.notifyAll();
+        }
+        notifyReleased();
+    }
+
+    /**
+     * Switched off, callers skip the limiter altogether
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Register a callback run after a permit is released or the limit changes
+     */
+    public void setReleaseListener(Runnable releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * Wait until a call may start
+     */
+    public void acquire() throws InterruptedException {
+        synchronized (lock) {
+            if (inFlight >= (int) limit) {
+                waits++;
+                while (inFlight >= (int) limit) {
+                    lock.wait();
+                }
+            }
+            inFlight++;
+        }
+    }
+
+    /**
+     * @return true if a call may start now
+     */
+    public boolean tryAcquire() {
+        synchronized (lock) {
+            if (inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+    }
+
+    /**
+     * Release a permit after a call that completed normally
+     * @param operation What was called, e.g. "POST /openmrs/observation/store"; latency is
+     *        only compared with earlier calls of the same operation
+     * @param latencyNanos Time the call took
+     */
+    public void onSuccess(String operation, long latencyNanos) {
+        synchronized (lock) {
+            int inFlightAtStart = inFlight;
+            inFlight--;
+            samples++;
+            Latency latency = latencyOf(operation);
+            latency.update(latencyNanos);
+
+            if (latency.recentNanos > latency.baseline() * latencyTolerance) {
+                decrease();
+            } else if (inFlightAtStart * 2 >= limit) {
+                double before = limit;
+                limit = clamp(limit + 1.0 / limit);
+                if ((int) limit > (int) before) {
+                    increases++;
+                }
+            }
+            lock.notifyAll();
+        }
+        notifyReleased();
+    }
+
+    /**
+     * Release a permit after a call the API dropped (timeout, 429, 503)
+     */
+    public void onDropped() {
+        synchronized (lock) {
+            inFlight--;
+            samples++;
+            drops++;
+            decrease();
+            lock.notifyAll();
+        }
+        notifyReleased();
+    }
+
+    /**
+     * Release a permit without a sample (e.g. connection refused, request not sent)
+     */
+    public void onIgnored() {
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+        notifyReleased();
+    }
+
+    public int getLimit() {
+        synchronized (lock) {
+            return (int) limit;
+        }
+    }
+
+    /**
+     * Limit, in-flight calls and latency figures for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        synchronized (lock) {
+            Map<String, Object> operations = new TreeMap<>();
+            for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+                long baseline = entry.getValue().baseline();
+                Map<String, Object> operation = new LinkedHashMap<>();
+                operation.put("baselineLatencyMs", baseline == Long.MAX_VALUE ? null : baseline / 1000000.0);
+                operation.put("recentLatencyMs", entry.getValue().recentNanos / 1000000.0);
+                operations.put(entry.getKey(), operation);
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("enabled", enabled);
+            stats.put("limit", (int) limit);
+            stats.put("minLimit", minLimit);
+            stats.put("maxLimit", maxLimit);
+            stats.put("inFlight", inFlight);
+            stats.put("samples", samples);
+            stats.put("drops", drops);
+            stats.put("increases", increases);
+            stats.put("decreases", decreases);
+            stats.put("waits", waits);
+            stats.put("operations", operations);
+            return stats;
+        }
+    }
+
+    private void notifyReleased() {
+        Runnable listener = releaseListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private Latency latencyOf(String operation) {
+        Latency latency = latencies.get(operation);
+        if (latency == null) {
+            String key = latencies.size() < MAX_OPERATIONS ? operation : OTHER_OPERATIONS;
+            latency = latencies.computeIfAbsent(key, k -> new Latency());
+        }
+        return latency;
+    }
+
+    private void decrease() {
+        double before = limit;
+        limit = clamp(limit * backoffRatio);
+        if (limit < before) {
+            decreases++;
+        }
+        // Let the averages settle at the new limit before judging it again
+        for (Latency latency : latencies.values()) {
+            latency.settle();
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    /**
+     * Baseline and recent latency of one operation; guarded by the limiter's lock
+     */
+    private static final class Latency {
+
+        private long windowMinNanos = Long.MAX_VALUE;
+        private long previousWindowMinNanos = Long.MAX_VALUE;
+        private int windowSamples;
+        private double recentNanos;
+
+        void update(long latencyNanos) {
+            recentNanos = recentNanos == 0 ? latencyNanos : recentNanos + RECENT_ALPHA * (latencyNanos - recentNanos);
+            windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+            if (++windowSamples >= WINDOW) {
+                previousWindowMinNanos = windowMinNanos;
+                windowMinNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+        }
+
+        long baseline() {
+            return Math.min(windowMinNanos, previousWindowMinNanos);
+        }
+
+        void settle() {
+            long baseline = baseline();
+            recentNanos = baseline == Long.MAX_VALUE ? 0 : baseline;
+        }
+    }
+}
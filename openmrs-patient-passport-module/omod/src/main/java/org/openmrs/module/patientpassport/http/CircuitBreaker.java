@@ -0,0 +1,133 @@
+package org.openmrs.module.patientpassport.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Closed / open / half-open circuit breaker.
+ * CLOSED lets every call through and opens after failureThreshold consecutive failures.
+ * OPEN rejects calls until openMs has passed, then moves to HALF_OPEN.
+ * HALF_OPEN lets one probe call through: success closes the breaker, failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+
+    private final AtomicLong openedAt = new AtomicLong();
+
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile int failureThreshold;
+
+    private volatile long openMs;
+
+    public CircuitBreaker(int failureThreshold, long openMs) {
+        configure(failureThreshold, openMs);
+    }
+
+    public void configure(int failureThreshold, long openMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = Math.max(0, openMs);
+    }
+
+    /**
+     * @return true if the call may go ahead; every permitted call must be followed by
+     *         onSuccess() or onFailure()
+     */
+    public boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt.get() < openMs) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        // HALF_OPEN: one probe at a time
+        if (probeInFlight.compareAndSet(false, true)) {
+            if (state.get() == State.CLOSED) {
+                probeInFlight.set(false);
+            }
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.get() != State.CLOSED) {
+            state.set(State.CLOSED);
+        }
+        probeInFlight.set(false);
+    }
+
+    public void onFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State current = state.get();
+        if (current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold)) {
+            open(current);
+        }
+        probeInFlight.set(false);
+    }
+
+    /**
+     * End a permitted call without counting it either way
+     */
+    public void release() {
+        probeInFlight.set(false);
+    }
+
+    /**
+     * Milliseconds until an open breaker lets a probe through, or 0 if calls are allowed
+     */
+    public long getRemainingOpenMs() {
+        if (state.get() != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openMs - (System.currentTimeMillis() - openedAt.get()));
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * State and counters for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.get().name());
+        stats.put("consecutiveFailures", consecutiveFailures.get());
+        stats.put("failureThreshold", failureThreshold);
+        stats.put("openMs", openMs);
+        stats.put("remainingOpenMs", getRemainingOpenMs());
+        stats.put("timesOpened", timesOpened.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+
+    private void open(State from) {
+        if (state.compareAndSet(from, State.OPEN)) {
+            openedAt.set(System.currentTimeMillis());
+            timesOpened.incrementAndGet();
+        }
+    }
+}
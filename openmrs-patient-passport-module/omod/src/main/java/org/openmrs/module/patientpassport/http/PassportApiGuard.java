@@ -0,0 +1,360 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.log.SyncLog;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resilience layer shared by every client of the Patient Passport API.
+ *
+ * Each call goes through one CircuitBreaker: while the API keeps failing the breaker
+ * opens and calls fail at once with PassportApiUnavailableException instead of every
+ * thread waiting out its own timeout. Connection errors, 5xx and 429 responses are
+ * retried up to max_retry_attempts times with full-jitter exponential backoff, as long
+ * as the retry budget allows it; the budget caps retries at a percentage of first
+ * attempts so retries cannot multiply the load on a struggling API.
+ *
+ * Asynchronous calls (executeAsync) follow the same policy, but wait out the backoff on
+ * a timer thread instead of sleeping on the caller's.
+ */
+public class PassportApiGuard {
+
+    private static final Log log = LogFactory.getLog(PassportApiGuard.class);
+
+    private static final long SETTINGS_REFRESH_MS = 60000L;
+
+    private final CircuitBreaker breaker = new CircuitBreaker(5, 30000L);
+
+    private final RetryBudget retryBudget = new RetryBudget();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retriesDenied = new AtomicLong();
+
+    private volatile int maxRetries = 3;
+
+    private volatile long baseDelayMs = 200L;
+
+    private volatile long maxDelayMs = 5000L;
+
+    private volatile long settingsLoadedAt;
+
+    private volatile ScheduledExecutorService retryTimer;
+
+    /**
+     * One attempt of an API call and how to read its outcome
+     */
+    public abstract static class Call<T> {
+
+        protected abstract T attempt() throws IOException;
+
+        /**
+         * HTTP status of a completed attempt; 5xx and 429 count as failures
+         */
+        protected int statusOf(T result) {
+            return 200;
+        }
+
+        /**
+         * Release a failed result before it is retried
+         */
+        protected void discard(T result) {
+        }
+    }
+
+    /**
+     * One attempt of an asynchronous API call and how to read its outcome
+     */
+    public abstract static class AsyncCall<T> {
+
+        /**
+         * Start an attempt; an IOException completing the future counts as a transport failure
+         */
+        protected abstract CompletableFuture<T> attempt();
+
+        /**
+         * HTTP status of a completed attempt; 5xx and 429 count as failures
+         */
+        protected int statusOf(T result) {
+            return 200;
+        }
+
+        /**
+         * Release a failed result before it is retried
+         */
+        protected void discard(T result) {
+        }
+    }
+
+    /**
+     * Run the call through the breaker with retries.
+     * A failed status on the last attempt is returned to the caller as is.
+     * @throws PassportApiUnavailableException if the breaker is open
+     */
+    public <T> T execute(String operation, Call<T> call) throws IOException {
+        refreshSettings();
+        calls.incrementAndGet();
+        retryBudget.deposit();
+
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.tryAcquire()) {
+                throw new PassportApiUnavailableException("Patient Passport API circuit is open, retry in " +
+                    breaker.getRemainingOpenMs() + " ms (" + operation + ")");
+            }
+
+            T result;
+            try {
+                result = call.attempt();
+            } catch (IOException e) {
+                recordFailure();
+                if (!retryAllowed(operation, attempt, e.getClass().getSimpleName() + ": " + e.getMessage())) {
+                    throw e;
+                }
+                continue;
+            } catch (RuntimeException e) {
+                // Not a transport problem: neither retried nor held against the API
+                breaker.release();
+                throw e;
+            }
+
+            int status = call.statusOf(result);
+            if (!isRetryableStatus(status)) {
+                breaker.onSuccess();
+                return result;
+            }
+            recordFailure();
+            if (!retryAllowed(operation, attempt, "HTTP " + status)) {
+                return result;
+            }
+            call.discard(result);
+        }
+    }
+
+    /**
+     * Asynchronous execute: the returned future completes with the last attempt's result,
+     * or exceptionally with PassportApiUnavailableException if the breaker is open
+     */
+    public <T> CompletableFuture<T> executeAsync(String operation, AsyncCall<T> call) {
+        refreshSettings();
+        calls.incrementAndGet();
+        retryBudget.deposit();
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(operation, call, 0, result);
+        return result;
+    }
+
+    private <T> void attemptAsync(String operation, AsyncCall<T> call, int attempt, CompletableFuture<T> result) {
+        if (!breaker.tryAcquire()) {
+            result.completeExceptionally(new PassportApiUnavailableException("Patient Passport API circuit is open, retry in " +
+                breaker.getRemainingOpenMs() + " ms (" + operation + ")"));
+            return;
+        }
+
+        CompletableFuture<T> pending;
+        try {
+            pending = call.attempt();
+        } catch (RuntimeException e) {
+            breaker.release();
+            result.completeExceptionally(e);
+            return;
+        }
+
+        pending.whenComplete((value, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (!(cause instanceof IOException)) {
+                    breaker.release();
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                recordFailure();
+                long delay = retryDelay(operation, attempt, cause.getClass().getSimpleName() + ": " + cause.getMessage());
+                if (delay < 0) {
+                    result.completeExceptionally(cause);
+                } else {
+                    scheduleRetry(delay, () -> attemptAsync(operation, call, attempt + 1, result));
+                }
+                return;
+            }
+
+            int status = call.statusOf(value);
+            if (!isRetryableStatus(status)) {
+                breaker.onSuccess();
+                result.complete(value);
+                return;
+            }
+            recordFailure();
+            long delay = retryDelay(operation, attempt, "HTTP " + status);
+            if (delay < 0) {
+                result.complete(value);
+                return;
+            }
+            call.discard(value);
+            scheduleRetry(delay, () -> attemptAsync(operation, call, attempt + 1, result));
+        });
+    }
+
+    private void scheduleRetry(long delayMs, Runnable retry) {
+        ScheduledExecutorService timer = retryTimer;
+        if (timer == null) {
+            synchronized (this) {
+                if (retryTimer == null) {
+                    retryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "patientpassport-api-retry");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                timer = retryTimer;
+            }
+        }
+        timer.schedule(retry, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static boolean isRetryableStatus(int status) {
+        return status >= 500 || status == 429;
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    /**
+     * @return true while the breaker is open and not yet ready for a probe
+     */
+    public boolean isFailingFast() {
+        return breaker.getRemainingOpenMs() > 0;
+    }
+
+    /**
+     * Breaker state and retry counters for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(breaker.getStats());
+        stats.put("calls", calls.get());
+        stats.put("failures", failures.get());
+        stats.put("retries", retries.get());
+        stats.put("retriesDenied", retriesDenied.get());
+        stats.put("retryBudget", Math.round(retryBudget.available()));
+        stats.put("maxRetryAttempts", maxRetries);
+        return stats;
+    }
+
+    private void recordFailure() {
+        failures.incrementAndGet();
+        breaker.onFailure();
+    }
+
+    /**
+     * Sleep before the next attempt if retries, budget and breaker allow one
+     */
+    private boolean retryAllowed(String operation, int attempt, String reason) {
+        long delay = retryDelay(operation, attempt, reason);
+        if (delay < 0) {
+            return false;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Backoff before the next attempt, or -1 if retries, budget or breaker do not allow one
+     */
+    private long retryDelay(String operation, int attempt, String reason) {
+        if (attempt >= maxRetries || breaker.getState() == CircuitBreaker.State.OPEN) {
+            return -1;
+        }
+        if (!retryBudget.withdraw()) {
+            retriesDenied.incrementAndGet();
+            log.debug("Retry budget exhausted, not retrying " + operation);
+            return -1;
+        }
+
+        // Full jitter: uniform in [0, min(max, base * 2^attempt)]
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        retries.incrementAndGet();
+        SyncLog.info(SyncLog.SEND, "api.retry", "operation", operation, "reason", reason,
+            "attempt", attempt + 1, "maxRetries", maxRetries, "delayMs", delay);
+        return delay;
+    }
+
+    /**
+     * Re-read the global properties at most once a minute; keep the last values if there is no session
+     */
+    private void refreshSettings() {
+        long now = System.currentTimeMillis();
+        if (now - settingsLoadedAt < SETTINGS_REFRESH_MS) {
+            return;
+        }
+        settingsLoadedAt = now;
+        if (!Context.isSessionOpen()) {
+            return;
+        }
+        try {
+            PatientPassportConfig config = new PatientPassportConfig();
+            maxRetries = config.getApiMaxRetryAttempts();
+            baseDelayMs = config.getApiRetryBaseDelayMs();
+            maxDelayMs = Math.max(baseDelayMs, config.getApiRetryMaxDelayMs());
+            retryBudget.configure(config.getApiRetryBudgetPercent() / 100.0);
+            breaker.configure(config.getApiBreakerFailureThreshold(), config.getApiBreakerOpenMs());
+        } catch (Exception e) {
+            log.warn("Could not refresh Patient Passport API resilience settings: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Token bucket for retries: each call deposits ratio tokens and each retry takes one.
+     * A small reserve lets a quiet system retry occasional failures.
+     */
+    private static final class RetryBudget {
+
+        private static final double RESERVE = 10.0;
+
+        private static final double CAPACITY = 100.0;
+
+        private double ratio = 0.2;
+
+        private double tokens = RESERVE;
+
+        synchronized void configure(double ratio) {
+            this.ratio = ratio;
+        }
+
+        synchronized void deposit() {
+            tokens = Math.min(CAPACITY, tokens + ratio);
+        }
+
+        synchronized boolean withdraw() {
+            if (tokens < 1.0) {
+                return false;
+            }
+            tokens -= 1.0;
+            return true;
+        }
+
+        synchronized double available() {
+            return tokens;
+        }
+    }
+}
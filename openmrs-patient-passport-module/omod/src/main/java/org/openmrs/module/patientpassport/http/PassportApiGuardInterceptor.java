@@ -0,0 +1,111 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.function.Supplier;
+
+/**
+ * Runs RestTemplate requests through the PassportApiGuard and, when given one, the
+ * AdaptiveConcurrencyLimiter. Must be the last interceptor: each retry re-executes the
+ * request from here. The limiter permit covers one attempt only, never the backoff between
+ * retries. Requests pass straight through while no guard is available (e.g. before the
+ * module context is refreshed).
+ */
+public class PassportApiGuardInterceptor implements ClientHttpRequestInterceptor {
+
+    private final Supplier<PassportApiGuard> guard;
+
+    private final Supplier<AdaptiveConcurrencyLimiter> limiter;
+
+    public PassportApiGuardInterceptor(Supplier<PassportApiGuard> guard, Supplier<AdaptiveConcurrencyLimiter> limiter) {
+        this.guard = guard;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(final HttpRequest request, final byte[] body,
+                                        final ClientHttpRequestExecution execution) throws IOException {
+        AdaptiveConcurrencyLimiter configured = limiter.get();
+        final AdaptiveConcurrencyLimiter currentLimiter = configured != null && configured.isEnabled() ? configured : null;
+        PassportApiGuard.Call<ClientHttpResponse> call = new PassportApiGuard.Call<ClientHttpResponse>() {
+            @Override
+            protected ClientHttpResponse attempt() throws IOException {
+                long start = System.nanoTime();
+                int status = 0;
+                try {
+                    ClientHttpResponse response = currentLimiter == null
+                        ? execution.execute(request, body)
+                        : executeLimited(currentLimiter, request, body, execution);
+                    status = PassportApiGuardInterceptor.statusOf(response);
+                    return response;
+                } finally {
+                    SyncMetrics.httpAttempt(request.getURI().getPath(), SyncMetrics.BLOCKING, start, status);
+                }
+            }
+
+            @Override
+            protected int statusOf(ClientHttpResponse response) {
+                return PassportApiGuardInterceptor.statusOf(response);
+            }
+
+            @Override
+            protected void discard(ClientHttpResponse response) {
+                response.close();
+            }
+        };
+
+        PassportApiGuard currentGuard = guard.get();
+        if (currentGuard == null) {
+            return call.attempt();
+        }
+        return currentGuard.execute(request.getMethod() + " " + request.getURI().getPath(), call);
+    }
+
+    /**
+     * One attempt under a limiter permit; timeouts, 429 and 503 count as drops
+     */
+    private static ClientHttpResponse executeLimited(AdaptiveConcurrencyLimiter limiter, HttpRequest request,
+                                                     byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a Patient Passport API slot");
+        }
+
+        long start = System.nanoTime();
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (InterruptedIOException e) {
+            limiter.onDropped();
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            limiter.onIgnored();
+            throw e;
+        }
+
+        int status = statusOf(response);
+        if (status == 429 || status == 503) {
+            limiter.onDropped();
+        } else {
+            limiter.onSuccess(request.getMethod() + " " + SyncMetrics.endpointOf(request.getURI().getPath()),
+                System.nanoTime() - start);
+        }
+        return response;
+    }
+
+    private static int statusOf(ClientHttpResponse response) {
+        try {
+            return response.getRawStatusCode();
+        } catch (IOException e) {
+            return 500;
+        }
+    }
+}
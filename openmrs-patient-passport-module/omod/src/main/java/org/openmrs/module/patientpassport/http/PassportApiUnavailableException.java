@@ -0,0 +1,13 @@
+package org.openmrs.module.patientpassport.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown without contacting the Patient Passport API while its circuit breaker is open
+ */
+public class PassportApiUnavailableException extends IOException {
+
+    public PassportApiUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,489 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.sync.DaemonSession;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking Patient Passport API client for patientpassport.sync.transportMode=ASYNC.
+ *
+ * Requests run on a few I/O reactor threads, so hundreds can be in flight without a
+ * thread each. A call goes through the PassportApiGuard (breaker and retries, with the
+ * backoff on a timer) and, for each attempt, takes an AdaptiveConcurrencyLimiter permit
+ * without blocking: attempts the limiter has no room for wait in an admission queue and
+ * start when a permit is released. execute() blocks only when maxInFlight calls are already
+ * outstanding, which is the backpressure on the sync workers; submit() never blocks and is
+ * for continuations on the callback executor, whose calls wait in a queue for a free slot.
+ *
+ * Responses are buffered in memory and handed to callers on the callback executor, never
+ * on an I/O thread, so callers may use the database in their continuations.
+ */
+public class PassportAsyncTransport {
+
+    private static final Log log = LogFactory.getLog(PassportAsyncTransport.class);
+
+    private static final long EVICTION_INTERVAL_MS = 5000L;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    private final Queue<Admission> admissions = new ConcurrentLinkedQueue<>();
+
+    // submit() calls waiting for an in-flight slot
+    private final Queue<QueuedCall> queuedCalls = new ConcurrentLinkedQueue<>();
+
+    private PassportApiGuard apiGuard;
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private volatile CloseableHttpAsyncClient httpClient;
+
+    private volatile PoolingNHttpClientConnectionManager connectionManager;
+
+    private volatile ExecutorService callbackExecutor;
+
+    private volatile ScheduledExecutorService evictor;
+
+    private volatile Semaphore inFlight;
+
+    private volatile int maxInFlight;
+
+    private volatile int ioThreads;
+
+    public void setApiGuard(PassportApiGuard apiGuard) {
+        this.apiGuard = apiGuard;
+    }
+
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.setReleaseListener(this::drainAdmissions);
+        }
+    }
+
+    /**
+     * Send a request through the guard. Blocks while maxInFlight calls are outstanding, so
+     * call it from a worker thread. The request is built again for every attempt.
+     * @return Completes on the callback executor with the last attempt's response, whose entity is buffered
+     */
+    public CompletableFuture<HttpResponse> execute(String operation, Supplier<HttpUriRequest> request)
+            throws InterruptedException {
+        start();
+        Semaphore slots = inFlight;
+        slots.acquire();
+        CompletableFuture<HttpResponse> delivered = new CompletableFuture<>();
+        dispatch(slots, operation, request, delivered);
+        // A call that failed to start has already given its slot back
+        startQueuedCalls();
+        return delivered;
+    }
+
+    /**
+     * Like execute, but never blocks: without a free in-flight slot the call waits in a queue and
+     * starts when a slot is released. For sends made from a response continuation, where
+     * blocking would hold a callback thread that other responses need.
+     * @return Completes on the callback executor with the last attempt's response, whose entity is buffered
+     */
+    public CompletableFuture<HttpResponse> submit(String operation, Supplier<HttpUriRequest> request) {
+        start();
+        QueuedCall call = new QueuedCall(operation, request);
+        queuedCalls.add(call);
+        startQueuedCalls();
+        return call.delivered;
+    }
+
+    /**
+     * Send a call that holds an in-flight slot; the slot is released when the call completes
+     */
+    private void dispatch(Semaphore slots, String operation, Supplier<HttpUriRequest> request,
+            CompletableFuture<HttpResponse> delivered) {
+        calls.incrementAndGet();
+
+        CompletableFuture<HttpResponse> response;
+        try {
+            PassportApiGuard guard = getApiGuard();
+            if (guard == null) {
+                response = attempt(request);
+            } else {
+                response = guard.executeAsync(operation, new PassportApiGuard.AsyncCall<HttpResponse>() {
+                    @Override
+                    protected CompletableFuture<HttpResponse> attempt() {
+                        return PassportAsyncTransport.this.attempt(request);
+                    }
+
+                    @Override
+                    protected int statusOf(HttpResponse result) {
+                        return result.getStatusLine().getStatusCode();
+                    }
+
+                    @Override
+                    protected void discard(HttpResponse result) {
+                        EntityUtils.consumeQuietly(result.getEntity());
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            slots.release();
+            failures.incrementAndGet();
+            delivered.completeExceptionally(e);
+            return;
+        }
+
+        response.whenComplete((result, error) -> {
+            slots.release();
+            if (error != null) {
+                failures.incrementAndGet();
+            }
+            callbackExecutor.execute(() -> {
+                // Queued calls start here rather than on the I/O thread, since the guard may read settings
+                startQueuedCalls();
+                if (error != null) {
+                    delivered.completeExceptionally(error);
+                } else {
+                    delivered.complete(result);
+                }
+            });
+        });
+    }
+
+    /**
+     * Start queued submit() calls while slots are free. Safe to call from any thread.
+     */
+    private void startQueuedCalls() {
+        Semaphore slots = inFlight;
+        while (slots != null && !queuedCalls.isEmpty() && slots.tryAcquire()) {
+            QueuedCall call = queuedCalls.poll();
+            if (call == null) {
+                // Another thread took it; the loop checks again for a call queued meanwhile
+                slots.release();
+                continue;
+            }
+            dispatch(slots, call.operation, call.request, call.delivered);
+        }
+    }
+
+    /**
+     * Executor that runs response continuations
+     */
+    public Executor getCallbackExecutor() {
+        start();
+        return callbackExecutor;
+    }
+
+    /**
+     * Build and start the client on first use, with settings read from global properties
+     */
+    public void start() {
+        // httpClient is published last, so a started client is seen without taking the lock
+        if (httpClient == null) {
+            startClient();
+        }
+    }
+
+    private synchronized void startClient() {
+        if (httpClient != null) {
+            return;
+        }
+        PatientPassportConfig config = new PatientPassportConfig();
+        int timeoutMs = config.getApiTimeoutMs();
+        long keepAliveMs = config.getApiPoolKeepAliveMs();
+        ioThreads = config.getSyncAsyncIoThreads();
+        maxInFlight = config.getSyncAsyncMaxInFlight();
+
+        PoolingNHttpClientConnectionManager manager;
+        try {
+            manager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setSoKeepAlive(true)
+                .setTcpNoDelay(true)
+                .setConnectTimeout(timeoutMs)
+                .setSoTimeout(timeoutMs)
+                .build()));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Could not start the Patient Passport I/O reactor: " + e.getMessage(), e);
+        }
+        manager.setMaxTotal(Math.max(config.getApiPoolMaxTotal(), 1));
+        manager.setDefaultMaxPerRoute(Math.min(config.getApiPoolMaxPerRoute(), manager.getMaxTotal()));
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+            .setConnectionManager(manager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .setConnectionRequestTimeout(timeoutMs)
+                .build())
+            .setKeepAliveStrategy((response, context) -> {
+                long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMs) : keepAliveMs;
+            })
+            .setUserAgent("OpenMRS-PatientPassport/1.0.0")
+            .build();
+        client.start();
+
+        // Bookkeeping after a response touches the database; one thread per sync worker keeps up with it
+        int callbackThreads = config.getSyncWorkers();
+        AtomicInteger callbackCounter = new AtomicInteger();
+        callbackExecutor = Executors.newFixedThreadPool(callbackThreads, runnable -> {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-async-callback-" + callbackCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // The async client has no built-in evictor
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "patientpassport-async-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(() -> {
+            manager.closeExpiredConnections();
+            manager.closeIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS);
+            // A permit freed by a blocking send elsewhere does not always reach the listener first
+            drainAdmissions();
+        }, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        inFlight = new Semaphore(maxInFlight);
+        connectionManager = manager;
+        httpClient = client;
+        log.info("Patient Passport async HTTP client started: " + ioThreads + " I/O threads, " + maxInFlight +
+            " max in flight, " + callbackThreads + " callback threads");
+    }
+
+    /**
+     * Spring destroy-method
+     */
+    public synchronized void shutdown() {
+        if (httpClient == null) {
+            return;
+        }
+        evictor.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Error closing Patient Passport async HTTP client: " + e.getMessage());
+        }
+        Admission admission;
+        while ((admission = admissions.poll()) != null) {
+            admission.response.completeExceptionally(new InterruptedIOException("Patient Passport async client stopped"));
+        }
+        QueuedCall call;
+        while ((call = queuedCalls.poll()) != null) {
+            call.delivered.completeExceptionally(new InterruptedIOException("Patient Passport async client stopped"));
+        }
+        callbackExecutor.shutdown();
+        try {
+            if (!callbackExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                callbackExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            callbackExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        httpClient = null;
+        connectionManager = null;
+    }
+
+    /**
+     * In-flight calls, queued attempts and pool occupancy for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("started", httpClient != null);
+        Semaphore slots = inFlight;
+        stats.put("inFlight", slots != null ? maxInFlight - slots.availablePermits() : 0);
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("waitingForPermit", admissions.size());
+        stats.put("waitingForSlot", queuedCalls.size());
+        stats.put("ioThreads", ioThreads);
+        stats.put("calls", calls.get());
+        stats.put("attempts", attempts.get());
+        stats.put("failures", failures.get());
+        PoolingNHttpClientConnectionManager manager = connectionManager;
+        if (manager != null) {
+            PoolStats total = manager.getTotalStats();
+            stats.put("leased", total.getLeased());
+            stats.put("available", total.getAvailable());
+            stats.put("pending", total.getPending());
+        }
+        return stats;
+    }
+
+    /**
+     * One attempt; it starts once the limiter has room
+     */
+    private CompletableFuture<HttpResponse> attempt(Supplier<HttpUriRequest> request) {
+        Admission admission = new Admission(request);
+        admissions.add(admission);
+        drainAdmissions();
+        return admission.response;
+    }
+
+    /**
+     * Start queued attempts while the limiter has permits. Safe to call from any thread;
+     * concurrent calls collapse into one drain loop.
+     */
+    private void drainAdmissions() {
+        if (drainRequests.getAndIncrement() > 0) {
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            while (!admissions.isEmpty()) {
+                AdaptiveConcurrencyLimiter limiter = getConcurrencyLimiter();
+                if (limiter != null && !limiter.tryAcquire()) {
+                    break;
+                }
+                Admission admission = admissions.poll();
+                if (admission == null) {
+                    if (limiter != null) {
+                        limiter.onIgnored();
+                    }
+                    break;
+                }
+                send(admission, limiter);
+            }
+            missed = drainRequests.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void send(final Admission admission, final AdaptiveConcurrencyLimiter limiter) {
+        final CloseableHttpAsyncClient client = httpClient;
+        final long start = System.nanoTime();
+        attempts.incrementAndGet();
+        try {
+            if (client == null) {
+                throw new IllegalStateException("Patient Passport async client is stopped");
+            }
+            final HttpUriRequest request = admission.request.get();
+            final String path = request.getURI().getPath();
+            client.execute(request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    int status = response.getStatusLine().getStatusCode();
+                    SyncMetrics.httpAttempt(path, SyncMetrics.ASYNC, start, status);
+                    if (limiter != null) {
+                        if (status == 429 || status == 503) {
+                            limiter.onDropped();
+                        } else {
+                            limiter.onSuccess(request.getMethod() + " " + SyncMetrics.endpointOf(path),
+                                System.nanoTime() - start);
+                        }
+                    }
+                    admission.response.complete(response);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    SyncMetrics.httpAttempt(path, SyncMetrics.ASYNC, start, 0);
+                    if (limiter != null) {
+                        if (e instanceof InterruptedIOException) {
+                            limiter.onDropped();
+                        } else {
+                            limiter.onIgnored();
+                        }
+                    }
+                    admission.response.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+                }
+
+                @Override
+                public void cancelled() {
+                    SyncMetrics.httpAttempt(path, SyncMetrics.ASYNC, start, 0);
+                    if (limiter != null) {
+                        limiter.onIgnored();
+                    }
+                    admission.response.completeExceptionally(new InterruptedIOException("Request cancelled"));
+                }
+            });
+        } catch (RuntimeException e) {
+            if (limiter != null) {
+                limiter.onIgnored();
+            }
+            admission.response.completeExceptionally(e);
+        }
+    }
+
+    private PassportApiGuard getApiGuard() {
+        if (apiGuard == null) {
+            try {
+                apiGuard = Context.getRegisteredComponent("patientPassportApiGuard", PassportApiGuard.class);
+            } catch (Exception e) {
+                log.debug("Patient Passport API guard not available: " + e.getMessage());
+            }
+        }
+        return apiGuard;
+    }
+
+    private AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+        return limiter != null && limiter.isEnabled() ? limiter : null;
+    }
+
+    /**
+     * A submit() call waiting for an in-flight slot
+     */
+    private static final class QueuedCall {
+
+        private final String operation;
+
+        private final Supplier<HttpUriRequest> request;
+
+        private final CompletableFuture<HttpResponse> delivered = new CompletableFuture<>();
+
+        QueuedCall(String operation, Supplier<HttpUriRequest> request) {
+            this.operation = operation;
+            this.request = request;
+        }
+    }
+
+    /**
+     * An attempt waiting for a limiter permit
+     */
+    private static final class Admission {
+
+        private final Supplier<HttpUriRequest> request;
+
+        private final CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+
+        Admission(Supplier<HttpUriRequest> request) {
+            this.request = request;
+        }
+    }
+}
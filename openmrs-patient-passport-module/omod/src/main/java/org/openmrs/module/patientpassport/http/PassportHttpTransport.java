@@ -0,0 +1,178 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one HTTP client every Patient Passport API caller shares.
+ *
+ * Connections are pooled and kept alive between calls, so a send reuses an open TLS
+ * session instead of handshaking with the API again. Pool sizes and the idle keep-alive
+ * are read when the client is first used; patientpassport.api.timeout is re-read every
+ * minute and applied to the connect, socket and pool-wait timeouts of each request.
+ * Idle and expired connections are closed by a background evictor, and stale ones are
+ * checked before reuse, so a connection the server or a load balancer dropped is not
+ * handed out.
+ */
+public class PassportHttpTransport {
+
+    private static final Log log = LogFactory.getLog(PassportHttpTransport.class);
+
+    private static final long SETTINGS_REFRESH_MS = 60000L;
+
+    // Re-check a pooled connection that has been idle this long before reusing it
+    private static final int VALIDATE_AFTER_INACTIVITY_MS = 2000;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    private volatile CloseableHttpClient httpClient;
+
+    private volatile PoolingHttpClientConnectionManager connectionManager;
+
+    private volatile RequestConfig requestConfig;
+
+    private volatile long settingsLoadedAt;
+
+    private volatile long keepAliveMs;
+
+    /**
+     * The shared client; built on first use so the pool settings come from global properties
+     */
+    public CloseableHttpClient getHttpClient() {
+        CloseableHttpClient client = httpClient;
+        if (client == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    httpClient = build();
+                }
+                client = httpClient;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Spring destroy-method
+     */
+    public synchronized void shutdown() {
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Error closing Patient Passport HTTP client: " + e.getMessage());
+            }
+            httpClient = null;
+            connectionManager = null;
+        }
+    }
+
+    /**
+     * Pool occupancy and connection reuse for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        PoolingHttpClientConnectionManager manager = connectionManager;
+        if (manager != null) {
+            PoolStats total = manager.getTotalStats();
+            stats.put("leased", total.getLeased());
+            stats.put("available", total.getAvailable());
+            stats.put("pending", total.getPending());
+            stats.put("max", total.getMax());
+            stats.put("maxPerRoute", manager.getDefaultMaxPerRoute());
+            stats.put("routes", manager.getRoutes().size());
+        }
+        long requestCount = requests.get();
+        long opened = connectionsOpened.get();
+        stats.put("requests", requestCount);
+        stats.put("connectionsOpened", opened);
+        stats.put("connectionReuseRatio", requestCount > 0
+            ? Math.max(0.0, 1.0 - (double) opened / requestCount) : 0.0);
+        RequestConfig config = requestConfig;
+        stats.put("timeoutMs", config != null ? config.getSocketTimeout() : null);
+        stats.put("keepAliveMs", keepAliveMs);
+        return stats;
+    }
+
+    private CloseableHttpClient build() {
+        PatientPassportConfig config = new PatientPassportConfig();
+        keepAliveMs = config.getApiPoolKeepAliveMs();
+
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> countingFactory =
+            (route, connectionConfig) -> {
+                connectionsOpened.incrementAndGet();
+                return ManagedHttpClientConnectionFactory.INSTANCE.create(route, connectionConfig);
+            };
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(countingFactory);
+        manager.setMaxTotal(config.getApiPoolMaxTotal());
+        manager.setDefaultMaxPerRoute(Math.min(config.getApiPoolMaxPerRoute(), config.getApiPoolMaxTotal()));
+        manager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+        manager.setDefaultSocketConfig(SocketConfig.custom().setSoKeepAlive(true).setTcpNoDelay(true).build());
+        connectionManager = manager;
+
+        refreshSettings();
+
+        // Applied per request so a changed patientpassport.api.timeout takes effect without a restart
+        HttpRequestInterceptor applyTimeouts = (request, context) -> {
+            requests.incrementAndGet();
+            refreshSettings();
+            HttpClientContext.adapt(context).setRequestConfig(requestConfig);
+        };
+
+        log.info("Patient Passport HTTP pool: maxTotal=" + manager.getMaxTotal() +
+            ", maxPerRoute=" + manager.getDefaultMaxPerRoute() + ", keepAliveMs=" + keepAliveMs +
+            ", timeoutMs=" + requestConfig.getSocketTimeout());
+
+        return HttpClients.custom()
+            .setConnectionManager(manager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> {
+                long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMs) : keepAliveMs;
+            })
+            .addInterceptorFirst(applyTimeouts)
+            .evictExpiredConnections()
+            .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+            // PassportApiGuard owns retries
+            .disableAutomaticRetries()
+            .setUserAgent("OpenMRS-PatientPassport/1.0.0")
+            .build();
+    }
+
+    private void refreshSettings() {
+        long now = System.currentTimeMillis();
+        if (requestConfig != null && now - settingsLoadedAt < SETTINGS_REFRESH_MS) {
+            return;
+        }
+        settingsLoadedAt = now;
+        int timeoutMs = new PatientPassportConfig().getApiTimeoutMs();
+        RequestConfig current = requestConfig;
+        if (current == null || current.getSocketTimeout() != timeoutMs) {
+            requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .setConnectionRequestTimeout(timeoutMs)
+                .build();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.openmrs.module.patientpassport.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.openmrs.module.patientpassport.dto.EncounterPayloadDTO;
+import org.openmrs.module.patientpassport.dto.ObservationDataDTO;
+import org.openmrs.module.patientpassport.dto.ObservationPayloadDTO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes Patient Passport request bodies straight from the payload DTOs with a Jackson
+ * streaming generator, so no intermediate maps or strings are built. Each thread reuses
+ * one output buffer (Jackson recycles its own encoding buffers the same way), so a body
+ * costs a single exact-size byte[] copy. Dates are epoch milliseconds, as RestTemplate's
+ * Jackson wrote them before, which is what the backend parses.
+ */
+public final class PassportPayloadWriter {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final int INITIAL_BUFFER_SIZE = 2048;
+
+    // A buffer that grew past this for one large batch is dropped rather than kept per thread
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<PayloadBuffer> BUFFERS = ThreadLocal.withInitial(PayloadBuffer::new);
+
+    private PassportPayloadWriter() {
+    }
+
+    /**
+     * Body of /openmrs/observation/store
+     */
+    public static byte[] observation(ObservationPayloadDTO payload) {
+        return write(generator -> writeObservation(generator, payload));
+    }
+
+    /**
+     * Body of /openmrs/observation/store/batch: {"observations": [...]}
+     */
+    public static byte[] observationBatch(List<ObservationPayloadDTO> payloads) {
+        return write(generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("observations");
+            for (ObservationPayloadDTO payload : payloads) {
+                writeObservation(generator, payload);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    /**
+     * Body of /openmrs/encounter/store
+     */
+    public static byte[] encounter(EncounterPayloadDTO payload) {
+        return write(generator -> {
+            generator.writeStartObject();
+            writeString(generator, "patientName", payload.getPatientName());
+            writeString(generator, "hospitalName", payload.getHospitalName());
+            writeString(generator, "doctorLicenseNumber", payload.getDoctorLicenseNumber());
+            writeString(generator, "encounterUuid", payload.getEncounterUuid());
+            writeString(generator, "encounterType", payload.getEncounterType());
+            writeDate(generator, "encounterDate", payload.getEncounterDate());
+            writeDataArray(generator, "diagnoses", payload.getDiagnoses());
+            writeDataArray(generator, "medications", payload.getMedications());
+            writeDataArray(generator, "vitals", payload.getVitals());
+            generator.writeEndObject();
+        });
+    }
+
+    private static void writeObservation(JsonGenerator generator, ObservationPayloadDTO payload) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "patientName", payload.getPatientName());
+        writeString(generator, "observationType", payload.getObservationType());
+        writeString(generator, "doctorLicenseNumber", payload.getDoctorLicenseNumber());
+        writeString(generator, "hospitalName", payload.getHospitalName());
+        if (payload.getObservationData() != null) {
+            generator.writeFieldName("observationData");
+            writeData(generator, payload.getObservationData());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeDataArray(JsonGenerator generator, String name, List<ObservationDataDTO> items) throws IOException {
+        generator.writeArrayFieldStart(name);
+        if (items != null) {
+            for (ObservationDataDTO item : items) {
+                writeData(generator, item);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeData(JsonGenerator generator, ObservationDataDTO data) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "diagnosis", data.getDiagnosis());
+        writeString(generator, "medicationName", data.getMedicationName());
+        writeString(generator, "dosage", data.getDosage());
+        writeString(generator, "frequency", data.getFrequency());
+        writeDate(generator, "startDate", data.getStartDate());
+        writeString(generator, "observationType", data.getObservationType());
+        writeString(generator, "value", data.getValue());
+        writeString(generator, "conceptName", data.getConceptName());
+        writeString(generator, "details", data.getDetails());
+        writeString(generator, "status", data.getStatus());
+        writeDate(generator, "date", data.getDate());
+        if (data.getObsId() != null) {
+            generator.writeNumberField("obsId", data.getObsId());
+        }
+        writeString(generator, "idempotencyKey", data.getIdempotencyKey());
+        writeString(generator, "observationClass", data.getObservationClass());
+        generator.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private static void writeDate(JsonGenerator generator, String name, Date value) throws IOException {
+        if (value != null) {
+            generator.writeNumberField(name, value.getTime());
+        }
+    }
+
+    private static byte[] write(Body body) {
+        PayloadBuffer buffer = BUFFERS.get();
+        buffer.reset();
+        try (JsonGenerator generator = JSON.createGenerator(buffer)) {
+            body.write(generator);
+        } catch (IOException e) {
+            // Only an in-memory stream is written, so this is a bug rather than an I/O problem
+            throw new IllegalStateException("Could not write Patient Passport payload: " + e.getMessage(), e);
+        }
+        byte[] bytes = buffer.toByteArray();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            BUFFERS.remove();
+        }
+        return bytes;
+    }
+
+    private interface Body {
+
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Reusable output buffer; reset() keeps the grown array
+     */
+    private static final class PayloadBuffer extends ByteArrayOutputStream {
+
+        PayloadBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
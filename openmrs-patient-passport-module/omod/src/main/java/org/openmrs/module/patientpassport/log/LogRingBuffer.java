@@ -0,0 +1,87 @@
+package org.openmrs.module.patientpassport.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer, after Vyukov's bounded
+ * queue. Each slot carries a sequence number: a producer claims a slot with one CAS on
+ * the tail and publishes it by advancing the slot's sequence, and the consumer frees
+ * it the same way. offer never waits; when the buffer is full it returns false.
+ */
+final class LogRingBuffer<T> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<T> slots;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // Only the consumer thread writes head; volatile so size() can be read from elsewhere
+    private volatile long head;
+
+    /**
+     * @param capacity Rounded up to a power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an item from any thread
+     * @return false if the buffer is full
+     */
+    boolean offer(T item) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, item);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            // Another producer took this slot first; retry with the new tail
+        }
+    }
+
+    /**
+     * Take the oldest item; consumer thread only
+     * @return null if the buffer is empty
+     */
+    T poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        T item = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return item;
+    }
+
+    /**
+     * Approximate number of queued items
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
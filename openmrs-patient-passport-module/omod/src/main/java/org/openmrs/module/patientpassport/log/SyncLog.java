@@ -0,0 +1,351 @@
+package org.openmrs.module.patientpassport.log;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured, sampled, asynchronous logging for the sync hot path.
+ *
+ * Each call is one event with a name and key/value fields, written as a single logfmt line
+ * ({@code event=obs.queued category=save obsId=42 type=VITAL_SIGN ...}) to the
+ * org.openmrs.module.patientpassport.events log. Info events are sampled per category
+ * (patientpassport.log.sampling, e.g. {@code save=0.01,send=0.05,*=1}); warnings and
+ * errors are always kept. Verbose events are only written when patientpassport.log.verbose
+ * is true, which also turns sampling off.
+ *
+ * The calling thread only checks the sample and puts the raw fields in a lock-free ring
+ * buffer; a single writer thread formats and writes the lines. Nothing blocks a save:
+ * when the buffer is full the event is dropped and counted. Fields are formatted on the
+ * writer thread, so pass ids, strings and numbers, never entities.
+ */
+public final class SyncLog {
+
+    public static final String SAVE = "save";
+    public static final String SEND = "send";
+    public static final String BATCH = "batch";
+    public static final String PAYLOAD = "payload";
+
+    private static final Log events = LogFactory.getLog("org.openmrs.module.patientpassport.events");
+
+    private static final Log log = LogFactory.getLog(SyncLog.class);
+
+    private static final int BUFFER_CAPACITY = 8192;
+
+    private static final long SETTINGS_REFRESH_MS = 60000L;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final String DEFAULT_CATEGORY = "*";
+
+    private static final LogRingBuffer<Record> BUFFER = new LogRingBuffer<>(BUFFER_CAPACITY);
+
+    private static final Map<String, AtomicLong> WRITTEN = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> SAMPLED_OUT = new ConcurrentHashMap<>();
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static volatile Map<String, Double> sampleRates = Collections.emptyMap();
+
+    private static volatile boolean verbose;
+
+    private static volatile long settingsLoadedAt;
+
+    private static volatile Thread writer;
+
+    private static volatile boolean running;
+
+    private SyncLog() {
+    }
+
+    /**
+     * Routine event, subject to the category's sample rate
+     */
+    public static void info(String category, String event, Object... fields) {
+        if (sampled(category)) {
+            enqueue(Level.INFO, category, event, fields);
+        }
+    }
+
+    /**
+     * Never sampled
+     */
+    public static void warn(String category, String event, Object... fields) {
+        enqueue(Level.WARN, category, event, fields);
+    }
+
+    /**
+     * Never sampled
+     */
+    public static void error(String category, String event, Object... fields) {
+        enqueue(Level.ERROR, category, event, fields);
+    }
+
+    /**
+     * Detail only wanted while debugging; dropped unless patientpassport.log.verbose is true
+     */
+    public static void verbose(String category, String event, Object... fields) {
+        if (isVerbose()) {
+            enqueue(Level.VERBOSE, category, event, fields);
+        }
+    }
+
+    /**
+     * Guard for verbose fields that are costly to compute
+     */
+    public static boolean isVerbose() {
+        refreshSettings();
+        return verbose;
+    }
+
+    /**
+     * Written, sampled-out and dropped counts per category for the health endpoint
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("verbose", verbose);
+        stats.put("sampleRates", sampleRates);
+        stats.put("written", counts(WRITTEN));
+        stats.put("sampledOut", counts(SAMPLED_OUT));
+        stats.put("dropped", DROPPED.get());
+        stats.put("buffered", BUFFER.size());
+        stats.put("bufferCapacity", BUFFER.capacity());
+        return stats;
+    }
+
+    /**
+     * Write what is buffered and stop the writer thread; called when the module stops
+     */
+    public static synchronized void shutdown() {
+        running = false;
+        Thread current = writer;
+        if (current != null) {
+            LockSupport.unpark(current);
+            try {
+                current.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // The buffer has one consumer: a writer that is still draining is not replaced
+            if (!current.isAlive()) {
+                writer = null;
+            }
+        }
+    }
+
+    private static boolean sampled(String category) {
+        refreshSettings();
+        if (verbose) {
+            return true;
+        }
+        Map<String, Double> rates = sampleRates;
+        Double rate = rates.get(category);
+        if (rate == null) {
+            rate = rates.getOrDefault(DEFAULT_CATEGORY, 1.0);
+        }
+        if (rate >= 1.0 || (rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate)) {
+            return true;
+        }
+        counter(SAMPLED_OUT, category).incrementAndGet();
+        return false;
+    }
+
+    private static void enqueue(Level level, String category, String event, Object[] fields) {
+        Record record = new Record(level, category, event, fields, System.currentTimeMillis(),
+            Thread.currentThread().getName());
+        if (!BUFFER.offer(record)) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        if (writer == null) {
+            startWriter();
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(SyncLog::drain, "patientpassport-log-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Writer thread body
+     */
+    private static void drain() {
+        long reportedDrops = 0;
+        while (true) {
+            Record record = BUFFER.poll();
+            if (record != null) {
+                write(record);
+                continue;
+            }
+            long drops = DROPPED.get();
+            if (drops != reportedDrops) {
+                events.warn("event=log.dropped category=log total=" + drops + " since_last=" + (drops - reportedDrops));
+                reportedDrops = drops;
+            }
+            if (!running) {
+                return;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private static void write(Record record) {
+        try {
+            String line = record.format();
+            switch (record.level) {
+                case ERROR:
+                    events.error(line);
+                    break;
+                case WARN:
+                    events.warn(line);
+                    break;
+                default:
+                    events.info(line);
+            }
+            counter(WRITTEN, record.category).incrementAndGet();
+        } catch (Exception e) {
+            log.warn("Could not write sync log event " + record.event + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-read sampling and verbose mode at most once a minute, only where a session is open
+     */
+    private static void refreshSettings() {
+        long now = System.currentTimeMillis();
+        if (now - settingsLoadedAt < SETTINGS_REFRESH_MS) {
+            return;
+        }
+        settingsLoadedAt = now;
+        if (!Context.isSessionOpen()) {
+            return;
+        }
+        try {
+            PatientPassportConfig config = new PatientPassportConfig();
+            sampleRates = parseSampleRates(config.getLogSampling());
+            verbose = config.isLogVerbose();
+        } catch (Exception e) {
+            log.warn("Could not refresh sync log settings: " + e.getMessage());
+        }
+    }
+
+    /**
+     * "save=0.01,send=0.05,*=1": category to the fraction of its info events kept
+     */
+    static Map<String, Double> parseSampleRates(String value) {
+        Map<String, Double> rates = new HashMap<>();
+        if (value == null) {
+            return rates;
+        }
+        for (String entry : value.split(",")) {
+            int equals = entry.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            try {
+                double rate = Double.parseDouble(entry.substring(equals + 1).trim());
+                rates.put(entry.substring(0, equals).trim(), Math.max(0.0, Math.min(1.0, rate)));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid sample rate in patientpassport.log.sampling: " + entry.trim());
+            }
+        }
+        return Collections.unmodifiableMap(rates);
+    }
+
+    private static AtomicLong counter(Map<String, AtomicLong> counters, String category) {
+        return counters.computeIfAbsent(category, key -> new AtomicLong());
+    }
+
+    private static Map<String, Long> counts(Map<String, AtomicLong> counters) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    // VERBOSE lines are written at INFO: verbose mode was asked for explicitly
+    private enum Level {
+        VERBOSE, INFO, WARN, ERROR
+    }
+
+    /**
+     * One event as handed over by the caller; formatted on the writer thread
+     */
+    private static final class Record {
+
+        private final Level level;
+        private final String category;
+        private final String event;
+        private final Object[] fields;
+        private final long timestamp;
+        private final String thread;
+
+        Record(Level level, String category, String event, Object[] fields, long timestamp, String thread) {
+            this.level = level;
+            this.category = category;
+            this.event = event;
+            this.fields = fields;
+            this.timestamp = timestamp;
+            this.thread = thread;
+        }
+
+        String format() {
+            StringBuilder line = new StringBuilder(64 + fields.length * 16);
+            line.append("event=").append(event).append(" category=").append(category);
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                line.append(' ').append(fields[i]).append('=');
+                appendValue(line, fields[i + 1]);
+            }
+            line.append(" ts=").append(timestamp).append(" thread=");
+            appendValue(line, thread);
+            return line.toString();
+        }
+
+        private static void appendValue(StringBuilder line, Object value) {
+            String text = value instanceof Throwable
+                ? value.getClass().getSimpleName() + ": " + ((Throwable) value).getMessage()
+                : String.valueOf(value);
+            boolean quote = text.isEmpty();
+            for (int i = 0; i < text.length() && !quote; i++) {
+                char c = text.charAt(i);
+                quote = c <= ' ' || c == '"' || c == '=';
+            }
+            if (!quote) {
+                line.append(text);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\').append(c);
+                } else if (c == '\n') {
+                    line.append("\\n");
+                } else if (c == '\r') {
+                    line.append("\\r");
+                } else {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.openmrs.module.patientpassport.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter. Each series is a LongAdder, whose striped cells keep concurrent
+ * increments from contending on one cache line, so counters can stay on in production.
+ */
+public final class Counter extends MetricFamily<LongAdder> {
+
+    Counter(String name, String help, String... labelNames) {
+        super(name, help, labelNames);
+    }
+
+    public void increment(String... labelValues) {
+        series(labelValues).increment();
+    }
+
+    public void add(long amount, String... labelValues) {
+        series(labelValues).add(amount);
+    }
+
+    @Override
+    LongAdder newSeries() {
+        return new LongAdder();
+    }
+
+    @Override
+    void write(PrometheusText out) {
+        out.header(getName(), getHelp(), "counter");
+        for (Map.Entry<List<String>, LongAdder> entry : getSeries().entrySet()) {
+            out.sample(getName(), getLabelNames(), entry.getKey(), null, null, entry.getValue().sum());
+        }
+    }
+}
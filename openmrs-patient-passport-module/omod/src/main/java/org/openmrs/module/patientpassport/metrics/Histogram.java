@@ -0,0 +1,49 @@
+package org.openmrs.module.patientpassport.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Latency distribution, one LatencyHistogram per series. Written as a Prometheus summary:
+ * p50, p90, p99 and p99.9 over the last one to two minutes, plus lifetime sum and count.
+ */
+public final class Histogram extends MetricFamily<LatencyHistogram> {
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private static final String[] QUANTILE_LABELS = { "0.5", "0.9", "0.99", "0.999" };
+
+    Histogram(String name, String help, String... labelNames) {
+        super(name, help, labelNames);
+    }
+
+    public void recordNanos(long nanos, String... labelValues) {
+        series(labelValues).recordNanos(nanos);
+    }
+
+    /**
+     * Record the time since a System.nanoTime() reading
+     */
+    public void recordSince(long startNanos, String... labelValues) {
+        series(labelValues).recordNanos(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    LatencyHistogram newSeries() {
+        return new LatencyHistogram();
+    }
+
+    @Override
+    void write(PrometheusText out) {
+        out.header(getName(), getHelp(), "summary");
+        for (Map.Entry<List<String>, LatencyHistogram> entry : getSeries().entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            double[] values = histogram.quantileSeconds(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                out.sample(getName(), getLabelNames(), entry.getKey(), "quantile", QUANTILE_LABELS[i], values[i]);
+            }
+            out.sample(getName() + "_sum", getLabelNames(), entry.getKey(), null, null, histogram.getSumSeconds());
+            out.sample(getName() + "_count", getLabelNames(), entry.getKey(), null, null, histogram.getCount());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.openmrs.module.patientpassport.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets, laid out like HdrHistogram: values below 32µs
+ * get a bucket each, and every power of two above is split into 32 buckets, so a quantile
+ * is off by at most about 3% anywhere from microseconds to the one-hour cap, in a fixed
+ * 7 KB of counts. Recording is one index computation and one atomic increment, with no
+ * lock or allocation.
+ *
+ * Quantiles cover a sliding window of one to two minutes: counts go into the current window,
+ * which becomes the previous one every minute. Count and sum cover the whole process
+ * lifetime, as Prometheus expects.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // Highest power of two below the one-hour cap (2^31 µs is about 36 minutes)
+    private static final int MAX_MAGNITUDE = 31;
+    private static final long MAX_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    static final int BUCKETS = SUB_COUNT + (MAX_MAGNITUDE - SUB_BITS + 1) * SUB_COUNT;
+
+    private static final long WINDOW_MS = 60000L;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+    private volatile long windowStartedAt = System.currentTimeMillis();
+
+    void recordNanos(long nanos) {
+        long micros = Math.max(0L, Math.min(MAX_MICROS, nanos / 1000L));
+        rotateIfDue(System.currentTimeMillis());
+        // A recording that races a rotation lands in the window just closed, which is still read
+        current.incrementAndGet(indexOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getSumSeconds() {
+        return sumMicros.sum() / 1e6;
+    }
+
+    /**
+     * Values at the given quantiles over the last one to two minutes
+     * @param quantiles Ascending, between 0 and 1
+     * @return Seconds, the upper bound of the bucket each quantile falls in; NaN when the window is empty
+     */
+    double[] quantileSeconds(double[] quantiles) {
+        rotateIfDue(System.currentTimeMillis());
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        AtomicLongArray newer = current;
+        AtomicLongArray older = previous;
+        for (int i = 0; i < BUCKETS; i++) {
+            merged[i] = newer.get(i) + older.get(i);
+            total += merged[i];
+        }
+
+        double[] values = new double[quantiles.length];
+        if (total == 0) {
+            Arrays.fill(values, Double.NaN);
+            return values;
+        }
+        int q = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && q < quantiles.length; i++) {
+            seen += merged[i];
+            while (q < quantiles.length && seen >= Math.ceil(quantiles[q] * total)) {
+                values[q++] = highestValueIn(i) / 1e6;
+            }
+        }
+        return values;
+    }
+
+    private void rotateIfDue(long now) {
+        if (now - windowStartedAt < WINDOW_MS) {
+            return;
+        }
+        synchronized (this) {
+            if (now - windowStartedAt < WINDOW_MS) {
+                return;
+            }
+            // Idle for more than a window: the one just closed is stale as well
+            previous = now - windowStartedAt < 2 * WINDOW_MS ? current : new AtomicLongArray(BUCKETS);
+            current = new AtomicLongArray(BUCKETS);
+            windowStartedAt = now;
+        }
+    }
+
+    static int indexOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (micros >>> shift) - SUB_COUNT;
+        return Math.min(BUCKETS - 1, SUB_COUNT + shift * SUB_COUNT + sub);
+    }
+
+    /**
+     * Largest value, in microseconds, that falls in a bucket
+     */
+    static long highestValueIn(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+    }
+}
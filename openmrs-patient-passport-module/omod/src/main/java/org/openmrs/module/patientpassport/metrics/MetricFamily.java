@@ -0,0 +1,75 @@
+package org.openmrs.module.patientpassport.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A named metric and its series, one per combination of label values.
+ * Series are created on first use and never removed. Label values must come from a
+ * small set (endpoints, status codes, types); past MAX_SERIES new combinations are
+ * counted under "other" so a stray value cannot grow the registry without bound.
+ */
+abstract class MetricFamily<T> {
+
+    static final int MAX_SERIES = 200;
+
+    static final String OTHER = "other";
+
+    private final String name;
+
+    private final String help;
+
+    private final String[] labelNames;
+
+    private final ConcurrentMap<List<String>, T> series = new ConcurrentHashMap<>();
+
+    MetricFamily(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+    }
+
+    abstract T newSeries();
+
+    abstract void write(PrometheusText out);
+
+    String getName() {
+        return name;
+    }
+
+    String getHelp() {
+        return help;
+    }
+
+    String[] getLabelNames() {
+        return labelNames;
+    }
+
+    Map<List<String>, T> getSeries() {
+        return series;
+    }
+
+    /**
+     * The series for the given label values, in the order of the label names
+     */
+    T series(String... labelValues) {
+        if (labelValues.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " takes labels " + Arrays.toString(labelNames));
+        }
+        List<String> key = labelValues.length == 0 ? Collections.<String>emptyList() : Arrays.asList(labelValues);
+        T existing = series.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (series.size() >= MAX_SERIES) {
+            String[] other = new String[labelValues.length];
+            Arrays.fill(other, OTHER);
+            key = Arrays.asList(other);
+        }
+        return series.computeIfAbsent(key, k -> newSeries());
+    }
+}
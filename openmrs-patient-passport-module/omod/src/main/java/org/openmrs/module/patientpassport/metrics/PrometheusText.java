@@ -0,0 +1,89 @@
+package org.openmrs.module.patientpassport.metrics;
+
+import java.util.List;
+
+/**
+ * Writer for the Prometheus text exposition format, version 0.0.4
+ */
+final class PrometheusText {
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    void header(String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ');
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * One sample line
+     * @param extraLabel Label written after the family's own, e.g. quantile; null for none
+     */
+    void sample(String name, String[] labelNames, List<String> labelValues, String extraLabel, String extraValue,
+                double value) {
+        out.append(name);
+        if (labelNames.length > 0 || extraLabel != null) {
+            out.append('{');
+            for (int i = 0; i < labelNames.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                label(labelNames[i], labelValues.get(i));
+            }
+            if (extraLabel != null) {
+                if (labelNames.length > 0) {
+                    out.append(',');
+                }
+                label(extraLabel, extraValue);
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void label(String name, String value) {
+        out.append(name).append("=\"");
+        String text = value != null ? value : "";
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '"') {
+                out.append("\\\"");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
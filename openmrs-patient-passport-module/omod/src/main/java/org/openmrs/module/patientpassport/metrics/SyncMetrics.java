@@ -0,0 +1,251 @@
+package org.openmrs.module.patientpassport.metrics;
+
+import org.openmrs.module.patientpassport.http.CircuitBreaker;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process metrics for the sync pipeline, scraped from GET /module/patientpassport/api/metrics
+ * in the Prometheus text format.
+ *
+ * Counters are LongAdders and latencies go into fixed log-linear histograms, so recording
+ * takes no lock and allocates nothing once a series exists; they stay on in production.
+ * Latencies are exported as summaries (quantiles over the last one to two minutes plus
+ * lifetime sum and count) rather than as hundreds of buckets per series.
+ * Queue, pool, breaker and limiter gauges are read from the components' health stats at
+ * scrape time, so they cost nothing between scrapes.
+ */
+public final class SyncMetrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String BLOCKING = "blocking";
+    public static final String ASYNC = "async";
+
+    public static final Counter OBS_INTERCEPTED = new Counter("patientpassport_obs_intercepted_total",
+        "Observation saves seen by the save advice, by what it did with them", "outcome");
+
+    public static final Histogram ADVICE_OVERHEAD = new Histogram("patientpassport_advice_overhead_seconds",
+        "Time the observation save advice adds to saveObs, excluding the save itself");
+
+    public static final Counter DELIVERED = new Counter("patientpassport_sync_delivered_total",
+        "Outbox rows acknowledged by the Patient Passport API", "type");
+
+    public static final Histogram SYNC_LAG = new Histogram("patientpassport_sync_lag_seconds",
+        "Time from queueing an outbox row to its acknowledgement by the Patient Passport API");
+
+    public static final Counter ATTEMPT_FAILURES = new Counter("patientpassport_sync_attempt_failures_total",
+        "Failed delivery attempts, by error class", "error_class");
+
+    public static final Counter DEAD_LETTERED = new Counter("patientpassport_sync_dead_lettered_total",
+        "Outbox rows moved to dead letters, by error class", "error_class");
+
+    public static final Histogram HTTP_DURATION = new Histogram("patientpassport_http_request_duration_seconds",
+        "Patient Passport API request latency per attempt", "endpoint", "transport");
+
+    public static final Counter HTTP_RESPONSES = new Counter("patientpassport_http_responses_total",
+        "Patient Passport API attempts by response status; error when no response arrived", "endpoint", "status");
+
+    private static final List<MetricFamily<?>> FAMILIES = Collections.unmodifiableList(Arrays.<MetricFamily<?>>asList(
+        OBS_INTERCEPTED, ADVICE_OVERHEAD, DELIVERED, SYNC_LAG, ATTEMPT_FAILURES, DEAD_LETTERED,
+        HTTP_DURATION, HTTP_RESPONSES));
+
+    // Consecutive rows with the same name form one family
+    private static final List<Gauge> GAUGES = Arrays.asList(
+        new Gauge("syncExecutor", "queueDepth", "patientpassport_sync_queue_depth", "gauge",
+            "Sync tasks waiting for a worker"),
+        new Gauge("syncExecutor", "activeWorkers", "patientpassport_sync_active_workers", "gauge",
+            "Sync workers running a task"),
+        new Gauge("syncExecutor", "workers", "patientpassport_sync_workers", "gauge",
+            "Sync worker threads"),
+        new Gauge("outbox", "pending", "patientpassport_outbox_rows", "gauge",
+            "Outbox rows by status", "status", "pending"),
+        new Gauge("outbox", "inFlight", "patientpassport_outbox_rows", "gauge",
+            "Outbox rows by status", "status", "in_flight"),
+        new Gauge("outbox", "deadLetters", "patientpassport_dead_letter_rows", "gauge",
+            "Rows in the dead-letter table"),
+        new Gauge("httpPool", "leased", "patientpassport_http_pool_connections", "gauge",
+            "HTTP pool connections by state", "pool", BLOCKING, "state", "leased"),
+        new Gauge("httpPool", "available", "patientpassport_http_pool_connections", "gauge",
+            "HTTP pool connections by state", "pool", BLOCKING, "state", "available"),
+        new Gauge("asyncHttp", "leased", "patientpassport_http_pool_connections", "gauge",
+            "HTTP pool connections by state", "pool", ASYNC, "state", "leased"),
+        new Gauge("asyncHttp", "available", "patientpassport_http_pool_connections", "gauge",
+            "HTTP pool connections by state", "pool", ASYNC, "state", "available"),
+        new Gauge("httpPool", "pending", "patientpassport_http_pool_pending", "gauge",
+            "Requests waiting for a pooled connection", "pool", BLOCKING),
+        new Gauge("asyncHttp", "pending", "patientpassport_http_pool_pending", "gauge",
+            "Requests waiting for a pooled connection", "pool", ASYNC),
+        new Gauge("httpPool", "max", "patientpassport_http_pool_max", "gauge",
+            "Largest number of pooled connections", "pool", BLOCKING),
+        new Gauge("asyncHttp", "inFlight", "patientpassport_http_async_in_flight", "gauge",
+            "Async calls awaiting a response"),
+        new Gauge("asyncHttp", "waitingForPermit", "patientpassport_http_async_waiting", "gauge",
+            "Async attempts waiting for a concurrency limiter permit"),
+        new Gauge("concurrencyLimit", "limit", "patientpassport_concurrency_limit", "gauge",
+            "Current adaptive concurrency limit"),
+        new Gauge("concurrencyLimit", "inFlight", "patientpassport_concurrency_in_flight", "gauge",
+            "Attempts holding a concurrency limiter permit"),
+        new Gauge("passportApi", "consecutiveFailures", "patientpassport_breaker_consecutive_failures", "gauge",
+            "Consecutive failed calls counted by the circuit breaker"),
+        new Gauge("passportApi", "timesOpened", "patientpassport_breaker_opened_total", "counter",
+            "Times the circuit breaker opened"),
+        new Gauge("passportApi", "rejected", "patientpassport_breaker_rejected_total", "counter",
+            "Calls rejected while the circuit breaker was open"));
+
+    private static final String BREAKER_STATE = "patientpassport_breaker_state";
+
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * An outbox row was acknowledged by the Patient Passport API
+     */
+    public static void delivered(PatientPassportSyncOutbox entry) {
+        DELIVERED.increment(entry.getObsType() != null ? entry.getObsType() : UNKNOWN);
+        Date queuedAt = entry.getDateCreated();
+        if (queuedAt != null) {
+            SYNC_LAG.recordNanos(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - queuedAt.getTime()));
+        }
+    }
+
+    /**
+     * One Patient Passport API attempt finished
+     * @param status HTTP status, or 0 when no response arrived
+     */
+    public static void httpAttempt(String path, String transport, long startNanos, int status) {
+        String endpoint = endpointOf(path);
+        HTTP_DURATION.recordSince(startNanos, endpoint, transport);
+        HTTP_RESPONSES.increment(endpoint, status > 0 ? Integer.toString(status) : "error");
+    }
+
+    /**
+     * Request path with numeric and uuid segments replaced by {id}, so each endpoint is one series
+     */
+    public static String endpointOf(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        StringBuilder endpoint = null;
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (isIdentifier(path, start, end)) {
+                if (endpoint == null) {
+                    endpoint = new StringBuilder(path.length()).append(path, 0, start);
+                }
+                endpoint.append("{id}");
+            } else if (endpoint != null) {
+                endpoint.append(path, start, end);
+            }
+            if (end < path.length() && endpoint != null) {
+                endpoint.append('/');
+            }
+            start = end + 1;
+        }
+        return endpoint != null ? endpoint.toString() : path;
+    }
+
+    /**
+     * All metrics in the Prometheus text format
+     * @param components Component stats as returned by the health endpoint, plus an "outbox" map
+     */
+    public static String scrape(Map<String, Object> components) {
+        PrometheusText out = new PrometheusText();
+        for (MetricFamily<?> family : FAMILIES) {
+            family.write(out);
+        }
+
+        String previous = null;
+        String[] none = new String[0];
+        for (Gauge gauge : GAUGES) {
+            Object value = statOf(components, gauge.component, gauge.stat);
+            if (!(value instanceof Number)) {
+                continue;
+            }
+            if (!gauge.name.equals(previous)) {
+                out.header(gauge.name, gauge.help, gauge.type);
+                previous = gauge.name;
+            }
+            out.sample(gauge.name, gauge.labelNames, gauge.labelValues, null, null, ((Number) value).doubleValue());
+        }
+
+        Object state = statOf(components, "passportApi", "state");
+        if (state != null) {
+            out.header(BREAKER_STATE, "Circuit breaker state, 1 for the current one", "gauge");
+            for (CircuitBreaker.State candidate : CircuitBreaker.State.values()) {
+                out.sample(BREAKER_STATE, none, Collections.<String>emptyList(), "state", candidate.name(),
+                    candidate.name().equals(state) ? 1 : 0);
+            }
+        }
+        return out.toString();
+    }
+
+    private static Object statOf(Map<String, Object> components, String component, String stat) {
+        Object stats = components.get(component);
+        return stats instanceof Map ? ((Map<?, ?>) stats).get(stat) : null;
+    }
+
+    private static boolean isIdentifier(String path, int start, int end) {
+        if (end - start == 0) {
+            return false;
+        }
+        boolean digitsOnly = true;
+        int hexOrDash = 0;
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                digitsOnly = false;
+            }
+            if (Character.digit(c, 16) >= 0 || c == '-') {
+                hexOrDash++;
+            }
+        }
+        // 36-character uuids, and the 32-character form without dashes
+        return digitsOnly || ((end - start == 36 || end - start == 32) && hexOrDash == end - start);
+    }
+
+    /**
+     * A number read from a component's stats at scrape time
+     */
+    private static final class Gauge {
+
+        private final String component;
+        private final String stat;
+        private final String name;
+        private final String type;
+        private final String help;
+        private final String[] labelNames;
+        private final List<String> labelValues;
+
+        /**
+         * @param labels Alternating label names and values
+         */
+        Gauge(String component, String stat, String name, String type, String help, String... labels) {
+            this.component = component;
+            this.stat = stat;
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.labelNames = new String[labels.length / 2];
+            List<String> values = new ArrayList<>(labels.length / 2);
+            for (int i = 0; i < labelNames.length; i++) {
+                labelNames[i] = labels[2 * i];
+                values.add(labels[2 * i + 1]);
+            }
+            this.labelValues = values;
+        }
+    }
+}
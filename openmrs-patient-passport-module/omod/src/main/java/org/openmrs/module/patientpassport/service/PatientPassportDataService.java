@@ -1,7 +1,13 @@
 package org.openmrs.module.patientpassport.service;
 
 import org.openmrs.Patient;
+import org.openmrs.Encounter;
 import org.openmrs.Obs;
+import org.openmrs.module.patientpassport.dto.ObservationSyncRequestDTO;
+import org.openmrs.module.patientpassport.dto.ObservationSyncResultDTO;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service interface for sending patient data TO Patient Passport system
@@ -20,6 +26,38 @@ public interface PatientPassportDataService {
      */
     boolean sendObservationToPassport(Patient patient, Obs obs, String observationType);
     
+    /**
+     * Send several observations to Patient Passport in a single request
+     * 
+     * @param requests The observations to send, in delivery order
+     * @return One result per request, in the same order
+     */
+    List<ObservationSyncResultDTO> sendObservationBatch(List<ObservationSyncRequestDTO> requests);
+    
+    /**
+     * Like sendObservationToPassport, but returns once the request is handed to the async
+     * transport. Falls back to the blocking send when the async transport is unavailable.
+     * 
+     * @return Completes with true if Passport stored the observation
+     */
+    CompletableFuture<Boolean> sendObservationToPassportAsync(Patient patient, Obs obs, String observationType);
+    
+    /**
+     * Like sendObservationBatch, but returns once the request is handed to the async transport
+     * 
+     * @return Completes with one result per request, in the same order
+     */
+    CompletableFuture<List<ObservationSyncResultDTO>> sendObservationBatchAsync(List<ObservationSyncRequestDTO> requests);
+    
+    /**
+     * Send all observations of an encounter to Patient Passport as one aggregated payload
+     * (diagnoses, medications, vitals)
+     * 
+     * @param encounter The saved encounter
+     * @return true if every observation was stored
+     */
+    boolean sendEncounterToPassport(Encounter encounter);
+    
     /**
      * Sync patient mapping between OpenMRS and Patient Passport
      * 
@@ -3,13 +3,46 @@ package org.openmrs.module.patientpassport.service.impl;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.dto.EncounterPayloadDTO;
+import org.openmrs.module.patientpassport.dto.ObservationDataDTO;
+import org.openmrs.module.patientpassport.dto.ObservationPayloadDTO;
+import org.openmrs.module.patientpassport.dto.ObservationSyncRequestDTO;
+import org.openmrs.module.patientpassport.dto.ObservationSyncResultDTO;
+import org.openmrs.module.patientpassport.http.AdaptiveConcurrencyLimiter;
+import org.openmrs.module.patientpassport.http.PassportApiGuard;
+import org.openmrs.module.patientpassport.http.PassportApiGuardInterceptor;
+import org.openmrs.module.patientpassport.http.PassportAsyncTransport;
+import org.openmrs.module.patientpassport.http.PassportHttpTransport;
+import org.openmrs.module.patientpassport.http.PassportPayloadWriter;
+import org.openmrs.module.patientpassport.log.SyncLog;
 import org.openmrs.module.patientpassport.service.PatientPassportDataService;
+import org.openmrs.module.patientpassport.sync.DaemonSession;
+import org.openmrs.module.patientpassport.sync.IdempotencyKeys;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.openmrs.module.patientpassport.sync.SyncDeduplicator;
 import org.springframework.http.*;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 /**
  * Service implementation for SENDING data from OpenMRS TO Patient Passport
@@ -20,12 +53,47 @@ public class PatientPassportDataServiceImpl implements PatientPassportDataServic
     
     private static final Log log = LogFactory.getLog(PatientPassportDataServiceImpl.class);
     
-    private static final String PASSPORT_API_BASE_URL = "https://patientpassport-api.azurewebsites.net/api";
+    // How long to stop trying the batch endpoint after the API reports it does not exist
+    private static final long BATCH_ENDPOINT_RETRY_MS = 600000L;
     
-    private final RestTemplate restTemplate;
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
     
-    public PatientPassportDataServiceImpl() {
-        this.restTemplate = new RestTemplate();
+    private volatile RestTemplate restTemplate;
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    
+    private volatile long batchEndpointUnavailableUntil;
+    
+    private volatile long encounterEndpointUnavailableUntil;
+    
+    private SyncDeduplicator deduplicator;
+    
+    private PassportApiGuard apiGuard;
+    
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    
+    private PassportHttpTransport transport;
+    
+    private PassportAsyncTransport asyncTransport;
+    
+    public void setTransport(PassportHttpTransport transport) {
+        this.transport = transport;
+    }
+    
+    public void setAsyncTransport(PassportAsyncTransport asyncTransport) {
+        this.asyncTransport = asyncTransport;
+    }
+    
+    public void setApiGuard(PassportApiGuard apiGuard) {
+        this.apiGuard = apiGuard;
+    }
+    
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+    
+    public void setDeduplicator(SyncDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
     }
     
     /**
@@ -34,291 +102,553 @@ public class PatientPassportDataServiceImpl implements PatientPassportDataServic
      */
     @Override
     public boolean sendObservationToPassport(Patient patient, Obs obs, String observationType) {
-        
-        // CRITICAL FIX: Ensure we have OpenMRS Context
-        if (!Context.isSessionOpen()) {
-            log.warn("⚠️ No OpenMRS session - opening one now");
-            try {
-                Context.openSession();
-            } catch (Exception e) {
-                log.error("❌ Failed to open OpenMRS session", e);
+        // Sync workers already hold a daemon session; any other caller without one gets a
+        // session for this call only, closed again afterwards
+        return DaemonSession.call(() -> sendObservation(patient, obs, observationType));
+    }
+    
+    private boolean sendObservation(Patient patient, Obs obs, String observationType) {
+        try {
+            String idempotencyKey = IdempotencyKeys.forObs(obs);
+            if (isAcknowledged(idempotencyKey)) {
+                SyncLog.info(SyncLog.SEND, "obs.already_acknowledged", "obsId", obs.getObsId());
+                return true;
+            }
+            
+            ObservationPayloadDTO payload = buildObservationPayload(patient, obs, observationType);
+            if (payload == null) {
                 return false;
             }
-        }
-        
-        try {
-            log.info("📤 ===========================================");
-            log.info("📤 Sending " + observationType + " to Patient Passport");
-            log.info("📤 Patient ID: " + patient.getPatientId());
-            log.info("📤 Observation ID: " + obs.getObsId());
-            log.info("📤 Concept: " + (obs.getConcept() != null ? obs.getConcept().getName().getName() : "NULL"));
+            byte[] requestBody = toJson(payload);
             
-            // Get patient name - CRITICAL FIELD
-            String patientName = getPatientFullName(patient);
-            log.info("   👤 Patient Name: [" + (patientName != null ? patientName : "NULL") + "]");
+            // Send to Passport API
+            String url = getApiBaseUrl() + "/openmrs/observation/store";
+            SyncLog.verbose(SyncLog.SEND, "obs.sending", "obsId", obs.getObsId(), "patientId", patient.getPatientId(),
+                "type", observationType, "url", url);
+            long started = System.nanoTime();
             
-            if (patientName == null || patientName.trim().isEmpty()) {
-                log.error("❌ FATAL: No name found for patient " + patient.getPatientId());
-                log.error("   PersonName object: " + patient.getPersonName());
-                if (patient.getPersonName() != null) {
-                    log.error("   Given: " + patient.getPersonName().getGivenName());
-                    log.error("   Family: " + patient.getPersonName().getFamilyName());
-                    log.error("   Middle: " + patient.getPersonName().getMiddleName());
-                }
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.set(IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+            HttpEntity<byte[]> entity = new HttpEntity<>(requestBody, headers);
+            
+            ResponseEntity<String> response = getRestTemplate().exchange(
+                url,
+                HttpMethod.POST,
+                entity,
+                String.class
+            );
+            
+            if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.CREATED) {
+                SyncLog.info(SyncLog.SEND, "obs.sent", "obsId", obs.getObsId(), "type", observationType,
+                    "status", response.getStatusCodeValue(), "ms", (System.nanoTime() - started) / 1000000L);
+                acknowledge(Collections.singletonMap(idempotencyKey, obs.getUuid()));
+                return true;
+            } else {
+                SyncLog.warn(SyncLog.SEND, "obs.unexpected_status", "obsId", obs.getObsId(),
+                    "status", response.getStatusCodeValue());
                 return false;
             }
             
-            // Get hospital name from location - CRITICAL FIELD
-            String hospitalName = "Unknown Hospital"; // Default
-            if (obs.getLocation() != null && obs.getLocation().getName() != null) {
-                hospitalName = obs.getLocation().getName();
-            }
-            log.info("   🏥 Hospital Name: [" + hospitalName + "]");
-            
-            // Get doctor license number - CRITICAL FIELD
-            String doctorLicense = "OPENMRS_PROVIDER"; // Default fallback
-            if (obs.getCreator() != null) {
-                if (obs.getCreator().getUsername() != null && !obs.getCreator().getUsername().isEmpty()) {
-                    doctorLicense = obs.getCreator().getUsername();
-                    log.info("   👨‍⚕️ Using creator username: " + doctorLicense);
-                } else if (obs.getCreator().getPerson() != null && obs.getCreator().getPerson().getPersonName() != null) {
-                    String creatorName = obs.getCreator().getPerson().getPersonName().getFullName();
-                    if (creatorName != null && !creatorName.isEmpty()) {
-                        doctorLicense = creatorName.replaceAll("\\s+", "_");
-                        log.info("   👨‍⚕️ Using creator name: " + doctorLicense);
-                    }
-                }
+        } catch (HttpClientErrorException e) {
+            SyncLog.error(SyncLog.SEND, "obs.rejected", "obsId", obs.getObsId(), "status", e.getRawStatusCode(),
+                "body", e.getResponseBodyAsString());
+            return false;
+        } catch (Exception e) {
+            log.error("❌ Error sending observation to Patient Passport", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Send several observations to Patient Passport in one request.
+     * Falls back to one request per observation if the API has no batch endpoint.
+     */
+    @Override
+    public List<ObservationSyncResultDTO> sendObservationBatch(List<ObservationSyncRequestDTO> requests) {
+        PreparedBatch batch = prepareBatch(requests);
+        if (batch.payloads.isEmpty()) {
+            return batch.results;
+        }
+        
+        List<ObservationSyncResultDTO> sent;
+        if (System.currentTimeMillis() < batchEndpointUnavailableUntil) {
+            sent = sendIndividually(batch.payloads);
+        } else {
+            sent = sendBatchRequest(batch.payloads);
+        }
+        return completeBatch(batch, sent);
+    }
+    
+    /**
+     * Non-blocking sendObservationToPassport for patientpassport.sync.transportMode=ASYNC.
+     * The dedup check and payload are done on the calling thread; the POST and the
+     * acknowledgement happen once the response arrives.
+     */
+    @Override
+    public CompletableFuture<Boolean> sendObservationToPassportAsync(Patient patient, Obs obs, String observationType) {
+        PassportAsyncTransport async = getAsyncTransport();
+        if (async == null) {
+            return CompletableFuture.completedFuture(sendObservationToPassport(patient, obs, observationType));
+        }
+        
+        try {
+            String idempotencyKey = IdempotencyKeys.forObs(obs);
+            if (isAcknowledged(idempotencyKey)) {
+                SyncLog.info(SyncLog.SEND, "obs.already_acknowledged", "obsId", obs.getObsId());
+                return CompletableFuture.completedFuture(true);
             }
-            log.info("   👨‍⚕️ Doctor License: [" + doctorLicense + "]");
-            
-            // Build request body
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("patientName", patientName);
-            requestBody.put("observationType", observationType);
-            requestBody.put("doctorLicenseNumber", doctorLicense);
-            requestBody.put("hospitalName", hospitalName);
-            
-            // Build observation data - CRITICAL: MUST NOT BE EMPTY!
-            Map<String, Object> observationData = new HashMap<>();
             
-            log.info("   📊 Building observation data for type: " + observationType);
+            ObservationPayloadDTO payload = buildObservationPayload(patient, obs, observationType);
+            if (payload == null) {
+                return CompletableFuture.completedFuture(false);
+            }
             
-            if ("diagnosis".equals(observationType)) {
-                // Diagnosis data - TRY MULTIPLE SOURCES
-                String diagnosisValue = null;
-                
-                // Try 1: valueText
-                if (obs.getValueText() != null && !obs.getValueText().trim().isEmpty()) {
-                    diagnosisValue = obs.getValueText().trim();
-                    log.info("   ✅ Got diagnosis from valueText: " + diagnosisValue);
-                }
-                
-                // Try 2: valueCoded
-                if (diagnosisValue == null && obs.getValueCoded() != null) {
-                    try {
-                        diagnosisValue = obs.getValueCoded().getName().getName();
-                        log.info("   ✅ Got diagnosis from valueCoded: " + diagnosisValue);
-                    } catch (Exception e) {
-                        log.warn("   ⚠️ Could not get valueCoded name: " + e.getMessage());
+            Integer obsId = obs.getObsId();
+            String obsUuid = obs.getUuid();
+            String url = getApiBaseUrl() + "/openmrs/observation/store";
+            return postAsync(async, url, toJson(payload), idempotencyKey)
+                .handle((response, error) -> {
+                    if (error != null) {
+                        SyncLog.error(SyncLog.SEND, "obs.failed", "obsId", obsId, "error", describe(error));
+                        return false;
                     }
-                }
-                
-                // Try 3: concept name (ALWAYS AVAILABLE)
-                if (diagnosisValue == null && obs.getConcept() != null) {
-                    try {
-                        diagnosisValue = obs.getConcept().getName().getName();
-                        log.info("   ✅ Got diagnosis from concept name: " + diagnosisValue);
-                    } catch (Exception e) {
-                        log.warn("   ⚠️ Could not get concept name: " + e.getMessage());
+                    int status = response.getStatusLine().getStatusCode();
+                    String body = readBody(response);
+                    if (status == 200 || status == 201) {
+                        SyncLog.info(SyncLog.SEND, "obs.sent", "obsId", obsId, "type", observationType, "status", status);
+                        DaemonSession.run(() -> acknowledge(Collections.singletonMap(idempotencyKey, obsUuid)));
+                        return true;
                     }
+                    SyncLog.error(SyncLog.SEND, "obs.rejected", "obsId", obsId, "status", status, "body", body);
+                    return false;
+                });
+        } catch (Exception e) {
+            log.error("❌ Error sending observation to Patient Passport", e);
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+    
+    /**
+     * Non-blocking sendObservationBatch for patientpassport.sync.transportMode=ASYNC
+     */
+    @Override
+    public CompletableFuture<List<ObservationSyncResultDTO>> sendObservationBatchAsync(List<ObservationSyncRequestDTO> requests) {
+        PassportAsyncTransport async = getAsyncTransport();
+        if (async == null) {
+            return CompletableFuture.completedFuture(sendObservationBatch(requests));
+        }
+        
+        PreparedBatch batch = prepareBatch(requests);
+        if (batch.payloads.isEmpty()) {
+            return CompletableFuture.completedFuture(batch.results);
+        }
+        
+        CompletableFuture<List<ObservationSyncResultDTO>> sent;
+        if (System.currentTimeMillis() < batchEndpointUnavailableUntil) {
+            sent = sendIndividuallyAsync(async, batch.payloads, batch.patientIds);
+        } else {
+            sent = sendBatchRequestAsync(async, batch.payloads, batch.patientIds);
+        }
+        return sent.thenApply(items -> DaemonSession.call(() -> completeBatch(batch, items)));
+    }
+    
+    /**
+     * Skip acknowledged observations and build the payloads of the rest
+     */
+    private PreparedBatch prepareBatch(List<ObservationSyncRequestDTO> requests) {
+        PreparedBatch batch = new PreparedBatch(requests);
+        Set<String> acknowledged = getAcknowledged(batch.keys);
+        
+        for (int i = 0; i < requests.size(); i++) {
+            ObservationSyncRequestDTO request = requests.get(i);
+            if (acknowledged.contains(batch.keys.get(i))) {
+                batch.results.set(i, new ObservationSyncResultDTO(true, "Already acknowledged"));
+                continue;
+            }
+            try {
+                ObservationPayloadDTO payload = buildObservationPayload(request.getPatient(), request.getObs(), request.getObservationType());
+                if (payload == null) {
+                    batch.results.set(i, ObservationSyncResultDTO.failure("Request validation failed"));
+                } else {
+                    batch.payloads.add(payload);
+                    batch.payloadIndexes.add(i);
+                    batch.patientIds.add(request.getPatient() != null ? request.getPatient().getPatientId() : null);
                 }
-                
-                // Try 4: LAST RESORT - use concept display string
-                if (diagnosisValue == null && obs.getConcept() != null) {
-                    try {
-                        diagnosisValue = obs.getConcept().getDisplayString();
-                        log.info("   ✅ Got diagnosis from concept display: " + diagnosisValue);
-                    } catch (Exception e) {
-                        log.warn("   ⚠️ Could not get concept display: " + e.getMessage());
-                    }
-                }
-                
-                // CRITICAL: Never send null diagnosis
-                if (diagnosisValue == null || diagnosisValue.trim().isEmpty()) {
-                    log.error("❌ FATAL: Cannot determine diagnosis value for observation " + obs.getObsId());
-                    log.error("   Concept: " + (obs.getConcept() != null ? obs.getConcept().getName().getName() : "NULL"));
-                    log.error("   ValueText: " + obs.getValueText());
-                    log.error("   ValueCoded: " + (obs.getValueCoded() != null ? "EXISTS" : "NULL"));
-                    log.error("   ⚠️ USING FALLBACK VALUE");
-                    diagnosisValue = "Observation recorded in OpenMRS";
-                }
-                
-                observationData.put("diagnosis", diagnosisValue);
-                observationData.put("details", obs.getComment() != null ? obs.getComment() : "Auto-synced from OpenMRS");
-                observationData.put("status", "active");
-                observationData.put("date", obs.getObsDatetime() != null ? obs.getObsDatetime() : new Date());
-                
-                log.info("   📊 Diagnosis built: " + diagnosisValue);
-                
-            } else if ("medication".equals(observationType)) {
-                // Medication data - TRY MULTIPLE SOURCES
-                String medicationName = null;
-                
-                // Try 1: valueText
-                if (obs.getValueText() != null && !obs.getValueText().trim().isEmpty()) {
-                    medicationName = obs.getValueText().trim();
-                    log.info("   ✅ Got medication from valueText: " + medicationName);
-                }
-                
-                // Try 2: valueDrug
-                if (medicationName == null && obs.getValueDrug() != null) {
-                    try {
-                        medicationName = obs.getValueDrug().getName();
-                        log.info("   ✅ Got medication from valueDrug: " + medicationName);
-                    } catch (Exception e) {
-                        log.warn("   ⚠️ Could not get valueDrug name: " + e.getMessage());
-                    }
-                }
-                
-                // Try 3: concept name (ALWAYS AVAILABLE)
-                if (medicationName == null && obs.getConcept() != null) {
-                    try {
-                        medicationName = obs.getConcept().getName().getName();
-                        log.info("   ✅ Got medication from concept name: " + medicationName);
-                    } catch (Exception e) {
-                        log.warn("   ⚠️ Could not get concept name: " + e.getMessage());
-                    }
-                }
-                
-                // Try 4: LAST RESORT - use concept display string
-                if (medicationName == null && obs.getConcept() != null) {
-                    try {
-                        medicationName = obs.getConcept().getDisplayString();
-                        log.info("   ✅ Got medication from concept display: " + medicationName);
-                    } catch (Exception e) {
-                        log.warn("   ⚠️ Could not get concept display: " + e.getMessage());
-                    }
-                }
-                
-                // CRITICAL: Never send null medication name
-                if (medicationName == null || medicationName.trim().isEmpty()) {
-                    log.error("❌ FATAL: Cannot determine medication name for observation " + obs.getObsId());
-                    log.error("   ⚠️ USING FALLBACK VALUE");
-                    medicationName = "Medication recorded in OpenMRS";
-                }
-                
-                observationData.put("medicationName", medicationName);
-                observationData.put("dosage", extractDosage(obs));
-                observationData.put("frequency", "As prescribed");
-                observationData.put("status", "active");
-                observationData.put("startDate", obs.getObsDatetime() != null ? obs.getObsDatetime() : new Date());
-                
-                log.info("   📊 Medication built: " + medicationName);
-                
-            } else {
-                // For all other observation types (finding, test, impression, etc.)
-                String observationValue = obs.getValueText();
-                if (observationValue == null && obs.getValueCoded() != null) {
-                    observationValue = obs.getValueCoded().getName().getName();
-                }
-                
-                // If still null, use concept name
-                if (observationValue == null && obs.getConcept() != null) {
-                    observationValue = obs.getConcept().getName().getName();
-                }
-                
-                observationData.put("observationType", observationType);
-                observationData.put("value", observationValue != null ? observationValue : "No value recorded");
-                observationData.put("conceptName", obs.getConcept() != null ? obs.getConcept().getName().getName() : "Unknown");
-                observationData.put("details", obs.getComment() != null ? obs.getComment() : "");
-                observationData.put("date", obs.getObsDatetime());
+            } catch (Exception e) {
+                batch.results.set(i, ObservationSyncResultDTO.failure("Error building payload: " + e.getMessage()));
             }
+        }
+        return batch;
+    }
+    
+    /**
+     * Merge the results of the sent payloads into the batch results and acknowledge the delivered ones
+     */
+    private List<ObservationSyncResultDTO> completeBatch(PreparedBatch batch, List<ObservationSyncResultDTO> sent) {
+        Map<String, String> delivered = new HashMap<>();
+        for (int i = 0; i < sent.size(); i++) {
+            int index = batch.payloadIndexes.get(i);
+            batch.results.set(index, sent.get(i));
+            if (Boolean.TRUE.equals(sent.get(i).getSuccess())) {
+                delivered.put(batch.keys.get(index), batch.obsUuids.get(index));
+            }
+        }
+        acknowledge(delivered);
+        return batch.results;
+    }
+    
+    /**
+     * POST the payloads to /openmrs/observation/store/batch and map the per-item results
+     */
+    private List<ObservationSyncResultDTO> sendBatchRequest(List<ObservationPayloadDTO> payloads) {
+        String url = getApiBaseUrl() + "/openmrs/observation/store/batch";
+        SyncLog.info(SyncLog.BATCH, "batch.sending", "size", payloads.size(), "url", url);
+        
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            HttpEntity<byte[]> entity = new HttpEntity<>(PassportPayloadWriter.observationBatch(payloads), headers);
             
-            log.info("   📊 Observation Data built: " + observationData.toString());
-            log.info("   📊 Data size: " + observationData.size() + " fields");
-            
-            requestBody.put("observationData", observationData);
-            
-            // Validate all required fields before sending
-            log.info("🔍 Validating required fields...");
-            boolean isValid = true;
+            ResponseEntity<String> response = getRestTemplate().exchange(url, HttpMethod.POST, entity, String.class);
+            return parseBatchResponse(response.getBody(), payloads.size());
             
+        } catch (HttpClientErrorException e) {
+            if (e.getRawStatusCode() == 404 || e.getRawStatusCode() == 405) {
+                SyncLog.warn(SyncLog.BATCH, "batch.endpoint_unavailable", "size", payloads.size(),
+                    "status", e.getRawStatusCode(), "fallback", "individual");
+                batchEndpointUnavailableUntil = System.currentTimeMillis() + BATCH_ENDPOINT_RETRY_MS;
+                return sendIndividually(payloads);
+            }
+            SyncLog.error(SyncLog.BATCH, "batch.rejected", "size", payloads.size(), "status", e.getRawStatusCode(),
+                "body", e.getResponseBodyAsString());
+            return Collections.nCopies(payloads.size(),
+                ObservationSyncResultDTO.failure("HTTP " + e.getRawStatusCode() + ": " + e.getResponseBodyAsString()));
+        } catch (Exception e) {
+            SyncLog.error(SyncLog.BATCH, "batch.failed", "size", payloads.size(), "error", describe(e));
+            return Collections.nCopies(payloads.size(),
+                ObservationSyncResultDTO.failure(e.getClass().getSimpleName() + ": " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Read data.results[] ({index, success, message}) from a batch response
+     */
+    private List<ObservationSyncResultDTO> parseBatchResponse(String body, int size) throws Exception {
+        List<ObservationSyncResultDTO> results = new ArrayList<>(
+            Collections.nCopies(size, ObservationSyncResultDTO.failure("No result returned for this item")));
+        
+        JsonNode items = objectMapper.readTree(body).path("data").path("results");
+        for (JsonNode item : items) {
+            int index = item.path("index").asInt(-1);
+            if (index >= 0 && index < size) {
+                results.set(index, new ObservationSyncResultDTO(item.path("success").asBoolean(false),
+                    item.path("message").asText("")));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Fallback for APIs without the batch endpoint: one POST per payload
+     */
+    private List<ObservationSyncResultDTO> sendIndividually(List<ObservationPayloadDTO> payloads) {
+        String url = getApiBaseUrl() + "/openmrs/observation/store";
+        List<ObservationSyncResultDTO> results = new ArrayList<>(payloads.size());
+        
+        for (ObservationPayloadDTO payload : payloads) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            headers.set(IDEMPOTENCY_KEY_HEADER, payload.getObservationData().getIdempotencyKey());
+            try {
+                ResponseEntity<String> response = getRestTemplate().exchange(url, HttpMethod.POST,
+                    new HttpEntity<>(toJson(payload), headers), String.class);
+                if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.CREATED) {
+                    results.add(ObservationSyncResultDTO.success());
+                } else {
+                    results.add(ObservationSyncResultDTO.failure("Unexpected response: " + response.getStatusCode()));
+                }
+            } catch (HttpClientErrorException e) {
+                results.add(ObservationSyncResultDTO.failure("HTTP " + e.getRawStatusCode() + ": " + e.getResponseBodyAsString()));
+            } catch (Exception e) {
+                results.add(ObservationSyncResultDTO.failure(e.getClass().getSimpleName() + ": " + e.getMessage()));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Async sendBatchRequest; falls back to individual POSTs if the API has no batch endpoint
+     */
+    private CompletableFuture<List<ObservationSyncResultDTO>> sendBatchRequestAsync(PassportAsyncTransport async,
+            List<ObservationPayloadDTO> payloads, List<Integer> patientIds) {
+        String url = getApiBaseUrl() + "/openmrs/observation/store/batch";
+        SyncLog.info(SyncLog.BATCH, "batch.sending", "size", payloads.size(), "url", url);
+        
+        byte[] body;
+        try {
+            body = PassportPayloadWriter.observationBatch(payloads);
+        } catch (Exception e) {
+            log.error("❌ Error serializing batch for Patient Passport: " + e.getMessage(), e);
+            return CompletableFuture.completedFuture(Collections.nCopies(payloads.size(),
+                ObservationSyncResultDTO.failure(e.getClass().getSimpleName() + ": " + e.getMessage())));
+        }
+        
+        return postAsync(async, url, body, null).handle((response, error) -> {
+            if (error != null) {
+                SyncLog.error(SyncLog.BATCH, "batch.failed", "size", payloads.size(), "error", describe(error));
+                return CompletableFuture.completedFuture(Collections.nCopies(payloads.size(),
+                    ObservationSyncResultDTO.failure(describe(error))));
+            }
+            int status = response.getStatusLine().getStatusCode();
+            String responseBody = readBody(response);
+            if (status == 404 || status == 405) {
+                SyncLog.warn(SyncLog.BATCH, "batch.endpoint_unavailable", "size", payloads.size(),
+                    "status", status, "fallback", "individual");
+                batchEndpointUnavailableUntil = System.currentTimeMillis() + BATCH_ENDPOINT_RETRY_MS;
+                return sendIndividuallyAsync(async, payloads, patientIds);
+            }
+            if (status < 200 || status >= 300) {
+                SyncLog.error(SyncLog.BATCH, "batch.rejected", "size", payloads.size(), "status", status,
+                    "body", responseBody);
+                return CompletableFuture.completedFuture(Collections.nCopies(payloads.size(),
+                    ObservationSyncResultDTO.failure("HTTP " + status + ": " + responseBody)));
+            }
+            try {
+                return CompletableFuture.completedFuture(parseBatchResponse(responseBody, payloads.size()));
+            } catch (Exception e) {
+                log.error("❌ Error reading batch response from Patient Passport: " + e.getMessage(), e);
+                return CompletableFuture.completedFuture(Collections.nCopies(payloads.size(),
+                    ObservationSyncResultDTO.failure(e.getClass().getSimpleName() + ": " + e.getMessage())));
+            }
+        }).thenCompose(results -> results);
+    }
+    
+    /**
+     * Async sendIndividually. Each patient's POSTs go one after another in batch order, as
+     * sendIndividually sends them, so Patient Passport receives them in the order they were
+     * recorded; different patients' POSTs are in flight together. Runs on a worker or, after a
+     * batch 404, on the callback executor, and the chained sends start in continuations, so every
+     * POST is submitted without waiting for an in-flight slot.
+     * @param patientIds Patient of each payload
+     */
+    private CompletableFuture<List<ObservationSyncResultDTO>> sendIndividuallyAsync(PassportAsyncTransport async,
+            List<ObservationPayloadDTO> payloads, List<Integer> patientIds) {
+        String url = getApiBaseUrl() + "/openmrs/observation/store";
+        List<CompletableFuture<ObservationSyncResultDTO>> sends = new ArrayList<>(payloads.size());
+        Map<Integer, CompletableFuture<ObservationSyncResultDTO>> lastSendByPatient = new HashMap<>();
+        
+        for (int i = 0; i < payloads.size(); i++) {
+            ObservationPayloadDTO payload = payloads.get(i);
+            CompletableFuture<ObservationSyncResultDTO> previous = lastSendByPatient.get(patientIds.get(i));
+            // sendAsync never completes exceptionally, so a failed POST does not stop the patient's later ones
+            CompletableFuture<ObservationSyncResultDTO> send = previous == null
+                ? sendAsync(async, url, payload)
+                : previous.thenCompose(ignored -> sendAsync(async, url, payload));
+            lastSendByPatient.put(patientIds.get(i), send);
+            sends.add(send);
+        }
+        
+        return CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<ObservationSyncResultDTO> results = new ArrayList<>(sends.size());
+            for (CompletableFuture<ObservationSyncResultDTO> send : sends) {
+                results.add(send.join());
+            }
+            return results;
+        });
+    }
+    
+    /**
+     * POST one payload to /openmrs/observation/store without blocking
+     * @return Completes with the result, failures included
+     */
+    private CompletableFuture<ObservationSyncResultDTO> sendAsync(PassportAsyncTransport async, String url,
+            ObservationPayloadDTO payload) {
+        CompletableFuture<HttpResponse> response;
+        try {
+            String idempotencyKey = payload.getObservationData().getIdempotencyKey();
+            response = async.submit("POST " + URI.create(url).getPath(), postRequest(url, toJson(payload), idempotencyKey));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(
+                ObservationSyncResultDTO.failure(e.getClass().getSimpleName() + ": " + e.getMessage()));
+        }
+        return response.handle((result, error) -> {
+            if (error != null) {
+                return ObservationSyncResultDTO.failure(describe(error));
+            }
+            int status = result.getStatusLine().getStatusCode();
+            String body = readBody(result);
+            if (status == 200 || status == 201) {
+                return ObservationSyncResultDTO.success();
+            }
+            return ObservationSyncResultDTO.failure("HTTP " + status + ": " + body);
+        });
+    }
+    
+    /**
+     * POST a JSON body through the async transport. Blocks only while the transport is at maxInFlight.
+     */
+    private CompletableFuture<HttpResponse> postAsync(PassportAsyncTransport async, String url, byte[] body,
+            String idempotencyKey) {
+        try {
+            return async.execute("POST " + URI.create(url).getPath(), postRequest(url, body, idempotencyKey));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CompletableFuture<HttpResponse> interrupted = new CompletableFuture<>();
+            interrupted.completeExceptionally(new InterruptedIOException("Interrupted waiting for an async send slot"));
+            return interrupted;
+        }
+    }
+    
+    /**
+     * Builds the POST again for every attempt
+     */
+    private static Supplier<HttpUriRequest> postRequest(String url, byte[] body, String idempotencyKey) {
+        return () -> {
+            HttpPost post = new HttpPost(url);
+            post.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+            if (idempotencyKey != null) {
+                post.setHeader(IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+            }
+            return post;
+        };
+    }
+    
+    /**
+     * Serialize one observation payload; the JSON is only turned into a string in verbose log mode
+     */
+    private static byte[] toJson(ObservationPayloadDTO payload) {
+        byte[] json = PassportPayloadWriter.observation(payload);
+        if (SyncLog.isVerbose()) {
+            SyncLog.verbose(SyncLog.PAYLOAD, "payload.body", "obsId", payload.getObservationData().getObsId(),
+                "json", new String(json, StandardCharsets.UTF_8));
+        }
+        return json;
+    }
+    
+    private static String readBody(HttpResponse response) {
+        try {
+            return response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : "";
+        } catch (IOException e) {
+            return "";
+        }
+    }
+    
+    private static String describe(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    }
+    
+    /**
+     * Send all observations of an encounter to Patient Passport as one payload.
+     * Patient name, hospital and doctor are resolved once for the whole encounter.
+     * Falls back to the batch endpoint if the API has no encounter endpoint.
+     */
+    @Override
+    public boolean sendEncounterToPassport(Encounter encounter) {
+        try {
+            Patient patient = encounter.getPatient();
+            String patientName = patient != null ? getPatientFullName(patient) : null;
             if (patientName == null || patientName.trim().isEmpty()) {
-                log.error("❌ VALIDATION FAILED: patientName is null or empty: [" + patientName + "]");
-                isValid = false;
-            } else {
-                log.info("   ✅ patientName: " + patientName);
+                log.error("❌ FATAL: No patient name for encounter " + encounter.getEncounterId());
+                return false;
             }
             
-            if (hospitalName == null || hospitalName.trim().isEmpty()) {
-                log.error("❌ VALIDATION FAILED: hospitalName is null or empty: [" + hospitalName + "]");
-                isValid = false;
-            } else {
-                log.info("   ✅ hospitalName: " + hospitalName);
-            }
+            String hospitalName = resolveHospitalName(encounter.getLocation());
+            String doctorLicense = resolveDoctorLicense(encounter.getCreator());
             
-            if (doctorLicense == null || doctorLicense.trim().isEmpty()) {
-                log.error("❌ VALIDATION FAILED: doctorLicense is null or empty: [" + doctorLicense + "]");
-                isValid = false;
-            } else {
-                log.info("   ✅ doctorLicense: " + doctorLicense);
+            EncounterPayloadDTO requestBody = new EncounterPayloadDTO();
+            List<ObservationSyncRequestDTO> fallbackRequests = new ArrayList<>();
+            
+            // Idempotency key to obs uuid; acknowledged keys are dropped before sending
+            Map<String, String> keys = new LinkedHashMap<>();
+            for (Obs obs : encounter.getObs()) {
+                keys.put(IdempotencyKeys.forObs(obs), obs.getUuid());
             }
+            keys.keySet().removeAll(getAcknowledged(keys.keySet()));
+            Set<String> unacknowledgedUuids = new HashSet<>(keys.values());
             
-            if (observationType == null || observationType.trim().isEmpty()) {
-                log.error("❌ VALIDATION FAILED: observationType is null or empty: [" + observationType + "]");
-                isValid = false;
-            } else {
-                log.info("   ✅ observationType: " + observationType);
+            for (Obs obs : encounter.getObs()) {
+                if (!unacknowledgedUuids.contains(obs.getUuid())) {
+                    continue;
+                }
+                String obsType = ObservationClassifier.classify(obs);
+                String apiType = ObservationClassifier.toApiObservationType(obsType);
+                ObservationDataDTO observationData = buildObservationData(obs, apiType);
+                
+                if ("medication".equals(apiType)) {
+                    requestBody.getMedications().add(observationData);
+                } else if ("VITAL_SIGN".equals(obsType)) {
+                    requestBody.getVitals().add(observationData);
+                } else {
+                    requestBody.getDiagnoses().add(observationData);
+                }
+                fallbackRequests.add(new ObservationSyncRequestDTO(patient, obs, apiType));
             }
             
-            if (observationData == null || observationData.isEmpty()) {
-                log.error("❌ VALIDATION FAILED: observationData is null or empty");
-                isValid = false;
-            } else {
-                log.info("   ✅ observationData: " + observationData.size() + " fields");
+            if (fallbackRequests.isEmpty()) {
+                SyncLog.info(SyncLog.SEND, "encounter.nothing_to_send", "encounterId", encounter.getEncounterId());
+                return true;
             }
             
-            if (!isValid) {
-                log.error("❌ Request validation failed. Not sending to Patient Passport.");
-                return false;
+            if (System.currentTimeMillis() < encounterEndpointUnavailableUntil) {
+                return sendEncounterObservations(fallbackRequests);
             }
             
-            log.info("✅ All validations passed!");
-            log.info("📦 Full request body: " + requestBody.toString());
+            requestBody.setPatientName(patientName);
+            requestBody.setHospitalName(hospitalName);
+            requestBody.setDoctorLicenseNumber(doctorLicense);
+            requestBody.setEncounterUuid(encounter.getUuid());
+            requestBody.setEncounterType(encounter.getEncounterType() != null ? encounter.getEncounterType().getName() : null);
+            requestBody.setEncounterDate(encounter.getEncounterDatetime() != null ? encounter.getEncounterDatetime() : new Date());
             
-            // Send to Passport API
-            String url = PASSPORT_API_BASE_URL + "/openmrs/observation/store";
-            log.info("📡 Sending to: " + url);
-            log.info("📦 Patient: " + patientName + ", Hospital: " + hospitalName);
+            String url = getApiBaseUrl() + "/openmrs/encounter/store";
+            SyncLog.verbose(SyncLog.SEND, "encounter.sending", "encounterId", encounter.getEncounterId(),
+                "observations", fallbackRequests.size(), "url", url);
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-            
-            ResponseEntity<String> response = restTemplate.exchange(
-                url,
-                HttpMethod.POST,
-                entity,
-                String.class
-            );
+            ResponseEntity<String> response = getRestTemplate().exchange(url, HttpMethod.POST,
+                new HttpEntity<>(PassportPayloadWriter.encounter(requestBody), headers), String.class);
             
-            if (response.getStatusCode() == HttpStatus.OK || response.getStatusCode() == HttpStatus.CREATED) {
-                log.info("✅ Successfully sent " + observationType + " to Patient Passport");
-                return true;
-            } else {
-                log.warn("⚠️ Unexpected response: " + response.getStatusCode());
+            int failed = objectMapper.readTree(response.getBody()).path("data").path("failed").asInt(0);
+            if (failed > 0) {
+                SyncLog.warn(SyncLog.SEND, "encounter.partially_stored", "encounterId", encounter.getEncounterId(),
+                    "failed", failed);
                 return false;
             }
+            SyncLog.info(SyncLog.SEND, "encounter.sent", "encounterId", encounter.getEncounterId(),
+                "observations", fallbackRequests.size());
+            acknowledge(keys);
+            return true;
             
         } catch (HttpClientErrorException e) {
-            log.error("❌ Error sending to Patient Passport API: " + e.getStatusCode() + " - " + e.getResponseBodyAsString());
+            if (e.getRawStatusCode() == 404 || e.getRawStatusCode() == 405) {
+                log.warn("⚠️ Patient Passport API has no encounter endpoint - sending observations as a batch");
+                encounterEndpointUnavailableUntil = System.currentTimeMillis() + BATCH_ENDPOINT_RETRY_MS;
+                return sendEncounterToPassport(encounter);
+            }
+            SyncLog.error(SyncLog.SEND, "encounter.rejected", "encounterId", encounter.getEncounterId(),
+                "status", e.getRawStatusCode(), "body", e.getResponseBodyAsString());
             return false;
         } catch (Exception e) {
-            log.error("❌ Error sending observation to Patient Passport", e);
+            log.error("❌ Error sending encounter to Patient Passport: " + e.getMessage(), e);
             return false;
         }
     }
     
+    /**
+     * Fallback for APIs without the encounter endpoint
+     */
+    private boolean sendEncounterObservations(List<ObservationSyncRequestDTO> requests) {
+        for (ObservationSyncResultDTO result : sendObservationBatch(requests)) {
+            if (result == null || !Boolean.TRUE.equals(result.getSuccess())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Sync patient mapping with passport system
      */
@@ -331,7 +661,7 @@ public class PatientPassportDataServiceImpl implements PatientPassportDataServic
                 return false;
             }
             
-            String url = PASSPORT_API_BASE_URL + "/openmrs/patient/sync";
+            String url = getApiBaseUrl() + "/openmrs/patient/sync";
             
             Map<String, String> requestBody = new HashMap<>();
             requestBody.put("patientName", patientName);
@@ -341,7 +671,7 @@ public class PatientPassportDataServiceImpl implements PatientPassportDataServic
             headers.setContentType(MediaType.APPLICATION_JSON);
             HttpEntity<Map<String, String>> entity = new HttpEntity<>(requestBody, headers);
             
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = getRestTemplate().exchange(
                 url,
                 HttpMethod.POST,
                 entity,
@@ -361,9 +691,345 @@ public class PatientPassportDataServiceImpl implements PatientPassportDataServic
     }
     
     /**
-     * Get patient full name (family name + given name)
+     * Build the /openmrs/observation/store request body for one observation.
+     * Package-private for the benchmarks module.
+     * 
+     * @return the request body, or null if a required field could not be determined
+     */
+    ObservationPayloadDTO buildObservationPayload(Patient patient, Obs obs, String observationType) {
+        // Get patient name - CRITICAL FIELD
+        String patientName = getPatientFullName(patient);
+        
+        if (patientName == null || patientName.trim().isEmpty()) {
+            PersonName personName = patient.getPersonName();
+            SyncLog.error(SyncLog.PAYLOAD, "payload.no_patient_name", "obsId", obs.getObsId(),
+                "patientId", patient.getPatientId(), "hasPersonName", personName != null);
+            return null;
+        }
+        
+        // Get hospital name from location - CRITICAL FIELD
+        String hospitalName = resolveHospitalName(obs.getLocation());
+        
+        // Get doctor license number - CRITICAL FIELD
+        String doctorLicense = resolveDoctorLicense(obs.getCreator());
+        
+        // Build observation data - CRITICAL: MUST NOT BE EMPTY!
+        ObservationDataDTO observationData = buildObservationData(obs, observationType);
+        
+        // Validate all required fields before sending
+        List<String> missing = new ArrayList<>();
+        if (hospitalName == null || hospitalName.trim().isEmpty()) {
+            missing.add("hospitalName");
+        }
+        if (doctorLicense == null || doctorLicense.trim().isEmpty()) {
+            missing.add("doctorLicense");
+        }
+        if (observationType == null || observationType.trim().isEmpty()) {
+            missing.add("observationType");
+        }
+        if (observationData == null) {
+            missing.add("observationData");
+        }
+        
+        if (!missing.isEmpty()) {
+            SyncLog.error(SyncLog.PAYLOAD, "payload.invalid", "obsId", obs.getObsId(), "missing", String.join(",", missing));
+            return null;
+        }
+        
+        SyncLog.verbose(SyncLog.PAYLOAD, "payload.built", "obsId", obs.getObsId(), "type", observationType,
+            "hospital", hospitalName, "doctor", doctorLicense);
+        return new ObservationPayloadDTO(patientName, observationType, doctorLicense, hospitalName, observationData);
+    }
+    
+    /**
+     * Build the observationData object for one observation
      */
-    private String getPatientFullName(Patient patient) {
+    private ObservationDataDTO buildObservationData(Obs obs, String observationType) {
+        ObservationDataDTO observationData = new ObservationDataDTO();
+        
+        if ("diagnosis".equals(observationType)) {
+            // Diagnosis data - TRY MULTIPLE SOURCES
+            String diagnosisValue = null;
+            
+            // Try 1: valueText
+            if (obs.getValueText() != null && !obs.getValueText().trim().isEmpty()) {
+                diagnosisValue = obs.getValueText().trim();
+                SyncLog.verbose(SyncLog.PAYLOAD, "payload.diagnosis_source", "obsId", obs.getObsId(), "source", "valueText");
+            }
+            
+            // Try 2: valueCoded
+            if (diagnosisValue == null && obs.getValueCoded() != null) {
+                try {
+                    diagnosisValue = obs.getValueCoded().getName().getName();
+                    SyncLog.verbose(SyncLog.PAYLOAD, "payload.diagnosis_source", "obsId", obs.getObsId(), "source", "valueCoded");
+                } catch (Exception e) {
+                    log.warn("   ⚠️ Could not get valueCoded name: " + e.getMessage());
+                }
+            }
+            
+            // Try 3: concept name (ALWAYS AVAILABLE)
+            if (diagnosisValue == null && obs.getConcept() != null) {
+                try {
+                    diagnosisValue = obs.getConcept().getName().getName();
+                    SyncLog.verbose(SyncLog.PAYLOAD, "payload.diagnosis_source", "obsId", obs.getObsId(), "source", "concept");
+                } catch (Exception e) {
+                    log.warn("   ⚠️ Could not get concept name: " + e.getMessage());
+                }
+            }
+            
+            // Try 4: LAST RESORT - use concept display string
+            if (diagnosisValue == null && obs.getConcept() != null) {
+                try {
+                    diagnosisValue = obs.getConcept().getDisplayString();
+                    SyncLog.verbose(SyncLog.PAYLOAD, "payload.diagnosis_source", "obsId", obs.getObsId(), "source", "conceptDisplay");
+                } catch (Exception e) {
+                    log.warn("   ⚠️ Could not get concept display: " + e.getMessage());
+                }
+            }
+            
+            // CRITICAL: Never send null diagnosis
+            if (diagnosisValue == null || diagnosisValue.trim().isEmpty()) {
+                SyncLog.error(SyncLog.PAYLOAD, "payload.fallback_value", "obsId", obs.getObsId(), "type", observationType,
+                    "hasConcept", obs.getConcept() != null, "hasValueCoded", obs.getValueCoded() != null);
+                diagnosisValue = "Observation recorded in OpenMRS";
+            }
+            
+            observationData.setDiagnosis(diagnosisValue);
+            observationData.setDetails(obs.getComment() != null ? obs.getComment() : "Auto-synced from OpenMRS");
+            observationData.setStatus("active");
+            observationData.setDate(obs.getObsDatetime() != null ? obs.getObsDatetime() : new Date());
+            
+        } else if ("medication".equals(observationType)) {
+            // Medication data - TRY MULTIPLE SOURCES
+            String medicationName = null;
+            
+            // Try 1: valueText
+            if (obs.getValueText() != null && !obs.getValueText().trim().isEmpty()) {
+                medicationName = obs.getValueText().trim();
+                SyncLog.verbose(SyncLog.PAYLOAD, "payload.medication_source", "obsId", obs.getObsId(), "source", "valueText");
+            }
+            
+            // Try 2: valueDrug
+            if (medicationName == null && obs.getValueDrug() != null) {
+                try {
+                    medicationName = obs.getValueDrug().getName();
+                    SyncLog.verbose(SyncLog.PAYLOAD, "payload.medication_source", "obsId", obs.getObsId(), "source", "valueDrug");
+                } catch (Exception e) {
+                    log.warn("   ⚠️ Could not get valueDrug name: " + e.getMessage());
+                }
+            }
+            
+            // Try 3: concept name (ALWAYS AVAILABLE)
+            if (medicationName == null && obs.getConcept() != null) {
+                try {
+                    medicationName = obs.getConcept().getName().getName();
+                    SyncLog.verbose(SyncLog.PAYLOAD, "payload.medication_source", "obsId", obs.getObsId(), "source", "concept");
+                } catch (Exception e) {
+                    log.warn("   ⚠️ Could not get concept name: " + e.getMessage());
+                }
+            }
+            
+            // Try 4: LAST RESORT - use concept display string
+            if (medicationName == null && obs.getConcept() != null) {
+                try {
+                    medicationName = obs.getConcept().getDisplayString();
+                    SyncLog.verbose(SyncLog.PAYLOAD, "payload.medication_source", "obsId", obs.getObsId(), "source", "conceptDisplay");
+                } catch (Exception e) {
+                    log.warn("   ⚠️ Could not get concept display: " + e.getMessage());
+                }
+            }
+            
+            // CRITICAL: Never send null medication name
+            if (medicationName == null || medicationName.trim().isEmpty()) {
+                SyncLog.error(SyncLog.PAYLOAD, "payload.fallback_value", "obsId", obs.getObsId(), "type", observationType,
+                    "hasConcept", obs.getConcept() != null, "hasValueDrug", obs.getValueDrug() != null);
+                medicationName = "Medication recorded in OpenMRS";
+            }
+            
+            observationData.setMedicationName(medicationName);
+            observationData.setDosage(extractDosage(obs));
+            observationData.setFrequency("As prescribed");
+            observationData.setStatus("active");
+            observationData.setStartDate(obs.getObsDatetime() != null ? obs.getObsDatetime() : new Date());
+            
+        } else {
+            // For all other observation types (finding, test, impression, etc.)
+            String observationValue = obs.getValueText();
+            if (observationValue == null && obs.getValueCoded() != null) {
+                observationValue = obs.getValueCoded().getName().getName();
+            }
+            
+            // If still null, use concept name
+            if (observationValue == null && obs.getConcept() != null) {
+                observationValue = obs.getConcept().getName().getName();
+            }
+            
+            observationData.setObservationType(observationType);
+            observationData.setValue(observationValue != null ? observationValue : "No value recorded");
+            observationData.setConceptName(obs.getConcept() != null ? obs.getConcept().getName().getName() : "Unknown");
+            observationData.setDetails(obs.getComment() != null ? obs.getComment() : "");
+            observationData.setDate(obs.getObsDatetime());
+        }
+        
+        // Lets the API recognise an obs it has already stored
+        observationData.setObsId(obs.getObsId());
+        observationData.setIdempotencyKey(IdempotencyKeys.forObs(obs));
+        // The API only distinguishes diagnosis and medication; keep the finer class it came from
+        observationData.setObservationClass(ObservationClassifier.classify(obs));
+        return observationData;
+    }
+    
+    /**
+     * Hospital name from the obs or encounter location
+     */
+    private String resolveHospitalName(Location location) {
+        if (location != null && location.getName() != null) {
+            return location.getName();
+        }
+        return "Unknown Hospital";
+    }
+    
+    /**
+     * Doctor license number: creator username, else creator name, else a fixed fallback
+     */
+    private String resolveDoctorLicense(User creator) {
+        String doctorLicense = "OPENMRS_PROVIDER"; // Default fallback
+        if (creator != null) {
+            if (creator.getUsername() != null && !creator.getUsername().isEmpty()) {
+                doctorLicense = creator.getUsername();
+            } else if (creator.getPerson() != null && creator.getPerson().getPersonName() != null) {
+                String creatorName = creator.getPerson().getPersonName().getFullName();
+                if (creatorName != null && !creatorName.isEmpty()) {
+                    doctorLicense = creatorName.replaceAll("\\s+", "_");
+                }
+            }
+        }
+        return doctorLicense;
+    }
+    
+    private boolean isAcknowledged(String key) {
+        return getAcknowledged(Collections.singletonList(key)).contains(key);
+    }
+    
+    /**
+     * Keys Patient Passport has already acknowledged; dedup problems never block a send
+     */
+    private Set<String> getAcknowledged(Collection<String> keys) {
+        SyncDeduplicator dedup = getDeduplicator();
+        if (dedup == null) {
+            return Collections.emptySet();
+        }
+        try {
+            return dedup.getAcknowledged(keys);
+        } catch (Exception e) {
+            log.warn("⚠️ Dedup lookup failed, sending anyway: " + e.getMessage());
+            return Collections.emptySet();
+        }
+    }
+    
+    private void acknowledge(Map<String, String> keysToObsUuid) {
+        SyncDeduplicator dedup = getDeduplicator();
+        if (dedup == null || keysToObsUuid.isEmpty()) {
+            return;
+        }
+        try {
+            dedup.acknowledge(keysToObsUuid);
+        } catch (Exception e) {
+            log.warn("⚠️ Could not record acknowledgement: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * RestTemplate over the module's pooled HTTP transport, created on first use
+     */
+    private RestTemplate getRestTemplate() {
+        RestTemplate template = restTemplate;
+        if (template == null) {
+            synchronized (this) {
+                if (restTemplate == null) {
+                    RestTemplate created = new RestTemplate(
+                        new HttpComponentsClientHttpRequestFactory(getTransport().getHttpClient()));
+                    created.getInterceptors().add(new PassportApiGuardInterceptor(this::getApiGuard, this::getConcurrencyLimiter));
+                    restTemplate = created;
+                }
+                template = restTemplate;
+            }
+        }
+        return template;
+    }
+    
+    /**
+     * The async transport when patientpassport.sync.transportMode is ASYNC and it is available, otherwise null
+     */
+    private PassportAsyncTransport getAsyncTransport() {
+        if (asyncTransport == null) {
+            try {
+                asyncTransport = Context.getRegisteredComponent("patientPassportAsyncTransport", PassportAsyncTransport.class);
+            } catch (Exception e) {
+                log.debug("Patient Passport async transport not available: " + e.getMessage());
+            }
+        }
+        return asyncTransport;
+    }
+    
+    private PassportHttpTransport getTransport() {
+        if (transport == null) {
+            try {
+                transport = Context.getRegisteredComponent("patientPassportHttpTransport", PassportHttpTransport.class);
+            } catch (Exception e) {
+                log.warn("Shared Patient Passport HTTP transport not available, using a private pool: " + e.getMessage());
+                transport = new PassportHttpTransport();
+            }
+        }
+        return transport;
+    }
+    
+    private PassportApiGuard getApiGuard() {
+        if (apiGuard == null) {
+            try {
+                apiGuard = Context.getRegisteredComponent("patientPassportApiGuard", PassportApiGuard.class);
+            } catch (Exception e) {
+                log.debug("Patient Passport API guard not available: " + e.getMessage());
+            }
+        }
+        return apiGuard;
+    }
+    
+    private AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        if (concurrencyLimiter == null) {
+            try {
+                concurrencyLimiter = Context.getRegisteredComponent("patientPassportConcurrencyLimiter",
+                    AdaptiveConcurrencyLimiter.class);
+            } catch (Exception e) {
+                log.debug("Concurrency limiter not available: " + e.getMessage());
+            }
+        }
+        return concurrencyLimiter;
+    }
+    
+    private SyncDeduplicator getDeduplicator() {
+        if (deduplicator == null) {
+            try {
+                deduplicator = Context.getRegisteredComponent("patientPassportSyncDeduplicator", SyncDeduplicator.class);
+            } catch (Exception e) {
+                log.debug("Sync deduplicator not available: " + e.getMessage());
+            }
+        }
+        return deduplicator;
+    }
+    
+    /**
+     * Patient Passport API base URL from the patientpassport.api.baseUrl global property
+     */
+    private String getApiBaseUrl() {
+        return new PatientPassportConfig().getApiBaseUrl();
+    }
+    
+    /**
+     * Get patient full name (family name + given name).
+     * Package-private for the benchmarks module.
+     */
+    String getPatientFullName(Patient patient) {
         PersonName personName = patient.getPersonName();
         if (personName != null) {
             String fullName = "";
@@ -381,6 +1047,39 @@ public class PatientPassportDataServiceImpl implements PatientPassportDataServic
         return null;
     }
     
+    /**
+     * Requests of a batch with their idempotency keys, and the payloads still to send. Holds
+     * only strings and built payloads, never the obs or patient, so it can outlive the session
+     */
+    private static final class PreparedBatch {
+        
+        private final List<String> keys;
+        
+        private final List<String> obsUuids;
+        
+        private final List<ObservationSyncResultDTO> results;
+        
+        private final List<ObservationPayloadDTO> payloads;
+        
+        private final List<Integer> payloadIndexes;
+        
+        // Patient of each payload, for sendIndividuallyAsync's per-patient order
+        private final List<Integer> patientIds;
+        
+        PreparedBatch(List<ObservationSyncRequestDTO> requests) {
+            keys = new ArrayList<>(requests.size());
+            obsUuids = new ArrayList<>(requests.size());
+            for (ObservationSyncRequestDTO request : requests) {
+                keys.add(IdempotencyKeys.forObs(request.getObs()));
+                obsUuids.add(request.getObs().getUuid());
+            }
+            results = new ArrayList<>(Collections.nCopies(requests.size(), (ObservationSyncResultDTO) null));
+            payloads = new ArrayList<>(requests.size());
+            payloadIndexes = new ArrayList<>(requests.size());
+            patientIds = new ArrayList<>(requests.size());
+        }
+    }
+    
     /**
      * Extract dosage from observation
      */
@@ -7,19 +7,29 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonName;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.http.PassportApiGuard;
+import org.openmrs.module.patientpassport.http.PassportHttpTransport;
 import org.openmrs.module.patientpassport.service.PatientPassportService;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.openmrs.module.patientpassport.sync.IdempotencyKeys;
 import org.openmrs.module.patientpassport.model.PatientPassportAccessLog;
 import org.openmrs.module.patientpassport.model.PatientPassportSyncStatus;
 import org.openmrs.module.patientpassport.dto.*;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.*;
 
 /**
@@ -37,7 +47,17 @@ public class PatientPassportServiceImpl implements PatientPassportService {
     private static final String AUDIT_LOGGING_KEY = "patientpassport.audit.logging";
     
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final HttpClient httpClient = HttpClientBuilder.create().build();
+    private PassportApiGuard apiGuard;
+    
+    private PassportHttpTransport transport;
+    
+    public void setApiGuard(PassportApiGuard apiGuard) {
+        this.apiGuard = apiGuard;
+    }
+    
+    public void setTransport(PassportHttpTransport transport) {
+        this.transport = transport;
+    }
     
     @Override
     public PatientPassportDTO getPatientPassport(Patient patient, User user, String accessType, String reason) {
@@ -69,7 +89,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
             request.setHeader("Content-Type", "application/json");
             request.setHeader("Authorization", "Bearer " + generateAccessToken(user));
             
-            HttpResponse response = httpClient.execute(request);
+            HttpResponse response = execute(request);
             HttpEntity entity = response.getEntity();
             
             if (response.getStatusLine().getStatusCode() == 200) {
@@ -85,6 +105,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
                     throw new RuntimeException("API returned error: " + responseMap.get("message"));
                 }
             } else {
+                EntityUtils.consumeQuietly(entity);
                 throw new RuntimeException("API call failed with status: " + response.getStatusLine().getStatusCode());
             }
             
@@ -111,7 +132,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
             StringEntity entity = new StringEntity(jsonRequest);
             httpPost.setEntity(entity);
             
-            HttpResponse response = httpClient.execute(httpPost);
+            HttpResponse response = execute(httpPost);
             HttpEntity responseEntity = response.getEntity();
             
             if (response.getStatusLine().getStatusCode() == 200) {
@@ -130,6 +151,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
                     return new PassportAccessResponseDTO(false, (String) responseMap.get("message"));
                 }
             } else {
+                EntityUtils.consumeQuietly(responseEntity);
                 return new PassportAccessResponseDTO(false, "Failed to request OTP");
             }
             
@@ -161,7 +183,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
             StringEntity entity = new StringEntity(jsonRequest);
             httpPost.setEntity(entity);
             
-            HttpResponse response = httpClient.execute(httpPost);
+            HttpResponse response = execute(httpPost);
             HttpEntity responseEntity = response.getEntity();
             
             if (response.getStatusLine().getStatusCode() == 200) {
@@ -183,6 +205,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
                     throw new RuntimeException("OTP verification failed: " + responseMap.get("message"));
                 }
             } else {
+                EntityUtils.consumeQuietly(responseEntity);
                 throw new RuntimeException("OTP verification failed");
             }
             
@@ -226,30 +249,28 @@ public class PatientPassportServiceImpl implements PatientPassportService {
     
     @Override
     public PatientPassportSyncStatus syncPatientData(Patient patient) {
+        PatientPassportSyncStatus syncStatus = getSyncStatus(patient);
+        if (syncStatus == null) {
+            syncStatus = new PatientPassportSyncStatus(patient);
+        }
+        
         try {
-            PatientPassportSyncStatus syncStatus = getSyncStatus(patient);
-            if (syncStatus == null) {
-                syncStatus = new PatientPassportSyncStatus(patient);
+            Map<String, Object> patientData = convertPatientToMap(patient);
+            String fingerprint = IdempotencyKeys.sha256Hex(objectMapper.writeValueAsString(getPatientContent(patient)));
+            
+            if ("SUCCESS".equals(syncStatus.getSyncStatus()) && fingerprint.equals(syncStatus.getContentFingerprint())) {
+                log.debug("Patient " + patient.getPatientId() + " unchanged since the last accepted sync, skipping");
+                return syncStatus;
             }
             
             syncStatus.setSyncStatus("SYNCING");
             syncStatus.setLastSyncTimestamp(new Date());
             
-            // Make API call to sync data
-            String apiUrl = getApiBaseUrl() + "/patients/sync/" + patient.getPatientId();
-            
-            HttpPost httpPost = new HttpPost(apiUrl);
-            httpPost.setHeader("Content-Type", "application/json");
-            
-            Map<String, Object> patientData = convertPatientToMap(patient);
-            String jsonRequest = objectMapper.writeValueAsString(patientData);
-            StringEntity entity = new StringEntity(jsonRequest);
-            httpPost.setEntity(entity);
-            
-            HttpResponse response = httpClient.execute(httpPost);
+            HttpResponse response = postSync(patient, patientData);
+            int statusCode = response.getStatusLine().getStatusCode();
             HttpEntity responseEntity = response.getEntity();
             
-            if (response.getStatusLine().getStatusCode() == 200) {
+            if (statusCode == 200) {
                 String responseBody = EntityUtils.toString(responseEntity);
                 @SuppressWarnings("unchecked")
                 Map<String, Object> responseMap = objectMapper.readValue(responseBody, Map.class);
@@ -257,11 +278,16 @@ public class PatientPassportServiceImpl implements PatientPassportService {
                 if (responseMap.containsKey("success") && (Boolean) responseMap.get("success")) {
                     syncStatus.setSyncStatus("SUCCESS");
                     syncStatus.setSyncError(null);
+                    syncStatus.setContentFingerprint(fingerprint);
                     
-                    // Update passport mapping if provided
+                    // Update passport mapping and version if provided
                     @SuppressWarnings("unchecked")
                     Map<String, Object> data = (Map<String, Object>) responseMap.get("data");
-                    if (data.containsKey("passportId")) {
+                    Object version = data != null ? data.get("passportVersion") : null;
+                    if (version instanceof Number) {
+                        syncStatus.setPassportVersion(((Number) version).intValue());
+                    }
+                    if (data != null && data.containsKey("passportId")) {
                         updatePatientPassportMapping(patient, 
                             (String) data.get("passportId"),
                             (String) data.get("nationalId"),
@@ -272,22 +298,19 @@ public class PatientPassportServiceImpl implements PatientPassportService {
                     syncStatus.setSyncError((String) responseMap.get("message"));
                 }
             } else {
+                EntityUtils.consumeQuietly(responseEntity);
                 syncStatus.setSyncStatus("ERROR");
-                syncStatus.setSyncError("HTTP " + response.getStatusLine().getStatusCode());
+                syncStatus.setSyncError("HTTP " + statusCode);
             }
             
-            return syncStatus;
-            
         } catch (Exception e) {
             log.error("Error syncing patient data", e);
-            PatientPassportSyncStatus syncStatus = getSyncStatus(patient);
-            if (syncStatus == null) {
-                syncStatus = new PatientPassportSyncStatus(patient);
-            }
             syncStatus.setSyncStatus("ERROR");
             syncStatus.setSyncError(e.getMessage());
-            return syncStatus;
         }
+        
+        saveSyncStatus(syncStatus);
+        return syncStatus;
     }
     
     @Override
@@ -382,9 +405,12 @@ public class PatientPassportServiceImpl implements PatientPassportService {
     
     @Override
     public PatientPassportSyncStatus getSyncStatus(Patient patient) {
-        // This would be implemented with DAO
-        // return patientPassportSyncStatusDAO.findByPatient(patient);
-        return null;
+        try {
+            return Context.getService(PatientPassportSyncOutboxService.class).getSyncStatus(patient);
+        } catch (Exception e) {
+            log.warn("Could not read sync status of patient " + patient.getPatientId() + ": " + e.getMessage());
+            return null;
+        }
     }
     
     @Override
@@ -396,9 +422,7 @@ public class PatientPassportServiceImpl implements PatientPassportService {
         syncStatus.setSyncStatus(status);
         syncStatus.setSyncError(error);
         syncStatus.setLastSyncTimestamp(new Date());
-        
-        // Save sync status (implement with DAO)
-        // patientPassportSyncStatusDAO.save(syncStatus);
+        saveSyncStatus(syncStatus);
     }
     
     @Override
@@ -430,6 +454,58 @@ public class PatientPassportServiceImpl implements PatientPassportService {
     }
     
     // Helper methods
+    
+    /**
+     * Execute a request through the shared Patient Passport API circuit breaker and retry policy
+     */
+    private HttpResponse execute(final HttpUriRequest request) throws IOException {
+        final HttpClient httpClient = getTransport().getHttpClient();
+        PassportApiGuard guard = getApiGuard();
+        if (guard == null) {
+            return httpClient.execute(request);
+        }
+        return guard.execute(request.getMethod() + " " + request.getURI().getPath(),
+            new PassportApiGuard.Call<HttpResponse>() {
+                @Override
+                protected HttpResponse attempt() throws IOException {
+                    return httpClient.execute(request);
+                }
+                
+                @Override
+                protected int statusOf(HttpResponse response) {
+                    return response.getStatusLine().getStatusCode();
+                }
+                
+                @Override
+                protected void discard(HttpResponse response) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+            });
+    }
+    
+    private PassportHttpTransport getTransport() {
+        if (transport == null) {
+            try {
+                transport = Context.getRegisteredComponent("patientPassportHttpTransport", PassportHttpTransport.class);
+            } catch (Exception e) {
+                log.warn("Shared Patient Passport HTTP transport not available, using a private pool: " + e.getMessage());
+                transport = new PassportHttpTransport();
+            }
+        }
+        return transport;
+    }
+    
+    private PassportApiGuard getApiGuard() {
+        if (apiGuard == null) {
+            try {
+                apiGuard = Context.getRegisteredComponent("patientPassportApiGuard", PassportApiGuard.class);
+            } catch (Exception e) {
+                log.debug("Patient Passport API guard not available: " + e.getMessage());
+            }
+        }
+        return apiGuard;
+    }
+    
     private String generateAccessToken(User user) {
         // Generate access token for API authentication
         // This would typically involve JWT or similar token generation
@@ -445,6 +521,21 @@ public class PatientPassportServiceImpl implements PatientPassportService {
         return dto;
     }
     
+    private void saveSyncStatus(PatientPassportSyncStatus syncStatus) {
+        try {
+            Context.getService(PatientPassportSyncOutboxService.class).saveSyncStatus(syncStatus);
+        } catch (Exception e) {
+            log.error("Error saving sync status of patient " + syncStatus.getPatient().getPatientId(), e);
+        }
+    }
+    
+    private HttpResponse postSync(Patient patient, Map<String, Object> payload) throws IOException {
+        HttpPost httpPost = new HttpPost(getApiBaseUrl() + "/patients/sync/" + patient.getPatientId());
+        httpPost.setHeader("Content-Type", "application/json");
+        httpPost.setEntity(new StringEntity(objectMapper.writeValueAsString(payload)));
+        return execute(httpPost);
+    }
+    
     private Map<String, Object> convertPatientToMap(Patient patient) {
         Map<String, Object> patientMap = new HashMap<>();
         patientMap.put("patientId", patient.getPatientId());
@@ -454,4 +545,60 @@ public class PatientPassportServiceImpl implements PatientPassportService {
         
         return patientMap;
     }
+    
+    /**
+     * The patient's record as the fingerprint sees it. Only hashed, never sent. Collections are
+     * sorted so the same data always hashes the same way.
+     */
+    private Map<String, Object> getPatientContent(Patient patient) {
+        Map<String, Object> patientMap = new TreeMap<>(convertPatientToMap(patient));
+        
+        Map<String, Object> demographics = new LinkedHashMap<>();
+        PersonName name = patient.getPersonName();
+        demographics.put("givenName", name != null ? name.getGivenName() : null);
+        demographics.put("middleName", name != null ? name.getMiddleName() : null);
+        demographics.put("familyName", name != null ? name.getFamilyName() : null);
+        demographics.put("gender", patient.getGender());
+        demographics.put("birthdate", formatDate(patient.getBirthdate()));
+        demographics.put("dead", patient.getDead());
+        demographics.put("deathDate", formatDate(patient.getDeathDate()));
+        patientMap.put("demographics", demographics);
+        
+        List<Map<String, Object>> identifiers = new ArrayList<>();
+        if (patient.getIdentifiers() != null) {
+            for (PatientIdentifier identifier : patient.getIdentifiers()) {
+                if (Boolean.TRUE.equals(identifier.getVoided())) {
+                    continue;
+                }
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("identifier", identifier.getIdentifier());
+                entry.put("type", identifier.getIdentifierType() != null ? identifier.getIdentifierType().getUuid() : null);
+                entry.put("preferred", identifier.getPreferred());
+                identifiers.add(entry);
+            }
+        }
+        identifiers.sort(Comparator.comparing((Map<String, Object> entry) -> String.valueOf(entry.get("type")))
+            .thenComparing(entry -> String.valueOf(entry.get("identifier"))));
+        patientMap.put("identifiers", identifiers);
+        
+        Map<String, Object> address = new LinkedHashMap<>();
+        PersonAddress personAddress = patient.getPersonAddress();
+        if (personAddress != null) {
+            address.put("address1", personAddress.getAddress1());
+            address.put("address2", personAddress.getAddress2());
+            address.put("cityVillage", personAddress.getCityVillage());
+            address.put("countyDistrict", personAddress.getCountyDistrict());
+            address.put("stateProvince", personAddress.getStateProvince());
+            address.put("country", personAddress.getCountry());
+            address.put("postalCode", personAddress.getPostalCode());
+        }
+        patientMap.put("address", address);
+        
+        return patientMap;
+    }
+    
+    private String formatDate(Date date) {
+        // yyyy-MM-dd in the server's zone; java.sql.Date does not support toInstant()
+        return date != null ? Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toString() : null;
+    }
 }
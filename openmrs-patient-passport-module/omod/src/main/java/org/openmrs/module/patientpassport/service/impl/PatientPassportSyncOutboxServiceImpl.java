@@ -0,0 +1,422 @@
+package org.openmrs.module.patientpassport.service.impl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.APIException;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.patientpassport.db.PatientPassportSyncOutboxDAO;
+import org.openmrs.module.patientpassport.dto.DeadLetterFilterDTO;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.model.PatientPassportBackfillPartition;
+import org.openmrs.module.patientpassport.model.PatientPassportDeadLetter;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncStatus;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Implementation of the sync outbox service
+ */
+public class PatientPassportSyncOutboxServiceImpl extends BaseOpenmrsService implements PatientPassportSyncOutboxService {
+
+    private static final Log log = LogFactory.getLog(PatientPassportSyncOutboxServiceImpl.class);
+
+    // Retry backoff: 5s, 10s, 20s ... capped at 10 minutes
+    private static final long BASE_BACKOFF_MS = 5000L;
+    private static final long MAX_BACKOFF_MS = 600000L;
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    // Dead-letter rows requeued per statement during a replay
+    private static final int REPLAY_PAGE_SIZE = 500;
+
+    private static final String OBS_WATERMARK = "obs";
+
+    private PatientPassportSyncOutboxDAO dao;
+
+    public void setDao(PatientPassportSyncOutboxDAO dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public PatientPassportSyncOutbox enqueue(Obs obs, String obsType) {
+        if (obs == null || obs.getObsId() == null) {
+            throw new APIException("Cannot enqueue an observation that has not been saved");
+        }
+        if (obs.getPerson() == null) {
+            throw new APIException("Cannot enqueue observation " + obs.getObsId() + " without a person");
+        }
+
+        PatientPassportSyncOutbox entry = new PatientPassportSyncOutbox(
+            obs.getObsId(), obs.getUuid(), obs.getPerson().getPersonId(), obsType);
+        dao.insert(entry);
+        return entry;
+    }
+
+    @Override
+    public PatientPassportSyncOutbox enqueueEncounter(Encounter encounter) {
+        if (encounter == null || encounter.getEncounterId() == null) {
+            throw new APIException("Cannot enqueue an encounter that has not been saved");
+        }
+        if (encounter.getPatient() == null) {
+            throw new APIException("Cannot enqueue encounter " + encounter.getEncounterId() + " without a patient");
+        }
+
+        PatientPassportSyncOutbox entry = new PatientPassportSyncOutbox(
+            null, null, encounter.getPatient().getPatientId(), PatientPassportSyncOutbox.TYPE_ENCOUNTER);
+        entry.setEncounterId(encounter.getEncounterId());
+        entry.setPriority(getEncounterPriority(encounter).getValue());
+        dao.insert(entry);
+        return entry;
+    }
+
+    /**
+     * An encounter is sent as one payload, so it takes the priority of its most urgent obs
+     */
+    private SyncPriority getEncounterPriority(Encounter encounter) {
+        SyncPriority highest = SyncPriority.LOW;
+        if (encounter.getObs() == null || encounter.getObs().isEmpty()) {
+            return SyncPriority.NORMAL;
+        }
+        for (Obs obs : encounter.getObs()) {
+            SyncPriority priority = SyncPriority.forObsType(ObservationClassifier.classify(obs));
+            if (priority.getValue() < highest.getValue()) {
+                highest = priority;
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public List<PatientPassportSyncOutbox> claimDueEntries(int limit, long maxWaitMs) {
+        long now = System.currentTimeMillis();
+        return claim(dao.getDueEntries(new Date(now), new Date(now - maxWaitMs), limit));
+    }
+
+    @Override
+    public List<PatientPassportSyncOutbox> claimEntries(Collection<Integer> obsIds, Collection<Integer> encounterIds) {
+        return claim(dao.getDueEntries(obsIds, encounterIds, new Date()));
+    }
+
+    /**
+     * Keeps only the rows this call moved to IN_FLIGHT; rows another dispatcher or node
+     * claimed since they were read are left to it
+     */
+    private List<PatientPassportSyncOutbox> claim(List<PatientPassportSyncOutbox> entries) {
+        if (entries.isEmpty()) {
+            return entries;
+        }
+        List<Long> ids = new ArrayList<>(entries.size());
+        for (PatientPassportSyncOutbox entry : entries) {
+            ids.add(entry.getOutboxId());
+        }
+        Set<Long> claimedIds = dao.claim(ids);
+        List<PatientPassportSyncOutbox> claimed = new ArrayList<>(claimedIds.size());
+        for (PatientPassportSyncOutbox entry : entries) {
+            if (claimedIds.contains(entry.getOutboxId())) {
+                entry.setStatus(PatientPassportSyncOutbox.STATUS_IN_FLIGHT);
+                claimed.add(entry);
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public void markDelivered(Collection<Long> outboxIds) {
+        dao.delete(outboxIds);
+    }
+
+    @Override
+    public void markFailed(PatientPassportSyncOutbox entry, String error, int maxAttempts) {
+        int attempts = (entry.getAttempts() != null ? entry.getAttempts() : 0) + 1;
+        String status = attempts >= maxAttempts
+            ? PatientPassportSyncOutbox.STATUS_FAILED
+            : PatientPassportSyncOutbox.STATUS_PENDING;
+
+        long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempts - 1, 20));
+        Date nextAttemptAt = new Date(System.currentTimeMillis() + backoff);
+
+        String errorClass = PatientPassportDeadLetter.errorClassOf(error);
+        SyncMetrics.ATTEMPT_FAILURES.increment(errorClass);
+
+        if (error != null && error.length() > MAX_ERROR_LENGTH) {
+            error = error.substring(0, MAX_ERROR_LENGTH);
+        }
+
+        dao.recordFailure(entry.getOutboxId(), status, attempts, error, nextAttemptAt);
+        entry.setAttempts(attempts);
+        entry.setStatus(status);
+        entry.setLastError(error);
+        entry.setNextAttemptAt(nextAttemptAt);
+
+        if (PatientPassportSyncOutbox.STATUS_FAILED.equals(status)) {
+            dao.moveToDeadLetter(Collections.singletonList(entry.getOutboxId()), errorClass);
+            SyncMetrics.DEAD_LETTERED.increment(errorClass);
+            log.error("Outbox entry " + entry.getOutboxId() + " for obs " + entry.getObsId() +
+                " failed after " + attempts + " attempts, moved to dead letters as " + errorClass + ": " + error);
+        }
+    }
+
+    @Override
+    public void release(Collection<Long> outboxIds) {
+        dao.updateStatus(outboxIds, PatientPassportSyncOutbox.STATUS_PENDING);
+    }
+
+    @Override
+    public void markDropped(Collection<Long> outboxIds) {
+        dao.moveToDeadLetter(outboxIds, PatientPassportDeadLetter.ERROR_QUEUE_FULL);
+        SyncMetrics.DEAD_LETTERED.add(outboxIds.size(), PatientPassportDeadLetter.ERROR_QUEUE_FULL);
+    }
+
+    @Override
+    public int recoverInFlight() {
+        return dao.resetStatus(PatientPassportSyncOutbox.STATUS_IN_FLIGHT, PatientPassportSyncOutbox.STATUS_PENDING);
+    }
+
+    @Override
+    public long countByStatus(String status) {
+        return dao.countByStatus(status);
+    }
+
+    @Override
+    public List<PatientPassportDeadLetter> getDeadLetters(DeadLetterFilterDTO filter, int offset, int limit) {
+        return dao.getDeadLetters(filter, offset, limit);
+    }
+
+    @Override
+    public long countDeadLetters(DeadLetterFilterDTO filter) {
+        return dao.countDeadLetters(filter);
+    }
+
+    @Override
+    public Map<String, Long> countDeadLettersByErrorClass() {
+        return dao.countDeadLettersByErrorClass();
+    }
+
+    @Override
+    public int replayDeadLetters(DeadLetterFilterDTO filter, int limit) {
+        long afterId = 0L;
+        int scanned = 0;
+        int replayed = 0;
+        while (scanned < limit) {
+            List<Long> ids = dao.getDeadLetterIds(filter, afterId, Math.min(REPLAY_PAGE_SIZE, limit - scanned));
+            if (ids.isEmpty()) {
+                break;
+            }
+            afterId = ids.get(ids.size() - 1);
+            scanned += ids.size();
+            replayed += dao.requeueDeadLetters(ids);
+        }
+        if (scanned > 0) {
+            log.info("Replayed " + replayed + " dead-letter rows into the outbox" +
+                (scanned > replayed ? ", " + (scanned - replayed) + " left because their obs or encounter is gone" : ""));
+        }
+        return replayed;
+    }
+
+    @Override
+    public Set<String> getAcknowledgedKeys(Collection<String> keys) {
+        return dao.getAcknowledgedKeys(keys);
+    }
+
+    @Override
+    public void acknowledge(Map<String, String> keysToObsUuid) {
+        if (!keysToObsUuid.isEmpty()) {
+            dao.insertAcknowledgements(keysToObsUuid);
+        }
+    }
+
+    @Override
+    public void forEachAcknowledgedKey(Consumer<String> consumer) {
+        dao.forEachAcknowledgedKey(consumer);
+    }
+
+    @Override
+    public long countAcknowledgements() {
+        return dao.countAcknowledgements();
+    }
+
+    @Override
+    public int purgeAcknowledgements(Date cutoff, int limit) {
+        return dao.deleteAcknowledgementsBefore(cutoff, limit);
+    }
+
+    @Override
+    public int captureObsChanges(Date settledBefore, int limit) {
+        Integer watermark = dao.getWatermark(OBS_WATERMARK);
+        if (watermark == null) {
+            // History is the backfill's job; change capture starts from now
+            advanceObsWatermarkToLatest();
+            return 0;
+        }
+
+        int last = watermark;
+        int scanned = 0;
+        int queued = 0;
+        List<Obs> page = dao.getObsAfter(watermark, limit);
+        Set<Integer> pageEncounters = new HashSet<>();
+        for (Obs obs : page) {
+            if (obs.getEncounter() != null) {
+                pageEncounters.add(obs.getEncounter().getEncounterId());
+            }
+        }
+        // An encounter whose obs spill over from the previous page is still waiting in the outbox;
+        // its payload is built when it is sent, so the obs read here go with it
+        Set<Integer> encounters = dao.getQueuedEncounterIds(pageEncounters);
+        for (Obs obs : page) {
+            if (obs.getDateCreated() != null && obs.getDateCreated().after(settledBefore)) {
+                break;
+            }
+            scanned++;
+            last = obs.getObsId();
+            if (Boolean.TRUE.equals(obs.getVoided()) || obs.getPerson() == null
+                    || !Boolean.TRUE.equals(obs.getPerson().getIsPatient())) {
+                continue;
+            }
+
+            Encounter encounter = obs.getEncounter();
+            if (encounter != null) {
+                // Same shape as EncounterSaveAdvice: one payload per encounter
+                if (encounters.add(encounter.getEncounterId()) && !Boolean.TRUE.equals(encounter.getVoided())
+                        && encounter.getPatient() != null) {
+                    enqueueEncounter(encounter);
+                    queued++;
+                }
+                continue;
+            }
+            enqueue(obs, ObservationClassifier.classify(obs));
+            queued++;
+        }
+
+        if (scanned > 0) {
+            dao.saveWatermark(OBS_WATERMARK, last);
+            log.debug("Change capture read " + scanned + " obs up to " + last + ", queued " + queued);
+        }
+        return scanned;
+    }
+
+    @Override
+    public void advanceObsWatermarkToLatest() {
+        int latest = dao.getMaxObsId() != null ? dao.getMaxObsId() : 0;
+        Integer watermark = dao.getWatermark(OBS_WATERMARK);
+        if (watermark == null || watermark < latest) {
+            dao.saveWatermark(OBS_WATERMARK, latest);
+        }
+    }
+
+    @Override
+    public Integer getObsWatermark() {
+        return dao.getWatermark(OBS_WATERMARK);
+    }
+
+    @Override
+    public List<Integer> getRecentObsConceptIds(int obsWindow) {
+        Integer maxObsId = dao.getMaxObsId();
+        if (maxObsId == null) {
+            return Collections.emptyList();
+        }
+        return dao.getObsConceptIds(Math.max(0, maxObsId - obsWindow));
+    }
+
+    @Override
+    public PatientPassportSyncStatus getSyncStatus(Patient patient) {
+        PatientPassportSyncStatus status = dao.getSyncStatus(patient.getPatientId());
+        if (status != null) {
+            status.setPatient(patient);
+        }
+        return status;
+    }
+
+    @Override
+    public void saveSyncStatus(PatientPassportSyncStatus status) {
+        dao.saveSyncStatus(status);
+    }
+
+    @Override
+    public List<PatientPassportBackfillPartition> planBackfill(int partitions) {
+        List<PatientPassportBackfillPartition> existing = dao.getBackfillPartitions();
+        if (!existing.isEmpty()) {
+            return existing;
+        }
+
+        int[] range = dao.getPatientObsIdRange();
+        if (range == null) {
+            return existing;
+        }
+
+        // Equal obs_id ranges; lower bounds are exclusive, so the first one starts just below min
+        long first = range[0] - 1L;
+        long span = range[1] - first;
+        int count = (int) Math.max(1, Math.min(partitions, span));
+        List<PatientPassportBackfillPartition> planned = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = (int) (first + span * i / count);
+            int end = (int) (first + span * (i + 1) / count);
+            PatientPassportBackfillPartition partition =
+                new PatientPassportBackfillPartition(i, start, end, dao.countPatientObs(start, end));
+            dao.saveBackfillPartition(partition);
+            planned.add(partition);
+        }
+        log.info("Planned observation backfill: " + count + " partitions over obs_id " + range[0] + "-" + range[1]);
+        return planned;
+    }
+
+    @Override
+    public List<PatientPassportBackfillPartition> getBackfillPartitions() {
+        return dao.getBackfillPartitions();
+    }
+
+    @Override
+    public PatientPassportBackfillPartition backfillNextPage(int partitionId, int pageSize) {
+        PatientPassportBackfillPartition partition = dao.getBackfillPartition(partitionId);
+        if (partition == null || partition.isDone()) {
+            return partition;
+        }
+
+        List<Integer> obsIds = dao.getPatientObsIds(partition.getLastObsId(), partition.getEndObsId(), pageSize);
+        int queued = 0;
+        for (Obs obs : dao.getObs(obsIds)) {
+            PatientPassportSyncOutbox entry = new PatientPassportSyncOutbox(
+                obs.getObsId(), obs.getUuid(), obs.getPerson().getPersonId(), ObservationClassifier.classify(obs));
+            // History goes behind live saves; aging still gets it out
+            entry.setPriority(SyncPriority.LOW.getValue());
+            dao.insert(entry);
+            queued++;
+        }
+
+        partition.setProcessedRows(partition.getProcessedRows() + obsIds.size());
+        partition.setQueuedRows(partition.getQueuedRows() + queued);
+        if (obsIds.size() < pageSize) {
+            partition.setLastObsId(partition.getEndObsId());
+            partition.setStatus(PatientPassportBackfillPartition.STATUS_DONE);
+        } else {
+            partition.setLastObsId(obsIds.get(obsIds.size() - 1));
+            partition.setStatus(PatientPassportBackfillPartition.STATUS_RUNNING);
+        }
+        dao.saveBackfillPartition(partition);
+        return partition;
+    }
+
+    @Override
+    public int setBackfillStatus(String status) {
+        return dao.updateUnfinishedBackfillStatus(status);
+    }
+
+    @Override
+    public void resetBackfill() {
+        dao.deleteBackfillPartitions();
+    }
+}
@@ -0,0 +1,378 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled observation classification rule table (patientpassport.classifier.rules).
+ *
+ * One rule per line (or separated by ';'), in the form
+ * <pre>
+ * TYPE = keyword, keyword, class:ConceptClass, datatype:Datatype, term:SOURCE:CODE
+ * </pre>
+ * Lines starting with '#' are comments. Keywords match anywhere in any of the concept's
+ * names, in every locale, ignoring case and accents. All keywords are compiled into one
+ * Aho-Corasick automaton, so a name is read once whatever the number of rules. A concept
+ * is classified by, in order: a mapped reference term (source name or HL7 code), a name
+ * keyword, its concept class, then its datatype. Within each kind the earliest rule wins,
+ * which keeps the precedence of the original hardcoded keyword lists.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class ClassificationRules {
+
+    /**
+     * Used when patientpassport.classifier.rules is empty. The English keywords are the
+     * original hardcoded lists, in their original order.
+     */
+    public static final String DEFAULT_RULES =
+        "DIAGNOSIS = DIAGNOSIS, CONDITION, DIAGNOSTIC, MALADIE, INDWARA, term:CIEL:1284, term:CIEL:159947\n" +
+        "MEDICATION = MEDICATION, DRUG, MEDICAMENT, UMUTI, IMITI, term:CIEL:1282\n" +
+        "ALLERGY = ALLERG, ALERIJI\n" +
+        "LAB_RESULT = LAB, TEST, ANALYSE, IBIZAMINI\n" +
+        "VITAL_SIGN = VITAL, WEIGHT, HEIGHT, TEMPERATURE, PRESSURE, PULSE, VITAUX, POIDS, TAILLE, " +
+            "TENSION ARTERIELLE, POULS, FREQUENCE CARDIAQUE, FREQUENCE RESPIRATOIRE, IBIRO, UBUREBURE, " +
+            "UBUSHYUHE, UMUVUDUKO W'AMARASO, term:CIEL:5089, term:CIEL:5090, term:CIEL:5088, " +
+            "term:CIEL:5085, term:CIEL:5086, term:CIEL:5087, term:CIEL:5242, term:CIEL:5092\n" +
+        "PROCEDURE = PROCEDURE, SURGERY, CHIRURGIE, KUBAGA\n" +
+        "IMMUNIZATION = IMMUN, VACCIN, URUKINGO, INKINGO, term:CIEL:984\n" +
+        "DIAGNOSIS = class:Diagnosis\n" +
+        "MEDICATION = class:Drug\n" +
+        "LAB_RESULT = class:Test, class:LabSet\n" +
+        "PROCEDURE = class:Procedure";
+
+    private static final Pattern RULE_SEPARATOR = Pattern.compile("[;\\r\\n]+");
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final String source;
+
+    private final List<String> types;
+
+    private final Automaton keywords;
+
+    private final Map<String, Integer> classes;
+
+    private final Map<String, Integer> datatypes;
+
+    private final Map<String, Integer> terms;
+
+    private final int criteriaCount;
+
+    private ClassificationRules(String source, List<String> types, Automaton keywords, Map<String, Integer> classes,
+                                Map<String, Integer> datatypes, Map<String, Integer> terms, int criteriaCount) {
+        this.source = source;
+        this.types = types;
+        this.keywords = keywords;
+        this.classes = classes;
+        this.datatypes = datatypes;
+        this.terms = terms;
+        this.criteriaCount = criteriaCount;
+    }
+
+    /**
+     * Parse and compile a rule table
+     * @throws IllegalArgumentException if a line is not a valid rule
+     */
+    public static ClassificationRules compile(String source) {
+        String text = source == null || source.trim().isEmpty() ? DEFAULT_RULES : source;
+
+        // Each line is one rule; its index in types is its precedence within each kind of match
+        List<String> types = new ArrayList<>();
+        Map<String, Integer> keywords = new HashMap<>();
+        Map<String, Integer> classes = new HashMap<>();
+        Map<String, Integer> datatypes = new HashMap<>();
+        Map<String, Integer> terms = new HashMap<>();
+        int criteria = 0;
+
+        for (String line : RULE_SEPARATOR.split(text)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int equals = line.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected TYPE = criteria in classification rule: " + line);
+            }
+            String type = line.substring(0, equals).trim().toUpperCase(Locale.ROOT);
+            int rule = types.size();
+            types.add(type);
+
+            for (String criterion : line.substring(equals + 1).split(",")) {
+                criterion = criterion.trim();
+                if (criterion.isEmpty()) {
+                    continue;
+                }
+                String lower = criterion.toLowerCase(Locale.ROOT);
+                if (lower.startsWith("class:")) {
+                    putFirst(classes, normalize(criterion.substring(6)), rule);
+                } else if (lower.startsWith("datatype:")) {
+                    putFirst(datatypes, normalize(criterion.substring(9)), rule);
+                } else if (lower.startsWith("term:")) {
+                    String term = criterion.substring(5);
+                    int colon = term.lastIndexOf(':');
+                    if (colon <= 0 || colon == term.length() - 1) {
+                        throw new IllegalArgumentException("Expected term:SOURCE:CODE in classification rule: " + line);
+                    }
+                    putFirst(terms, termKey(term.substring(0, colon), term.substring(colon + 1)), rule);
+                } else {
+                    putFirst(keywords, normalize(criterion), rule);
+                }
+                criteria++;
+            }
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Classification rule table has no rules");
+        }
+
+        return new ClassificationRules(source, Collections.unmodifiableList(types), new Automaton(keywords),
+            classes, datatypes, terms, criteria);
+    }
+
+    /**
+     * The text this table was compiled from (null or blank for the default table)
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Number of rules in the table
+     */
+    public int getRuleCount() {
+        return types.size();
+    }
+
+    /**
+     * Number of keywords, classes, datatypes and terms across all rules
+     */
+    public int getCriteriaCount() {
+        return criteriaCount;
+    }
+
+    /**
+     * The sync type of a concept, or null when no rule matches
+     */
+    public String classify(Concept concept) {
+        int rule = matchTerms(concept);
+        if (rule < 0) {
+            rule = matchNames(concept);
+        }
+        if (rule < 0 && concept.getConceptClass() != null) {
+            rule = lookup(classes, concept.getConceptClass().getName());
+        }
+        if (rule < 0 && concept.getDatatype() != null) {
+            rule = lookup(datatypes, concept.getDatatype().getName());
+        }
+        return rule >= 0 ? types.get(rule) : null;
+    }
+
+    private int matchTerms(Concept concept) {
+        if (terms.isEmpty()) {
+            return -1;
+        }
+        Collection<ConceptMap> mappings = concept.getConceptMappings();
+        if (mappings == null) {
+            return -1;
+        }
+        int best = -1;
+        for (ConceptMap mapping : mappings) {
+            ConceptReferenceTerm term = mapping.getConceptReferenceTerm();
+            if (term == null || term.getCode() == null || term.getConceptSource() == null) {
+                continue;
+            }
+            ConceptSource conceptSource = term.getConceptSource();
+            best = earliest(best, terms.get(termKey(conceptSource.getName(), term.getCode())));
+            best = earliest(best, terms.get(termKey(conceptSource.getHl7Code(), term.getCode())));
+        }
+        return best;
+    }
+
+    private int matchNames(Concept concept) {
+        if (keywords.isEmpty()) {
+            return -1;
+        }
+        int best = -1;
+        Collection<ConceptName> names = concept.getNames();
+        if (names == null || names.isEmpty()) {
+            ConceptName name = concept.getName();
+            return name != null ? keywords.match(normalize(name.getName())) : -1;
+        }
+        for (ConceptName name : names) {
+            best = earliest(best, keywords.match(normalize(name.getName())));
+            if (best == 0) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private static int lookup(Map<String, Integer> rules, String name) {
+        if (rules.isEmpty() || name == null) {
+            return -1;
+        }
+        Integer rule = rules.get(normalize(name));
+        return rule != null ? rule : -1;
+    }
+
+    private static int earliest(int best, Integer rule) {
+        if (rule == null || rule < 0) {
+            return best;
+        }
+        return best < 0 ? rule : Math.min(best, rule);
+    }
+
+    private static void putFirst(Map<String, Integer> map, String key, int rule) {
+        if (!key.isEmpty()) {
+            map.putIfAbsent(key, rule);
+        }
+    }
+
+    private static String termKey(String conceptSource, String code) {
+        return conceptSource == null ? "" : normalize(conceptSource) + ":" + code.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Upper case, accents stripped, typographic apostrophes folded, so "Température" matches TEMPERATURE
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.trim(), Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("")
+            .replace('\u2019', '\'').replace('\u2018', '\'')
+            .toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Aho-Corasick automaton over the keywords, flattened into a transition table so a match
+     * is one array lookup per character with no failure links to follow at match time. Each
+     * state records the earliest rule of any keyword ending there.
+     */
+    private static final class Automaton {
+
+        private final int[] alphabet;
+
+        private final int alphabetSize;
+
+        private final int[] transitions;
+
+        private final int[] rules;
+
+        Automaton(Map<String, Integer> keywords) {
+            // Map the characters used by the keywords to 1..n; anything else is 0
+            int maxChar = 0;
+            for (String keyword : keywords.keySet()) {
+                for (int i = 0; i < keyword.length(); i++) {
+                    maxChar = Math.max(maxChar, keyword.charAt(i));
+                }
+            }
+            alphabet = new int[maxChar + 1];
+            int symbols = 0;
+            for (String keyword : keywords.keySet()) {
+                for (int i = 0; i < keyword.length(); i++) {
+                    char c = keyword.charAt(i);
+                    if (alphabet[c] == 0) {
+                        alphabet[c] = ++symbols;
+                    }
+                }
+            }
+            alphabetSize = symbols + 1;
+
+            // Trie
+            int maxStates = 1;
+            for (String keyword : keywords.keySet()) {
+                maxStates += keyword.length();
+            }
+            int[] trie = new int[maxStates * alphabetSize];
+            int[] output = new int[maxStates];
+            Arrays.fill(output, -1);
+            int states = 1;
+            for (Map.Entry<String, Integer> entry : keywords.entrySet()) {
+                int state = 0;
+                String keyword = entry.getKey();
+                for (int i = 0; i < keyword.length(); i++) {
+                    int slot = state * alphabetSize + alphabet[keyword.charAt(i)];
+                    if (trie[slot] == 0) {
+                        trie[slot] = states++;
+                    }
+                    state = trie[slot];
+                }
+                output[state] = output[state] < 0 ? entry.getValue() : Math.min(output[state], entry.getValue());
+            }
+
+            // Breadth-first: fill missing transitions from the failure state and inherit its output
+            transitions = Arrays.copyOf(trie, states * alphabetSize);
+            rules = Arrays.copyOf(output, states);
+            int[] failure = new int[states];
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int symbol = 1; symbol < alphabetSize; symbol++) {
+                int next = transitions[symbol];
+                if (next != 0) {
+                    failure[next] = 0;
+                    queue.add(next);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                int fallback = failure[state];
+                if (rules[fallback] >= 0) {
+                    rules[state] = rules[state] < 0 ? rules[fallback] : Math.min(rules[state], rules[fallback]);
+                }
+                for (int symbol = 1; symbol < alphabetSize; symbol++) {
+                    int slot = state * alphabetSize + symbol;
+                    int next = transitions[slot];
+                    int fallbackNext = transitions[fallback * alphabetSize + symbol];
+                    if (next != 0) {
+                        failure[next] = fallbackNext;
+                        queue.add(next);
+                    } else {
+                        transitions[slot] = fallbackNext;
+                    }
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return rules.length <= 1;
+        }
+
+        /**
+         * Earliest rule with a keyword in the text, or -1
+         */
+        int match(String text) {
+            int state = 0;
+            int best = -1;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                int symbol = c < alphabet.length ? alphabet[c] : 0;
+                state = transitions[state * alphabetSize + symbol];
+                int rule = rules[state];
+                if (rule >= 0 && (best < 0 || rule < best)) {
+                    best = rule;
+                    if (best == 0) {
+                        break;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The outbox rows one transaction queued, handed to the dispatcher once it commits.
+ *
+ * The save advices write outbox rows inside the save transaction, so a rolled-back save
+ * leaves no row behind. Without this, the rows would only be picked up by the next
+ * outbox poll. Instead every obs and encounter queued in a transaction is collected here,
+ * and afterCommit passes them to SyncOutboxDispatcher as one unit, which sends them
+ * straight away as one batch. Nothing is dispatched on rollback. Rows the dispatcher
+ * cannot take at that moment stay PENDING for the next poll.
+ */
+public final class CommittedSyncUnit implements TransactionSynchronization {
+
+    private static final Log log = LogFactory.getLog(CommittedSyncUnit.class);
+
+    private static final String DISPATCHER_BEAN = "patientPassportSyncOutboxDispatcher";
+
+    private final Set<Integer> obsIds = new LinkedHashSet<>();
+
+    private final Set<Integer> encounterIds = new LinkedHashSet<>();
+
+    private CommittedSyncUnit() {
+    }
+
+    /**
+     * Dispatch an obs row when the current transaction commits
+     */
+    public static void obsQueued(Integer obsId) {
+        if (obsId != null) {
+            CommittedSyncUnit unit = current();
+            if (unit != null) {
+                unit.obsIds.add(obsId);
+            } else {
+                dispatch(Collections.singleton(obsId), Collections.<Integer>emptySet());
+            }
+        }
+    }
+
+    /**
+     * Dispatch an encounter row when the current transaction commits
+     */
+    public static void encounterQueued(Integer encounterId) {
+        if (encounterId != null) {
+            CommittedSyncUnit unit = current();
+            if (unit != null) {
+                unit.encounterIds.add(encounterId);
+            } else {
+                dispatch(Collections.<Integer>emptySet(), Collections.singleton(encounterId));
+            }
+        }
+    }
+
+    @Override
+    public void suspend() {
+        // A REQUIRES_NEW transaction inside this one collects its own unit
+        TransactionSynchronizationManager.unbindResourceIfPossible(CommittedSyncUnit.class);
+    }
+
+    @Override
+    public void resume() {
+        TransactionSynchronizationManager.bindResource(CommittedSyncUnit.class, this);
+    }
+
+    @Override
+    public void afterCommit() {
+        dispatch(obsIds, encounterIds);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(CommittedSyncUnit.class);
+    }
+
+    /**
+     * The unit of the current transaction, or null when there is none and the rows are already committed
+     */
+    private static CommittedSyncUnit current() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        CommittedSyncUnit unit = (CommittedSyncUnit) TransactionSynchronizationManager.getResource(CommittedSyncUnit.class);
+        if (unit == null) {
+            unit = new CommittedSyncUnit();
+            TransactionSynchronizationManager.bindResource(CommittedSyncUnit.class, unit);
+            TransactionSynchronizationManager.registerSynchronization(unit);
+        }
+        return unit;
+    }
+
+    private static void dispatch(Collection<Integer> obsIds, Collection<Integer> encounterIds) {
+        if (obsIds.isEmpty() && encounterIds.isEmpty()) {
+            return;
+        }
+        try {
+            SyncOutboxDispatcher dispatcher = Context.getRegisteredComponent(DISPATCHER_BEAN, SyncOutboxDispatcher.class);
+            dispatcher.dispatchCommitted(obsIds, encounterIds);
+        } catch (Exception e) {
+            // The rows are committed; the next outbox poll sends them
+            log.debug("Committed outbox rows left for the next poll: " + e.getMessage());
+        }
+    }
+}
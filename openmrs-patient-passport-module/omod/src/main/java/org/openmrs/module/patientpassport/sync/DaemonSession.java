@@ -0,0 +1,326 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs background sync work inside an OpenMRS session authenticated as the daemon user.
+ *
+ * On the module's own worker threads (those started through {@link #worker(Runnable)})
+ * the session is opened on first use and kept for the life of the thread: each top-level
+ * piece of work reuses it and only clears the Hibernate session afterwards, so loaded
+ * entities do not pile up between tasks. The session is closed when the thread ends,
+ * which happens when its pool shuts down or lets an idle thread go. On any other thread
+ * a session is opened and closed around the work if the thread has none.
+ *
+ * Once the module activator has passed in its DaemonToken, work runs on OpenMRS daemon
+ * threads: each worker thread hands its body to a daemon thread and waits for it, and work
+ * from a thread without a session runs on a daemon thread of its own while the caller waits.
+ * Before that, or if the token is rejected, the work runs on the calling thread and a
+ * failed daemon login is only logged, as the save advice always did.
+ */
+public final class DaemonSession {
+
+    private static final Log log = LogFactory.getLog(DaemonSession.class);
+
+    private static final ThreadLocal<WorkerContext> WORKER = new ThreadLocal<>();
+
+    private static final AtomicLong OPENED = new AtomicLong();
+    private static final AtomicLong CLOSED = new AtomicLong();
+    private static final AtomicLong REUSED = new AtomicLong();
+
+    private static volatile DaemonToken daemonToken;
+
+    private DaemonSession() {}
+
+    /**
+     * Work that may throw anything, such as an intercepted service call
+     */
+    public interface Work<T> {
+
+        T run() throws Throwable;
+    }
+
+    /**
+     * Run the work in an OpenMRS session, opening and closing one if the thread has none
+     */
+    public static void run(Runnable work) {
+        call(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Like run, for work that returns a value
+     */
+    public static <T> T call(Supplier<T> work) {
+        try {
+            return execute(work::get);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // A Supplier cannot throw checked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Like call, passing checked exceptions through
+     */
+    public static <T> T execute(Work<T> work) throws Throwable {
+        WorkerContext worker = WORKER.get();
+        if (worker != null) {
+            return worker.execute(work);
+        }
+
+        DaemonToken token = daemonToken;
+        if (token != null && !Context.isSessionOpen() && !Daemon.isDaemonThread()) {
+            // A thread with a session keeps its own user; only sessionless work becomes the daemon's
+            DaemonCall<T> call = new DaemonCall<>(work);
+            Thread daemon = startDaemonThread(token, call);
+            if (daemon != null) {
+                return call.await(daemon);
+            }
+        }
+
+        boolean sessionOpened = false;
+        try {
+            if (!Context.isSessionOpen()) {
+                Context.openSession();
+                OPENED.incrementAndGet();
+                sessionOpened = true;
+            }
+            authenticate();
+            return work.run();
+        } finally {
+            if (sessionOpened) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Wrap a worker thread's body so the thread keeps one daemon session across tasks and
+     * closes it when it ends. For use in the module's ThreadFactories.
+     */
+    public static Runnable worker(Runnable body) {
+        return () -> {
+            DaemonToken token = daemonToken;
+            String name = Thread.currentThread().getName();
+            Thread daemon = token != null && !Daemon.isDaemonThread()
+                ? startDaemonThread(token, () -> {
+                    Thread.currentThread().setName(name);
+                    runWorker(body, true);
+                })
+                : null;
+            if (daemon == null) {
+                runWorker(body, false);
+                return;
+            }
+            // This thread stays in its pool as a stand-in: interrupts are passed on and it ends with the daemon thread
+            join(daemon, true);
+        };
+    }
+
+    /**
+     * Called by the module activator with the token that lets the module run work as the daemon user
+     */
+    public static void setDaemonToken(DaemonToken token) {
+        daemonToken = token;
+    }
+
+    /**
+     * Session counters for the health endpoint; opened and closed track each other when nothing leaks
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long opened = OPENED.get();
+        long closed = CLOSED.get();
+        stats.put("opened", opened);
+        stats.put("closed", closed);
+        stats.put("open", opened - closed);
+        stats.put("reused", REUSED.get());
+        return stats;
+    }
+
+    /**
+     * @param daemonSession The thread is a daemon thread, whose session the worker takes over
+     */
+    private static void runWorker(Runnable body, boolean daemonSession) {
+        WorkerContext worker = new WorkerContext(daemonSession);
+        WORKER.set(worker);
+        try {
+            body.run();
+        } finally {
+            WORKER.remove();
+            worker.close();
+        }
+    }
+
+    /**
+     * @return The started daemon thread, or null when OpenMRS would not start one
+     */
+    private static Thread startDaemonThread(DaemonToken token, Runnable work) {
+        try {
+            return Daemon.runInDaemonThread(work, token);
+        } catch (Exception e) {
+            log.warn("Could not start a daemon thread, running sync work on the calling thread: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the thread to end, keeping this thread's interrupt status
+     * @param forwardInterrupts Interrupt the thread when this one is interrupted
+     */
+    private static void join(Thread thread, boolean forwardInterrupts) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                if (forwardInterrupts) {
+                    thread.interrupt();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void authenticate() {
+        if (Context.isAuthenticated()) {
+            return;
+        }
+        try {
+            Context.becomeUser("daemon");
+        } catch (Exception e) {
+            // Never fail the work over the login: the save it wraps must go ahead regardless
+            log.warn("Could not authenticate as daemon: " + e.getMessage());
+        }
+    }
+
+    private static void close() {
+        try {
+            Context.closeSession();
+        } catch (Exception e) {
+            log.error("Error closing sync session: " + e.getMessage(), e);
+        } finally {
+            CLOSED.incrementAndGet();
+        }
+    }
+
+    /**
+     * Session state of one worker thread
+     */
+    private static final class WorkerContext {
+
+        // The session was opened here, so it is closed with the thread
+        private boolean ownsSession;
+
+        // The session Daemon opened for this thread, taken over on first use
+        private boolean daemonSession;
+
+        // Nested execute calls run inside the outer one and leave the session alone
+        private int depth;
+
+        WorkerContext(boolean daemonSession) {
+            this.daemonSession = daemonSession;
+        }
+
+        <T> T execute(Work<T> work) throws Throwable {
+            if (depth == 0) {
+                if (!Context.isSessionOpen()) {
+                    Context.openSession();
+                    OPENED.incrementAndGet();
+                    ownsSession = true;
+                } else if (ownsSession) {
+                    REUSED.incrementAndGet();
+                } else if (daemonSession) {
+                    OPENED.incrementAndGet();
+                    ownsSession = true;
+                }
+                daemonSession = false;
+                authenticate();
+            }
+            depth++;
+            try {
+                return work.run();
+            } finally {
+                depth--;
+                if (depth == 0 && ownsSession) {
+                    clear();
+                }
+            }
+        }
+
+        private void clear() {
+            try {
+                Context.clearSession();
+            } catch (Exception e) {
+                // A broken session is replaced on next use rather than reused
+                log.warn("Could not clear sync session, closing it: " + e.getMessage());
+                close();
+                ownsSession = false;
+            }
+        }
+
+        void close() {
+            if (ownsSession) {
+                ownsSession = false;
+                if (Context.isSessionOpen()) {
+                    DaemonSession.close();
+                } else {
+                    CLOSED.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Work run on a daemon thread, with its result or failure kept for the waiting caller
+     */
+    private static final class DaemonCall<T> implements Runnable {
+
+        private final Work<T> work;
+
+        private T result;
+
+        private Throwable failure;
+
+        DaemonCall(Work<T> work) {
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = work.run();
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Wait for the call to finish, even if interrupted: it may be a save the caller must see the end of
+         */
+        T await(Thread daemon) throws Throwable {
+            join(daemon, false);
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Idempotency keys for outbound observations: "&lt;obs uuid&gt;:&lt;content hash&gt;".
+ * The hash covers the clinical content of the obs rather than the request body, so the
+ * same obs gets the same key whichever path sends it (outbox, manual resend, legacy
+ * event listener), and a changed obs gets a new one.
+ */
+public final class IdempotencyKeys {
+
+    // Hex characters of the SHA-256 content hash kept in the key
+    private static final int HASH_LENGTH = 24;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private IdempotencyKeys() {
+    }
+
+    public static String forObs(Obs obs) {
+        StringBuilder content = new StringBuilder(256);
+        append(content, obs.getConcept());
+        append(content, obs.getValueText());
+        append(content, obs.getValueNumeric());
+        append(content, obs.getValueCoded());
+        append(content, obs.getValueDrug());
+        append(content, obs.getValueDatetime());
+        append(content, obs.getValueBoolean());
+        append(content, obs.getObsDatetime());
+        append(content, obs.getComment());
+        append(content, obs.getVoided());
+        return obs.getUuid() + ":" + sha256Hex(content.toString()).substring(0, HASH_LENGTH);
+    }
+
+    private static void append(StringBuilder content, Object value) {
+        if (value instanceof OpenmrsObject) {
+            content.append(((OpenmrsObject) value).getUuid());
+        } else if (value instanceof Date) {
+            content.append(((Date) value).getTime());
+        } else if (value != null) {
+            content.append(value);
+        }
+        content.append('|');
+    }
+
+    /**
+     * Hex SHA-256 of a string, also used for patient sync fingerprints
+     */
+    public static String sha256Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects items into batches and hands each batch to a consumer once it reaches
+ * the maximum size or the time window since its first item has elapsed.
+ * Items are split into lanes by key (e.g. patient id), each with its own buffer and
+ * lock, so a batch only ever holds items of one lane and keeps their order.
+ * Size and window can be changed at runtime and apply to the next batch.
+ */
+public class MicroBatcher<T> {
+
+    private static final Log log = LogFactory.getLog(MicroBatcher.class);
+
+    private final BiConsumer<Integer, List<T>> consumer;
+
+    private final ScheduledExecutorService timer;
+
+    private final List<Lane> lanes;
+
+    private volatile int maxSize;
+
+    private volatile long windowMs;
+
+    private volatile boolean closed;
+
+    /**
+     * @param consumer Receives the lane number and the batch
+     */
+    public MicroBatcher(String name, int laneCount, int maxSize, long windowMs, BiConsumer<Integer, List<T>> consumer) {
+        this.consumer = consumer;
+        this.maxSize = maxSize;
+        this.windowMs = windowMs;
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new Lane(i));
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Add an item to the lane for its key, sending that lane's batch if it is now full
+     */
+    public void add(int key, T item) {
+        if (closed) {
+            throw new IllegalStateException("Batcher is closed");
+        }
+        lanes.get(Math.floorMod(key, lanes.size())).add(item);
+    }
+
+    /**
+     * Send whatever is buffered now, in every lane
+     */
+    public void flush() {
+        for (Lane lane : lanes) {
+            lane.flush();
+        }
+    }
+
+    public void reconfigure(int maxSize, long windowMs) {
+        this.maxSize = maxSize;
+        this.windowMs = windowMs;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    public int pending() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.size();
+        }
+        return total;
+    }
+
+    /**
+     * Number of lanes holding items, each of which will send at least one more batch
+     */
+    public int busyLanes() {
+        int busy = 0;
+        for (Lane lane : lanes) {
+            if (lane.size() > 0) {
+                busy++;
+            }
+        }
+        return busy;
+    }
+
+    /**
+     * Send any buffered items and stop the window timer
+     */
+    public void close() {
+        closed = true;
+        flush();
+        timer.shutdownNow();
+    }
+
+    private class Lane {
+
+        private final int index;
+
+        private List<T> buffer = new ArrayList<>();
+
+        private ScheduledFuture<?> windowFlush;
+
+        Lane(int index) {
+            this.index = index;
+        }
+
+        // Batches are handed off under the lane lock so a window flush and a size flush
+        // cannot reach the consumer out of order
+        synchronized void add(T item) {
+            buffer.add(item);
+            if (buffer.size() >= maxSize) {
+                deliver(takeBuffer());
+            } else if (windowFlush == null) {
+                windowFlush = timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void flush() {
+            if (!buffer.isEmpty()) {
+                deliver(takeBuffer());
+            }
+        }
+
+        synchronized int size() {
+            return buffer.size();
+        }
+
+        private List<T> takeBuffer() {
+            List<T> batch = buffer;
+            buffer = new ArrayList<>();
+            if (windowFlush != null) {
+                windowFlush.cancel(false);
+                windowFlush = null;
+            }
+            return batch;
+        }
+
+        private void deliver(List<T> batch) {
+            try {
+                consumer.accept(index, batch);
+            } catch (Exception e) {
+                log.error("Error handing off batch of " + batch.size() + " items: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change-data-capture alternative to the save advices (patientpassport.sync.captureMode=CDC).
+ *
+ * Reads obs rows past a persisted obs_id watermark in pages and queues them in the sync
+ * outbox, so obs written by direct SQL imports, HL7 inbound or modules that bypass
+ * ObsService are synced too, and saves carry no sync work at all. OpenMRS never updates
+ * an obs in place: an edit voids it and inserts a new version, so new rows cover changes.
+ * Rows younger than settleMs are left for the next scan, because a transaction that took
+ * a lower obs_id may not have committed yet.
+ *
+ * In INTERCEPT mode the scanner only keeps the watermark at the latest obs, so switching
+ * to CDC carries on from there instead of re-reading what the advices already queued.
+ */
+public class ObsChangeScanner {
+
+    private static final Log log = LogFactory.getLog(ObsChangeScanner.class);
+
+    // Give OpenMRS time to finish starting before the first scan
+    private static final long INITIAL_DELAY_MS = 30000L;
+
+    private static final long DEFAULT_POLL_INTERVAL_MS = 5000L;
+
+    // Pages per scan, so a large import does not hold the scanner thread indefinitely
+    private static final int MAX_PAGES_PER_SCAN = 100;
+
+    private final AtomicLong scans = new AtomicLong();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile boolean running;
+
+    private volatile SyncCaptureMode mode = SyncCaptureMode.INTERCEPT;
+
+    private volatile long lastScanAt;
+
+    private volatile long lastScanMs;
+
+    private volatile Integer watermark;
+
+    /**
+     * Spring init-method
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-obs-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        scheduler.schedule(this::poll, INITIAL_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Spring destroy-method
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Mode, watermark and scan counters for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("captureMode", mode.name());
+        stats.put("watermarkObsId", watermark);
+        stats.put("scans", scans.get());
+        stats.put("rowsRead", rowsRead.get());
+        stats.put("lastScanAt", lastScanAt > 0 ? new Date(lastScanAt) : null);
+        stats.put("lastScanMs", lastScanMs);
+        stats.put("errors", errors.get());
+        return stats;
+    }
+
+    /**
+     * One scan, then schedule the next one
+     */
+    private void poll() {
+        long nextDelay = DEFAULT_POLL_INTERVAL_MS;
+        try {
+            nextDelay = new PatientPassportConfig().getCdcPollIntervalMs();
+            DaemonSession.run(this::scan);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            log.error("Error scanning obs for changes: " + e.getMessage(), e);
+        } finally {
+            ScheduledExecutorService current = scheduler;
+            if (running && current != null && !current.isShutdown()) {
+                current.schedule(this::poll, nextDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void scan() {
+        PatientPassportConfig config = new PatientPassportConfig();
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+
+        SyncCaptureMode configured = SyncCaptureMode.fromString(config.getSyncCaptureMode());
+        SyncCaptureMode previous = mode;
+        if (configured != previous) {
+            log.info("Observation capture mode: " + configured);
+        }
+        mode = configured;
+        SyncCaptureMode.update(configured);
+
+        long start = System.currentTimeMillis();
+        int pageSize = config.getCdcPageSize();
+        if (configured != SyncCaptureMode.CDC) {
+            if (previous == SyncCaptureMode.CDC) {
+                // The advices take over from now; read what is still unsettled so nothing falls between
+                captureChanges(outboxService, new Date(start), pageSize);
+            }
+            outboxService.advanceObsWatermarkToLatest();
+            watermark = outboxService.getObsWatermark();
+            return;
+        }
+
+        captureChanges(outboxService, new Date(start - config.getCdcSettleMs()), pageSize);
+        watermark = outboxService.getObsWatermark();
+        scans.incrementAndGet();
+        lastScanAt = start;
+        lastScanMs = System.currentTimeMillis() - start;
+    }
+
+    private void captureChanges(PatientPassportSyncOutboxService outboxService, Date settledBefore, int pageSize) {
+        for (int page = 0; page < MAX_PAGES_PER_SCAN && running; page++) {
+            int read = outboxService.captureObsChanges(settledBefore, pageSize);
+            Context.clearSession();
+            rowsRead.addAndGet(read);
+            if (read < pageSize) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.model.PatientPassportBackfillPartition;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the observations that existed before the module was installed.
+ *
+ * The patient obs are split into obs_id ranges, one per thread. Each thread pages through
+ * its range by keyset on obs_id and queues every page in the sync outbox, so history goes
+ * through the same batching, dedup, priority and retry path as live saves. Each page and
+ * its checkpoint are committed together, and the session is cleared after every page, so
+ * memory stays flat however many rows there are. A backfill that was running when OpenMRS
+ * stopped resumes from its checkpoints on the next start. The threads wait while the
+ * outbox holds more than maxPendingRows, so the backfill runs at the speed the Passport
+ * API drains it.
+ */
+public class ObservationBackfillJob {
+
+    private static final Log log = LogFactory.getLog(ObservationBackfillJob.class);
+
+    // Give OpenMRS time to finish starting before resuming an interrupted backfill
+    private static final long RESUME_DELAY_MS = 60000L;
+
+    private static final long THROTTLE_MS = 1000L;
+
+    private static final long ERROR_BACKOFF_MS = 5000L;
+
+    private static final int MAX_CONSECUTIVE_ERRORS = 5;
+
+    public enum State {
+        IDLE, RUNNING, PAUSING, PAUSED, DONE
+    }
+
+    private final Map<Integer, PatientPassportBackfillPartition> partitions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicLong runProcessed = new AtomicLong();
+    private final AtomicLong throttledWaits = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile State state = State.IDLE;
+    private volatile boolean pauseRequested;
+    private volatile long runStartedAt;
+    private volatile ExecutorService workers;
+    private ScheduledExecutorService resumer;
+
+    /**
+     * Spring init-method: resume a backfill that was interrupted by a shutdown
+     */
+    public synchronized void init() {
+        resumer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-backfill-resume");
+            thread.setDaemon(true);
+            return thread;
+        });
+        resumer.schedule(() -> DaemonSession.run(this::resumeIfInterrupted), RESUME_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start the backfill, or resume it from its checkpoints
+     * @return false if it is already running
+     */
+    public synchronized boolean start() {
+        if (state == State.RUNNING || state == State.PAUSING) {
+            return false;
+        }
+        PatientPassportConfig config = new PatientPassportConfig();
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+        outboxService.planBackfill(config.getBackfillThreads());
+        outboxService.setBackfillStatus(PatientPassportBackfillPartition.STATUS_PENDING);
+        launch(outboxService.getBackfillPartitions(), config);
+        return true;
+    }
+
+    /**
+     * Stop after the current page; start() carries on from the checkpoints
+     */
+    public synchronized void pause() {
+        if (state != State.RUNNING) {
+            return;
+        }
+        state = State.PAUSING;
+        pauseRequested = true;
+        log.info("Observation backfill pausing");
+    }
+
+    /**
+     * Drop all checkpoints so the next start() begins again from the first obs
+     * @return false if the backfill is running
+     */
+    public synchronized boolean reset() {
+        if (state == State.RUNNING || state == State.PAUSING) {
+            return false;
+        }
+        Context.getService(PatientPassportSyncOutboxService.class).resetBackfill();
+        partitions.clear();
+        state = State.IDLE;
+        return true;
+    }
+
+    /**
+     * Spring destroy-method. Partitions stay RUNNING in the table so the next start resumes them.
+     */
+    public synchronized void shutdown() {
+        if (resumer != null) {
+            resumer.shutdownNow();
+            resumer = null;
+        }
+        ExecutorService current = workers;
+        if (current != null) {
+            if (state == State.RUNNING) {
+                state = State.PAUSING;
+            }
+            current.shutdown();
+            try {
+                if (!current.awaitTermination(10, TimeUnit.SECONDS)) {
+                    current.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                current.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Progress, throughput and ETA for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        long total = 0;
+        long processed = 0;
+        long queued = 0;
+        long remaining = 0;
+        int done = 0;
+        List<Map<String, Object>> partitionStats = new ArrayList<>();
+        for (PatientPassportBackfillPartition partition : partitions.values()) {
+            total += partition.getTotalRows();
+            processed += partition.getProcessedRows();
+            queued += partition.getQueuedRows();
+            remaining += partition.getRemainingRows();
+            if (partition.isDone()) {
+                done++;
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("partition", partition.getPartitionId());
+            stats.put("obsIdRange", (partition.getStartObsId() + 1) + "-" + partition.getEndObsId());
+            stats.put("lastObsId", partition.getLastObsId());
+            stats.put("processedRows", partition.getProcessedRows());
+            stats.put("totalRows", partition.getTotalRows());
+            stats.put("status", partition.getStatus());
+            partitionStats.add(stats);
+        }
+
+        double rowsPerSecond = 0;
+        long elapsedMs = System.currentTimeMillis() - runStartedAt;
+        if (runStartedAt > 0 && elapsedMs > 0) {
+            rowsPerSecond = runProcessed.get() * 1000.0 / elapsedMs;
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.name());
+        stats.put("activeWorkers", activeWorkers.get());
+        stats.put("partitions", partitions.size());
+        stats.put("partitionsDone", done);
+        stats.put("totalRows", total);
+        stats.put("processedRows", processed);
+        stats.put("queuedRows", queued);
+        stats.put("percentComplete", total > 0 ? Math.round(processed * 1000.0 / total) / 10.0 : 0.0);
+        stats.put("rowsPerSecond", Math.round(rowsPerSecond * 10) / 10.0);
+        stats.put("etaSeconds", rowsPerSecond > 0 && state == State.RUNNING ? Math.round(remaining / rowsPerSecond) : null);
+        stats.put("throttledWaits", throttledWaits.get());
+        stats.put("errors", errors.get());
+        stats.put("partitionProgress", partitionStats);
+        return stats;
+    }
+
+    private synchronized void resumeIfInterrupted() {
+        if (state != State.IDLE) {
+            return;
+        }
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+        List<PatientPassportBackfillPartition> existing = outboxService.getBackfillPartitions();
+        boolean interrupted = false;
+        for (PatientPassportBackfillPartition partition : existing) {
+            partitions.put(partition.getPartitionId(), partition);
+            String status = partition.getStatus();
+            if (PatientPassportBackfillPartition.STATUS_RUNNING.equals(status)
+                    || PatientPassportBackfillPartition.STATUS_PENDING.equals(status)) {
+                interrupted = true;
+            } else if (PatientPassportBackfillPartition.STATUS_PAUSED.equals(status)) {
+                state = State.PAUSED;
+            }
+        }
+        if (interrupted) {
+            log.info("Resuming interrupted observation backfill");
+            launch(existing, new PatientPassportConfig());
+        }
+    }
+
+    // Caller holds the lock
+    private void launch(List<PatientPassportBackfillPartition> planned, PatientPassportConfig config) {
+        List<PatientPassportBackfillPartition> unfinished = new ArrayList<>();
+        for (PatientPassportBackfillPartition partition : planned) {
+            partitions.put(partition.getPartitionId(), partition);
+            if (!partition.isDone()) {
+                unfinished.add(partition);
+            }
+        }
+        if (unfinished.isEmpty()) {
+            state = State.DONE;
+            log.info("Observation backfill has nothing left to queue");
+            return;
+        }
+
+        final int pageSize = config.getBackfillPageSize();
+        final int maxPending = config.getBackfillMaxPendingRows();
+        int threads = Math.min(config.getBackfillThreads(), unfinished.size());
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-backfill-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        state = State.RUNNING;
+        runStartedAt = System.currentTimeMillis();
+        runProcessed.set(0);
+        pauseRequested = false;
+        workers = pool;
+        for (PatientPassportBackfillPartition partition : unfinished) {
+            final int partitionId = partition.getPartitionId();
+            activeWorkers.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    DaemonSession.run(() -> backfillPartition(partitionId, pageSize, maxPending));
+                } finally {
+                    workerFinished();
+                }
+            });
+        }
+        pool.shutdown();
+        log.info("Observation backfill started: " + unfinished.size() + " partitions on " + threads + " threads");
+    }
+
+    /**
+     * Queue one partition page by page until it is done, paused or keeps failing
+     */
+    private void backfillPartition(int partitionId, int pageSize, int maxPending) {
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+        int consecutiveErrors = 0;
+        while (state == State.RUNNING) {
+            try {
+                if (outboxService.countByStatus(PatientPassportSyncOutbox.STATUS_PENDING) >= maxPending) {
+                    // Let the dispatcher catch up; queuing faster than the API drains only grows the outbox
+                    throttledWaits.incrementAndGet();
+                    Thread.sleep(THROTTLE_MS);
+                    continue;
+                }
+
+                long before = processedRows(partitionId);
+                PatientPassportBackfillPartition partition = outboxService.backfillNextPage(partitionId, pageSize);
+                Context.clearSession();
+                consecutiveErrors = 0;
+                if (partition == null) {
+                    return;
+                }
+                partitions.put(partitionId, partition);
+                runProcessed.addAndGet(partition.getProcessedRows() - before);
+                if (partition.isDone()) {
+                    log.info("Backfill partition " + partitionId + " done: " + partition.getQueuedRows() + " observations queued");
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                log.error("Backfill partition " + partitionId + " page failed: " + e.getMessage(), e);
+                Context.clearSession();
+                if (++consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+                    log.error("Backfill partition " + partitionId + " stopped after " + consecutiveErrors +
+                        " consecutive failures; start the backfill again to resume it");
+                    return;
+                }
+                try {
+                    Thread.sleep(ERROR_BACKOFF_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private long processedRows(int partitionId) {
+        PatientPassportBackfillPartition partition = partitions.get(partitionId);
+        return partition != null ? partition.getProcessedRows() : 0L;
+    }
+
+    private synchronized void workerFinished() {
+        if (activeWorkers.decrementAndGet() > 0) {
+            return;
+        }
+        workers = null;
+        if (state == State.PAUSING) {
+            if (pauseRequested) {
+                // Marked here rather than in pause(): a page still in flight would set its partition back to RUNNING
+                DaemonSession.run(() -> Context.getService(PatientPassportSyncOutboxService.class)
+                    .setBackfillStatus(PatientPassportBackfillPartition.STATUS_PAUSED));
+            }
+            state = State.PAUSED;
+            log.info("Observation backfill paused");
+            return;
+        }
+        boolean allDone = true;
+        for (PatientPassportBackfillPartition partition : partitions.values()) {
+            allDone &= partition.isDone();
+        }
+        state = allDone ? State.DONE : State.IDLE;
+        log.info(allDone ? "✅ Observation backfill complete" : "Observation backfill stopped with unfinished partitions");
+    }
+}
@@ -0,0 +1,219 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies observations into the sync types used by the outbox
+ * (DIAGNOSIS, MEDICATION, ALLERGY, LAB_RESULT, VITAL_SIGN, ...) and maps
+ * them to the observation types accepted by the Patient Passport API.
+ *
+ * The type only depends on the concept, so it is worked out once per concept id and
+ * cached; after that, classifying an obs neither loads the concept name nor scans it.
+ * ConceptSaveAdvice drops a concept's entry when the concept is saved, retired or
+ * purged, and the cache is warmed at module start from the concepts of recent obs.
+ *
+ * The type comes from the rule table in patientpassport.classifier.rules (see
+ * ClassificationRules). The property is re-read every minute; when it changed, the new
+ * table is compiled, swapped in and the cache is cleared. A table that does not parse
+ * is logged and the previous one is kept.
+ */
+public final class ObservationClassifier {
+
+    private static final Log log = LogFactory.getLog(ObservationClassifier.class);
+
+    // Latest obs rows whose concepts are classified at module start
+    private static final int WARM_UP_OBS_WINDOW = 50000;
+
+    private static final long RULES_REFRESH_MS = 60000L;
+
+    private static final Map<Integer, String> TYPES_BY_CONCEPT = new ConcurrentHashMap<>();
+
+    // Bumped on every invalidation, so a lookup that raced with one does not cache a stale type
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+    private static final AtomicLong RULE_RELOADS = new AtomicLong();
+
+    private static volatile ClassificationRules rules = ClassificationRules.compile(null);
+
+    private static volatile long rulesCheckedAt;
+
+    private ObservationClassifier() {
+    }
+
+    /**
+     * Determine the sync type of an observation from its concept
+     */
+    public static String classify(Obs obs) {
+        Concept concept = obs.getConcept();
+        if (concept == null) {
+            return "UNKNOWN";
+        }
+        refreshRules();
+        // Reading the id does not initialize a lazy concept proxy
+        Integer conceptId = concept.getConceptId();
+        if (conceptId == null) {
+            return classify(concept);
+        }
+
+        String type = TYPES_BY_CONCEPT.get(conceptId);
+        if (type != null) {
+            HITS.incrementAndGet();
+            return type;
+        }
+        MISSES.incrementAndGet();
+        long seen = GENERATION.get();
+        type = classify(concept);
+        if (!"UNKNOWN".equals(type) && GENERATION.get() == seen) {
+            TYPES_BY_CONCEPT.put(conceptId, type);
+        }
+        return type;
+    }
+
+    /**
+     * Forget the cached type of a concept, e.g. after its name changed
+     */
+    public static void invalidate(Integer conceptId) {
+        GENERATION.incrementAndGet();
+        if (conceptId != null && TYPES_BY_CONCEPT.remove(conceptId) != null) {
+            INVALIDATIONS.incrementAndGet();
+        }
+    }
+
+    /**
+     * Classify the concepts of the latest obs so the first saves after a restart hit the cache.
+     * Needs an OpenMRS session.
+     * @return Number of concepts added to the cache
+     */
+    public static int warmUp() {
+        refreshRules();
+        List<Integer> conceptIds = Context.getService(PatientPassportSyncOutboxService.class)
+            .getRecentObsConceptIds(WARM_UP_OBS_WINDOW);
+        ConceptService conceptService = Context.getConceptService();
+        int added = 0;
+        for (Integer conceptId : conceptIds) {
+            if (TYPES_BY_CONCEPT.containsKey(conceptId)) {
+                continue;
+            }
+            Concept concept = conceptService.getConcept(conceptId);
+            String type = concept != null ? classify(concept) : "UNKNOWN";
+            if (!"UNKNOWN".equals(type) && TYPES_BY_CONCEPT.putIfAbsent(conceptId, type) == null) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Cache size and hit counters for the health endpoint
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = HITS.get();
+        long missCount = MISSES.get();
+        stats.put("cachedConcepts", TYPES_BY_CONCEPT.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("invalidations", INVALIDATIONS.get());
+        ClassificationRules current = rules;
+        stats.put("rules", current.getRuleCount());
+        stats.put("ruleCriteria", current.getCriteriaCount());
+        stats.put("ruleReloads", RULE_RELOADS.get());
+        return stats;
+    }
+
+    /**
+     * Re-read patientpassport.classifier.rules and swap in a new table if it changed.
+     * Needs an OpenMRS session.
+     * @return true if a new table was loaded
+     */
+    public static synchronized boolean reloadRules() {
+        rulesCheckedAt = System.currentTimeMillis();
+        String source = new PatientPassportConfig().getClassifierRules();
+        if (source == null) {
+            return false;
+        }
+        ClassificationRules current = rules;
+        if (Objects.equals(normalizeSource(source), normalizeSource(current.getSource()))) {
+            return false;
+        }
+        ClassificationRules compiled;
+        try {
+            compiled = ClassificationRules.compile(source);
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ Invalid patientpassport.classifier.rules, keeping the previous rules: " + e.getMessage());
+            return false;
+        }
+        rules = compiled;
+        GENERATION.incrementAndGet();
+        TYPES_BY_CONCEPT.clear();
+        RULE_RELOADS.incrementAndGet();
+        log.info("✅ Loaded " + compiled.getRuleCount() + " observation classification rules");
+        return true;
+    }
+
+    private static void refreshRules() {
+        long now = System.currentTimeMillis();
+        if (now - rulesCheckedAt < RULES_REFRESH_MS) {
+            return;
+        }
+        // Only one caller per interval goes on to read the property
+        rulesCheckedAt = now;
+        try {
+            reloadRules();
+        } catch (Exception e) {
+            log.warn("Could not reload observation classification rules: " + e.getMessage());
+        }
+    }
+
+    private static String normalizeSource(String source) {
+        return source == null || source.trim().isEmpty() ? null : source.trim();
+    }
+
+    /**
+     * Determine the sync type from the rule table
+     */
+    private static String classify(Concept concept) {
+        try {
+            String type = rules.classify(concept);
+            return type != null ? type : "OTHER";
+        } catch (Exception e) {
+            log.error("Error determining observation type: " + e.getMessage(), e);
+            return "UNKNOWN";
+        }
+    }
+
+    /**
+     * Convert internal observation type to API format
+     */
+    public static String toApiObservationType(String obsType) {
+        if (obsType == null) {
+            return "diagnosis";
+        }
+
+        switch (obsType.toUpperCase()) {
+            case "MEDICATION":
+            case "ALLERGY":
+                return "medication";
+            default:
+                return "diagnosis";
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.dto.ObservationSyncRequestDTO;
+import org.openmrs.module.patientpassport.dto.ObservationSyncResultDTO;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+import org.openmrs.module.patientpassport.service.PatientPassportDataService;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivers a batch of outbox rows to Patient Passport in one request on a
+ * SyncExecutor worker. Delivered rows are removed together; each failed row
+ * is recorded on its own so only the failures are retried.
+ *
+ * With the async transport the observations are handed off without waiting for the
+ * response and the outcome is recorded from the response callback; encounters in the
+ * batch are still sent blocking first. The loaded obs and patients are released once the
+ * payloads are built, so a pending response holds only the outbox rows.
+ */
+public class OutboxBatchDeliveryTask implements SyncTask {
+
+    private static final Log log = LogFactory.getLog(OutboxBatchDeliveryTask.class);
+
+    private final int lane;
+    private final List<PatientPassportSyncOutbox> entries;
+    private final PatientPassportDataService dataService;
+    private final int maxAttempts;
+    private final boolean async;
+
+    private final List<Long> delivered = new ArrayList<>();
+    private final List<PatientPassportSyncOutbox> sendable = new ArrayList<>();
+    private final List<ObservationSyncRequestDTO> requests = new ArrayList<>();
+
+    /**
+     * @param lane Batcher lane; every patient and priority in the batch maps to it, so it is the ordering key
+     */
+    public OutboxBatchDeliveryTask(int lane, List<PatientPassportSyncOutbox> entries, PatientPassportDataService dataService, int maxAttempts) {
+        this(lane, entries, dataService, maxAttempts, false);
+    }
+
+    /**
+     * @param async Send the observations through the async transport
+     */
+    public OutboxBatchDeliveryTask(int lane, List<PatientPassportSyncOutbox> entries, PatientPassportDataService dataService,
+            int maxAttempts, boolean async) {
+        this.lane = lane;
+        this.entries = entries;
+        this.dataService = dataService;
+        this.maxAttempts = maxAttempts;
+        this.async = async;
+    }
+
+    @Override
+    public void run() {
+        DaemonSession.run(() -> {
+            prepareAll();
+            if (sendable.isEmpty()) {
+                complete(Collections.<ObservationSyncResultDTO>emptyList(), null);
+                return;
+            }
+            try {
+                complete(dataService.sendObservationBatch(requests), null);
+            } catch (Exception e) {
+                complete(null, OutboxDeliveryTask.failureReason(e));
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<?> start() {
+        if (!async) {
+            run();
+            return null;
+        }
+
+        CompletableFuture<List<ObservationSyncResultDTO>> sent;
+        try {
+            sent = DaemonSession.call(() -> {
+                prepareAll();
+                if (sendable.isEmpty()) {
+                    return CompletableFuture.completedFuture(Collections.<ObservationSyncResultDTO>emptyList());
+                }
+                try {
+                    return dataService.sendObservationBatchAsync(requests);
+                } finally {
+                    // The payloads are built; the callback only needs the outbox rows, not the obs and patients
+                    requests.clear();
+                }
+            });
+        } catch (Exception e) {
+            String error = OutboxDeliveryTask.failureReason(e);
+            DaemonSession.run(() -> complete(null, error));
+            return null;
+        }
+        return sent.handle((results, failure) -> {
+            String error = failure != null ? OutboxDeliveryTask.failureReason(failure) : null;
+            DaemonSession.run(() -> complete(results, error));
+            return null;
+        });
+    }
+
+    @Override
+    public Integer getOrderingKey() {
+        return lane;
+    }
+
+    @Override
+    public SyncPriority getPriority() {
+        SyncPriority highest = SyncPriority.LOW;
+        for (PatientPassportSyncOutbox entry : entries) {
+            if (entry.getSyncPriority().getValue() < highest.getValue()) {
+                highest = entry.getSyncPriority();
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public boolean isLowPriority() {
+        for (PatientPassportSyncOutbox entry : entries) {
+            if (!OutboxDeliveryTask.isLowPriorityType(entry.getObsType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void spill() {
+        DaemonSession.run(() -> Context.getService(PatientPassportSyncOutboxService.class).release(getOutboxIds()));
+    }
+
+    @Override
+    public void drop() {
+        log.warn("Sync queue full - dropping batch of " + entries.size() + " low-priority observations");
+        DaemonSession.run(() -> Context.getService(PatientPassportSyncOutboxService.class).markDropped(getOutboxIds()));
+    }
+
+    /**
+     * Send the encounters, record rows that cannot be sent and build the observation requests
+     */
+    private void prepareAll() {
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+        for (PatientPassportSyncOutbox entry : entries) {
+            String error;
+            if (entry.isEncounter() && dataService != null) {
+                // Encounters already carry many obs in one payload and are sent on their own
+                error = sendEncounter(entry);
+                if (error == null) {
+                    SyncMetrics.delivered(entry);
+                    delivered.add(entry.getOutboxId());
+                    continue;
+                }
+            } else {
+                error = prepare(entry);
+                if (error == null) {
+                    sendable.add(entry);
+                    continue;
+                }
+            }
+            fail(outboxService, entry, error);
+        }
+    }
+
+    /**
+     * Record the outcome of the batch request in the outbox
+     * @param results One result per sendable row, or null if the request failed as a whole
+     * @param error Why the request failed as a whole
+     */
+    private void complete(List<ObservationSyncResultDTO> results, String error) {
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+        for (int i = 0; i < sendable.size(); i++) {
+            ObservationSyncResultDTO result = results != null && i < results.size() ? results.get(i) : null;
+            if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                SyncMetrics.delivered(sendable.get(i));
+                delivered.add(sendable.get(i).getOutboxId());
+            } else if (results == null) {
+                fail(outboxService, sendable.get(i), error);
+            } else {
+                fail(outboxService, sendable.get(i), result != null ? result.getMessage() : "No result returned");
+            }
+        }
+
+        if (!delivered.isEmpty()) {
+            outboxService.markDelivered(delivered);
+        }
+        log.debug("Batch of " + entries.size() + " outbox entries processed, " + delivered.size() + " delivered");
+    }
+
+    /**
+     * Load the obs and patient for a row and add the request
+     * @return null when the request was added, otherwise the failure reason
+     */
+    private String prepare(PatientPassportSyncOutbox entry) {
+        if (dataService == null) {
+            return "PatientPassportDataService not available";
+        }
+
+        Obs obs = Context.getObsService().getObs(entry.getObsId());
+        if (obs == null) {
+            return "Observation " + entry.getObsId() + " no longer exists";
+        }
+
+        Patient patient = Context.getPatientService().getPatient(entry.getPatientId());
+        if (patient == null) {
+            return "Person " + entry.getPatientId() + " is not a patient";
+        }
+
+        requests.add(new ObservationSyncRequestDTO(patient, obs, ObservationClassifier.toApiObservationType(entry.getObsType())));
+        return null;
+    }
+
+    private String sendEncounter(PatientPassportSyncOutbox entry) {
+        try {
+            return OutboxDeliveryTask.sendEncounter(entry, dataService);
+        } catch (Exception e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+
+    private void fail(PatientPassportSyncOutboxService outboxService, PatientPassportSyncOutbox entry, String error) {
+        log.warn("Outbox entry " + entry.getOutboxId() + " not delivered: " + error);
+        outboxService.markFailed(entry, error, maxAttempts);
+    }
+
+    private List<Long> getOutboxIds() {
+        List<Long> ids = new ArrayList<>(entries.size());
+        for (PatientPassportSyncOutbox entry : entries) {
+            ids.add(entry.getOutboxId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,186 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+import org.openmrs.module.patientpassport.service.PatientPassportDataService;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Delivers one outbox row to Patient Passport on a SyncExecutor worker
+ * and records the outcome back in the outbox.
+ *
+ * With the async transport an observation send returns before the response arrives;
+ * the outcome is recorded from the response callback instead. Encounters are always
+ * sent blocking.
+ */
+public class OutboxDeliveryTask implements SyncTask {
+
+    private static final Log log = LogFactory.getLog(OutboxDeliveryTask.class);
+
+    // High-volume types that may be shed under DROP_LOW_PRIORITY
+    private static final Set<String> LOW_PRIORITY_TYPES = new HashSet<>(
+        Arrays.asList("VITAL_SIGN", "LAB_RESULT", "OTHER", "UNKNOWN"));
+
+    private final PatientPassportSyncOutbox entry;
+    private final PatientPassportDataService dataService;
+    private final int maxAttempts;
+    private final boolean async;
+
+    public OutboxDeliveryTask(PatientPassportSyncOutbox entry, PatientPassportDataService dataService, int maxAttempts) {
+        this(entry, dataService, maxAttempts, false);
+    }
+
+    /**
+     * @param async Send observations through the async transport
+     */
+    public OutboxDeliveryTask(PatientPassportSyncOutbox entry, PatientPassportDataService dataService, int maxAttempts,
+            boolean async) {
+        this.entry = entry;
+        this.dataService = dataService;
+        this.maxAttempts = maxAttempts;
+        this.async = async;
+    }
+
+    @Override
+    public void run() {
+        DaemonSession.run(() -> {
+            String error;
+            try {
+                error = send(false).join();
+            } catch (Exception e) {
+                error = failureReason(e);
+            }
+            record(error);
+        });
+    }
+
+    @Override
+    public CompletableFuture<?> start() {
+        if (!async || entry.isEncounter()) {
+            run();
+            return null;
+        }
+
+        CompletableFuture<String> sent;
+        try {
+            sent = DaemonSession.call(() -> send(true));
+        } catch (Exception e) {
+            sent = CompletableFuture.completedFuture(failureReason(e));
+        }
+        return sent.handle((error, failure) -> {
+            String reason = failure != null ? failureReason(failure) : error;
+            DaemonSession.run(() -> record(reason));
+            return null;
+        });
+    }
+
+    @Override
+    public Integer getOrderingKey() {
+        return entry.getPatientId();
+    }
+
+    @Override
+    public SyncPriority getPriority() {
+        return entry.getSyncPriority();
+    }
+
+    @Override
+    public boolean isLowPriority() {
+        return isLowPriorityType(entry.getObsType());
+    }
+
+    @Override
+    public void spill() {
+        DaemonSession.run(() -> Context.getService(PatientPassportSyncOutboxService.class)
+            .release(Collections.singletonList(entry.getOutboxId())));
+    }
+
+    @Override
+    public void drop() {
+        log.warn("Sync queue full - dropping " + entry.getObsType() + " observation " + entry.getObsId());
+        DaemonSession.run(() -> Context.getService(PatientPassportSyncOutboxService.class)
+            .markDropped(Collections.singletonList(entry.getOutboxId())));
+    }
+
+    /**
+     * @param nonBlocking Hand an observation to the async transport instead of waiting for the response
+     * @return Completes with null on success, otherwise with the failure reason
+     */
+    private CompletableFuture<String> send(boolean nonBlocking) {
+        if (dataService == null) {
+            return CompletableFuture.completedFuture("PatientPassportDataService not available");
+        }
+
+        if (entry.isEncounter()) {
+            return CompletableFuture.completedFuture(sendEncounter(entry, dataService));
+        }
+
+        Obs obs = Context.getObsService().getObs(entry.getObsId());
+        if (obs == null) {
+            return CompletableFuture.completedFuture("Observation " + entry.getObsId() + " no longer exists");
+        }
+
+        Patient patient = Context.getPatientService().getPatient(entry.getPatientId());
+        if (patient == null) {
+            return CompletableFuture.completedFuture("Person " + entry.getPatientId() + " is not a patient");
+        }
+
+        String observationType = ObservationClassifier.toApiObservationType(entry.getObsType());
+        CompletableFuture<Boolean> sent = nonBlocking
+            ? dataService.sendObservationToPassportAsync(patient, obs, observationType)
+            : CompletableFuture.completedFuture(dataService.sendObservationToPassport(patient, obs, observationType));
+        return sent.thenApply(success -> success ? null : "Patient Passport API rejected the observation");
+    }
+
+    /**
+     * Record the outcome in the outbox
+     * @param error null if delivered, otherwise the failure reason
+     */
+    private void record(String error) {
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+        if (error == null) {
+            SyncMetrics.delivered(entry);
+            outboxService.markDelivered(Collections.singletonList(entry.getOutboxId()));
+        } else {
+            log.warn("Outbox entry " + entry.getOutboxId() + " not delivered: " + error);
+            outboxService.markFailed(entry, error, maxAttempts);
+        }
+    }
+
+    /**
+     * Send an ENCOUNTER row as one aggregated payload
+     * @return null on success, otherwise the failure reason
+     */
+    static String sendEncounter(PatientPassportSyncOutbox entry, PatientPassportDataService dataService) {
+        Encounter encounter = Context.getEncounterService().getEncounter(entry.getEncounterId());
+        if (encounter == null) {
+            return "Encounter " + entry.getEncounterId() + " no longer exists";
+        }
+
+        boolean success = dataService.sendEncounterToPassport(encounter);
+        return success ? null : "Patient Passport API rejected the encounter";
+    }
+
+    static String failureReason(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    }
+
+    static boolean isLowPriorityType(String obsType) {
+        return obsType == null || LOW_PRIORITY_TYPES.contains(obsType.toUpperCase());
+    }
+}
@@ -0,0 +1,313 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.openmrs.module.patientpassport.model.SyncPriority;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue for the SyncExecutor pool with one FIFO lane per SyncPriority.
+ * Workers take from the highest non-empty lane, except that a lower lane whose head has
+ * waited longer than maxWaitMs is served first, so a steady stream of allergies and
+ * medications cannot starve vitals and lab results. Runnables that do not implement
+ * Prioritized go to the NORMAL lane. Unbounded; the executor enforces its own capacity.
+ */
+public class PriorityLaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * Runnable that knows its lane
+     */
+    public interface Prioritized {
+        SyncPriority getPriority();
+    }
+
+    private static final SyncPriority[] LANES = SyncPriority.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final List<ArrayDeque<Item>> lanes = new ArrayList<>(LANES.length);
+
+    private final AtomicLong agedPromotions = new AtomicLong();
+
+    private volatile long maxWaitMs;
+
+    private int count;
+
+    public PriorityLaneQueue(long maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+        for (int i = 0; i < LANES.length; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+    }
+
+    public void setMaxWaitMs(long maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * @return Number of times a lower lane was served first because its head had waited too long
+     */
+    public long getAgedPromotions() {
+        return agedPromotions.get();
+    }
+
+    /**
+     * @return Queued runnables per lane, highest priority first
+     */
+    public int[] laneSizes() {
+        lock.lock();
+        try {
+            int[] sizes = new int[LANES.length];
+            for (int i = 0; i < LANES.length; i++) {
+                sizes[i] = lanes.get(i).size();
+            }
+            return sizes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        int lane = laneOf(runnable);
+        lock.lock();
+        try {
+            lanes.get(lane).addLast(new Item(runnable, System.nanoTime()));
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            int lane = nextLane(false);
+            return lane < 0 ? null : lanes.get(lane).peekFirst().runnable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            for (ArrayDeque<Item> lane : lanes) {
+                Iterator<Item> it = lane.iterator();
+                while (it.hasNext()) {
+                    if (it.next().runnable.equals(o)) {
+                        it.remove();
+                        count--;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            Runnable runnable;
+            while (drained < maxElements && (runnable = dequeue()) != null) {
+                target.add(runnable);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Snapshot iterator, highest lane first; removal goes through remove(Object)
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<Item> lane : lanes) {
+                for (Item item : lane) {
+                    snapshot.add(item.runnable);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> it = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                PriorityLaneQueue.this.remove(last);
+            }
+        };
+    }
+
+    // Caller holds the lock
+    private Runnable dequeue() {
+        int lane = nextLane(true);
+        if (lane < 0) {
+            return null;
+        }
+        count--;
+        return lanes.get(lane).pollFirst().runnable;
+    }
+
+    /**
+     * The lower lane whose head has waited longest past maxWaitMs, else the highest non-empty lane
+     */
+    private int nextLane(boolean record) {
+        int highest = -1;
+        int aged = -1;
+        long oldest = Long.MAX_VALUE;
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        for (int i = 0; i < lanes.size(); i++) {
+            Item head = lanes.get(i).peekFirst();
+            if (head == null) {
+                continue;
+            }
+            if (highest < 0) {
+                highest = i;
+            } else if (head.enqueuedAt - cutoff < 0 && (aged < 0 || head.enqueuedAt - oldest < 0)) {
+                aged = i;
+                oldest = head.enqueuedAt;
+            }
+        }
+        if (aged >= 0 && lanes.get(highest).peekFirst().enqueuedAt - oldest > 0) {
+            if (record) {
+                agedPromotions.incrementAndGet();
+            }
+            return aged;
+        }
+        return highest;
+    }
+
+    private static int laneOf(Runnable runnable) {
+        if (runnable instanceof Prioritized) {
+            SyncPriority priority = ((Prioritized) runnable).getPriority();
+            if (priority != null) {
+                return priority.ordinal();
+            }
+        }
+        return SyncPriority.NORMAL.ordinal();
+    }
+
+    private static final class Item {
+
+        private final Runnable runnable;
+
+        private final long enqueuedAt;
+
+        Item(Runnable runnable, long enqueuedAt) {
+            this.runnable = runnable;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
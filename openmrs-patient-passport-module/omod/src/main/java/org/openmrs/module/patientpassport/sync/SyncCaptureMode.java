@@ -0,0 +1,65 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+
+/**
+ * How new observations are picked up for sync (patientpassport.sync.captureMode)
+ */
+public enum SyncCaptureMode {
+
+    /** ObservationSaveAdvice and EncounterSaveAdvice queue obs inside the save transaction */
+    INTERCEPT,
+
+    /** ObsChangeScanner reads new obs rows past a watermark; saves are not intercepted */
+    CDC;
+
+    // The advices ask on every save, so the global property is read at most this often
+    private static final long REFRESH_MS = 30000L;
+
+    private static volatile SyncCaptureMode current = INTERCEPT;
+
+    private static volatile long loadedAt;
+
+    /**
+     * Parse a global property value, defaulting to INTERCEPT
+     */
+    public static SyncCaptureMode fromString(String value) {
+        if (value != null) {
+            for (SyncCaptureMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+        }
+        return INTERCEPT;
+    }
+
+    /**
+     * @return The configured mode, re-read from the global property at most every 30 seconds
+     */
+    public static SyncCaptureMode current() {
+        long now = System.currentTimeMillis();
+        if (now - loadedAt >= REFRESH_MS && Context.isSessionOpen()) {
+            loadedAt = now;
+            try {
+                current = fromString(new PatientPassportConfig().getSyncCaptureMode());
+            } catch (Exception e) {
+                // Keep the last known mode
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Record a mode read elsewhere (e.g. by the scanner), so the advices switch without waiting
+     */
+    static void update(SyncCaptureMode mode) {
+        current = mode;
+        loadedAt = System.currentTimeMillis();
+    }
+
+    public static boolean isInterceptionEnabled() {
+        return current() == INTERCEPT;
+    }
+}
@@ -0,0 +1,298 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Skips outbound sends that Patient Passport has already acknowledged.
+ *
+ * Lookups go through three layers:
+ * an LRU cache of recently acknowledged keys answers repeat sends from memory;
+ * a bloom filter holding every acknowledged key answers "definitely new" without
+ * touching the database; only bloom hits fall through to the patientpassport_sync_ack table.
+ * The bloom filter is filled from the table in the background after module start, without
+ * holding the lock lookups take; until it is loaded every miss is checked against the table.
+ *
+ * Once a day the same background thread purges keys older than the retention period and
+ * rebuilds the filter for twice the table's row count, so the table stays bounded and the
+ * filter does not fill up as it grows. A filter that fills up between runs is rebuilt early.
+ */
+public class SyncDeduplicator {
+
+    private static final Log log = LogFactory.getLog(SyncDeduplicator.class);
+
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    // Leave OpenMRS time to finish starting before scanning the acknowledgement table
+    private static final long LOAD_DELAY_MS = 30000L;
+
+    private static final long MAINTENANCE_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int PURGE_CHUNK_SIZE = 1000;
+
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong bloomNegatives = new AtomicLong();
+    private final AtomicLong tableLookups = new AtomicLong();
+
+    private volatile Map<String, Boolean> recent;
+
+    private volatile BloomFilter bloom;
+
+    // Filter being filled by a rebuild; keys acknowledged meanwhile go into both
+    private volatile BloomFilter loading;
+
+    private volatile boolean bloomLoaded;
+
+    private volatile long bloomCapacity;
+
+    private final AtomicLong bloomKeys = new AtomicLong();
+
+    private final AtomicLong purged = new AtomicLong();
+
+    private ScheduledExecutorService loader;
+
+    /**
+     * Schedule the bloom filter load and the daily purge on a background thread
+     */
+    public synchronized void start() {
+        if (loader != null) {
+            return;
+        }
+        loader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-dedup-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loader.scheduleWithFixedDelay(this::maintain, LOAD_DELAY_MS, MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (loader != null) {
+            loader.shutdownNow();
+            loader = null;
+        }
+    }
+
+    /**
+     * @return true if the key has been acknowledged and the send can be skipped
+     */
+    public boolean isAcknowledged(String key) {
+        return !getAcknowledged(Collections.singletonList(key)).isEmpty();
+    }
+
+    /**
+     * @return The subset of keys that have been acknowledged
+     */
+    public Set<String> getAcknowledged(Collection<String> keys) {
+        Set<String> acknowledged = new HashSet<>();
+        if (keys.isEmpty() || !new PatientPassportConfig().isSyncDedupEnabled()) {
+            return acknowledged;
+        }
+        ensureInitialized();
+
+        List<String> unknown = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (recentContains(key)) {
+                cacheHits.incrementAndGet();
+                acknowledged.add(key);
+            } else if (bloomLoaded && !bloom.mightContain(key)) {
+                bloomNegatives.incrementAndGet();
+            } else {
+                unknown.add(key);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            tableLookups.incrementAndGet();
+            for (String key : getOutboxService().getAcknowledgedKeys(unknown)) {
+                remember(key);
+                acknowledged.add(key);
+            }
+        }
+
+        skipped.addAndGet(acknowledged.size());
+        return acknowledged;
+    }
+
+    /**
+     * Record keys acknowledged by Patient Passport
+     * @param keysToObsUuid Idempotency key to obs uuid
+     */
+    public void acknowledge(Map<String, String> keysToObsUuid) {
+        if (keysToObsUuid.isEmpty() || !new PatientPassportConfig().isSyncDedupEnabled()) {
+            return;
+        }
+        ensureInitialized();
+        getOutboxService().acknowledge(keysToObsUuid);
+        for (String key : keysToObsUuid.keySet()) {
+            remember(key);
+        }
+    }
+
+    public void acknowledge(String key, String obsUuid) {
+        acknowledge(Collections.singletonMap(key, obsUuid));
+    }
+
+    /**
+     * Counters for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Map<String, Boolean> cache = recent;
+        int cached;
+        if (cache == null) {
+            cached = 0;
+        } else {
+            synchronized (cache) {
+                cached = cache.size();
+            }
+        }
+        stats.put("bloomLoaded", bloomLoaded);
+        stats.put("bloomCapacity", bloomCapacity);
+        stats.put("bloomKeys", bloomKeys.get());
+        stats.put("purged", purged.get());
+        stats.put("cachedKeys", cached);
+        stats.put("skipped", skipped.get());
+        stats.put("cacheHits", cacheHits.get());
+        stats.put("bloomNegatives", bloomNegatives.get());
+        stats.put("tableLookups", tableLookups.get());
+        return stats;
+    }
+
+    private void remember(String key) {
+        // Read before bloom: loadBloom swaps bloom in before it clears loading, so one of them is the new filter
+        BloomFilter filling = loading;
+        bloom.add(key);
+        if (filling != null) {
+            filling.add(key);
+        }
+        if (bloomKeys.incrementAndGet() == bloomCapacity) {
+            reloadSoon();
+        }
+        synchronized (recent) {
+            recent.put(key, Boolean.TRUE);
+        }
+    }
+
+    private boolean recentContains(String key) {
+        synchronized (recent) {
+            return recent.get(key) != null;
+        }
+    }
+
+    private void ensureInitialized() {
+        if (recent != null) {
+            return;
+        }
+        synchronized (this) {
+            if (recent != null) {
+                return;
+            }
+            PatientPassportConfig config = new PatientPassportConfig();
+            final int cacheSize = config.getSyncDedupCacheSize();
+            bloomCapacity = config.getSyncDedupExpectedKeys();
+            bloom = new BloomFilter((int) bloomCapacity, BLOOM_FALSE_POSITIVE_RATE);
+            recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > cacheSize;
+                }
+            };
+        }
+    }
+
+    /**
+     * Purge expired acknowledgements, then rebuild the bloom filter from what is left
+     */
+    void maintain() {
+        if (!new PatientPassportConfig().isSyncDedupEnabled()) {
+            return;
+        }
+        purgeExpired();
+        loadBloom();
+    }
+
+    private void purgeExpired() {
+        try {
+            int retentionDays = new PatientPassportConfig().getSyncDedupRetentionDays();
+            Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+            long total = 0;
+            int deleted;
+            do {
+                // One transaction per chunk, so the purge never holds many row locks
+                deleted = getOutboxService().purgeAcknowledgements(cutoff, PURGE_CHUNK_SIZE);
+                total += deleted;
+            } while (deleted >= PURGE_CHUNK_SIZE);
+            purged.addAndGet(total);
+            if (total > 0) {
+                log.info("Purged " + total + " acknowledged sync keys older than " + retentionDays + " days");
+            }
+        } catch (Exception e) {
+            log.warn("Could not purge expired sync acknowledgements: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Build a bloom filter for twice the acknowledgement table's row count and fill it from the
+     * table. Keys acknowledged while this runs are added to it by remember(), so the filter is
+     * complete once the scan finishes and replaces the one lookups use.
+     */
+    private void loadBloom() {
+        try {
+            ensureInitialized();
+            long start = System.currentTimeMillis();
+            long rows = getOutboxService().countAcknowledgements();
+            long capacity = Math.min(Integer.MAX_VALUE, Math.max(new PatientPassportConfig().getSyncDedupExpectedKeys(), rows * 2));
+            BloomFilter filter = new BloomFilter((int) capacity, BLOOM_FALSE_POSITIVE_RATE);
+            final long[] count = {0};
+            loading = filter;
+            try {
+                getOutboxService().forEachAcknowledgedKey(key -> {
+                    filter.add(key);
+                    count[0]++;
+                });
+                bloomKeys.set(count[0]);
+                bloomCapacity = capacity;
+                bloom = filter;
+            } finally {
+                loading = null;
+            }
+            bloomLoaded = true;
+            log.info("Sync dedup filter loaded " + count[0] + " acknowledged keys, sized for " + capacity +
+                ", in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            log.warn("Could not load sync dedup filter, checking the acknowledgement table instead: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild the filter on the background thread now that it holds as many keys as it was sized for
+     */
+    private synchronized void reloadSoon() {
+        if (loader != null) {
+            loader.execute(this::loadBloom);
+        }
+    }
+
+    private PatientPassportSyncOutboxService getOutboxService() {
+        return Context.getService(PatientPassportSyncOutboxService.class);
+    }
+}
@@ -0,0 +1,487 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.http.AdaptiveConcurrencyLimiter;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Module-owned, bounded executor for outbound Patient Passport work.
+ * Keeps sync HTTP calls off ForkJoinPool.commonPool() and applies an explicit
+ * overflow policy (patientpassport.sync.executor.overflowPolicy) when the queue is full.
+ *
+ * Tasks with an ordering key (the patient id) are striped: each key maps to one of
+ * STRIPES serial queues, so tasks for one patient run strictly in submission order
+ * while different patients run in parallel on the shared workers. Stripes only
+ * occupy a worker while they have work; there is no lock shared between stripes.
+ *
+ * Each SyncPriority has its own set of stripes, and the pool takes work from a
+ * PriorityLaneQueue, so queued allergies and medications start before vitals and
+ * lab results. Order per key therefore holds within a priority. Lower lanes that have
+ * waited longer than patientpassport.sync.priority.maxWaitMs are served first.
+ *
+ * A task may return before its work is done (SyncTask.start with the async transport).
+ * Its stripe then stays claimed, without holding a worker, until that work completes,
+ * so the next task for the same key still cannot overtake it.
+ *
+ * After shutdown() the executor stays stopped: tasks submitted later are spilled
+ * back to the outbox, and no new pool is started.
+ */
+public class SyncExecutor {
+
+    private static final Log log = LogFactory.getLog(SyncExecutor.class);
+
+    // Power of two; with thousands of active patients, collisions only cost some parallelism
+    private static final int STRIPES = 1024;
+
+    // Tasks a stripe runs before giving its worker back to other stripes
+    private static final int STRIPE_BURST = 32;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+
+    // Tasks accepted but not yet started, across the pool queue and all stripes
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Tasks started whose async work has not completed yet
+    private final AtomicInteger asyncInFlight = new AtomicInteger();
+
+    private final Stripe[][] stripes = new Stripe[SyncPriority.values().length][STRIPES];
+
+    private volatile ThreadPoolExecutor pool;
+    private volatile SyncOverflowPolicy overflowPolicy = SyncOverflowPolicy.SPILL;
+    private volatile int queueCapacity;
+    private volatile PriorityLaneQueue workQueue;
+    private volatile boolean shutDown;
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    public SyncExecutor() {
+        for (SyncPriority priority : SyncPriority.values()) {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[priority.ordinal()][i] = new Stripe(priority);
+            }
+        }
+    }
+
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Submit a task, applying the overflow policy if the queue is full
+     */
+    public void execute(SyncTask task) {
+        submitted.incrementAndGet();
+        ThreadPoolExecutor current = getPool();
+        if (current == null) {
+            // Module stopping: leave the work in the outbox for the next start
+            rejected.incrementAndGet();
+            spilled.incrementAndGet();
+            task.spill();
+            return;
+        }
+
+        if (pending.incrementAndGet() > queueCapacity) {
+            pending.decrementAndGet();
+            overflow(task);
+            return;
+        }
+
+        Integer key = task.getOrderingKey();
+        if (key == null) {
+            try {
+                current.execute(new UnorderedTask(task));
+            } catch (RejectedExecutionException e) {
+                pending.decrementAndGet();
+                rejected.incrementAndGet();
+                spilled.incrementAndGet();
+                task.spill();
+            }
+            return;
+        }
+
+        Stripe stripe = stripeFor(task);
+        stripe.queue.offer(task);
+        stripe.schedule(current);
+    }
+
+    /**
+     * @return Free slots in the queue, used by producers to avoid claiming more work than fits
+     */
+    public int remainingCapacity() {
+        if (getPool() == null) {
+            return 0;
+        }
+        return Math.max(0, queueCapacity - pending.get());
+    }
+
+    /**
+     * Re-read worker count and overflow policy from global properties.
+     * With adaptive concurrency the worker count follows the limiter instead, so the
+     * executor only runs as many sends as the Passport API currently absorbs.
+     * Queue capacity is fixed once the pool is created.
+     */
+    public void reconfigure() {
+        PatientPassportConfig config = new PatientPassportConfig();
+        overflowPolicy = SyncOverflowPolicy.fromString(config.getSyncOverflowPolicy());
+
+        ThreadPoolExecutor current = getPool();
+        if (current == null) {
+            return;
+        }
+        workQueue.setMaxWaitMs(config.getSyncPriorityMaxWaitMs());
+        int workers = config.getSyncWorkers();
+        boolean adaptive = concurrencyLimiter != null && config.isSyncAdaptiveConcurrencyEnabled();
+        if (concurrencyLimiter != null) {
+            concurrencyLimiter.setEnabled(adaptive);
+        }
+        if (adaptive) {
+            concurrencyLimiter.configure(config.getSyncAdaptiveMinConcurrency(), config.getSyncAdaptiveMaxConcurrency());
+            workers = concurrencyLimiter.getLimit();
+        }
+        if (workers != current.getMaximumPoolSize()) {
+            if (workers > current.getMaximumPoolSize()) {
+                current.setMaximumPoolSize(workers);
+                current.setCorePoolSize(workers);
+            } else {
+                current.setCorePoolSize(workers);
+                current.setMaximumPoolSize(workers);
+            }
+            if (adaptive) {
+                log.debug("Sync executor following adaptive limit: " + workers + " workers");
+            } else {
+                log.info("Sync executor resized to " + workers + " workers");
+            }
+        }
+    }
+
+    /**
+     * Spring destroy-method
+     */
+    public synchronized void shutdown() {
+        shutDown = true;
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                    pool.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+    }
+
+    /**
+     * Queue depth, worker and rejection counters for the health endpoint
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        ThreadPoolExecutor current = pool;
+        int busyStripes = 0;
+        for (Stripe[] lane : stripes) {
+            for (Stripe stripe : lane) {
+                if (stripe.scheduled.get()) {
+                    busyStripes++;
+                }
+            }
+        }
+        stats.put("overflowPolicy", overflowPolicy.name());
+        stats.put("workers", current != null ? current.getMaximumPoolSize() : 0);
+        stats.put("activeWorkers", current != null ? current.getActiveCount() : 0);
+        stats.put("queueDepth", pending.get());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("stripes", STRIPES);
+        stats.put("busyStripes", busyStripes);
+        PriorityLaneQueue queue = workQueue;
+        if (queue != null) {
+            // Runnables waiting for a worker; a scheduled stripe counts once however many tasks it holds
+            int[] laneSizes = queue.laneSizes();
+            Map<String, Integer> lanes = new LinkedHashMap<>();
+            for (SyncPriority priority : SyncPriority.values()) {
+                lanes.put(priority.name(), laneSizes[priority.ordinal()]);
+            }
+            stats.put("queuedByPriority", lanes);
+            stats.put("agedPromotions", queue.getAgedPromotions());
+        }
+        stats.put("submitted", submitted.get());
+        stats.put("completed", completed.get());
+        stats.put("asyncInFlight", asyncInFlight.get());
+        stats.put("rejected", rejected.get());
+        stats.put("spilled", spilled.get());
+        stats.put("dropped", dropped.get());
+        stats.put("callerRuns", callerRuns.get());
+        return stats;
+    }
+
+    private Stripe stripeFor(SyncTask task) {
+        SyncPriority priority = task.getPriority() != null ? task.getPriority() : SyncPriority.NORMAL;
+        // Spread sequential patient ids across stripes
+        int hash = task.getOrderingKey() * 0x9E3779B9;
+        return stripes[priority.ordinal()][(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * @return The task's pending async work, or null if it is already finished
+     */
+    private CompletableFuture<?> runTask(SyncTask task) {
+        CompletableFuture<?> completion;
+        try {
+            completion = task.start();
+        } catch (Exception e) {
+            log.error("Sync task failed: " + e.getMessage(), e);
+            completion = null;
+        }
+        if (completion == null) {
+            completed.incrementAndGet();
+            return null;
+        }
+        asyncInFlight.incrementAndGet();
+        completion.whenComplete((result, error) -> {
+            asyncInFlight.decrementAndGet();
+            completed.incrementAndGet();
+            if (error != null) {
+                log.error("Sync task failed: " + error.getMessage(), error);
+            }
+        });
+        return completion.isDone() ? null : completion;
+    }
+
+    /**
+     * Applies the configured overflow policy to a task that did not fit
+     */
+    private void overflow(SyncTask task) {
+        rejected.incrementAndGet();
+
+        switch (overflowPolicy) {
+            case CALLER_RUNS:
+                if (runOnCaller(task)) {
+                    callerRuns.incrementAndGet();
+                } else {
+                    spilled.incrementAndGet();
+                    task.spill();
+                }
+                break;
+            case DROP_LOW_PRIORITY:
+                if (task.isLowPriority()) {
+                    dropped.incrementAndGet();
+                    task.drop();
+                } else {
+                    spilled.incrementAndGet();
+                    task.spill();
+                }
+                break;
+            case SPILL:
+            default:
+                spilled.incrementAndGet();
+                task.spill();
+                break;
+        }
+    }
+
+    /**
+     * Run an overflowing task on the submitting thread. An ordered task may only do so
+     * when its stripe is idle, otherwise it would overtake earlier tasks for the same key.
+     * @return false if the task could not run here and must be spilled instead
+     */
+    private boolean runOnCaller(SyncTask task) {
+        Integer key = task.getOrderingKey();
+        if (key == null) {
+            runTask(task);
+            return true;
+        }
+
+        Stripe stripe = stripeFor(task);
+        if (!stripe.scheduled.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!stripe.queue.isEmpty()) {
+            stripe.release();
+            return false;
+        }
+        CompletableFuture<?> completion = runTask(task);
+        if (completion != null) {
+            completion.whenComplete((result, error) -> stripe.release());
+        } else {
+            stripe.release();
+        }
+        return true;
+    }
+
+    /**
+     * @return The pool, created on first use, or null once the executor has been shut down
+     */
+    private ThreadPoolExecutor getPool() {
+        ThreadPoolExecutor current = pool;
+        if (current == null) {
+            synchronized (this) {
+                current = pool;
+                if (current == null && !shutDown) {
+                    current = createPool();
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private ThreadPoolExecutor createPool() {
+        PatientPassportConfig config = new PatientPassportConfig();
+        int workers = config.getSyncWorkers();
+        queueCapacity = config.getSyncQueueCapacity();
+        overflowPolicy = SyncOverflowPolicy.fromString(config.getSyncOverflowPolicy());
+
+        // Unbounded here; the pending counter enforces queueCapacity across the pool and the stripes
+        workQueue = new PriorityLaneQueue(config.getSyncPriorityMaxWaitMs());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+            workQueue, new SyncThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+
+        log.info("Sync executor created: " + workers + " workers, " + STRIPES + " stripes, queue capacity " +
+            queueCapacity + ", overflow policy " + overflowPolicy);
+        return executor;
+    }
+
+    /**
+     * Task without an ordering key, queued in its priority lane
+     */
+    private class UnorderedTask implements Runnable, PriorityLaneQueue.Prioritized {
+
+        private final SyncTask task;
+
+        UnorderedTask(SyncTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public SyncPriority getPriority() {
+            return task.getPriority();
+        }
+
+        @Override
+        public void run() {
+            pending.decrementAndGet();
+            runTask(task);
+        }
+    }
+
+    /**
+     * Serial queue for the tasks of one priority whose keys hash to it.
+     * At most one worker drains a stripe at a time, which gives FIFO order per key and priority.
+     */
+    private class Stripe implements Runnable, PriorityLaneQueue.Prioritized {
+
+        private final SyncPriority priority;
+
+        private final Queue<SyncTask> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Stripe(SyncPriority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public SyncPriority getPriority() {
+            return priority;
+        }
+
+        void schedule(ThreadPoolExecutor executor) {
+            if (scheduled.compareAndSet(false, true)) {
+                submit(executor);
+            }
+        }
+
+        /**
+         * Give up the claim on this stripe, rescheduling it if tasks arrived meanwhile
+         */
+        void release() {
+            scheduled.set(false);
+            // Re-check after releasing: a task offered just before the release must not be stranded
+            if (!queue.isEmpty()) {
+                schedule(pool);
+            }
+        }
+
+        /**
+         * Hand the already claimed stripe to a worker
+         */
+        private void submit(ThreadPoolExecutor executor) {
+            try {
+                if (executor == null) {
+                    throw new RejectedExecutionException("Sync executor is shut down");
+                }
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Shutting down: hand the queued tasks back so they stay in the outbox
+                SyncTask task;
+                while ((task = queue.poll()) != null) {
+                    pending.decrementAndGet();
+                    rejected.incrementAndGet();
+                    spilled.incrementAndGet();
+                    task.spill();
+                }
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < STRIPE_BURST; i++) {
+                SyncTask task = queue.poll();
+                if (task == null) {
+                    break;
+                }
+                pending.decrementAndGet();
+                CompletableFuture<?> completion = runTask(task);
+                if (completion != null) {
+                    // Keep the stripe claimed, without a worker, until the task's async work is done
+                    completion.whenComplete((result, error) -> resume());
+                    return;
+                }
+            }
+            release();
+        }
+
+        private void resume() {
+            if (queue.isEmpty()) {
+                release();
+            } else {
+                submit(pool);
+            }
+        }
+    }
+
+    private static class SyncThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-sync-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
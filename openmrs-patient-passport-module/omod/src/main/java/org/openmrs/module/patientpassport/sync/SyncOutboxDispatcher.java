@@ -0,0 +1,323 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.patientpassport.config.PatientPassportConfig;
+import org.openmrs.module.patientpassport.http.PassportApiGuard;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+import org.openmrs.module.patientpassport.service.PatientPassportDataService;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background dispatcher that drains the patientpassport_sync_outbox table.
+ * Rows are written by ObservationSaveAdvice in the saveObs transaction; this class
+ * claims them in bulk, groups them into micro-batches and hands each batch to the
+ * SyncExecutor, which sends it to Patient Passport and deletes the delivered rows.
+ * Failed rows stay in the outbox and are retried with backoff, so nothing is lost
+ * on restart or while the Passport API is unavailable.
+ *
+ * Rows queued by a transaction are also handed over as soon as it commits
+ * (CommittedSyncUnit), so a save does not wait for the next poll.
+ */
+public class SyncOutboxDispatcher {
+
+    private static final Log log = LogFactory.getLog(SyncOutboxDispatcher.class);
+
+    // Give OpenMRS time to finish starting before the first poll
+    private static final long INITIAL_DELAY_MS = 30000L;
+
+    private static final long DEFAULT_POLL_INTERVAL_MS = 2000L;
+
+    private PatientPassportDataService dataService;
+
+    private SyncExecutor syncExecutor;
+
+    private PassportApiGuard apiGuard;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile MicroBatcher<PatientPassportSyncOutbox> batcher;
+
+    private volatile int maxAttempts;
+
+    private volatile int lanesPerPriority;
+
+    // patientpassport.sync.transportMode=ASYNC, re-read on every drain
+    private volatile boolean asyncTransport;
+
+    private volatile boolean running;
+
+    private volatile boolean recovered;
+
+    public void setDataService(PatientPassportDataService dataService) {
+        this.dataService = dataService;
+    }
+
+    public void setSyncExecutor(SyncExecutor syncExecutor) {
+        this.syncExecutor = syncExecutor;
+    }
+
+    public void setApiGuard(PassportApiGuard apiGuard) {
+        this.apiGuard = apiGuard;
+    }
+
+    /**
+     * Spring init-method
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(DaemonSession.worker(runnable), "patientpassport-outbox-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        scheduler.schedule(this::poll, INITIAL_DELAY_MS, TimeUnit.MILLISECONDS);
+        log.info("Sync outbox dispatcher started");
+    }
+
+    /**
+     * Spring destroy-method
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+        }
+        if (batcher != null) {
+            // Buffered rows are IN_FLIGHT; hand them over now or they are recovered on the next start
+            batcher.close();
+            batcher = null;
+        }
+        log.info("Sync outbox dispatcher stopped");
+    }
+
+    /**
+     * Send the rows one committed transaction queued, without waiting for the next poll.
+     * Runs on the dispatcher thread; rows it cannot claim now are left to the poll.
+     * @param obsIds Obs queued one by one
+     * @param encounterIds Encounters queued as ENCOUNTER rows
+     */
+    public void dispatchCommitted(Collection<Integer> obsIds, Collection<Integer> encounterIds) {
+        ScheduledExecutorService current = scheduler;
+        if (!running || current == null) {
+            return;
+        }
+        List<Integer> obs = new ArrayList<>(obsIds);
+        List<Integer> encounters = new ArrayList<>(encounterIds);
+        try {
+            current.execute(() -> {
+                try {
+                    DaemonSession.run(() -> dispatchUnit(obs, encounters));
+                } catch (Exception e) {
+                    log.error("Error dispatching committed outbox entries: " + e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the rows are picked up on the next start
+        }
+    }
+
+    /**
+     * One poll cycle, then schedule the next one
+     */
+    private void poll() {
+        long nextDelay = DEFAULT_POLL_INTERVAL_MS;
+        try {
+            nextDelay = new PatientPassportConfig().getOutboxPollIntervalMs();
+            DaemonSession.run(this::drain);
+        } catch (Exception e) {
+            log.error("Error draining sync outbox: " + e.getMessage(), e);
+        } finally {
+            ScheduledExecutorService current = scheduler;
+            if (running && current != null && !current.isShutdown()) {
+                current.schedule(this::poll, nextDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Hand due rows to the sync executor while it has room
+     */
+    private void drain() {
+        PatientPassportConfig config = new PatientPassportConfig();
+        PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+
+        if (!recovered) {
+            int count = outboxService.recoverInFlight();
+            recovered = true;
+            if (count > 0) {
+                log.info("Recovered " + count + " in-flight outbox entries from a previous run");
+            }
+        }
+
+        syncExecutor.reconfigure();
+        int batchSize = config.getOutboxBatchSize();
+        maxAttempts = config.getOutboxMaxAttempts();
+        boolean batching = config.isSyncBatchEnabled();
+        asyncTransport = "ASYNC".equalsIgnoreCase(config.getSyncTransportMode());
+        long maxWaitMs = config.getSyncPriorityMaxWaitMs();
+        MicroBatcher<PatientPassportSyncOutbox> currentBatcher = batcher;
+        if (currentBatcher == null) {
+            // A patient's rows of one priority always map to the same lane, and the executor runs each
+            // lane's batches in order. Lane count is fixed until restart.
+            lanesPerPriority = laneCount(config);
+            currentBatcher = new MicroBatcher<>("patientpassport-sync-batcher", lanesPerPriority * SyncPriority.values().length,
+                config.getSyncBatchMaxSize(), config.getSyncBatchWindowMs(),
+                (lane, entries) -> syncExecutor.execute(new OutboxBatchDeliveryTask(lane, entries, dataService, maxAttempts, asyncTransport)));
+            batcher = currentBatcher;
+        } else {
+            currentBatcher.reconfigure(config.getSyncBatchMaxSize(), config.getSyncBatchWindowMs());
+        }
+
+        if (apiGuard != null && apiGuard.isFailingFast()) {
+            // Rows would only fail fast and burn an attempt; wait for the breaker to let a probe through
+            log.debug("Patient Passport API circuit is open, not claiming outbox entries");
+            return;
+        }
+
+        while (running) {
+            // Only claim what the executor can queue; the rest stays in the outbox
+            int limit = Math.min(batchSize, claimableEntries(batching, currentBatcher));
+            if (limit <= 0) {
+                break;
+            }
+
+            List<PatientPassportSyncOutbox> batch = outboxService.claimDueEntries(limit, maxWaitMs);
+            for (PatientPassportSyncOutbox entry : batch) {
+                if (batching) {
+                    currentBatcher.add(laneKey(entry), entry);
+                } else {
+                    syncExecutor.execute(new OutboxDeliveryTask(entry, dataService, maxAttempts, asyncTransport));
+                }
+            }
+            Context.clearSession();
+
+            if (batch.size() < limit) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Claim one transaction's rows and send them as one batch per lane. Skipped until the first
+     * poll has recovered rows of a previous run, and while the circuit breaker is open.
+     */
+    private void dispatchUnit(List<Integer> obsIds, List<Integer> encounterIds) {
+        MicroBatcher<PatientPassportSyncOutbox> currentBatcher = batcher;
+        // Each row may become its own task (one lane each); without room for all of them, leave them to the poll
+        if (!running || !recovered || currentBatcher == null
+                || syncExecutor.remainingCapacity() < obsIds.size() + encounterIds.size()
+                || (apiGuard != null && apiGuard.isFailingFast())) {
+            return;
+        }
+
+        List<PatientPassportSyncOutbox> entries = Context.getService(PatientPassportSyncOutboxService.class)
+            .claimEntries(obsIds, encounterIds);
+        Context.clearSession();
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        if (!new PatientPassportConfig().isSyncBatchEnabled()) {
+            for (PatientPassportSyncOutbox entry : entries) {
+                syncExecutor.execute(new OutboxDeliveryTask(entry, dataService, maxAttempts, asyncTransport));
+            }
+            return;
+        }
+        // The transaction is already a complete batch, so it skips the batching window (split at
+        // maxSize). Lane keys match the batcher's, so these tasks stay in order with what it flushes
+        Map<Integer, List<PatientPassportSyncOutbox>> lanes = new LinkedHashMap<>();
+        for (PatientPassportSyncOutbox entry : entries) {
+            lanes.computeIfAbsent(laneKey(entry), lane -> new ArrayList<>()).add(entry);
+        }
+        int maxSize = currentBatcher.getMaxSize();
+        for (Map.Entry<Integer, List<PatientPassportSyncOutbox>> lane : lanes.entrySet()) {
+            List<PatientPassportSyncOutbox> laneEntries = lane.getValue();
+            for (int from = 0; from < laneEntries.size(); from += maxSize) {
+                List<PatientPassportSyncOutbox> batch = new ArrayList<>(
+                    laneEntries.subList(from, Math.min(from + maxSize, laneEntries.size())));
+                syncExecutor.execute(new OutboxBatchDeliveryTask(lane.getKey(), batch, dataService, maxAttempts, asyncTransport));
+            }
+        }
+    }
+
+    /**
+     * Batcher lane key: lanes are grouped by priority, then by patient within the priority
+     */
+    private int laneKey(PatientPassportSyncOutbox entry) {
+        return entry.getSyncPriority().getValue() * lanesPerPriority + Math.floorMod(entry.getPatientId(), lanesPerPriority);
+    }
+
+    /**
+     * Lanes per priority: as many as batches may be in flight at once. A lane's next batch waits
+     * until its previous one is answered, and with the async transport that wait does not hold a
+     * worker, so one lane per worker would cap the requests in flight far below what the async
+     * client and the adaptive limit allow.
+     */
+    private static int laneCount(PatientPassportConfig config) {
+        int lanes = config.getSyncWorkers();
+        if (config.isSyncAdaptiveConcurrencyEnabled()) {
+            lanes = Math.max(lanes, config.getSyncAdaptiveMaxConcurrency());
+        }
+        if ("ASYNC".equalsIgnoreCase(config.getSyncTransportMode())) {
+            lanes = Math.max(lanes, config.getSyncAsyncMaxInFlight());
+        }
+        return lanes;
+    }
+
+    /**
+     * Number of rows the executor queue can take: one per task, or when batching as many as
+     * cannot make the batcher flush more tasks than the queue has room for
+     */
+    private int claimableEntries(boolean batching, MicroBatcher<PatientPassportSyncOutbox> currentBatcher) {
+        int capacity = syncExecutor.remainingCapacity();
+        if (!batching) {
+            return capacity;
+        }
+        return claimableEntries(capacity, currentBatcher.getLaneCount(), currentBatcher.busyLanes(),
+            currentBatcher.pending(), currentBatcher.getMaxSize());
+    }
+
+    /**
+     * Rows spread over the lanes by patient, so a claim of n rows may flush up to
+     * (pending + n) / maxSize full batches plus one partial batch in every lane it reaches,
+     * and at most one in every lane. The larger of the two claims that keep that within
+     * capacity is returned.
+     * @param capacity Tasks the executor can still take
+     * @param lanes Batcher lanes
+     * @param busyLanes Lanes already holding rows
+     * @param pending Rows already held by the batcher
+     * @param maxSize Rows per batch
+     */
+    static int claimableEntries(int capacity, int lanes, int busyLanes, int pending, int maxSize) {
+        // A partial batch in every lane
+        long everyLane = capacity > lanes ? (long) (capacity - lanes) * maxSize - pending : 0;
+        // Every claimed row in a lane of its own
+        long ownLane = capacity > busyLanes ? ((long) (capacity - busyLanes) * maxSize - pending) / (maxSize + 1) : 0;
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, Math.max(everyLane, ownLane)));
+    }
+}
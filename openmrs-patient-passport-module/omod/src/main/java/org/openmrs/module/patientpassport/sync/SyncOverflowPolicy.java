@@ -0,0 +1,30 @@
+package org.openmrs.module.patientpassport.sync;
+
+/**
+ * What the SyncExecutor does with a task when its queue is full
+ */
+public enum SyncOverflowPolicy {
+
+    /** Hand the task back so it is kept in the database and retried later */
+    SPILL,
+
+    /** Run the task on the submitting thread, slowing the producer down */
+    CALLER_RUNS,
+
+    /** Discard low-priority tasks (vitals, labs, other) and spill the rest */
+    DROP_LOW_PRIORITY;
+
+    /**
+     * Parse a global property value, defaulting to SPILL
+     */
+    public static SyncOverflowPolicy fromString(String value) {
+        if (value != null) {
+            for (SyncOverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value.trim())) {
+                    return policy;
+                }
+            }
+        }
+        return SPILL;
+    }
+}
@@ -0,0 +1,54 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.openmrs.module.patientpassport.model.SyncPriority;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Unit of work run by the SyncExecutor.
+ * Besides running, a task knows how to get out of the way when the executor is full.
+ */
+public interface SyncTask extends Runnable {
+
+    /**
+     * Queued tasks run highest priority first; ordering keys only apply within a priority.
+     * @return Priority lane of the task
+     */
+    default SyncPriority getPriority() {
+        return SyncPriority.NORMAL;
+    }
+
+    /**
+     * Tasks with the same ordering key and priority run one at a time, in submission order.
+     * @return Ordering key (e.g. patient id), or null if the task can run in any order
+     */
+    default Integer getOrderingKey() {
+        return null;
+    }
+
+    /**
+     * Start the task. A task that hands its I/O to the async transport returns before the
+     * work is done; the executor then keeps later tasks with the same ordering key waiting
+     * until the returned future completes.
+     * @return Completion of the work, or null if it finished before returning
+     */
+    default CompletableFuture<?> start() {
+        run();
+        return null;
+    }
+
+    /**
+     * @return true if this task may be dropped under the DROP_LOW_PRIORITY overflow policy
+     */
+    boolean isLowPriority();
+
+    /**
+     * Called when the task is rejected and should be kept for later (e.g. left in the outbox)
+     */
+    void spill();
+
+    /**
+     * Called when the task is rejected and discarded
+     */
+    void drop();
+}
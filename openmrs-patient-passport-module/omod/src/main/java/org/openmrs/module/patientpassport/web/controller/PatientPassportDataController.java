@@ -8,13 +8,32 @@ import org.openmrs.Obs;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.module.patientpassport.dto.DeadLetterFilterDTO;
 import org.openmrs.module.patientpassport.service.PatientPassportDataService;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
 import org.openmrs.module.patientpassport.service.impl.PatientPassportDataServiceImpl;
+import org.openmrs.module.patientpassport.http.AdaptiveConcurrencyLimiter;
+import org.openmrs.module.patientpassport.http.PassportApiGuard;
+import org.openmrs.module.patientpassport.http.PassportAsyncTransport;
+import org.openmrs.module.patientpassport.http.PassportHttpTransport;
+import org.openmrs.module.patientpassport.log.SyncLog;
+import org.openmrs.module.patientpassport.metrics.SyncMetrics;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.sync.DaemonSession;
+import org.openmrs.module.patientpassport.sync.ObsChangeScanner;
+import org.openmrs.module.patientpassport.sync.ObservationBackfillJob;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.openmrs.module.patientpassport.sync.SyncDeduplicator;
+import org.openmrs.module.patientpassport.sync.SyncExecutor;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -28,11 +47,17 @@ public class PatientPassportDataController {
     
     private static final Log log = LogFactory.getLog(PatientPassportDataController.class);
     
-    private final PatientPassportDataService dataService;
+    // Declared in config.xml; needed to list and replay dead letters and to control the backfill
+    public static final String MANAGE_SYNC_PRIVILEGE = "Patient Passport: Manage Sync";
     
-    public PatientPassportDataController() {
-        this.dataService = new PatientPassportDataServiceImpl();
-    }
+    // Most rows one replay request puts back in the outbox
+    private static final int MAX_REPLAY = 50000;
+    
+    private static final int MAX_DEAD_LETTER_PAGE = 500;
+    
+    private static final String[] DATE_FORMATS = { "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd" };
+    
+    private PatientPassportDataService dataService;
     
     /**
      * Send observation to Patient Passport
@@ -75,7 +100,7 @@ public class PatientPassportDataController {
             Patient patient = (Patient) person;
             
             // Send to Passport
-            boolean success = dataService.sendObservationToPassport(patient, obs, observationType);
+            boolean success = getDataService().sendObservationToPassport(patient, obs, observationType);
             
             if (success) {
                 result.put("success", true);
@@ -123,7 +148,7 @@ public class PatientPassportDataController {
             }
             
             // Sync mapping
-            boolean success = dataService.syncPatientMapping(patient);
+            boolean success = getDataService().syncPatientMapping(patient);
             
             if (success) {
                 result.put("success", true);
@@ -155,6 +180,297 @@ public class PatientPassportDataController {
         result.put("success", true);
         result.put("message", "OpenMRS Patient Passport module is running");
         result.put("dataFlow", "OpenMRS → Patient Passport");
+        
+        SyncExecutor syncExecutor = getSyncExecutor();
+        if (syncExecutor != null) {
+            result.put("syncExecutor", syncExecutor.getStats());
+        }
+        SyncDeduplicator deduplicator = getRegisteredComponent("patientPassportSyncDeduplicator", SyncDeduplicator.class);
+        if (deduplicator != null) {
+            result.put("syncDedup", deduplicator.getStats());
+        }
+        PassportApiGuard apiGuard = getRegisteredComponent("patientPassportApiGuard", PassportApiGuard.class);
+        if (apiGuard != null) {
+            result.put("passportApi", apiGuard.getStats());
+        }
+        AdaptiveConcurrencyLimiter limiter = getRegisteredComponent("patientPassportConcurrencyLimiter",
+            AdaptiveConcurrencyLimiter.class);
+        if (limiter != null) {
+            result.put("concurrencyLimit", limiter.getStats());
+        }
+        ObservationBackfillJob backfillJob = getBackfillJob();
+        if (backfillJob != null) {
+            result.put("backfill", backfillJob.getStats());
+        }
+        PassportHttpTransport transport = getRegisteredComponent("patientPassportHttpTransport", PassportHttpTransport.class);
+        if (transport != null) {
+            result.put("httpPool", transport.getStats());
+        }
+        PassportAsyncTransport asyncTransport = getRegisteredComponent("patientPassportAsyncTransport",
+            PassportAsyncTransport.class);
+        if (asyncTransport != null) {
+            result.put("asyncHttp", asyncTransport.getStats());
+        }
+        ObsChangeScanner scanner = getRegisteredComponent("patientPassportObsChangeScanner", ObsChangeScanner.class);
+        if (scanner != null) {
+            result.put("changeCapture", scanner.getStats());
+        }
+        result.put("classifier", ObservationClassifier.getStats());
+        result.put("daemonSessions", DaemonSession.getStats());
+        result.put("syncLog", SyncLog.getStats());
+        return result;
+    }
+    
+    /**
+     * Sync pipeline counters, latencies and gauges in the Prometheus text format
+     * GET /module/patientpassport/api/metrics
+     */
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET, produces = SyncMetrics.CONTENT_TYPE)
+    @ResponseBody
+    public String metrics() {
+        Map<String, Object> components = healthCheck();
+        try {
+            PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+            Map<String, Object> outbox = new HashMap<>();
+            outbox.put("pending", outboxService.countByStatus(PatientPassportSyncOutbox.STATUS_PENDING));
+            outbox.put("inFlight", outboxService.countByStatus(PatientPassportSyncOutbox.STATUS_IN_FLIGHT));
+            outbox.put("deadLetters", outboxService.countDeadLetters(new DeadLetterFilterDTO()));
+            components.put("outbox", outbox);
+        } catch (Exception e) {
+            log.warn("Outbox counts not available for metrics: " + e.getMessage());
+        }
+        return SyncMetrics.scrape(components);
+    }
+    
+    /**
+     * Start or resume the historical observation backfill
+     * POST /module/patientpassport/api/backfill/start
+     */
+    @RequestMapping(value = "/backfill/start", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> startBackfill(HttpServletResponse response) {
+        return controlBackfill("start", response);
+    }
+    
+    /**
+     * Pause the backfill after the current page
+     * POST /module/patientpassport/api/backfill/pause
+     */
+    @RequestMapping(value = "/backfill/pause", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> pauseBackfill(HttpServletResponse response) {
+        return controlBackfill("pause", response);
+    }
+    
+    /**
+     * Drop the backfill checkpoints so the next start begins from the first observation
+     * POST /module/patientpassport/api/backfill/reset
+     */
+    @RequestMapping(value = "/backfill/reset", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> resetBackfill(HttpServletResponse response) {
+        return controlBackfill("reset", response);
+    }
+    
+    /**
+     * Backfill progress, throughput and ETA
+     * GET /module/patientpassport/api/backfill
+     */
+    @RequestMapping(value = "/backfill", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getBackfillStatus(HttpServletResponse response) {
+        return controlBackfill("status", response);
+    }
+    
+    /**
+     * Dead-letter rows, most recently failed first, with the count per error class
+     * GET /module/patientpassport/api/deadletter?errorClass=&amp;obsType=&amp;patientId=&amp;failedAfter=&amp;failedBefore=&amp;offset=&amp;limit=
+     */
+    @RequestMapping(value = "/deadletter", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getDeadLetters(
+            @RequestParam(value = "errorClass", required = false) String errorClass,
+            @RequestParam(value = "obsType", required = false) String obsType,
+            @RequestParam(value = "patientId", required = false) Integer patientId,
+            @RequestParam(value = "failedAfter", required = false) String failedAfter,
+            @RequestParam(value = "failedBefore", required = false) String failedBefore,
+            @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", defaultValue = "50") int limit,
+            HttpServletResponse response) {
+        
+        Map<String, Object> result = new HashMap<>();
+        if (!requireManageSync(result, response)) {
+            return result;
+        }
+        try {
+            DeadLetterFilterDTO filter = toFilter(errorClass, obsType, patientId, failedAfter, failedBefore);
+            PatientPassportSyncOutboxService outboxService = Context.getService(PatientPassportSyncOutboxService.class);
+            result.put("success", true);
+            result.put("total", outboxService.countDeadLetters(filter));
+            result.put("errorClasses", outboxService.countDeadLettersByErrorClass());
+            result.put("deadLetters", outboxService.getDeadLetters(filter, Math.max(offset, 0),
+                Math.max(1, Math.min(limit, MAX_DEAD_LETTER_PAGE))));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        } catch (Exception e) {
+            log.error("Error listing dead letters", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            result.put("success", false);
+            result.put("message", "Error: " + e.getMessage());
+        }
         return result;
     }
+    
+    /**
+     * Put the dead-letter rows matching the filter back in the outbox, oldest first, to be sent in batches
+     * POST /module/patientpassport/api/deadletter/replay?errorClass=&amp;obsType=&amp;patientId=&amp;failedAfter=&amp;failedBefore=&amp;limit=
+     */
+    @RequestMapping(value = "/deadletter/replay", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> replayDeadLetters(
+            @RequestParam(value = "errorClass", required = false) String errorClass,
+            @RequestParam(value = "obsType", required = false) String obsType,
+            @RequestParam(value = "patientId", required = false) Integer patientId,
+            @RequestParam(value = "failedAfter", required = false) String failedAfter,
+            @RequestParam(value = "failedBefore", required = false) String failedBefore,
+            @RequestParam(value = "limit", defaultValue = "10000") int limit,
+            HttpServletResponse response) {
+        
+        Map<String, Object> result = new HashMap<>();
+        if (!requireManageSync(result, response)) {
+            return result;
+        }
+        try {
+            DeadLetterFilterDTO filter = toFilter(errorClass, obsType, patientId, failedAfter, failedBefore);
+            int replayed = Context.getService(PatientPassportSyncOutboxService.class)
+                .replayDeadLetters(filter, Math.max(0, Math.min(limit, MAX_REPLAY)));
+            log.info("♻️ Replayed " + replayed + " dead letters");
+            result.put("success", true);
+            result.put("replayed", replayed);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+        } catch (Exception e) {
+            log.error("Error replaying dead letters", e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            result.put("success", false);
+            result.put("message", "Error: " + e.getMessage());
+        }
+        return result;
+    }
+    
+    /**
+     * @return false, with a 403 in the response, when the user does not have the manage sync privilege
+     */
+    private static boolean requireManageSync(Map<String, Object> result, HttpServletResponse response) {
+        try {
+            Context.requirePrivilege(MANAGE_SYNC_PRIVILEGE);
+            return true;
+        } catch (ContextAuthenticationException e) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            return false;
+        }
+    }
+    
+    private static DeadLetterFilterDTO toFilter(String errorClass, String obsType, Integer patientId,
+            String failedAfter, String failedBefore) {
+        return new DeadLetterFilterDTO(emptyToNull(errorClass), emptyToNull(obsType), patientId,
+            parseDate("failedAfter", failedAfter), parseDate("failedBefore", failedBefore));
+    }
+    
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+    
+    /**
+     * yyyy-MM-dd, optionally followed by 'T'HH:mm or 'T'HH:mm:ss, in server time
+     */
+    private static Date parseDate(String name, String value) {
+        String text = emptyToNull(value);
+        if (text == null) {
+            return null;
+        }
+        for (String pattern : DATE_FORMATS) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(text, position);
+            if (date != null && position.getIndex() == text.length()) {
+                return date;
+            }
+        }
+        throw new IllegalArgumentException(name + " must be yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss]: " + text);
+    }
+    
+    private Map<String, Object> controlBackfill(String action, HttpServletResponse response) {
+        Map<String, Object> result = new HashMap<>();
+        if (!"status".equals(action) && !requireManageSync(result, response)) {
+            return result;
+        }
+        ObservationBackfillJob backfillJob = getBackfillJob();
+        if (backfillJob == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            result.put("success", false);
+            result.put("message", "Backfill job not available");
+            return result;
+        }
+        
+        try {
+            boolean accepted = true;
+            if ("start".equals(action)) {
+                accepted = backfillJob.start();
+                log.info("📚 Observation backfill start requested");
+            } else if ("pause".equals(action)) {
+                backfillJob.pause();
+            } else if ("reset".equals(action)) {
+                accepted = backfillJob.reset();
+            }
+            if (!accepted) {
+                response.setStatus(HttpServletResponse.SC_CONFLICT);
+                result.put("message", "Backfill is running");
+            }
+            result.put("success", accepted);
+            result.put("backfill", backfillJob.getStats());
+        } catch (Exception e) {
+            log.error("Error running backfill action " + action, e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            result.put("success", false);
+            result.put("message", "Error: " + e.getMessage());
+        }
+        return result;
+    }
+    
+    private ObservationBackfillJob getBackfillJob() {
+        return getRegisteredComponent("patientPassportBackfillJob", ObservationBackfillJob.class);
+    }
+    
+    private SyncExecutor getSyncExecutor() {
+        return getRegisteredComponent("patientPassportSyncExecutor", SyncExecutor.class);
+    }
+    
+    /**
+     * The module's data service bean, so sends share its HTTP pool, guard and dedup state
+     */
+    private PatientPassportDataService getDataService() {
+        if (dataService == null) {
+            PatientPassportDataService bean = getRegisteredComponent("patientPassportDataService",
+                PatientPassportDataService.class);
+            dataService = bean != null ? bean : new PatientPassportDataServiceImpl();
+        }
+        return dataService;
+    }
+    
+    private <T> T getRegisteredComponent(String beanName, Class<T> type) {
+        try {
+            return Context.getRegisteredComponent(beanName, type);
+        } catch (Exception e) {
+            log.warn(beanName + " not available: " + e.getMessage());
+            return null;
+        }
+    }
 }
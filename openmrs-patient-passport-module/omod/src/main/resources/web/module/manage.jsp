@@ -108,6 +108,52 @@
             </div>
         </div>
 
+        <!-- Dead Letters Section -->
+        <openmrs:hasPrivilege privilege="Patient Passport: Manage Sync">
+        <div class="deadletter-section">
+            <h3>Dead Letters</h3>
+            <p class="section-description">
+                Observations and encounters that could not be delivered to Patient Passport after every retry,
+                or that were shed while the sync queue was full. Replaying puts them back in the sync queue.
+            </p>
+            <div id="deadLetterSummary" class="deadletter-summary"></div>
+            <div class="deadletter-filters">
+                <select id="dlErrorClass" class="form-control">
+                    <option value="">All error classes</option>
+                </select>
+                <select id="dlObsType" class="form-control">
+                    <option value="">All types</option>
+                    <option value="DIAGNOSIS">Diagnosis</option>
+                    <option value="MEDICATION">Medication</option>
+                    <option value="ALLERGY">Allergy</option>
+                    <option value="VITAL_SIGN">Vital sign</option>
+                    <option value="LAB_RESULT">Lab result</option>
+                    <option value="ENCOUNTER">Encounter</option>
+                    <option value="OTHER">Other</option>
+                </select>
+                <input type="number" id="dlPatientId" class="form-control" placeholder="Patient ID" />
+                <input type="date" id="dlFailedAfter" class="form-control" title="Failed on or after" />
+                <input type="date" id="dlFailedBefore" class="form-control" title="Failed before" />
+                <button class="btn btn-primary" onclick="loadDeadLetters(0)">
+                    <i class="icon-search"></i> Filter
+                </button>
+                <button class="btn btn-warning" onclick="replayDeadLetters()">
+                    <i class="icon-repeat"></i> Replay Matching
+                </button>
+            </div>
+            <div id="deadLetters" class="deadletter-list">
+                <div class="text-center">
+                    <i class="icon-spinner icon-spin"></i> Loading dead letters...
+                </div>
+            </div>
+            <div class="deadletter-pager">
+                <button id="dlPrev" class="btn btn-sm btn-default" onclick="loadDeadLetters(deadLetterOffset - DEAD_LETTER_PAGE)">&laquo; Newer</button>
+                <span id="dlPage"></span>
+                <button id="dlNext" class="btn btn-sm btn-default" onclick="loadDeadLetters(deadLetterOffset + DEAD_LETTER_PAGE)">Older &raquo;</button>
+            </div>
+        </div>
+        </openmrs:hasPrivilege>
+
         <!-- Patient Search Section -->
         <div class="search-section">
             <h3>Patient Search</h3>
@@ -187,6 +233,11 @@
         // Load recent activity
         loadRecentActivity();
         
+        // Load dead letters, if the section is shown to this user
+        if ($('#deadLetters').length) {
+            loadDeadLetters(0);
+        }
+        
         // Search functionality
         $('#patientSearch').keypress(function(e) {
             if (e.which == 13) { // Enter key
@@ -379,6 +430,102 @@
         });
     }
     
+    var DEAD_LETTER_API = '${pageContext.request.contextPath}/module/patientpassport/api/deadletter';
+    var DEAD_LETTER_PAGE = 50;
+    var deadLetterOffset = 0;
+    
+    function deadLetterFilter() {
+        return {
+            errorClass: $('#dlErrorClass').val(),
+            obsType: $('#dlObsType').val(),
+            patientId: $('#dlPatientId').val(),
+            failedAfter: $('#dlFailedAfter').val(),
+            failedBefore: $('#dlFailedBefore').val()
+        };
+    }
+    
+    function escapeHtml(text) {
+        return $('<div/>').text(text == null ? '' : String(text)).html();
+    }
+    
+    function loadDeadLetters(offset) {
+        deadLetterOffset = Math.max(offset, 0);
+        var params = deadLetterFilter();
+        params.offset = deadLetterOffset;
+        params.limit = DEAD_LETTER_PAGE;
+        
+        $.get(DEAD_LETTER_API, params, function(response) {
+            var html = '';
+            if (response.success) {
+                renderDeadLetterSummary(response.errorClasses);
+                if (response.deadLetters.length > 0) {
+                    html = '<table class="table table-striped">';
+                    html += '<thead><tr><th>Failed</th><th>Error Class</th><th>Type</th><th>Patient</th><th>Obs / Encounter</th><th>Attempts</th><th>Last Error</th></tr></thead>';
+                    html += '<tbody>';
+                    
+                    $.each(response.deadLetters, function(index, deadLetter) {
+                        html += '<tr>';
+                        html += '<td>' + new Date(deadLetter.dateFailed).toLocaleString() + '</td>';
+                        html += '<td><span class="label label-danger">' + escapeHtml(deadLetter.errorClass) + '</span></td>';
+                        html += '<td>' + escapeHtml(deadLetter.obsType) + '</td>';
+                        html += '<td>' + deadLetter.patientId + '</td>';
+                        html += '<td>' + (deadLetter.encounterId != null ? 'Encounter ' + deadLetter.encounterId : 'Obs ' + deadLetter.obsId) + '</td>';
+                        html += '<td>' + deadLetter.attempts + '</td>';
+                        html += '<td class="deadletter-error">' + escapeHtml(deadLetter.lastError) + '</td>';
+                        html += '</tr>';
+                    });
+                    
+                    html += '</tbody></table>';
+                } else {
+                    html = '<div class="alert alert-success">No dead letters match the filter.</div>';
+                }
+                var last = Math.min(deadLetterOffset + DEAD_LETTER_PAGE, response.total);
+                $('#dlPage').text(response.total > 0 ? (deadLetterOffset + 1) + '-' + last + ' of ' + response.total : '');
+                $('#dlPrev').prop('disabled', deadLetterOffset == 0);
+                $('#dlNext').prop('disabled', last >= response.total);
+            } else {
+                html = '<div class="alert alert-danger">Error loading dead letters: ' + escapeHtml(response.message) + '</div>';
+            }
+            $('#deadLetters').html(html);
+        }).fail(function(xhr) {
+            var message = xhr.responseJSON && xhr.responseJSON.message ? xhr.responseJSON.message : xhr.statusText;
+            $('#deadLetters').html('<div class="alert alert-danger">Error loading dead letters: ' + escapeHtml(message) + '</div>');
+        });
+    }
+    
+    function renderDeadLetterSummary(errorClasses) {
+        var selected = $('#dlErrorClass').val();
+        var options = '<option value="">All error classes</option>';
+        var summary = '';
+        $.each(errorClasses || {}, function(errorClass, count) {
+            options += '<option value="' + escapeHtml(errorClass) + '"' + (errorClass == selected ? ' selected' : '') + '>' +
+                escapeHtml(errorClass) + ' (' + count + ')</option>';
+            summary += '<span class="label label-default">' + escapeHtml(errorClass) + ': ' + count + '</span> ';
+        });
+        $('#dlErrorClass').html(options);
+        $('#deadLetterSummary').html(summary);
+    }
+    
+    function replayDeadLetters() {
+        if (!confirm('Put every dead letter matching the filter back in the sync queue?')) {
+            return;
+        }
+        $.ajax({
+            url: DEAD_LETTER_API + '/replay?' + $.param(deadLetterFilter()),
+            type: 'POST'
+        }).done(function(response) {
+            if (response.success) {
+                showMessage(response.replayed + ' dead letters queued for sync', 'success');
+            } else {
+                showMessage('Error replaying dead letters: ' + response.message, 'error');
+            }
+            loadDeadLetters(0);
+        }).fail(function(xhr) {
+            var message = xhr.responseJSON && xhr.responseJSON.message ? xhr.responseJSON.message : xhr.statusText;
+            showMessage('Error replaying dead letters: ' + message, 'error');
+        });
+    }
+    
     function showMessage(message, type) {
         var alertClass = type == 'success' ? 'alert-success' : type == 'error' ? 'alert-danger' : 'alert-warning';
         var html = '<div class="alert ' + alertClass + ' alert-dismissible" role="alert">';
@@ -413,7 +560,7 @@
     margin-top: 10px;
 }
 
-.config-section, .actions-section, .stats-section, .search-section, .activity-section {
+.config-section, .actions-section, .stats-section, .deadletter-section, .search-section, .activity-section {
     margin-bottom: 30px;
     padding: 20px;
     border: 1px solid #ddd;
@@ -421,7 +568,7 @@
     background-color: #f9f9f9;
 }
 
-.config-section h3, .actions-section h3, .stats-section h3, .search-section h3, .activity-section h3 {
+.config-section h3, .actions-section h3, .stats-section h3, .deadletter-section h3, .search-section h3, .activity-section h3 {
     margin-top: 0;
     color: #2c3e50;
     border-bottom: 2px solid #3498db;
@@ -494,6 +641,45 @@
     margin-top: 20px;
 }
 
+.section-description {
+    color: #666;
+}
+
+.deadletter-summary {
+    margin-bottom: 15px;
+}
+
+.deadletter-filters {
+    display: flex;
+    gap: 10px;
+    flex-wrap: wrap;
+    align-items: center;
+    margin-bottom: 15px;
+}
+
+.deadletter-filters .form-control {
+    width: auto;
+}
+
+.deadletter-list {
+    max-height: 500px;
+    overflow-y: auto;
+}
+
+.deadletter-error {
+    max-width: 400px;
+    word-break: break-word;
+    font-family: monospace;
+    font-size: 12px;
+}
+
+.deadletter-pager {
+    display: flex;
+    gap: 10px;
+    align-items: center;
+    margin-top: 10px;
+}
+
 .activity-list {
     max-height: 400px;
     overflow-y: auto;
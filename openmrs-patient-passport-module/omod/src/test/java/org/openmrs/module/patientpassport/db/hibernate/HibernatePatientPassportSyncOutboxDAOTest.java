@@ -0,0 +1,289 @@
+package org.openmrs.module.patientpassport.db.hibernate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The outbox SQL against H2, on tables created from liquibase.xml
+ */
+public class HibernatePatientPassportSyncOutboxDAOTest {
+
+    private static final long NO_AGING_MS = 3600000L;
+
+    private SyncTestDatabase database;
+
+    private HibernatePatientPassportSyncOutboxDAO dao;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new SyncTestDatabase();
+        dao = new HibernatePatientPassportSyncOutboxDAO();
+        dao.setSessionFactory(database.getSessionFactory());
+        database.begin();
+        database.addPatient(1);
+        database.addPatient(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.rollback();
+        database.close();
+    }
+
+    @Test
+    public void insertedRowsAreDueOldestFirst() {
+        Long first = queue(101, 1, "DIAGNOSIS");
+        Long second = queue(102, 2, "DIAGNOSIS");
+
+        List<PatientPassportSyncOutbox> due = due();
+
+        assertEquals(Arrays.asList(first, second), ids(due));
+        PatientPassportSyncOutbox entry = due.get(0);
+        assertEquals(Integer.valueOf(101), entry.getObsId());
+        assertEquals(SyncTestDatabase.uuidOf(101), entry.getObsUuid());
+        assertEquals(Integer.valueOf(1), entry.getPatientId());
+        assertEquals(PatientPassportSyncOutbox.STATUS_PENDING, entry.getStatus());
+        assertEquals(Integer.valueOf(0), entry.getAttempts());
+    }
+
+    @Test
+    public void claimMovesOnlyRowsThatAreStillPending() {
+        Long first = queue(101, 1, "DIAGNOSIS");
+        Long second = queue(102, 2, "DIAGNOSIS");
+        List<Long> read = ids(due());
+
+        assertEquals(new HashSet<>(read), dao.claim(read));
+        // A second dispatcher that read the same rows gets none of them
+        assertEquals(Collections.emptySet(), dao.claim(read));
+        assertEquals(2L, dao.countByStatus(PatientPassportSyncOutbox.STATUS_IN_FLIGHT));
+        assertTrue(due().isEmpty());
+
+        dao.updateStatus(Collections.singletonList(first), PatientPassportSyncOutbox.STATUS_PENDING);
+        assertEquals(Collections.singleton(first), dao.claim(Arrays.asList(first, second)));
+    }
+
+    @Test
+    public void failedRowWaitsForItsNextAttempt() {
+        Long outboxId = queue(101, 1, "DIAGNOSIS");
+        dao.claim(Collections.singletonList(outboxId));
+
+        Date nextAttempt = new Date(System.currentTimeMillis() + 60000L);
+        dao.recordFailure(outboxId, PatientPassportSyncOutbox.STATUS_PENDING, 1, "HTTP 503", nextAttempt);
+
+        assertTrue(due().isEmpty());
+        List<PatientPassportSyncOutbox> later = dao.getDueEntries(new Date(nextAttempt.getTime() + 1000L),
+            new Date(0L), 10);
+        assertEquals(Collections.singletonList(outboxId), ids(later));
+        assertEquals(Integer.valueOf(1), later.get(0).getAttempts());
+        assertEquals("HTTP 503", later.get(0).getLastError());
+    }
+
+    @Test
+    public void deliveredRowsAreDeleted() {
+        Long first = queue(101, 1, "DIAGNOSIS");
+        Long second = queue(102, 1, "DIAGNOSIS");
+
+        assertEquals(1, dao.delete(Collections.singletonList(first)));
+
+        assertEquals(Collections.singletonList(second), ids(due()));
+    }
+
+    @Test
+    public void recoverInFlightReturnsClaimedRowsToPending() {
+        Long outboxId = queue(101, 1, "DIAGNOSIS");
+        dao.claim(Collections.singletonList(outboxId));
+
+        assertEquals(1, dao.resetStatus(PatientPassportSyncOutbox.STATUS_IN_FLIGHT, PatientPassportSyncOutbox.STATUS_PENDING));
+
+        assertEquals(Collections.singletonList(outboxId), ids(due()));
+    }
+
+    @Test
+    public void laterRowOfAPatientWaitsWhileAnEarlierOneIsInFlight() {
+        Long first = queue(101, 1, "DIAGNOSIS");
+        Long second = queue(102, 1, "DIAGNOSIS");
+        Long otherPatient = queue(103, 2, "DIAGNOSIS");
+        dao.claim(Collections.singletonList(first));
+
+        assertEquals(Collections.singletonList(otherPatient), ids(due()));
+
+        dao.delete(Collections.singletonList(first));
+        assertEquals(Arrays.asList(second, otherPatient), ids(due()));
+    }
+
+    @Test
+    public void laterRowOfAPatientWaitsForAnEarlierOneInBackoff() {
+        Long first = queue(101, 1, "DIAGNOSIS");
+        queue(102, 1, "DIAGNOSIS");
+        dao.claim(Collections.singletonList(first));
+        dao.recordFailure(first, PatientPassportSyncOutbox.STATUS_PENDING, 1, "HTTP 503",
+            new Date(System.currentTimeMillis() + 60000L));
+
+        assertTrue(due().isEmpty());
+    }
+
+    @Test
+    public void dueEntriesForObsKeepThePatientOrder() {
+        Long first = queue(101, 1, "DIAGNOSIS");
+        queue(102, 1, "DIAGNOSIS");
+        dao.claim(Collections.singletonList(first));
+
+        // The send-now path asks for the second obs by id; it still waits its turn
+        assertTrue(dao.getDueEntries(Collections.singletonList(102), Collections.<Integer> emptyList(),
+            new Date(System.currentTimeMillis() + 1000L)).isEmpty());
+    }
+
+    @Test
+    public void higherPriorityRowsAreDueFirst() {
+        Long vitals = queue(101, 1, "VITAL_SIGN");
+        Long diagnosis = queue(102, 2, "DIAGNOSIS");
+        Long allergy = queue(103, 2, "ALLERGY");
+
+        assertEquals(Arrays.asList(allergy, diagnosis, vitals), ids(due()));
+    }
+
+    @Test
+    public void agedRowsAreDueInQueueOrder() {
+        Long vitals = queue(101, 1, "VITAL_SIGN");
+        Long allergy = queue(102, 2, "ALLERGY");
+
+        long now = System.currentTimeMillis() + 1000L;
+        // Everything was created before agedBefore, so priority no longer decides
+        assertEquals(Arrays.asList(vitals, allergy), ids(dao.getDueEntries(new Date(now), new Date(now), 100)));
+    }
+
+    @Test
+    public void agedRowIsDueAheadOfNewerHigherPriorityRows() throws InterruptedException {
+        Long vitals = queue(101, 1, "VITAL_SIGN");
+        Thread.sleep(50L);
+        Date agedBefore = new Date();
+        Thread.sleep(50L);
+        Long allergy = queue(102, 2, "ALLERGY");
+        Long diagnosis = queue(103, 2, "DIAGNOSIS");
+
+        Date now = new Date(System.currentTimeMillis() + 1000L);
+        assertEquals(Arrays.asList(vitals, allergy, diagnosis), ids(dao.getDueEntries(now, agedBefore, 100)));
+        assertEquals(Collections.singletonList(vitals), ids(dao.getDueEntries(now, agedBefore, 1)));
+    }
+
+    @Test
+    public void limitCarriesOverFromOnePriorityToTheNext() {
+        Long allergy = queue(101, 1, "ALLERGY");
+        Long diagnosis = queue(102, 1, "DIAGNOSIS");
+        queue(103, 2, "DIAGNOSIS");
+        queue(104, 2, "VITAL_SIGN");
+
+        long now = System.currentTimeMillis() + 1000L;
+        assertEquals(Arrays.asList(allergy, diagnosis),
+            ids(dao.getDueEntries(new Date(now), new Date(now - NO_AGING_MS), 2)));
+    }
+
+    @Test
+    public void rowOfAnotherPriorityIsNotHeldBackByThePatientsInFlightRow() {
+        Long vitals = queue(101, 1, "VITAL_SIGN");
+        Long allergy = queue(102, 1, "ALLERGY");
+        dao.claim(Collections.singletonList(vitals));
+
+        assertEquals(Collections.singletonList(allergy), ids(due()));
+    }
+
+    @Test
+    public void acknowledgementsAreRecordedOncePerKey() {
+        dao.insertAcknowledgements(Collections.singletonMap("obs-1:aaa", "obs-1"));
+        Map<String, String> again = new HashMap<>();
+        again.put("obs-1:aaa", "obs-1");
+        again.put("obs-2:bbb", "obs-2");
+        dao.insertAcknowledgements(again);
+
+        assertEquals(new HashSet<>(Arrays.asList("obs-1:aaa", "obs-2:bbb")),
+            dao.getAcknowledgedKeys(Arrays.asList("obs-1:aaa", "obs-2:bbb", "obs-3:ccc")));
+        List<String> all = new ArrayList<>();
+        dao.forEachAcknowledgedKey(all::add);
+        assertEquals(2, all.size());
+    }
+
+    @Test
+    public void acknowledgementsOlderThanTheCutoffArePurgedInChunks() {
+        Map<String, String> acks = new HashMap<>();
+        acks.put("obs-1:aaa", "obs-1");
+        acks.put("obs-2:bbb", "obs-2");
+        acks.put("obs-3:ccc", "obs-3");
+        dao.insertAcknowledgements(acks);
+        assertEquals(3L, dao.countAcknowledgements());
+
+        assertEquals(0, dao.deleteAcknowledgementsBefore(new Date(System.currentTimeMillis() - 60000L), 2));
+
+        Date cutoff = new Date(System.currentTimeMillis() + 1000L);
+        assertEquals(2, dao.deleteAcknowledgementsBefore(cutoff, 2));
+        assertEquals(1, dao.deleteAcknowledgementsBefore(cutoff, 2));
+        assertEquals(0L, dao.countAcknowledgements());
+    }
+
+    @Test
+    public void savedSyncStatusGetsItsOwnGeneratedId() {
+        PatientPassportSyncStatus first = new PatientPassportSyncStatus(new Patient(1));
+        PatientPassportSyncStatus other = new PatientPassportSyncStatus(new Patient(2));
+        dao.saveSyncStatus(first);
+        dao.saveSyncStatus(other);
+
+        assertNotNull(first.getSyncId());
+        assertNotNull(other.getSyncId());
+        assertNotEquals(first.getSyncId(), other.getSyncId());
+        assertEquals(first.getSyncId(), dao.getSyncStatus(1).getSyncId());
+
+        first.setSyncStatus("SUCCESS");
+        first.setContentFingerprint("abc123");
+        dao.saveSyncStatus(first);
+
+        PatientPassportSyncStatus read = dao.getSyncStatus(1);
+        assertEquals("SUCCESS", read.getSyncStatus());
+        assertEquals("abc123", read.getContentFingerprint());
+        assertEquals("PENDING", dao.getSyncStatus(2).getSyncStatus());
+    }
+
+    /**
+     * Save an obs and queue it, as ObservationSaveAdvice does in the save's transaction
+     * @return Id of the new outbox row
+     */
+    private Long queue(int obsId, int patientId, String obsType) {
+        database.addObs(obsId, patientId, null);
+        dao.insert(new PatientPassportSyncOutbox(obsId, SyncTestDatabase.uuidOf(obsId), patientId, obsType));
+        Long outboxId = null;
+        for (PatientPassportSyncOutbox entry : dao.getDueEntries(Collections.singletonList(obsId),
+                Collections.<Integer> emptyList(), new Date(System.currentTimeMillis() + 1000L))) {
+            outboxId = entry.getOutboxId();
+        }
+        return outboxId;
+    }
+
+    private List<PatientPassportSyncOutbox> due() {
+        long now = System.currentTimeMillis() + 1000L;
+        return dao.getDueEntries(new Date(now), new Date(now - NO_AGING_MS), 100);
+    }
+
+    private static List<Long> ids(List<PatientPassportSyncOutbox> entries) {
+        List<Long> ids = new ArrayList<>(entries.size());
+        for (PatientPassportSyncOutbox entry : entries) {
+            ids.add(entry.getOutboxId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,124 @@
+package org.openmrs.module.patientpassport.db.hibernate;
+
+import liquibase.Contexts;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.type.StandardBasicTypes;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory H2 database with the module's sync tables, created by running liquibase.xml as
+ * OpenMRS does when the module starts, on top of bare person, patient, encounter and obs tables.
+ * Sessions are bound to the calling thread; a test runs in one transaction and rolls it back.
+ */
+public final class SyncTestDatabase {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    // Just the columns the module's SQL reads from the core tables
+    private static final String[] CORE_TABLES = {
+        "CREATE TABLE person (person_id INT PRIMARY KEY, voided BOOLEAN DEFAULT FALSE NOT NULL)",
+        "CREATE TABLE patient (patient_id INT PRIMARY KEY, voided BOOLEAN DEFAULT FALSE NOT NULL)",
+        "CREATE TABLE encounter (encounter_id INT PRIMARY KEY, patient_id INT NOT NULL, voided BOOLEAN DEFAULT FALSE NOT NULL)",
+        "CREATE TABLE obs (obs_id INT PRIMARY KEY, person_id INT NOT NULL, concept_id INT NOT NULL, encounter_id INT, " +
+            "voided BOOLEAN DEFAULT FALSE NOT NULL, date_created TIMESTAMP, uuid CHAR(38))"
+    };
+
+    // Holds the in-memory database open until close()
+    private final Connection connection;
+
+    private final SessionFactory sessionFactory;
+
+    private final DbSessionFactory dbSessionFactory;
+
+    public SyncTestDatabase() throws Exception {
+        String url = "jdbc:h2:mem:patientpassport" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+        connection = DriverManager.getConnection(url, "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            for (String table : CORE_TABLES) {
+                statement.execute(table);
+            }
+        }
+
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+        new Liquibase("liquibase.xml", new ClassLoaderResourceAccessor(), database).update(new Contexts());
+
+        sessionFactory = new Configuration()
+            .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+            .setProperty("hibernate.connection.url", url)
+            .setProperty("hibernate.connection.username", "sa")
+            .setProperty("hibernate.connection.password", "")
+            .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+            .setProperty("hibernate.current_session_context_class", "thread")
+            .buildSessionFactory();
+        dbSessionFactory = new DbSessionFactory(sessionFactory);
+    }
+
+    public DbSessionFactory getSessionFactory() {
+        return dbSessionFactory;
+    }
+
+    public void begin() {
+        sessionFactory.getCurrentSession().beginTransaction();
+    }
+
+    public void commit() {
+        sessionFactory.getCurrentSession().getTransaction().commit();
+    }
+
+    public void rollback() {
+        Transaction transaction = sessionFactory.getCurrentSession().getTransaction();
+        if (transaction.isActive()) {
+            transaction.rollback();
+        }
+    }
+
+    public void close() throws Exception {
+        sessionFactory.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+        connection.close();
+    }
+
+    public void addPatient(int patientId) {
+        execute("INSERT INTO person (person_id) VALUES (" + patientId + ")");
+        execute("INSERT INTO patient (patient_id) VALUES (" + patientId + ")");
+    }
+
+    public void addEncounter(int encounterId, int patientId) {
+        execute("INSERT INTO encounter (encounter_id, patient_id) VALUES (" + encounterId + ", " + patientId + ")");
+    }
+
+    public void addObs(int obsId, int personId, Integer encounterId) {
+        sessionFactory.getCurrentSession().createSQLQuery(
+                "INSERT INTO obs (obs_id, person_id, concept_id, encounter_id, date_created, uuid) " +
+                "VALUES (:obsId, :personId, 5089, :encounterId, :now, :uuid)")
+            .setParameter("obsId", obsId)
+            .setParameter("personId", personId)
+            .setParameter("encounterId", encounterId, StandardBasicTypes.INTEGER)
+            .setParameter("now", new Date())
+            .setParameter("uuid", uuidOf(obsId))
+            .executeUpdate();
+    }
+
+    public static String uuidOf(int obsId) {
+        return String.format("00000000-0000-0000-0000-%012d", obsId);
+    }
+
+    private void execute(String sql) {
+        sessionFactory.getCurrentSession().createSQLQuery(sql).executeUpdate();
+    }
+}
@@ -0,0 +1,122 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final String STORE = "POST /openmrs/observation/store";
+
+    private static final String STORE_BATCH = "POST /openmrs/observation/store/batch";
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void limitGrowsWhileInUseAndLatencyStaysAtBaseline() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 32);
+
+        for (int round = 0; round < 20; round++) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            assertFalse(limiter.tryAcquire());
+            for (int i = 0; i < limit; i++) {
+                limiter.onSuccess(STORE, 20 * MS);
+            }
+        }
+
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void limitDoesNotGrowWhileMostOfItIsUnused() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 32);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(STORE, 20 * MS);
+        }
+
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void droppedCallCutsTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 32);
+
+        assertTrue(limiter.tryAcquire());
+        limiter.onDropped();
+
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void limitDoesNotDropBelowTheMinimum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 32);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onDropped();
+        }
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void latencyPastTheKneeCutsTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 32);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(STORE, 20 * MS);
+        }
+
+        for (int i = 0; i < 10 && limiter.getLimit() == 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(STORE, 100 * MS);
+        }
+
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void slowerOperationIsNotCongestionOfAFasterOne() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 32);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(STORE, 20 * MS);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(STORE_BATCH, 400 * MS);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void acquireWaitsForAReleasedPermit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1);
+        assertTrue(limiter.tryAcquire());
+
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(100);
+        assertTrue(waiter.isAlive());
+
+        limiter.onIgnored();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertFalse(limiter.tryAcquire());
+    }
+}
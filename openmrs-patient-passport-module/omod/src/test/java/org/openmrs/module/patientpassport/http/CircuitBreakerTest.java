@@ -0,0 +1,89 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MS = 60000L;
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MS);
+
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.getRemainingOpenMs() > 0);
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MS);
+
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        fail(breaker, 2);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThroughAndClosesOnSuccess() {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MS);
+        fail(breaker, 1);
+        assertFalse(breaker.tryAcquire());
+
+        // End the open period
+        breaker.configure(1, 0);
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MS);
+        fail(breaker, 1);
+        breaker.configure(1, 0);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2L, breaker.getStats().get("timesOpened"));
+    }
+
+    @Test
+    public void releasedProbeLetsTheNextOneThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MS);
+        fail(breaker, 1);
+        breaker.configure(1, 0);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.openmrs.module.patientpassport.http;
+
+import org.junit.Test;
+import org.openmrs.module.patientpassport.dto.ObservationDataDTO;
+import org.openmrs.module.patientpassport.dto.ObservationPayloadDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+public class PassportPayloadWriterTest {
+
+    @Test
+    public void writesDatesAsEpochMillis() {
+        ObservationDataDTO data = new ObservationDataDTO();
+        data.setMedicationName("Amoxicillin");
+        data.setStartDate(new Date(1700000000123L));
+        data.setDate(new java.sql.Date(1700000000000L));
+
+        String json = new String(PassportPayloadWriter.observation(
+            new ObservationPayloadDTO("Jane Doe", "medication", null, null, data)), StandardCharsets.UTF_8);
+
+        assertEquals("{\"patientName\":\"Jane Doe\",\"observationType\":\"medication\","
+            + "\"observationData\":{\"medicationName\":\"Amoxicillin\",\"startDate\":1700000000123,"
+            + "\"date\":1700000000000}}", json);
+    }
+
+    @Test
+    public void escapesStringsAndLeavesOutUnsetFields() {
+        ObservationDataDTO data = new ObservationDataDTO();
+        data.setDiagnosis("Fracture \"left\" arm\\\n");
+        ObservationPayloadDTO payload = new ObservationPayloadDTO("A", "diagnosis", null, null, data);
+
+        String json = new String(PassportPayloadWriter.observationBatch(Arrays.asList(payload, payload)),
+            StandardCharsets.UTF_8);
+
+        String item = "{\"patientName\":\"A\",\"observationType\":\"diagnosis\","
+            + "\"observationData\":{\"diagnosis\":\"Fracture \\\"left\\\" arm\\\\\\n\"}}";
+        assertEquals("{\"observations\":[" + item + "," + item + "]}", json);
+    }
+}
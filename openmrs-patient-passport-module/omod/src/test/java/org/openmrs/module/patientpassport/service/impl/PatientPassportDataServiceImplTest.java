@@ -0,0 +1,187 @@
+package org.openmrs.module.patientpassport.service.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+import org.openmrs.User;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ServiceContext;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.api.context.UsernamePasswordAuthenticationScheme;
+import org.openmrs.module.patientpassport.dto.ObservationSyncRequestDTO;
+import org.openmrs.module.patientpassport.dto.ObservationSyncResultDTO;
+import org.openmrs.module.patientpassport.http.AdaptiveConcurrencyLimiter;
+import org.openmrs.module.patientpassport.http.PassportApiGuard;
+import org.openmrs.module.patientpassport.http.PassportHttpTransport;
+import org.openmrs.module.patientpassport.sync.ObservationClassifier;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs without OpenMRS against a local stub API that has no batch endpoint. Only the
+ * base URL global property is set; the rest fall back to their defaults.
+ */
+public class PatientPassportDataServiceImplTest {
+
+    private static final String BATCH_NOT_FOUND = "/openmrs/observation/store/batch 404";
+
+    private static final String STORED = "/openmrs/observation/store 201";
+
+    private final Map<String, AtomicInteger> responses = new ConcurrentHashMap<>();
+
+    private HttpServer stub;
+
+    private PassportHttpTransport transport;
+
+    private PatientPassportDataServiceImpl dataService;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        stub.createContext("/api", this::respond);
+        stub.start();
+        String baseUrl = "http://localhost:" + stub.getAddress().getPort() + "/api";
+
+        ProxyFactory factory = new ProxyFactory();
+        factory.addInterface(AdministrationService.class);
+        factory.addAdvice((MethodInterceptor) invocation -> {
+            Object[] arguments = invocation.getArguments();
+            if ("getGlobalProperty".equals(invocation.getMethod().getName())) {
+                if ("patientpassport.api.baseUrl".equals(arguments[0])) {
+                    return baseUrl;
+                }
+                return arguments.length > 1 ? arguments[1] : null;
+            }
+            return null;
+        });
+        ServiceContext.getInstance().setService(AdministrationService.class, factory.getProxy());
+
+        UserContext userContext = new UserContext(new UsernamePasswordAuthenticationScheme());
+        userContext.setLocale(Locale.ENGLISH);
+        Context.setUserContext(userContext);
+
+        transport = new PassportHttpTransport();
+        dataService = new PatientPassportDataServiceImpl();
+        dataService.setTransport(transport);
+        dataService.setApiGuard(new PassportApiGuard());
+        dataService.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(4, 1, 32));
+    }
+
+    @After
+    public void tearDown() {
+        Context.clearUserContext();
+        transport.shutdown();
+        stub.stop(0);
+    }
+
+    @Test
+    public void sendsTheObservationsOneByOneWhenTheBatchEndpointIsMissing() {
+        List<ObservationSyncResultDTO> results = dataService.sendObservationBatch(requests(1, 3));
+
+        assertEquals(3, results.size());
+        for (ObservationSyncResultDTO result : results) {
+            assertTrue(result.getMessage(), Boolean.TRUE.equals(result.getSuccess()));
+        }
+        assertEquals(1, count(BATCH_NOT_FOUND));
+        assertEquals(3, count(STORED));
+    }
+
+    @Test
+    public void skipsTheBatchEndpointAfterItWasMissing() {
+        dataService.sendObservationBatch(requests(1, 2));
+        List<ObservationSyncResultDTO> results = dataService.sendObservationBatch(requests(3, 2));
+
+        assertEquals(2, results.size());
+        assertEquals(1, count(BATCH_NOT_FOUND));
+        assertEquals(4, count(STORED));
+    }
+
+    /**
+     * 201 for single observations, 404 for everything else, the batch endpoint included
+     */
+    private void respond(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // Drain the request so the connection can be kept alive
+            }
+        }
+        String path = exchange.getRequestURI().getPath().substring("/api".length());
+        boolean stored = "POST".equals(exchange.getRequestMethod()) && "/openmrs/observation/store".equals(path);
+        int status = stored ? 201 : 404;
+        byte[] body = (stored ? "{\"success\":true,\"message\":\"Observation stored\"}"
+            : "{\"success\":false,\"message\":\"Not found\"}").getBytes(StandardCharsets.UTF_8);
+
+        responses.computeIfAbsent(path + " " + status, key -> new AtomicInteger()).incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private int count(String response) {
+        AtomicInteger count = responses.get(response);
+        return count != null ? count.get() : 0;
+    }
+
+    private static List<ObservationSyncRequestDTO> requests(int firstObsId, int count) {
+        Patient patient = new Patient(1);
+        patient.addName(new PersonName("Amina", "Keza", "Uwimana"));
+
+        Concept concept = new Concept(5085);
+        concept.addName(new ConceptName("Systolic blood pressure", Locale.ENGLISH));
+        ConceptClass conceptClass = new ConceptClass();
+        conceptClass.setName("Finding");
+        concept.setConceptClass(conceptClass);
+        ConceptDatatype datatype = new ConceptDatatype();
+        datatype.setName("Numeric");
+        concept.setDatatype(datatype);
+
+        Location location = new Location(1);
+        location.setName("Kigali University Teaching Hospital");
+        User creator = new User(1);
+        creator.setUsername("dr.mukamana");
+
+        List<ObservationSyncRequestDTO> requests = new ArrayList<>(count);
+        for (int obsId = firstObsId; obsId < firstObsId + count; obsId++) {
+            Obs obs = new Obs();
+            obs.setObsId(obsId);
+            obs.setPerson(patient);
+            obs.setConcept(concept);
+            obs.setValueNumeric(120.0);
+            obs.setObsDatetime(new Date(1700000000000L));
+            obs.setLocation(location);
+            obs.setCreator(creator);
+            requests.add(new ObservationSyncRequestDTO(patient, obs,
+                ObservationClassifier.toApiObservationType(ObservationClassifier.classify(obs))));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,122 @@
+package org.openmrs.module.patientpassport.service.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.module.patientpassport.db.hibernate.HibernatePatientPassportSyncOutboxDAO;
+import org.openmrs.module.patientpassport.db.hibernate.SyncTestDatabase;
+import org.openmrs.module.patientpassport.model.PatientPassportSyncOutbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Change capture against the outbox tables on H2. The obs pages come from memory,
+ * since the tests have no Hibernate mappings for the core entities.
+ */
+public class PatientPassportSyncOutboxServiceImplTest {
+
+    private final List<Obs> obsTable = new ArrayList<>();
+
+    private SyncTestDatabase database;
+
+    private HibernatePatientPassportSyncOutboxDAO dao;
+
+    private PatientPassportSyncOutboxServiceImpl service;
+
+    private Patient patient;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new SyncTestDatabase();
+        dao = new HibernatePatientPassportSyncOutboxDAO() {
+            @Override
+            public List<Obs> getObsAfter(int afterObsId, int limit) {
+                List<Obs> page = new ArrayList<>();
+                for (Obs obs : obsTable) {
+                    if (obs.getObsId() > afterObsId && page.size() < limit) {
+                        page.add(obs);
+                    }
+                }
+                return page;
+            }
+        };
+        dao.setSessionFactory(database.getSessionFactory());
+        service = new PatientPassportSyncOutboxServiceImpl();
+        service.setDao(dao);
+
+        database.begin();
+        database.addPatient(1);
+        patient = new Patient(1);
+        dao.saveWatermark("obs", 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.rollback();
+        database.close();
+    }
+
+    @Test
+    public void encounterWhoseObsSpanTwoScansIsQueuedOnce() {
+        Encounter first = encounter(10);
+        Encounter second = encounter(11);
+        obs(101, first);
+        obs(102, first);
+        obs(103, first);
+        obs(104, second);
+
+        Date settledBefore = new Date();
+        assertEquals(2, service.captureObsChanges(settledBefore, 2));
+        assertEquals(2, service.captureObsChanges(settledBefore, 2));
+
+        List<Integer> queued = new ArrayList<>();
+        long now = System.currentTimeMillis() + 1000L;
+        for (PatientPassportSyncOutbox entry : dao.getDueEntries(new Date(now), new Date(0L), 100)) {
+            assertEquals(PatientPassportSyncOutbox.TYPE_ENCOUNTER, entry.getObsType());
+            queued.add(entry.getEncounterId());
+        }
+        assertEquals(Arrays.asList(10, 11), queued);
+        assertEquals(Integer.valueOf(104), dao.getWatermark("obs"));
+    }
+
+    @Test
+    public void encounterIsQueuedAgainOnceItsRowWasSent() {
+        Encounter visit = encounter(10);
+        obs(101, visit);
+        service.captureObsChanges(new Date(), 10);
+        List<Long> sent = new ArrayList<>();
+        for (PatientPassportSyncOutbox entry : dao.getDueEntries(new Date(System.currentTimeMillis() + 1000L), new Date(0L), 100)) {
+            sent.add(entry.getOutboxId());
+        }
+        dao.delete(sent);
+
+        // An obs added to the encounter later changes what has to be sent
+        obs(102, visit);
+        service.captureObsChanges(new Date(), 10);
+
+        assertEquals(1L, dao.countByStatus(PatientPassportSyncOutbox.STATUS_PENDING));
+    }
+
+    private Encounter encounter(int encounterId) {
+        database.addEncounter(encounterId, 1);
+        Encounter encounter = new Encounter(encounterId);
+        encounter.setPatient(patient);
+        return encounter;
+    }
+
+    private void obs(int obsId, Encounter encounter) {
+        Obs obs = new Obs(obsId);
+        obs.setPerson(patient);
+        obs.setEncounter(encounter);
+        obs.setDateCreated(new Date(System.currentTimeMillis() - 60000L));
+        obsTable.add(obs);
+    }
+}
@@ -0,0 +1,116 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptMapType;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ClassificationRulesTest {
+
+    private static final ClassificationRules DEFAULTS = ClassificationRules.compile(null);
+
+    @Test
+    public void defaultRulesMatchKeywordsAnywhereInAName() {
+        assertEquals("VITAL_SIGN", DEFAULTS.classify(concept("Systolic blood pressure")));
+        assertEquals("ALLERGY", DEFAULTS.classify(concept("Penicillin allergy")));
+        assertEquals("IMMUNIZATION", DEFAULTS.classify(concept("Measles immunization")));
+        assertNull(DEFAULTS.classify(concept("Occupation")));
+    }
+
+    @Test
+    public void namesMatchIgnoringCaseAndAccentsInEveryLocale() {
+        Concept concept = concept("Occupation");
+        concept.addName(new ConceptName("Température corporelle", Locale.FRENCH));
+
+        assertEquals("VITAL_SIGN", DEFAULTS.classify(concept));
+        assertEquals("VITAL_SIGN", DEFAULTS.classify(concept("umuvuduko w’amaraso")));
+    }
+
+    @Test
+    public void earliestRuleWinsWhenSeveralKeywordsMatch() {
+        // MEDICATION is listed before ALLERGY
+        assertEquals("MEDICATION", DEFAULTS.classify(concept("Drug allergy")));
+        assertEquals("DIAGNOSIS", DEFAULTS.classify(concept("Lab test diagnosis")));
+    }
+
+    @Test
+    public void keywordInsideAnotherKeywordIsFound() {
+        ClassificationRules rules = ClassificationRules.compile("LAB_RESULT = HEART RATE VARIABILITY\nVITAL_SIGN = RATE");
+
+        assertEquals("VITAL_SIGN", rules.classify(concept("Heart rate")));
+        assertEquals("LAB_RESULT", rules.classify(concept("Heart rate variability")));
+    }
+
+    @Test
+    public void mappedTermWinsOverTheName() {
+        Concept concept = concept("Diagnosis weight");
+        concept.addConceptMapping(new ConceptMap(new ConceptReferenceTerm(source("CIEL", null), "5089", null),
+            new ConceptMapType()));
+
+        assertEquals("VITAL_SIGN", DEFAULTS.classify(concept));
+    }
+
+    @Test
+    public void termMatchesTheSourceHl7Code() {
+        ClassificationRules rules = ClassificationRules.compile("VITAL_SIGN = term:LN:8480-6");
+        Concept concept = concept("Occupation");
+        concept.addConceptMapping(new ConceptMap(new ConceptReferenceTerm(source("LOINC", "LN"), "8480-6", null),
+            new ConceptMapType()));
+
+        assertEquals("VITAL_SIGN", rules.classify(concept));
+    }
+
+    @Test
+    public void classThenDatatypeAreUsedWhenNoNameMatches() {
+        ClassificationRules rules = ClassificationRules.compile(
+            "# comments and blank lines are skipped\n\nMEDICATION = class:Drug\nLAB_RESULT = datatype:Numeric");
+
+        assertEquals("MEDICATION", rules.classify(concept("Amoxicillin", "Drug", "Numeric")));
+        assertEquals("LAB_RESULT", rules.classify(concept("Hemoglobin", "Misc", "Numeric")));
+        assertNull(rules.classify(concept("Occupation", "Misc", "Text")));
+        assertEquals(2, rules.getRuleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ruleWithoutTypeIsRejected() {
+        ClassificationRules.compile("VITAL, WEIGHT");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void termWithoutCodeIsRejected() {
+        ClassificationRules.compile("VITAL_SIGN = term:CIEL");
+    }
+
+    private static Concept concept(String name) {
+        return concept(name, "Misc", "N/A");
+    }
+
+    private static Concept concept(String name, String conceptClass, String datatype) {
+        Concept concept = new Concept();
+        concept.addName(new ConceptName(name, Locale.ENGLISH));
+        ConceptClass cls = new ConceptClass();
+        cls.setName(conceptClass);
+        concept.setConceptClass(cls);
+        ConceptDatatype type = new ConceptDatatype();
+        type.setName(datatype);
+        concept.setDatatype(type);
+        return concept;
+    }
+
+    private static ConceptSource source(String name, String hl7Code) {
+        ConceptSource source = new ConceptSource();
+        source.setName(name);
+        source.setHl7Code(hl7Code);
+        return source;
+    }
+}
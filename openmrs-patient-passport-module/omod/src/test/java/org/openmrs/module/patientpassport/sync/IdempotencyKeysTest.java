@@ -0,0 +1,69 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IdempotencyKeysTest {
+
+    private Obs obs;
+
+    @Before
+    public void setUp() {
+        obs = newObs("3f1c1a52-6c5a-4d0e-9a43-0e4b0f2d7c11", 120.0);
+    }
+
+    @Test
+    public void keyIsTheObsUuidAndAShortContentHash() {
+        String key = IdempotencyKeys.forObs(obs);
+
+        assertTrue(key, key.matches("3f1c1a52-6c5a-4d0e-9a43-0e4b0f2d7c11:[0-9a-f]{24}"));
+    }
+
+    @Test
+    public void sameContentGivesTheSameKey() {
+        Obs copy = newObs(obs.getUuid(), 120.0);
+        copy.setObsDatetime(obs.getObsDatetime());
+
+        assertEquals(IdempotencyKeys.forObs(obs), IdempotencyKeys.forObs(copy));
+    }
+
+    @Test
+    public void changedContentGivesANewKey() {
+        String original = IdempotencyKeys.forObs(obs);
+
+        obs.setValueNumeric(121.0);
+        String revalued = IdempotencyKeys.forObs(obs);
+        obs.setComment("repeat reading");
+        String commented = IdempotencyKeys.forObs(obs);
+        obs.setVoided(true);
+        String voided = IdempotencyKeys.forObs(obs);
+
+        assertNotEquals(original, revalued);
+        assertNotEquals(revalued, commented);
+        assertNotEquals(commented, voided);
+    }
+
+    @Test
+    public void sha256HexMatchesTheStandardDigest() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", IdempotencyKeys.sha256Hex("abc"));
+    }
+
+    private static Obs newObs(String uuid, double value) {
+        Concept concept = new Concept(5085);
+        concept.setUuid("5085AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA");
+        Obs obs = new Obs();
+        obs.setUuid(uuid);
+        obs.setConcept(concept);
+        obs.setValueNumeric(value);
+        obs.setObsDatetime(new Date(1700000000000L));
+        return obs;
+    }
+}
@@ -0,0 +1,89 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MicroBatcherTest {
+
+    private static final long LONG_WINDOW_MS = 60000L;
+
+    private final BlockingQueue<List<Integer>> batches = new LinkedBlockingQueue<>();
+
+    private MicroBatcher<Integer> batcher;
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void sendsABatchAsSoonAsItIsFull() throws Exception {
+        batcher = newBatcher(1, 3, LONG_WINDOW_MS);
+
+        batcher.add(1, 10);
+        batcher.add(1, 11);
+        assertNull(batches.poll());
+        batcher.add(1, 12);
+
+        assertEquals(Arrays.asList(10, 11, 12), batches.poll(1, TimeUnit.SECONDS));
+        assertEquals(0, batcher.pending());
+    }
+
+    @Test
+    public void sendsAPartialBatchWhenTheWindowEnds() throws Exception {
+        batcher = newBatcher(1, 50, 50L);
+
+        batcher.add(1, 10);
+        batcher.add(1, 11);
+
+        assertEquals(Arrays.asList(10, 11), batches.poll(5, TimeUnit.SECONDS));
+        assertNull(batches.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reconfiguredSizeAppliesToTheNextBatch() throws Exception {
+        batcher = newBatcher(1, 50, LONG_WINDOW_MS);
+
+        batcher.reconfigure(2, LONG_WINDOW_MS);
+        batcher.add(1, 10);
+        batcher.add(1, 11);
+
+        assertEquals(Arrays.asList(10, 11), batches.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeSendsWhatIsBufferedAndRejectsMoreItems() throws Exception {
+        batcher = newBatcher(1, 50, LONG_WINDOW_MS);
+        batcher.add(1, 10);
+
+        batcher.close();
+
+        assertEquals(Collections.singletonList(10), batches.poll(1, TimeUnit.SECONDS));
+        try {
+            batcher.add(1, 11);
+            fail("add after close was accepted");
+        } catch (IllegalStateException expected) {
+            // closed
+        }
+        batcher = null;
+    }
+
+    private MicroBatcher<Integer> newBatcher(int lanes, int maxSize, long windowMs) {
+        return new MicroBatcher<>("test-batcher", lanes, maxSize, windowMs,
+            (lane, batch) -> batches.add(new ArrayList<>(batch)));
+    }
+}
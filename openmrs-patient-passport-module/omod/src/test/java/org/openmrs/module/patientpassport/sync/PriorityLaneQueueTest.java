@@ -0,0 +1,102 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.junit.Test;
+import org.openmrs.module.patientpassport.model.SyncPriority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PriorityLaneQueueTest {
+
+    private static final long NO_AGING_MS = 3600000L;
+
+    @Test
+    public void takesTheHighestLaneFirstAndEachLaneInOrder() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(NO_AGING_MS);
+        Runnable vitals = task(SyncPriority.LOW);
+        Runnable diagnosis = task(SyncPriority.NORMAL);
+        Runnable unprioritized = () -> { };
+        Runnable allergy = task(SyncPriority.HIGH);
+        Runnable medication = task(SyncPriority.HIGH);
+        queue.offer(vitals);
+        queue.offer(diagnosis);
+        queue.offer(unprioritized);
+        queue.offer(allergy);
+        queue.offer(medication);
+
+        assertEquals(5, queue.size());
+        assertEquals(2, queue.laneSizes()[SyncPriority.NORMAL.ordinal()]);
+        assertSame(allergy, queue.peek());
+
+        List<Runnable> taken = new ArrayList<>();
+        queue.drainTo(taken);
+        assertEquals(Arrays.asList(allergy, medication, diagnosis, unprioritized, vitals), taken);
+        assertEquals(0, queue.getAgedPromotions());
+    }
+
+    @Test
+    public void lowerLaneThatWaitedTooLongIsServedFirst() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue(20L);
+        Runnable vitals = task(SyncPriority.LOW);
+        queue.offer(vitals);
+        Thread.sleep(50L);
+        Runnable allergy = task(SyncPriority.HIGH);
+        queue.offer(allergy);
+
+        assertSame(vitals, queue.poll());
+        assertEquals(1, queue.getAgedPromotions());
+        assertSame(allergy, queue.poll());
+    }
+
+    @Test
+    public void higherLaneKeepsItsTurnWhenItWaitedLonger() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue(20L);
+        Runnable allergy = task(SyncPriority.HIGH);
+        queue.offer(allergy);
+        Runnable vitals = task(SyncPriority.LOW);
+        queue.offer(vitals);
+        Thread.sleep(50L);
+
+        assertSame(allergy, queue.poll());
+        assertEquals(0, queue.getAgedPromotions());
+    }
+
+    @Test
+    public void pollWaitsForAnOffer() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue(NO_AGING_MS);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+
+        Runnable diagnosis = task(SyncPriority.NORMAL);
+        new Thread(() -> queue.offer(diagnosis)).start();
+
+        assertSame(diagnosis, queue.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static Runnable task(SyncPriority priority) {
+        return new PrioritizedTask(priority);
+    }
+
+    private static final class PrioritizedTask implements Runnable, PriorityLaneQueue.Prioritized {
+
+        private final SyncPriority priority;
+
+        PrioritizedTask(SyncPriority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public SyncPriority getPriority() {
+            return priority;
+        }
+    }
+}
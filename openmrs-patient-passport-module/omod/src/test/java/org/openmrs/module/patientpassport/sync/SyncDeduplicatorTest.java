@@ -0,0 +1,144 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.ServiceContext;
+import org.openmrs.module.patientpassport.service.PatientPassportSyncOutboxService;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs without OpenMRS: global properties fall back to their defaults, and the outbox
+ * service is an in-memory acknowledgement table
+ */
+public class SyncDeduplicatorTest {
+
+    private final Set<String> table = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger tableReads = new AtomicInteger();
+
+    // Keys acknowledged before the retention cutoff
+    private final Set<String> expired = ConcurrentHashMap.newKeySet();
+
+    private final List<Date> purgeCutoffs = new ArrayList<>();
+
+    private SyncDeduplicator deduplicator;
+
+    @Before
+    public void setUp() {
+        ProxyFactory factory = new ProxyFactory();
+        factory.addInterface(PatientPassportSyncOutboxService.class);
+        factory.addAdvice((MethodInterceptor) invocation -> {
+            String method = invocation.getMethod().getName();
+            if ("getAcknowledgedKeys".equals(method)) {
+                tableReads.incrementAndGet();
+                Set<String> found = new HashSet<>((Collection<?>) invocation.getArguments()[0]);
+                found.retainAll(table);
+                return found;
+            } else if ("acknowledge".equals(method)) {
+                for (Object key : ((Map<?, ?>) invocation.getArguments()[0]).keySet()) {
+                    table.add((String) key);
+                }
+                return null;
+            } else if ("countAcknowledgements".equals(method)) {
+                return (long) table.size();
+            } else if ("forEachAcknowledgedKey".equals(method)) {
+                @SuppressWarnings("unchecked")
+                Consumer<String> consumer = (Consumer<String>) invocation.getArguments()[0];
+                table.forEach(consumer);
+                return null;
+            } else if ("purgeAcknowledgements".equals(method)) {
+                purgeCutoffs.add((Date) invocation.getArguments()[0]);
+                int limit = (Integer) invocation.getArguments()[1];
+                int deleted = 0;
+                for (String key : new ArrayList<>(expired)) {
+                    if (deleted == limit) {
+                        break;
+                    }
+                    expired.remove(key);
+                    table.remove(key);
+                    deleted++;
+                }
+                return deleted;
+            }
+            throw new UnsupportedOperationException(method);
+        });
+        ServiceContext.getInstance().setService(PatientPassportSyncOutboxService.class, factory.getProxy());
+
+        deduplicator = new SyncDeduplicator();
+    }
+
+    @Test
+    public void acknowledgedKeyIsSkippedWithoutReadingTheTable() {
+        deduplicator.acknowledge("obs-1:aaa", "obs-1");
+
+        assertTrue(deduplicator.isAcknowledged("obs-1:aaa"));
+        assertEquals(0, tableReads.get());
+        assertTrue(table.contains("obs-1:aaa"));
+    }
+
+    @Test
+    public void unknownKeysAreCheckedAgainstTheTableOnce() {
+        // Acknowledged before the module restarted
+        table.add("obs-1:aaa");
+
+        assertEquals(Collections.singleton("obs-1:aaa"),
+            deduplicator.getAcknowledged(Arrays.asList("obs-1:aaa", "obs-2:bbb")));
+        assertEquals(1, tableReads.get());
+
+        assertTrue(deduplicator.isAcknowledged("obs-1:aaa"));
+        assertEquals(1, tableReads.get());
+        assertEquals(2L, deduplicator.getStats().get("skipped"));
+    }
+
+    @Test
+    public void maintenancePurgesExpiredKeysAndLoadsTheRestIntoTheFilter() {
+        for (int i = 0; i < 2500; i++) {
+            table.add("obs-" + i + ":old");
+            expired.add("obs-" + i + ":old");
+        }
+        table.add("obs-1:aaa");
+
+        deduplicator.maintain();
+
+        // Three chunks of up to 1000, the last one short
+        assertEquals(3, purgeCutoffs.size());
+        long retention = System.currentTimeMillis() - purgeCutoffs.get(0).getTime();
+        assertEquals(180L, TimeUnit.MILLISECONDS.toDays(retention));
+        assertEquals(Collections.singleton("obs-1:aaa"), table);
+        assertEquals(2500L, deduplicator.getStats().get("purged"));
+        assertEquals(1L, deduplicator.getStats().get("bloomKeys"));
+
+        // The loaded filter answers a new key without the table, and a kept key from it
+        assertFalse(deduplicator.isAcknowledged("obs-2:bbb"));
+        assertEquals(0, tableReads.get());
+        assertTrue(deduplicator.isAcknowledged("obs-1:aaa"));
+        assertEquals(1, tableReads.get());
+    }
+
+    @Test
+    public void changedObsIsNotSkipped() {
+        deduplicator.acknowledge("obs-1:aaa", "obs-1");
+
+        // Same obs, new content hash
+        assertFalse(deduplicator.isAcknowledged("obs-1:ccc"));
+    }
+}
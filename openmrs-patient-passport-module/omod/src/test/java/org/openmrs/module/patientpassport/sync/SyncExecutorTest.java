@@ -0,0 +1,254 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs without OpenMRS: the executor falls back to its default settings when no global properties can be read
+ */
+public class SyncExecutorTest {
+
+    // Defaults of patientpassport.sync.executor.workers and queueCapacity
+    private static final int WORKERS = 4;
+
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private static final int PATIENTS = 20;
+
+    private static final int TASKS_PER_PATIENT = 25;
+
+    private SyncExecutor executor;
+
+    private ScheduledExecutorService responses;
+
+    private final Map<Integer, List<Integer>> recorded = new ConcurrentHashMap<>();
+
+    private final Map<Integer, AtomicInteger> completed = new ConcurrentHashMap<>();
+
+    private final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+
+    private CountDownLatch finished;
+
+    private final AtomicInteger ran = new AtomicInteger();
+
+    private final AtomicInteger spilled = new AtomicInteger();
+
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        executor = new SyncExecutor();
+        responses = Executors.newScheduledThreadPool(4);
+        finished = new CountDownLatch(PATIENTS * TASKS_PER_PATIENT);
+        for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+            recorded.put(patientId, Collections.synchronizedList(new ArrayList<Integer>()));
+            completed.put(patientId, new AtomicInteger());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        responses.shutdownNow();
+    }
+
+    @Test
+    public void spillsWhatDoesNotFitInTheQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        int submitted = QUEUE_CAPACITY + 50;
+        for (int i = 0; i < submitted; i++) {
+            executor.execute(new CountingTask(release));
+        }
+
+        // At most the queue and one task per worker are taken; the rest is left in the outbox
+        assertTrue("spilled " + spilled.get(), spilled.get() >= submitted - QUEUE_CAPACITY - WORKERS);
+        assertEquals(0, dropped.get());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 30000L;
+        while (ran.get() + spilled.get() < submitted && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(submitted, ran.get() + spilled.get());
+    }
+
+    @Test
+    public void spillsTasksSubmittedAfterShutdown() {
+        executor.execute(new CountingTask(null));
+        executor.shutdown();
+
+        executor.execute(new CountingTask(null));
+        executor.reconfigure();
+
+        assertEquals(1, ran.get());
+        assertEquals(1, spilled.get());
+        assertEquals(0, executor.remainingCapacity());
+        assertEquals(0, executor.getStats().get("workers"));
+    }
+
+    @Test
+    public void runsEachPatientsTasksInSubmissionOrder() throws Exception {
+        for (int sequence = 0; sequence < TASKS_PER_PATIENT; sequence++) {
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                executor.execute(new RecordingTask(patientId, sequence, false));
+            }
+        }
+
+        assertAllRanInOrder();
+    }
+
+    @Test
+    public void asyncTaskHoldsBackTheNextTaskForThePatientUntilItCompletes() throws Exception {
+        for (int sequence = 0; sequence < TASKS_PER_PATIENT; sequence++) {
+            for (int patientId = 1; patientId <= PATIENTS; patientId++) {
+                executor.execute(new RecordingTask(patientId, sequence, true));
+            }
+        }
+
+        assertAllRanInOrder();
+    }
+
+    private void assertAllRanInOrder() throws InterruptedException {
+        assertTrue("tasks still pending", finished.await(30, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), violations);
+        for (Map.Entry<Integer, List<Integer>> patient : recorded.entrySet()) {
+            List<Integer> sequences = patient.getValue();
+            assertEquals("patient " + patient.getKey(), TASKS_PER_PATIENT, sequences.size());
+            for (int i = 0; i < sequences.size(); i++) {
+                assertEquals("patient " + patient.getKey() + " task " + i, Integer.valueOf(i), sequences.get(i));
+            }
+        }
+    }
+
+    /**
+     * Unordered task that waits for the latch, if any, before counting itself as run
+     */
+    private class CountingTask implements SyncTask {
+
+        private final CountDownLatch release;
+
+        CountingTask(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (release != null) {
+                    release.await(30, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.incrementAndGet();
+        }
+
+        @Override
+        public boolean isLowPriority() {
+            return false;
+        }
+
+        @Override
+        public void spill() {
+            spilled.incrementAndGet();
+        }
+
+        @Override
+        public void drop() {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the order it ran in; an async one completes a moment after it starts, like a send
+     * handed to the async transport
+     */
+    private class RecordingTask implements SyncTask {
+
+        private final int patientId;
+
+        private final int sequence;
+
+        private final boolean async;
+
+        RecordingTask(int patientId, int sequence, boolean async) {
+            this.patientId = patientId;
+            this.sequence = sequence;
+            this.async = async;
+        }
+
+        @Override
+        public void run() {
+            record();
+            complete();
+        }
+
+        @Override
+        public CompletableFuture<?> start() {
+            if (!async) {
+                run();
+                return null;
+            }
+            record();
+            CompletableFuture<Void> completion = new CompletableFuture<>();
+            responses.schedule(() -> {
+                complete();
+                completion.complete(null);
+            }, ThreadLocalRandom.current().nextInt(3), TimeUnit.MILLISECONDS);
+            return completion;
+        }
+
+        private void record() {
+            // Everything submitted earlier for this patient must be done by now
+            int done = completed.get(patientId).get();
+            if (done != sequence) {
+                violations.add("patient " + patientId + " task " + sequence + " started after " + done + " completed tasks");
+            }
+            recorded.get(patientId).add(sequence);
+        }
+
+        private void complete() {
+            completed.get(patientId).incrementAndGet();
+            finished.countDown();
+        }
+
+        @Override
+        public Integer getOrderingKey() {
+            return patientId;
+        }
+
+        @Override
+        public boolean isLowPriority() {
+            return false;
+        }
+
+        @Override
+        public void spill() {
+            violations.add("patient " + patientId + " task " + sequence + " spilled");
+            finished.countDown();
+        }
+
+        @Override
+        public void drop() {
+            violations.add("patient " + patientId + " task " + sequence + " dropped");
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.openmrs.module.patientpassport.sync;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncOutboxDispatcherTest {
+
+    @Test
+    public void claimSpreadOverManyLanesIsLimitedToTheFreeSlots() {
+        // 96 lanes (32 per priority) but only 4 free executor slots: each row may be a task of its own
+        assertEquals(3, SyncOutboxDispatcher.claimableEntries(4, 96, 0, 0, 50));
+        // Lanes that already hold rows will send a batch of their own
+        assertEquals(0, SyncOutboxDispatcher.claimableEntries(4, 96, 4, 4, 50));
+    }
+
+    @Test
+    public void claimIsNotLimitedByLanesWhenThereIsRoomForABatchInEach() {
+        assertEquals((1004 - 96) * 50, SyncOutboxDispatcher.claimableEntries(1004, 96, 0, 0, 50));
+    }
+
+    @Test
+    public void claimNeverFlushesMoreTasksThanTheExecutorCanTake() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int lanes = 1 + random.nextInt(200);
+            int maxSize = 1 + random.nextInt(100);
+            int busyLanes = random.nextInt(lanes + 1);
+            int pending = busyLanes * (maxSize - 1) == 0 ? 0 : busyLanes + random.nextInt(busyLanes * (maxSize - 1) + 1);
+            int capacity = random.nextInt(1200);
+
+            int claim = SyncOutboxDispatcher.claimableEntries(capacity, lanes, busyLanes, pending, maxSize);
+            if (claim == 0) {
+                // Nothing claimed; what the batcher already holds is not this claim's doing
+                continue;
+            }
+
+            // Worst case: full batches of everything held, plus a partial one in each lane that has rows
+            long tasks = (pending + (long) claim) / maxSize + Math.min(lanes, busyLanes + claim);
+            assertTrue("capacity " + capacity + ", lanes " + lanes + ", claim " + claim + " makes " + tasks + " tasks",
+                tasks <= capacity);
+        }
+    }
+}